@@ -58,6 +58,8 @@ import com.google.ar.core.examples.java.common.rendering.ObjectRenderer;
 import com.google.ar.core.examples.java.common.rendering.ObjectRenderer.BlendMode;
 import com.google.ar.core.examples.java.common.rendering.PlaneRenderer;
 import com.google.ar.core.examples.java.common.rendering.PointCloudRenderer;
+import com.google.ar.core.examples.java.common.rendering.ShaderUtil;
+import com.google.ar.core.examples.java.common.rendering.ShaderUtil.GLErrorCheckPolicy;
 import com.google.ar.core.exceptions.CameraNotAvailableException;
 import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
@@ -356,6 +358,10 @@ public class CloudAnchorActivity extends AppCompatActivity
   public void onSurfaceCreated(GL10 gl, EGLConfig config) {
     GLES20.glClearColor(0.1f, 0.1f, 0.1f, 1.0f);
 
+    // Check for GL errors after every call while the renderers are created. Release builds then
+    // only check once per frame while drawing, as every glGetError call may wait for the driver.
+    ShaderUtil.setGLErrorCheckPolicy(GLErrorCheckPolicy.ALWAYS, /* frameInterval= */ 1);
+
     // Prepare the rendering objects. This involves reading shaders, so may throw an IOException.
     try {
       // Create the texture and pass it to ARCore session to be filled during update().
@@ -373,6 +379,9 @@ public class CloudAnchorActivity extends AppCompatActivity
     } catch (IOException ex) {
       Log.e(TAG, "Failed to read an asset file", ex);
     }
+    ShaderUtil.setGLErrorCheckPolicy(
+        BuildConfig.DEBUG ? GLErrorCheckPolicy.ALWAYS : GLErrorCheckPolicy.ONCE_PER_FRAME,
+        /* frameInterval= */ 1);
   }
 
   @Override
@@ -461,6 +470,8 @@ public class CloudAnchorActivity extends AppCompatActivity
     } catch (Throwable t) {
       // Avoid crashing the application due to unhandled exceptions.
       Log.e(TAG, "Exception on the OpenGL thread", t);
+    } finally {
+      ShaderUtil.endFrame(TAG);
     }
   }
 
@@ -79,12 +79,96 @@ public class ShaderUtil {
   }
 
   /**
-   * Checks if we've had an error inside of OpenGL ES, and if so what that error is.
+   * How often {@link #checkGLError} checks for GL errors. Every {@code glGetError} call may wait
+   * for the driver, so release builds can check less often than after every draw.
+   */
+  public enum GLErrorCheckPolicy {
+    /** Check for errors on every call to {@link #checkGLError}. This is the default. */
+    ALWAYS,
+    /** Only check for errors once per frame, in {@link #endFrame}. */
+    ONCE_PER_FRAME,
+    /**
+     * Check for errors on every call to {@link #checkGLError} during every Nth frame, and for the
+     * errors of the frames in between when a checked frame starts.
+     */
+    SAMPLED,
+    /** Never check for errors. */
+    OFF
+  }
+
+  private static GLErrorCheckPolicy errorCheckPolicy = GLErrorCheckPolicy.ALWAYS;
+  private static int errorCheckFrameInterval = 1;
+  private static long frameCount = 0;
+  // Whether checkGLError checks for errors in the current frame.
+  private static boolean checkErrors = true;
+
+  /**
+   * Sets how often {@link #checkGLError} checks for GL errors. Policies other than {@link
+   * GLErrorCheckPolicy#ALWAYS} and {@link GLErrorCheckPolicy#OFF} count frames, so {@link
+   * #endFrame} must be called at the end of every frame.
+   *
+   * @param policy How often to check for errors.
+   * @param frameInterval Number of frames between checked frames for {@link
+   *     GLErrorCheckPolicy#SAMPLED}, ignored by the other policies.
+   */
+  public static void setGLErrorCheckPolicy(GLErrorCheckPolicy policy, int frameInterval) {
+    if (frameInterval < 1) {
+      throw new IllegalArgumentException(
+          "Error check frame interval must be at least 1, got " + frameInterval);
+    }
+    errorCheckPolicy = policy;
+    errorCheckFrameInterval = frameInterval;
+    frameCount = 0;
+    checkErrors = policy == GLErrorCheckPolicy.ALWAYS || policy == GLErrorCheckPolicy.SAMPLED;
+  }
+
+  /**
+   * Marks the end of a frame for the {@link GLErrorCheckPolicy}. Checks for the errors of the frame
+   * with {@link GLErrorCheckPolicy#ONCE_PER_FRAME}. Errors found here are logged rather than
+   * thrown, so that this can be called in a {@code finally} block at the end of {@code
+   * onDrawFrame}.
+   */
+  public static void endFrame(String tag) {
+    switch (errorCheckPolicy) {
+      case ONCE_PER_FRAME:
+        logGLErrors(tag, "Frame");
+        break;
+      case SAMPLED:
+        frameCount++;
+        checkErrors = frameCount % errorCheckFrameInterval == 0;
+        if (checkErrors) {
+          // Report errors of the unchecked frames before, so they are not blamed on the next draw.
+          logGLErrors(tag, "Unchecked frame");
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Checks if we've had an error inside of OpenGL ES, and if so what that error is. Does nothing if
+   * the {@link GLErrorCheckPolicy} does not check errors in the current frame.
    *
    * @param label Label to report in case of error.
    * @throws RuntimeException If an OpenGL error is detected.
    */
   public static void checkGLError(String tag, String label) {
+    if (!checkErrors) {
+      return;
+    }
+    throwGLErrors(tag, label);
+  }
+
+  private static void throwGLErrors(String tag, String label) {
+    int lastError = logGLErrors(tag, label);
+    if (lastError != GLES20.GL_NO_ERROR) {
+      throw new RuntimeException(label + ": glError " + lastError);
+    }
+  }
+
+  /** Logs and drains all pending GL errors, and returns the last one. */
+  private static int logGLErrors(String tag, String label) {
     int lastError = GLES20.GL_NO_ERROR;
     // Drain the queue of all errors.
     int error;
@@ -92,9 +176,7 @@ public class ShaderUtil {
       Log.e(tag, label + ": glError " + error);
       lastError = error;
     }
-    if (lastError != GLES20.GL_NO_ERROR) {
-      throw new RuntimeException(label + ": glError " + lastError);
-    }
+    return lastError;
   }
 
   /**
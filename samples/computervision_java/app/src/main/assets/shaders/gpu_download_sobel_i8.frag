@@ -0,0 +1,36 @@
+// Fragment shader that detects edges with the Sobel filter and renders them to a grayscale
+// texture. GpuSobelReference.detect() is the CPU reference implementation of this shader.
+#extension GL_OES_EGL_image_external : require
+
+precision highp float;
+varying vec2 v_TexCoord;
+uniform samplerExternalOES sTexture;
+
+// Size of one output pixel in texture coordinates.
+uniform vec2 u_PixelSize;
+
+// Squared gradient magnitude above which a pixel is an edge, for luminance in [0, 255].
+uniform float u_EdgeThreshold;
+
+// Luminance of the output pixel at the given offset, quantized to [0, 255] like the I8 format.
+float luminance(vec2 offset) {
+    vec4 color = texture2D(sTexture, v_TexCoord + offset * u_PixelSize);
+    return floor(255.0 * (color.r * 0.299 + color.g * 0.587 + color.b * 0.114) + 0.5);
+}
+
+void main() {
+    float a00 = luminance(vec2(-1.0, -1.0));
+    float a01 = luminance(vec2( 0.0, -1.0));
+    float a02 = luminance(vec2( 1.0, -1.0));
+    float a10 = luminance(vec2(-1.0,  0.0));
+    float a12 = luminance(vec2( 1.0,  0.0));
+    float a20 = luminance(vec2(-1.0,  1.0));
+    float a21 = luminance(vec2( 0.0,  1.0));
+    float a22 = luminance(vec2( 1.0,  1.0));
+
+    float xSum = -a00 - 2.0 * a10 - a20 + a02 + 2.0 * a12 + a22;
+    float ySum = a00 + 2.0 * a01 + a02 - a20 - 2.0 * a21 - a22;
+
+    // Same output values as EdgeDetector: 0xFF for edges, 0x1F otherwise.
+    gl_FragColor.r = (xSum * xSum + ySum * ySum > u_EdgeThreshold) ? 1.0 : 31.0 / 255.0;
+}
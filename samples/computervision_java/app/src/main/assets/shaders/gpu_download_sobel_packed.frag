@@ -0,0 +1,60 @@
+// Fragment shader that detects edges with the Sobel filter and packs them into one bit per pixel.
+// Each output pixel holds 8 horizontally adjacent image pixels, the leftmost one in the least
+// significant bit. GpuSobelReference.detect() and pack() are the CPU reference implementation of
+// this shader.
+#extension GL_OES_EGL_image_external : require
+
+precision highp float;
+varying vec2 v_TexCoord;
+uniform samplerExternalOES sTexture;
+
+// Size of one image pixel (not one packed output pixel) in texture coordinates.
+uniform vec2 u_PixelSize;
+
+// Squared gradient magnitude above which a pixel is an edge, for luminance in [0, 255].
+uniform float u_EdgeThreshold;
+
+// Luminance of the image pixel at the given offset from the leftmost pixel of this output pixel,
+// quantized to [0, 255] like the I8 format.
+float luminance(float x, float y) {
+    // The output pixel is centered between its 4th and 5th image pixel.
+    vec2 offset = vec2(x - 3.5, y) * u_PixelSize;
+    vec4 color = texture2D(sTexture, v_TexCoord + offset);
+    return floor(255.0 * (color.r * 0.299 + color.g * 0.587 + color.b * 0.114) + 0.5);
+}
+
+void main() {
+    // Left and middle columns of the neighbourhood of the first pixel. The window slides one pixel
+    // to the right per iteration, so only the right column is sampled each time.
+    float a00 = luminance(-1.0, -1.0);
+    float a10 = luminance(-1.0,  0.0);
+    float a20 = luminance(-1.0,  1.0);
+    float a01 = luminance( 0.0, -1.0);
+    float a11 = luminance( 0.0,  0.0);
+    float a21 = luminance( 0.0,  1.0);
+
+    float bits = 0.0;
+    float bit = 1.0;
+    for (int i = 0; i < 8; i++) {
+        float x = float(i) + 1.0;
+        float a02 = luminance(x, -1.0);
+        float a12 = luminance(x,  0.0);
+        float a22 = luminance(x,  1.0);
+
+        float xSum = -a00 - 2.0 * a10 - a20 + a02 + 2.0 * a12 + a22;
+        float ySum = a00 + 2.0 * a01 + a02 - a20 - 2.0 * a21 - a22;
+        if (xSum * xSum + ySum * ySum > u_EdgeThreshold) {
+            bits += bit;
+        }
+        bit *= 2.0;
+
+        a00 = a01;
+        a10 = a11;
+        a20 = a21;
+        a01 = a02;
+        a11 = a12;
+        a21 = a22;
+    }
+
+    gl_FragColor.r = bits / 255.0;
+}
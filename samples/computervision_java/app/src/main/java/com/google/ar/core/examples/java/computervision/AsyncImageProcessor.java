@@ -0,0 +1,347 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+import java.nio.ByteBuffer;
+
+/**
+ * Runs an {@link ImagePipeline} on a background thread, so that a slow frame does not delay
+ * rendering.
+ *
+ * <p>The rendering thread copies the grayscale plane of each camera image with {@link #submit}.
+ * The worker thread only processes the newest submitted frame: a frame which is replaced before the
+ * worker picks it up is dropped. The rendering thread overlays the latest completed result,
+ * obtained with {@link #acquireLatestResult()}. An optional {@link FrameAnalyzer} runs on the
+ * worker thread after the pipeline, so that further analysis of a frame does not delay rendering
+ * either.
+ *
+ * <p>Input frames and results are kept in small pools of buffers which are reused, so no memory is
+ * allocated once the image size is stable.
+ */
+public class AsyncImageProcessor implements DefaultLifecycleObserver {
+  private static final String TAG = AsyncImageProcessor.class.getSimpleName();
+
+  // Number of nanoseconds in one millisecond.
+  private static final float NANOSECONDS_PER_MILLISECOND = 1000000f;
+
+  // Rate by which smoothed latency should approach momentary latency.
+  private static final float SMOOTHING_FACTOR = .03f;
+
+  // One input frame is being copied by the rendering thread, one is pending and one is being
+  // processed by the worker.
+  private static final int INPUT_SLOT_COUNT = 3;
+
+  // One result is being written by the worker, one is the latest completed result and one is held
+  // by the rendering thread.
+  private static final int RESULT_SLOT_COUNT = 3;
+
+  /** A grayscale image without row padding, together with the time its input was submitted. */
+  public static final class GrayscaleImage {
+    private ByteBuffer pixels = ByteBuffer.allocateDirect(0);
+    private int width;
+    private int height;
+    private long submitTimeNanos;
+
+    /** Returns the pixels of the image. The buffer is reused once the image is released. */
+    public ByteBuffer getPixels() {
+      return pixels;
+    }
+
+    /** Returns the image width. */
+    public int getWidth() {
+      return width;
+    }
+
+    /** Returns the image height. */
+    public int getHeight() {
+      return height;
+    }
+
+    private void resize(int width, int height) {
+      this.width = width;
+      this.height = height;
+      if (pixels.capacity() < width * height) {
+        pixels = ByteBuffer.allocateDirect(width * height);
+      }
+      pixels.clear();
+      pixels.limit(width * height);
+    }
+  }
+
+  /** Analyzes the frames processed by the worker thread, for example to track features. */
+  public interface FrameAnalyzer {
+    /**
+     * Called on the worker thread once for every processed frame, before its result is published.
+     *
+     * @param input the submitted image. Its pixels must not be modified.
+     * @param result the output of the pipeline. Its pixels must not be modified.
+     */
+    void analyze(GrayscaleImage input, GrayscaleImage result);
+  }
+
+  private final ImagePipeline pipeline;
+  private final FrameAnalyzer analyzer;
+  private final GrayscaleImage[] inputs = new GrayscaleImage[INPUT_SLOT_COUNT];
+  private final GrayscaleImage[] results = new GrayscaleImage[RESULT_SLOT_COUNT];
+
+  // Guards all fields below.
+  private final Object lock = new Object();
+  private Thread worker = null;
+  private boolean running = false;
+  private int pendingInput = -1;
+  private int processingInput = -1;
+  private int latestResult = -1;
+  private int acquiredResult = -1;
+  private boolean latestResultAcquired = true;
+  private long submittedFrameCount = 0;
+  private long droppedFrameCount = 0;
+  private long processedFrameCount = 0;
+  private float lastLatency = 0f;
+  private float smoothedLatency = 0f;
+
+  /**
+   * Creates the processor.
+   *
+   * @param pipeline the pipeline to run on the worker thread. It must not be used by other threads
+   *     while the processor is running.
+   */
+  public AsyncImageProcessor(ImagePipeline pipeline) {
+    this(pipeline, /* analyzer= */ null);
+  }
+
+  /**
+   * Creates the processor.
+   *
+   * @param pipeline the pipeline to run on the worker thread. It must not be used by other threads
+   *     while the processor is running.
+   * @param analyzer the analyzer to run on the worker thread after the pipeline, or null.
+   */
+  public AsyncImageProcessor(ImagePipeline pipeline, FrameAnalyzer analyzer) {
+    this.pipeline = pipeline;
+    this.analyzer = analyzer;
+    for (int i = 0; i < INPUT_SLOT_COUNT; i++) {
+      inputs[i] = new GrayscaleImage();
+    }
+    for (int i = 0; i < RESULT_SLOT_COUNT; i++) {
+      results[i] = new GrayscaleImage();
+    }
+  }
+
+  @Override
+  public void onResume(@NonNull LifecycleOwner owner) {
+    synchronized (lock) {
+      if (running) {
+        return;
+      }
+      running = true;
+      worker = new Thread(this::processFrames, TAG);
+      worker.start();
+    }
+  }
+
+  @Override
+  public void onPause(@NonNull LifecycleOwner owner) {
+    Thread stoppingWorker;
+    synchronized (lock) {
+      running = false;
+      pendingInput = -1;
+      stoppingWorker = worker;
+      worker = null;
+      lock.notifyAll();
+    }
+    if (stoppingWorker != null) {
+      try {
+        stoppingWorker.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Copies a grayscale image plane and queues it for processing, replacing the frame which is
+   * currently queued, if any. Must be called from a single thread, typically the rendering thread.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position is restored before returning.
+   */
+  public void submit(int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    // Pick an input slot which the worker does not own. The worker only takes the pending slot, so
+    // the slot stays free while it is being filled outside the lock.
+    int slot = 0;
+    synchronized (lock) {
+      while (slot == pendingInput || slot == processingInput) {
+        slot++;
+      }
+    }
+
+    GrayscaleImage frame = inputs[slot];
+    frame.resize(width, height);
+    copyPlane(width, height, rowStride, pixelStride, input, frame.pixels);
+    frame.submitTimeNanos = System.nanoTime();
+
+    synchronized (lock) {
+      if (pendingInput >= 0) {
+        droppedFrameCount++;
+      }
+      pendingInput = slot;
+      submittedFrameCount++;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Returns the latest completed result if it has not been returned before, or null otherwise. The
+   * returned image stays valid until the next call to this method.
+   */
+  public GrayscaleImage acquireLatestResult() {
+    synchronized (lock) {
+      if (latestResultAcquired) {
+        return null;
+      }
+      latestResultAcquired = true;
+      acquiredResult = latestResult;
+      return results[acquiredResult];
+    }
+  }
+
+  /** Returns the number of frames which were submitted but not yet processed, at most two. */
+  public int getQueueDepth() {
+    synchronized (lock) {
+      return (pendingInput >= 0 ? 1 : 0) + (processingInput >= 0 ? 1 : 0);
+    }
+  }
+
+  /** Returns the number of submitted frames. */
+  public long getSubmittedFrameCount() {
+    synchronized (lock) {
+      return submittedFrameCount;
+    }
+  }
+
+  /** Returns the number of frames which were replaced by a newer frame before being processed. */
+  public long getDroppedFrameCount() {
+    synchronized (lock) {
+      return droppedFrameCount;
+    }
+  }
+
+  /** Returns the number of processed frames. */
+  public long getProcessedFrameCount() {
+    synchronized (lock) {
+      return processedFrameCount;
+    }
+  }
+
+  /** Returns the time from submitting to completing the last processed frame, in milliseconds. */
+  public float getLastLatency() {
+    synchronized (lock) {
+      return lastLatency;
+    }
+  }
+
+  /** Returns the smoothed time from submitting to completing a frame, in milliseconds. */
+  public float getSmoothedLatency() {
+    synchronized (lock) {
+      return smoothedLatency;
+    }
+  }
+
+  /** Body of the worker thread. */
+  private void processFrames() {
+    while (true) {
+      int inputSlot;
+      int resultSlot = 0;
+      synchronized (lock) {
+        while (running && pendingInput < 0) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            Log.w(TAG, "Worker interrupted", e);
+            return;
+          }
+        }
+        if (!running) {
+          return;
+        }
+        inputSlot = pendingInput;
+        pendingInput = -1;
+        processingInput = inputSlot;
+
+        // Pick a result slot which is neither the latest result nor held by the rendering thread.
+        while (resultSlot == latestResult || resultSlot == acquiredResult) {
+          resultSlot++;
+        }
+      }
+
+      GrayscaleImage input = inputs[inputSlot];
+      ByteBuffer output =
+          pipeline.process(
+              input.width, input.height, input.width, /* pixelStride= */ 1, input.pixels);
+      GrayscaleImage result = results[resultSlot];
+      result.resize(pipeline.getOutputWidth(), pipeline.getOutputHeight());
+      result.pixels.put(output);
+      result.pixels.position(0);
+      result.submitTimeNanos = input.submitTimeNanos;
+      if (analyzer != null) {
+        analyzer.analyze(input, result);
+      }
+
+      float latency = (System.nanoTime() - input.submitTimeNanos) / NANOSECONDS_PER_MILLISECOND;
+      synchronized (lock) {
+        processingInput = -1;
+        latestResult = resultSlot;
+        latestResultAcquired = false;
+        processedFrameCount++;
+        lastLatency = latency;
+        smoothedLatency =
+            smoothedLatency == 0f
+                ? latency
+                : smoothedLatency + SMOOTHING_FACTOR * (latency - smoothedLatency);
+      }
+    }
+  }
+
+  /** Copies an image plane into a buffer without row and pixel padding. */
+  private static void copyPlane(
+      int width, int height, int rowStride, int pixelStride, ByteBuffer input, ByteBuffer output) {
+    if (pixelStride == 1) {
+      int position = input.position();
+      int limit = input.limit();
+      for (int j = 0; j < height; j++) {
+        input.limit(j * rowStride + width);
+        input.position(j * rowStride);
+        output.put(input);
+      }
+      input.limit(limit);
+      input.position(position);
+    } else {
+      for (int j = 0; j < height; j++) {
+        for (int i = 0; i < width; i++) {
+          output.put(input.get(j * rowStride + i * pixelStride));
+        }
+      }
+    }
+    output.position(0);
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * Steps between camera configurations of increasing CPU image resolution to keep the frame time
+ * below a target, based on the measured CPU work time per frame and CPU analysis latency.
+ *
+ * <p>The work time is the time the rendering thread spends processing and drawing a frame, without
+ * the time it waits for the next camera frame. Unlike the interval between frames, which the camera
+ * holds at its frame rate, it shows how much of the frame budget is left.
+ *
+ * <p>The governor steps down to a lower resolution once the work time or the analysis latency has
+ * exceeded most of the target for {@link #DOWNGRADE_HOLD_MILLIS}, and steps up once both have
+ * stayed well below the target for the much longer {@link #UPGRADE_HOLD_MILLIS}. After every
+ * switch it waits {@link #SWITCH_COOLDOWN_MILLIS} for the measurements to settle, and a level which
+ * had to be left because it was too slow is not tried again for {@link #RETRY_BLOCK_MILLIS}. This
+ * hysteresis keeps the governor from oscillating between two levels.
+ *
+ * <p>The governor only decides; the caller applies the switch, for example with {@link
+ * com.google.ar.core.Session#setCameraConfig}. Its methods are synchronized, so the level can be
+ * set on the UI thread while the rendering thread updates the governor.
+ */
+public class CameraConfigGovernor {
+  /** Returned by {@link #update} when no switch is needed. */
+  public static final int NO_SWITCH = -1;
+
+  /** Time the load must stay too high before stepping down, in milliseconds. */
+  public static final long DOWNGRADE_HOLD_MILLIS = 1000;
+
+  /** Time the load must stay low before stepping up, in milliseconds. */
+  public static final long UPGRADE_HOLD_MILLIS = 5000;
+
+  /** Time after a switch during which no further switch is made, in milliseconds. */
+  public static final long SWITCH_COOLDOWN_MILLIS = 3000;
+
+  /** Time during which a level that was too slow is not tried again, in milliseconds. */
+  public static final long RETRY_BLOCK_MILLIS = 30000;
+
+  // Fraction of the target above which the load is too high. The rest of the frame is left for work
+  // which the stages do not measure, such as garbage collection and other threads.
+  private static final float DOWNGRADE_LOAD_RATIO = 0.8f;
+
+  // Fraction of the target below which both measurements must stay before stepping up. A higher
+  // resolution costs two to three times as much per frame, so it must still fit below
+  // DOWNGRADE_LOAD_RATIO.
+  private static final float UPGRADE_LOAD_RATIO = 0.25f;
+
+  private final int levelCount;
+  private final float targetFrameTime;
+  private final long[] blockedUntilMillis;
+
+  private int level = 0;
+  private long lastSwitchMillis = Long.MIN_VALUE / 2;
+  private long overloadedSinceMillis = -1;
+  private long underloadedSinceMillis = -1;
+
+  /**
+   * Creates a governor.
+   *
+   * @param levelCount the number of camera configurations, ordered by increasing resolution.
+   * @param targetFrameTime the frame time to stay below, in milliseconds.
+   */
+  public CameraConfigGovernor(int levelCount, float targetFrameTime) {
+    if (levelCount < 1) {
+      throw new IllegalArgumentException("Expected at least one level, got " + levelCount);
+    }
+    this.levelCount = levelCount;
+    this.targetFrameTime = targetFrameTime;
+    blockedUntilMillis = new long[levelCount];
+  }
+
+  /** Returns the current level. */
+  public synchronized int getLevel() {
+    return level;
+  }
+
+  /** Returns the frame time to stay below, in milliseconds. */
+  public float getTargetFrameTime() {
+    return targetFrameTime;
+  }
+
+  /**
+   * Sets the current level without the governor deciding, for example when the user selects a
+   * camera configuration. Starts a cooldown, like a switch made by the governor.
+   */
+  public synchronized void setLevel(int level, long nowMillis) {
+    this.level = level;
+    onSwitch(nowMillis);
+  }
+
+  /**
+   * Feeds the latest measurements to the governor.
+   *
+   * @param nowMillis the current time, in milliseconds.
+   * @param cpuWorkTime the smoothed time the rendering thread spends on a frame, excluding the
+   *     wait for the camera, in milliseconds, or zero if unknown.
+   * @param analysisLatency the smoothed latency of the CPU image analysis, in milliseconds, or zero
+   *     if the analysis runs on the rendering thread and is part of the work time.
+   * @return the level to switch to, or {@link #NO_SWITCH}. The returned level becomes the current
+   *     level.
+   */
+  public synchronized int update(long nowMillis, float cpuWorkTime, float analysisLatency) {
+    if (cpuWorkTime <= 0f || nowMillis - lastSwitchMillis < SWITCH_COOLDOWN_MILLIS) {
+      overloadedSinceMillis = -1;
+      underloadedSinceMillis = -1;
+      return NO_SWITCH;
+    }
+
+    float load = Math.max(cpuWorkTime, analysisLatency);
+    if (load > targetFrameTime * DOWNGRADE_LOAD_RATIO) {
+      underloadedSinceMillis = -1;
+      if (overloadedSinceMillis < 0) {
+        overloadedSinceMillis = nowMillis;
+      }
+      if (level > 0 && nowMillis - overloadedSinceMillis >= DOWNGRADE_HOLD_MILLIS) {
+        blockedUntilMillis[level] = nowMillis + RETRY_BLOCK_MILLIS;
+        level--;
+        onSwitch(nowMillis);
+        return level;
+      }
+    } else if (load < targetFrameTime * UPGRADE_LOAD_RATIO) {
+      overloadedSinceMillis = -1;
+      if (underloadedSinceMillis < 0) {
+        underloadedSinceMillis = nowMillis;
+      }
+      if (level < levelCount - 1
+          && nowMillis >= blockedUntilMillis[level + 1]
+          && nowMillis - underloadedSinceMillis >= UPGRADE_HOLD_MILLIS) {
+        level++;
+        onSwitch(nowMillis);
+        return level;
+      }
+    } else {
+      overloadedSinceMillis = -1;
+      underloadedSinceMillis = -1;
+    }
+    return NO_SWITCH;
+  }
+
+  private void onSwitch(long nowMillis) {
+    lastSwitchMillis = nowMillis;
+    overloadedSinceMillis = -1;
+    underloadedSinceMillis = -1;
+  }
+}
@@ -50,12 +50,15 @@ import com.google.ar.core.exceptions.UnavailableApkTooOldException;
 import com.google.ar.core.exceptions.UnavailableArcoreNotInstalledException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
+import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -68,7 +71,10 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
           + "\n\t%s Image Dimensions: (%d, %d)"
           + "\n\tUnrotated Field of View: (%.2f˚, %.2f˚)"
           + "\n\tRender frame time: %.1f ms (%.0ffps)"
-          + "\n\tCPU image frame time: %.1f ms (%.0ffps)";
+          + "\n\tCPU image frame time: %.1f ms (%.0ffps)"
+          + "\n\tCPU analysis latency: %.1f ms, queue depth: %d, dropped frames: %d"
+          + "\n\tCPU image tracked keypoints: %d"
+          + "\n\tCPU image edge components: %d";
   private static final float RADIANS_TO_DEGREES = (float) (180 / Math.PI);
 
   // This app demonstrates two approaches to obtaining image data accessible on CPU:
@@ -84,6 +90,26 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   // Select the image acquisition path here.
   private final ImageAcquisitionPath imageAcquisitionPath = ImageAcquisitionPath.CPU_DIRECT_ACCESS;
 
+  // The CPU_DIRECT_ACCESS path can process the CPU image in two ways:
+  // 1. Inline on the OpenGL thread. The processed image always matches the displayed frame, but a
+  //    slow frame delays rendering.
+  // 2. Asynchronously on a worker thread, which only processes the newest frame. Rendering is not
+  //    delayed, but the overlay shows the latest completed result, which may lag a few frames.
+  private final boolean processCpuImageAsync = true;
+
+  // Set to true to record the CPU images of the CPU_DIRECT_ACCESS path into a file in the app's
+  // external files directory, which YuvFrameReplaySource replays without a camera, for example
+  // to benchmark the processing pipeline on a desktop JVM.
+  private final boolean recordCpuImages = false;
+  private static final String CPU_IMAGE_RECORDING_FILE_PREFIX = "cpu_images_";
+  private static final String CPU_IMAGE_RECORDING_FILE_EXTENSION = ".yuv";
+
+  // The recorder is only accessed on the OpenGL thread, and while the surface view is paused.
+  private YuvFrameRecorder cpuImageRecorder;
+  private final ByteBuffer[] recordedPlanes = new ByteBuffer[YuvFrameRecorder.MAX_PLANE_COUNT];
+  private final int[] recordedRowStrides = new int[YuvFrameRecorder.MAX_PLANE_COUNT];
+  private final int[] recordedPixelStrides = new int[YuvFrameRecorder.MAX_PLANE_COUNT];
+
   // Multiple CPU image Resolution.
   private enum ImageResolution {
     LOW_RESOLUTION,
@@ -94,6 +120,14 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   // Default CPU image is low resolution.
   private ImageResolution cpuResolution = ImageResolution.LOW_RESOLUTION;
 
+  // Automatically steps between the CPU image resolutions to keep the CPU work per frame, as
+  // recorded by latencyRecorder, within TARGET_FRAME_TIME_MS while the processed CPU image is
+  // displayed. The user can still pick a resolution, which the governor then starts from.
+  private final boolean governCameraConfig = true;
+  private static final float TARGET_FRAME_TIME_MS = 1000f / 30f;
+  private final CameraConfigGovernor cameraConfigGovernor =
+      new CameraConfigGovernor(ImageResolution.values().length, TARGET_FRAME_TIME_MS);
+
   // Session management and rendering.
   private GLSurfaceView surfaceView;
   private Session session;
@@ -105,6 +139,54 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private final CpuImageRenderer cpuImageRenderer = new CpuImageRenderer();
   private final EdgeDetector edgeDetector = new EdgeDetector();
 
+  // Processing pipeline of the CPU_DIRECT_ACCESS path. Further stages can be chained here, for
+  // example ImageOperator.gaussianBlur() before the edge detector or ImageOperator.dilate()
+  // after it. The edge operator follows the threshold of edgeDetector.
+  private final ImagePipeline cpuImagePipeline =
+      new ImagePipeline().add(ImageOperator.sobel(edgeDetector));
+  private final AsyncImageProcessor asyncImageProcessor =
+      new AsyncImageProcessor(cpuImagePipeline, this::analyzeProcessedFrame);
+
+  // Skips processing frames which barely differ from the last processed frame, for example while
+  // the phone is still, and keeps showing the previous result instead.
+  private final FrameChangeDetector cpuImageChangeDetector = new FrameChangeDetector();
+
+  // Set to true to detect edges only in a rectangle at the centre of the view, for example around
+  // a reticle, instead of running cpuImagePipeline on the whole image. The rectangle is mapped to
+  // the CPU image with the display geometry of each frame, and pixels outside it are not read.
+  private final boolean detectEdgesInViewCenterOnly = false;
+  private static final float VIEW_CENTER_REGION_FRACTION = 0.5f;
+  private final DisplayRegionMapper displayRegionMapper = new DisplayRegionMapper();
+  private final RegionOfInterest viewCenterRegion = new RegionOfInterest(/* capacity= */ 1);
+  private ByteBuffer viewCenterEdges = ByteBuffer.allocateDirect(0);
+  private int viewCenterEdgesWidth = 0;
+  private int viewCenterEdgesHeight = 0;
+  private int viewWidth = 0;
+  private int viewHeight = 0;
+
+  // Brightness statistics of the CPU image, computed once per frame and shared by the analyzers.
+  // With autoEdgeThreshold, the edge threshold follows the image contrast instead of staying at
+  // EdgeDetector.SOBEL_EDGE_THRESHOLD.
+  private final LuminanceStatistics cpuImageStatistics = new LuminanceStatistics();
+  private final boolean autoEdgeThreshold = true;
+
+  // Tracks corner keypoints between the Y planes of the CPU_DIRECT_ACCESS path, detecting new
+  // corners only when too few tracks are left. The number of tracks is shown with the camera
+  // intrinsics. With processCpuImageAsync, the tracker runs on the worker thread of
+  // asyncImageProcessor, and is only used by that thread.
+  private final boolean trackCpuImageKeypoints = true;
+  private final KltTracker keypointTracker = new KltTracker();
+  private volatile int cpuImageKeypointCount = 0;
+
+  // Labels the connected components of each new edge map of the CPU_DIRECT_ACCESS path, which
+  // gives the area, bounding box and centroid of every blob. The number of components is shown
+  // with the camera intrinsics. Like the tracker, the labeler runs on the worker thread of
+  // asyncImageProcessor with processCpuImageAsync. It needs about 8 bytes of scratch memory per
+  // pixel, so it is off by default.
+  private final boolean labelCpuImageEdgeComponents = false;
+  private final ConnectedComponentLabeler edgeComponentLabeler = new ConnectedComponentLabeler();
+  private volatile int cpuImageEdgeComponentCount = 0;
+
   // This lock prevents changing resolution as the frame is being rendered. ARCore requires all
   // CPU images to be released before changing resolution.
   private final Object frameImageInUseLock = new Object();
@@ -113,8 +195,9 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private TextView cameraIntrinsicsTextView;
 
   // The fields below are used for the GPU_DOWNLOAD image acquisition path.
-  private final TextureReader textureReader = new TextureReader();
-  private int gpuDownloadFrameBufferIndex = -1;
+  // Keep a few downloads in flight, so that a frame is usually ready without waiting for the GPU.
+  private static final int GPU_DOWNLOAD_BUFFER_COUNT = 3;
+  private final TextureReader textureReader = new TextureReader(GPU_DOWNLOAD_BUFFER_COUNT);
 
   // ARCore full resolution GL texture typically has a size of 1920 x 1080.
   private static final int TEXTURE_WIDTH = 1920;
@@ -124,6 +207,20 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private static final int IMAGE_WIDTH = 1280;
   private static final int IMAGE_HEIGHT = 720;
 
+  // The GPU_DOWNLOAD path can read back the texture in three formats:
+  // 1. IMAGE_FORMAT_I8 reads back the grayscale image, and edges are detected on the CPU.
+  // 2. IMAGE_FORMAT_EDGE_I8 detects edges on the GPU, and reads back only the result.
+  // 3. IMAGE_FORMAT_EDGE_PACKED also packs the edges into one bit per pixel, which reads back 8
+  //    times less data.
+  private static final int GPU_DOWNLOAD_IMAGE_FORMAT = TextureReaderImage.IMAGE_FORMAT_I8;
+
+  // Edges detected on the GPU, copied out of the mapped pixel buffer before it is released.
+  private final ByteBuffer gpuDownloadEdges = ByteBuffer.allocateDirect(IMAGE_WIDTH * IMAGE_HEIGHT);
+
+  // With IMAGE_FORMAT_I8, only the blocks which changed since the last processed frame are passed
+  // to the edge detector. The edges of the other blocks are kept in gpuDownloadEdges.
+  private final FrameChangeDetector gpuDownloadChangeDetector = new FrameChangeDetector();
+
   // For Camera Configuration APIs usage.
   private CameraConfig cpuLowResolutionCameraConfig;
   private CameraConfig cpuMediumResolutionCameraConfig;
@@ -136,6 +233,13 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   private final FrameTimeHelper renderFrameTimeHelper = new FrameTimeHelper();
   private final FrameTimeHelper cpuImageFrameTimeHelper = new FrameTimeHelper();
 
+  // Latency histograms of the stages of the image path, written to LATENCY_DUMP_FILE_NAME in the
+  // app's external files directory when the activity pauses.
+  private static final String LATENCY_DUMP_FILE_NAME = "latency_histograms.txt";
+  private final StageLatencyRecorder latencyRecorder = new StageLatencyRecorder();
+  // Writes the histograms off the UI thread, where StrictMode flags disk access.
+  private final ExecutorService latencyDumpExecutor = Executors.newSingleThreadExecutor();
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -158,8 +262,19 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     surfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     surfaceView.setWillNotDraw(false);
 
+    cpuImageRenderer.setLatencyRecorder(latencyRecorder);
+
     getLifecycle().addObserver(renderFrameTimeHelper);
     getLifecycle().addObserver(cpuImageFrameTimeHelper);
+    if (processCpuImageAsync) {
+      getLifecycle().addObserver(asyncImageProcessor);
+    }
+
+    // Spread image processing over all CPU cores, so that it fits into the frame budget.
+    edgeDetector.setParallelEnabled(true);
+    keypointTracker.setParallelEnabled(true);
+    edgeComponentLabeler.setParallelEnabled(true);
+    cpuImagePipeline.setParallelEnabled(true);
 
     installRequested = false;
   }
@@ -174,6 +289,8 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       session.close();
       session = null;
     }
+    // Lets a pending dump of the latency histograms finish.
+    latencyDumpExecutor.shutdown();
 
     super.onDestroy();
   }
@@ -238,6 +355,9 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       session = null;
       return;
     }
+    if (recordCpuImages) {
+      startCpuImageRecording();
+    }
     surfaceView.onResume();
     cpuImageDisplayRotationHelper.onResume();
   }
@@ -253,6 +373,86 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       surfaceView.onPause();
       session.pause();
     }
+    stopCpuImageRecording();
+    latencyDumpExecutor.execute(this::dumpLatencyHistograms);
+  }
+
+  /** Starts recording CPU images into a new file named after the current time. */
+  private void startCpuImageRecording() {
+    File directory = getExternalFilesDir(/* type= */ null);
+    if (directory == null) {
+      Log.w(TAG, "External storage is unavailable, CPU images are not recorded.");
+      return;
+    }
+    File file =
+        new File(
+            directory,
+            CPU_IMAGE_RECORDING_FILE_PREFIX
+                + System.currentTimeMillis()
+                + CPU_IMAGE_RECORDING_FILE_EXTENSION);
+    try {
+      cpuImageRecorder = new YuvFrameRecorder(file);
+      Log.i(TAG, "Recording CPU images to " + file);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to start recording CPU images", e);
+    }
+  }
+
+  /** Stops recording CPU images, if recording. */
+  private void stopCpuImageRecording() {
+    if (cpuImageRecorder == null) {
+      return;
+    }
+    try {
+      cpuImageRecorder.close();
+      Log.i(TAG, "Recorded " + cpuImageRecorder.getFrameCount() + " CPU images");
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to finish recording CPU images", e);
+    }
+    cpuImageRecorder = null;
+  }
+
+  /** Appends a CPU image to the recording. Stops recording if writing fails. */
+  private void recordCpuImage(Image image) {
+    Image.Plane[] planes = image.getPlanes();
+    int planeCount = Math.min(planes.length, YuvFrameRecorder.MAX_PLANE_COUNT);
+    for (int i = 0; i < planeCount; i++) {
+      recordedPlanes[i] = planes[i].getBuffer();
+      recordedRowStrides[i] = planes[i].getRowStride();
+      recordedPixelStrides[i] = planes[i].getPixelStride();
+    }
+    try {
+      cpuImageRecorder.writeFrame(
+          image.getTimestamp(),
+          image.getWidth(),
+          image.getHeight(),
+          recordedPlanes,
+          recordedRowStrides,
+          recordedPixelStrides);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to record CPU image, recording stopped", e);
+      stopCpuImageRecording();
+    }
+  }
+
+  /**
+   * Writes the latency histograms to a file, which can be pulled from the device with adb. Runs on
+   * latencyDumpExecutor. The histograms are synchronized, so they can be read while the OpenGL
+   * thread records.
+   */
+  private void dumpLatencyHistograms() {
+    File directory = getExternalFilesDir(/* type= */ null);
+    if (directory == null) {
+      Log.w(TAG, "External storage is unavailable, latency histograms are not written.");
+      return;
+    }
+    File file = new File(directory, LATENCY_DUMP_FILE_NAME);
+    try {
+      latencyRecorder.dump(file);
+      Log.i(TAG, "Latency histograms written to " + file);
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write latency histograms", e);
+    }
   }
 
   @Override
@@ -283,11 +483,12 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     try {
       cpuImageRenderer.createOnGlThread(/* context= */ this);
 
-      // The image format can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8.
-      // Set keepAspectRatio to false so that the output image covers the whole viewport.
+      // The image format can be IMAGE_FORMAT_RGBA, IMAGE_FORMAT_I8, or one of the
+      // IMAGE_FORMAT_EDGE_* formats. Set keepAspectRatio to false so that the output image covers
+      // the whole viewport.
       textureReader.create(
           /* context= */ this,
-          TextureReaderImage.IMAGE_FORMAT_I8,
+          GPU_DOWNLOAD_IMAGE_FORMAT,
           IMAGE_WIDTH,
           IMAGE_HEIGHT,
           false);
@@ -300,6 +501,8 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
   @Override
   public void onSurfaceChanged(GL10 gl, int width, int height) {
     cpuImageDisplayRotationHelper.onSurfaceChanged(width, height);
+    viewWidth = width;
+    viewHeight = height;
     GLES20.glViewport(0, 0, width, height);
   }
 
@@ -320,13 +523,20 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
       try {
         session.setCameraTextureName(cpuImageRenderer.getTextureId());
+        long updateStart = System.nanoTime();
         final Frame frame = session.update();
+        latencyRecorder.recordSince(StageLatencyRecorder.Stage.SESSION_UPDATE, updateStart);
         final Camera camera = frame.getCamera();
 
         // Keep the screen unlocked while tracking, but allow it to lock when tracking stops.
         trackingStateHelper.updateKeepScreenOnFlag(camera.getTrackingState());
 
         renderFrameTimeHelper.nextFrame();
+        if (governCameraConfig
+            && isCVModeOn
+            && imageAcquisitionPath == ImageAcquisitionPath.CPU_DIRECT_ACCESS) {
+          updateCameraConfigGovernor();
+        }
 
         switch (imageAcquisitionPath) {
           case CPU_DIRECT_ACCESS:
@@ -348,33 +558,127 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
 
   /* Demonstrates how to access a CPU image directly from ARCore. */
   private void renderProcessedImageCpuDirectAccess(Frame frame) {
+    long acquireStart = System.nanoTime();
     try (Image image = frame.acquireCameraImage()) {
+      latencyRecorder.recordSince(StageLatencyRecorder.Stage.IMAGE_ACQUIRE, acquireStart);
       if (image.getFormat() != ImageFormat.YUV_420_888) {
         throw new IllegalArgumentException(
             "Expected image in YUV_420_888 format, got format " + image.getFormat());
       }
 
+      if (cpuImageRecorder != null) {
+        recordCpuImage(image);
+      }
+
       ByteBuffer processedImageBytesGrayscale = null;
+      int processedImageWidth = 0;
+      int processedImageHeight = 0;
       // Do not process the image with edge dectection algorithm if it is not being displayed.
       if (isCVModeOn) {
-        processedImageBytesGrayscale =
-            edgeDetector.detect(
+        long detectStart = System.nanoTime();
+        Image.Plane plane = image.getPlanes()[0];
+
+        // Skip frames which barely changed since the last processed frame, for example while the
+        // phone is still. The overlay then keeps showing the previous result.
+        boolean changed =
+            cpuImageChangeDetector.detectChanges(
                 image.getWidth(),
                 image.getHeight(),
-                image.getPlanes()[0].getRowStride(),
-                image.getPlanes()[0].getBuffer());
+                plane.getRowStride(),
+                plane.getPixelStride(),
+                plane.getBuffer());
+        if (changed) {
+          cpuImageChangeDetector.acceptAllBlocks();
+          if (autoEdgeThreshold) {
+            cpuImageStatistics.update(
+                image.getTimestamp(),
+                image.getWidth(),
+                image.getHeight(),
+                plane.getRowStride(),
+                plane.getPixelStride(),
+                plane.getBuffer());
+            edgeDetector.setThreshold(
+                EdgeDetector.getThresholdForContrast(cpuImageStatistics.getContrast()));
+          }
+        }
+
+        if (detectEdgesInViewCenterOnly) {
+          if (changed) {
+            processedImageBytesGrayscale =
+                detectEdgesInViewCenter(frame, image.getWidth(), image.getHeight(), plane);
+            processedImageWidth = image.getWidth();
+            processedImageHeight = image.getHeight();
+          }
+        } else if (processCpuImageAsync) {
+          // Hand a copy of the Y plane to the worker, and overlay the latest completed result, if
+          // there is a new one. Otherwise the overlay keeps showing the previous result.
+          if (changed) {
+            asyncImageProcessor.submit(
+                image.getWidth(),
+                image.getHeight(),
+                plane.getRowStride(),
+                plane.getPixelStride(),
+                plane.getBuffer());
+          }
+          AsyncImageProcessor.GrayscaleImage result = asyncImageProcessor.acquireLatestResult();
+          if (result != null) {
+            processedImageBytesGrayscale = result.getPixels();
+            processedImageWidth = result.getWidth();
+            processedImageHeight = result.getHeight();
+          }
+        } else if (changed) {
+          // Read the Y plane in place and reuse the pipeline's buffers, so that processing a frame
+          // neither copies the image nor allocates memory.
+          processedImageBytesGrayscale =
+              cpuImagePipeline.process(
+                  image.getWidth(),
+                  image.getHeight(),
+                  plane.getRowStride(),
+                  plane.getPixelStride(),
+                  plane.getBuffer());
+          processedImageWidth = cpuImagePipeline.getOutputWidth();
+          processedImageHeight = cpuImagePipeline.getOutputHeight();
+        }
+        latencyRecorder.recordSince(StageLatencyRecorder.Stage.DETECT, detectStart);
+
+        // The asynchronous path analyzes the submitted frames on the worker thread instead.
+        if (isCpuImageAnalyzedOnGlThread() && changed) {
+          long analyzeStart = System.nanoTime();
+          if (trackCpuImageKeypoints) {
+            keypointTracker.update(
+                image.getWidth(),
+                image.getHeight(),
+                plane.getRowStride(),
+                plane.getPixelStride(),
+                plane.getBuffer());
+            cpuImageKeypointCount = keypointTracker.getTrackCount();
+          }
+          if (labelCpuImageEdgeComponents) {
+            edgeComponentLabeler.label(
+                processedImageWidth,
+                processedImageHeight,
+                /* rowStride= */ processedImageWidth,
+                /* pixelStride= */ 1,
+                processedImageBytesGrayscale);
+            cpuImageEdgeComponentCount = edgeComponentLabeler.getComponentCount();
+          }
+          latencyRecorder.recordSince(StageLatencyRecorder.Stage.ANALYZE, analyzeStart);
+        }
       }
 
       cpuImageRenderer.drawWithCpuImage(
           frame,
-          image.getWidth(),
-          image.getHeight(),
+          processedImageWidth,
+          processedImageHeight,
           processedImageBytesGrayscale,
           cpuImageDisplayRotationHelper.getViewportAspectRatio(),
           cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
 
-      // Measure frame time since last successful execution of drawWithCpuImage().
-      cpuImageFrameTimeHelper.nextFrame();
+      // Measure frame time since last successful execution of drawWithCpuImage() with a new
+      // processed image.
+      if (!isCVModeOn || processedImageBytesGrayscale != null) {
+        cpuImageFrameTimeHelper.nextFrame();
+      }
     } catch (NotYetAvailableException e) {
       // This exception will routinely happen during startup, and is expected. cpuImageRenderer
       // will handle null image properly, and will just render the background.
@@ -382,23 +686,144 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
     }
   }
 
-  /* Demonstrates how to access a CPU image using a download from GPU. */
-  private void renderProcessedImageGpuDownload(Frame frame) {
-    // If there is a frame being requested previously, acquire the pixels and process it.
-    if (gpuDownloadFrameBufferIndex >= 0) {
-      TextureReaderImage image = textureReader.acquireFrame(gpuDownloadFrameBufferIndex);
+  /** Returns whether the CPU image is analyzed on the OpenGL thread rather than on a worker. */
+  private boolean isCpuImageAnalyzedOnGlThread() {
+    return detectEdgesInViewCenterOnly || !processCpuImageAsync;
+  }
 
-      if (image.format != TextureReaderImage.IMAGE_FORMAT_I8) {
-        throw new IllegalArgumentException(
-            "Expected image in I8 format, got format " + image.format);
+  /** Analyzes a frame processed by asyncImageProcessor, on its worker thread. */
+  private void analyzeProcessedFrame(
+      AsyncImageProcessor.GrayscaleImage input, AsyncImageProcessor.GrayscaleImage result) {
+    long analyzeStart = System.nanoTime();
+    if (trackCpuImageKeypoints) {
+      keypointTracker.update(
+          input.getWidth(),
+          input.getHeight(),
+          /* rowStride= */ input.getWidth(),
+          /* pixelStride= */ 1,
+          input.getPixels());
+      cpuImageKeypointCount = keypointTracker.getTrackCount();
+    }
+    if (labelCpuImageEdgeComponents) {
+      edgeComponentLabeler.label(
+          result.getWidth(),
+          result.getHeight(),
+          /* rowStride= */ result.getWidth(),
+          /* pixelStride= */ 1,
+          result.getPixels());
+      cpuImageEdgeComponentCount = edgeComponentLabeler.getComponentCount();
+    }
+    latencyRecorder.recordSince(StageLatencyRecorder.Stage.ANALYZE, analyzeStart);
+  }
+
+  /**
+   * Detects edges only in the centre of the view, mapped to the CPU image with the display geometry
+   * of the frame. The rest of the result shows no edges.
+   */
+  private ByteBuffer detectEdgesInViewCenter(
+      Frame frame, int width, int height, Image.Plane plane) {
+    if (width != viewCenterEdgesWidth || height != viewCenterEdgesHeight) {
+      if (viewCenterEdges.capacity() < width * height) {
+        viewCenterEdges = ByteBuffer.allocateDirect(width * height);
+      } else {
+        clearRect(viewCenterEdges, width, 0, 0, width, height);
       }
+      viewCenterEdgesWidth = width;
+      viewCenterEdgesHeight = height;
+    } else if (viewCenterRegion.getCount() > 0) {
+      // The region moves when the display rotates, so erase the edges of the previous frame.
+      clearRect(
+          viewCenterEdges,
+          width,
+          Math.max(viewCenterRegion.getLeft(0), 0),
+          Math.max(viewCenterRegion.getTop(0), 0),
+          Math.min(viewCenterRegion.getRight(0), width),
+          Math.min(viewCenterRegion.getBottom(0), height));
+    }
+
+    float marginX = viewWidth * (1f - VIEW_CENTER_REGION_FRACTION) / 2f;
+    float marginY = viewHeight * (1f - VIEW_CENTER_REGION_FRACTION) / 2f;
+    viewCenterRegion.clear();
+    displayRegionMapper.addViewRect(
+        frame, marginX, marginY, viewWidth - marginX, viewHeight - marginY, viewCenterRegion);
+    edgeDetector.detect(
+        width,
+        height,
+        plane.getRowStride(),
+        plane.getPixelStride(),
+        plane.getBuffer(),
+        viewCenterEdges,
+        viewCenterRegion);
+    viewCenterEdges.clear();
+    return viewCenterEdges;
+  }
 
-      ByteBuffer processedImageBytesGrayscale =
-          edgeDetector.detect(image.width, image.height, /* stride= */ image.width, image.buffer);
+  /** Sets the pixels of a rectangle of a tightly packed grayscale image to 0. */
+  private static void clearRect(
+      ByteBuffer image, int width, int left, int top, int right, int bottom) {
+    for (int y = top; y < bottom; y++) {
+      for (int x = left; x < right; x++) {
+        image.put(y * width + x, (byte) 0);
+      }
+    }
+  }
+
+  /* Demonstrates how to access a CPU image using a download from GPU. */
+  private void renderProcessedImageGpuDownload(Frame frame) {
+    // If a frame requested previously has finished downloading, acquire the pixels and process
+    // it. This does not block, so the GPU is not stalled while it is still writing the pixels.
+    long acquireStart = System.nanoTime();
+    TextureReaderImage image = textureReader.tryAcquireFrame();
+    if (image != null) {
+      latencyRecorder.recordSince(StageLatencyRecorder.Stage.IMAGE_ACQUIRE, acquireStart);
+      long detectStart = System.nanoTime();
+      ByteBuffer processedImageBytesGrayscale;
+      switch (image.format) {
+        case TextureReaderImage.IMAGE_FORMAT_I8:
+          // Detect edges only in the blocks which changed since the last processed frame, and keep
+          // the edges of the other blocks. The first frame processes every block.
+          if (gpuDownloadChangeDetector.detectChanges(
+              image.width,
+              image.height,
+              /* rowStride= */ image.width,
+              /* pixelStride= */ 1,
+              image.buffer)) {
+            edgeDetector.detect(
+                image.width,
+                image.height,
+                /* rowStride= */ image.width,
+                /* pixelStride= */ 1,
+                image.buffer,
+                gpuDownloadEdges,
+                gpuDownloadChangeDetector.getChangedRegions());
+            gpuDownloadChangeDetector.acceptChangedBlocks();
+          }
+          gpuDownloadEdges.clear();
+          processedImageBytesGrayscale = gpuDownloadEdges;
+          break;
+        case TextureReaderImage.IMAGE_FORMAT_EDGE_I8:
+          // The edges were already detected on the GPU.
+          gpuDownloadEdges.clear();
+          image.buffer.position(0);
+          gpuDownloadEdges.put(image.buffer);
+          gpuDownloadEdges.position(0);
+          processedImageBytesGrayscale = gpuDownloadEdges;
+          break;
+        case TextureReaderImage.IMAGE_FORMAT_EDGE_PACKED:
+          // The edges were already detected on the GPU, and only need to be unpacked for display.
+          GpuSobelReference.unpack(image.width, image.height, image.buffer, gpuDownloadEdges);
+          gpuDownloadEdges.position(0);
+          processedImageBytesGrayscale = gpuDownloadEdges;
+          break;
+        default:
+          throw new IllegalArgumentException(
+              "Expected image in I8 or edge format, got format " + image.format);
+      }
+      latencyRecorder.recordSince(StageLatencyRecorder.Stage.DETECT, detectStart);
 
       // You should always release frame buffer after using. Otherwise the next call to
       // submitFrame() may fail.
-      textureReader.releaseFrame(gpuDownloadFrameBufferIndex);
+      textureReader.releaseFrame(image.bufferIndex);
 
       cpuImageRenderer.drawWithCpuImage(
           frame,
@@ -411,12 +836,85 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       // Measure frame time since last successful execution of drawWithCpuImage().
       cpuImageFrameTimeHelper.nextFrame();
     } else {
-      cpuImageRenderer.drawWithoutCpuImage();
+      // Keep showing the previously processed image.
+      cpuImageRenderer.drawWithCpuImage(
+          frame,
+          IMAGE_WIDTH,
+          IMAGE_HEIGHT,
+          /* processedImageBytesGrayscale= */ null,
+          cpuImageDisplayRotationHelper.getViewportAspectRatio(),
+          cpuImageDisplayRotationHelper.getCameraToDisplayRotation());
+    }
+
+    // Submit request for the texture from the current frame. If all downloads are still in
+    // flight, the oldest one is dropped. The edge formats use the same threshold as the CPU edge
+    // detector, which follows the contrast of the last CPU image with autoEdgeThreshold.
+    textureReader.setEdgeThreshold(edgeDetector.getThreshold());
+    textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+  }
+
+  /**
+   * Feeds the CPU work time and analysis latency to the camera config governor, and switches the
+   * camera config on the UI thread if it decides so.
+   */
+  private void updateCameraConfigGovernor() {
+    // The render frame time is held at the camera frame rate by Session.update(), which waits for
+    // the next camera frame, so it cannot show the headroom left. Add up the stages which work on
+    // the CPU image instead.
+    float cpuWorkTime =
+        latencyRecorder.getSmoothedLatency(StageLatencyRecorder.Stage.IMAGE_ACQUIRE)
+            + latencyRecorder.getSmoothedLatency(StageLatencyRecorder.Stage.DETECT)
+            + latencyRecorder.getSmoothedLatency(StageLatencyRecorder.Stage.TEXTURE_UPLOAD)
+            + latencyRecorder.getSmoothedLatency(StageLatencyRecorder.Stage.DRAW);
+    float analysisLatency;
+    if (isCpuImageAnalyzedOnGlThread()) {
+      cpuWorkTime += latencyRecorder.getSmoothedLatency(StageLatencyRecorder.Stage.ANALYZE);
+      analysisLatency = 0f;
+    } else {
+      analysisLatency = asyncImageProcessor.getSmoothedLatency();
+    }
+    int previousLevel = cameraConfigGovernor.getLevel();
+    int level =
+        cameraConfigGovernor.update(System.currentTimeMillis(), cpuWorkTime, analysisLatency);
+    if (level == CameraConfigGovernor.NO_SWITCH) {
+      return;
     }
 
-    // Submit request for the texture from the current frame.
-    gpuDownloadFrameBufferIndex =
-        textureReader.submitFrame(cpuImageRenderer.getTextureId(), TEXTURE_WIDTH, TEXTURE_HEIGHT);
+    ImageResolution resolution = ImageResolution.values()[level];
+    Log.i(
+        TAG,
+        String.format(
+            "Camera config governor switching from %s to %s: CPU work time %.1f ms, CPU"
+                + " analysis latency %.1f ms, target frame time %.1f ms",
+            ImageResolution.values()[previousLevel],
+            resolution,
+            cpuWorkTime,
+            analysisLatency,
+            cameraConfigGovernor.getTargetFrameTime()));
+    runOnUiThread(() -> selectResolution(resolution));
+  }
+
+  /** Switches to the camera config of a resolution, and checks its radio button. */
+  private void selectResolution(ImageResolution resolution) {
+    if (resolution == cpuResolution) {
+      return;
+    }
+    RadioGroup radioGroup = (RadioGroup) findViewById(R.id.radio_camera_configs);
+    switch (resolution) {
+      case LOW_RESOLUTION:
+        onCameraConfigChanged(cpuLowResolutionCameraConfig);
+        radioGroup.check(R.id.radio_low_res);
+        break;
+      case MEDIUM_RESOLUTION:
+        onCameraConfigChanged(cpuMediumResolutionCameraConfig);
+        radioGroup.check(R.id.radio_medium_res);
+        break;
+      case HIGH_RESOLUTION:
+        onCameraConfigChanged(cpuHighResolutionCameraConfig);
+        radioGroup.check(R.id.radio_high_res);
+        break;
+    }
+    cpuResolution = resolution;
   }
 
   public void onLowResolutionRadioButtonClicked(View view) {
@@ -425,6 +923,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       // Display low resolution.
       onCameraConfigChanged(cpuLowResolutionCameraConfig);
       cpuResolution = ImageResolution.LOW_RESOLUTION;
+      cameraConfigGovernor.setLevel(cpuResolution.ordinal(), System.currentTimeMillis());
     }
   }
 
@@ -434,6 +933,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       // Display medium resolution.
       onCameraConfigChanged(cpuMediumResolutionCameraConfig);
       cpuResolution = ImageResolution.MEDIUM_RESOLUTION;
+      cameraConfigGovernor.setLevel(cpuResolution.ordinal(), System.currentTimeMillis());
     }
   }
 
@@ -443,6 +943,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       // Display high resolution.
       onCameraConfigChanged(cpuHighResolutionCameraConfig);
       cpuResolution = ImageResolution.HIGH_RESOLUTION;
+      cameraConfigGovernor.setLevel(cpuResolution.ordinal(), System.currentTimeMillis());
     }
   }
 
@@ -525,6 +1026,7 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
       updateRadioButtonText(
           R.id.radio_high_res, cpuHighResolutionCameraConfig, getString(R.string.label_high_res));
       cpuResolution = ImageResolution.LOW_RESOLUTION;
+      cameraConfigGovernor.setLevel(cpuResolution.ordinal(), System.currentTimeMillis());
     }
   }
 
@@ -595,6 +1097,11 @@ public class ComputerVisionActivity extends AppCompatActivity implements GLSurfa
         renderFrameTimeHelper.getSmoothedFrameTime(),
         renderFrameTimeHelper.getSmoothedFrameRate(),
         cpuImageFrameTimeHelper.getSmoothedFrameTime(),
-        cpuImageFrameTimeHelper.getSmoothedFrameRate());
+        cpuImageFrameTimeHelper.getSmoothedFrameRate(),
+        asyncImageProcessor.getSmoothedLatency(),
+        asyncImageProcessor.getQueueDepth(),
+        asyncImageProcessor.getDroppedFrameCount(),
+        cpuImageKeypointCount,
+        cpuImageEdgeComponentCount);
   }
 }
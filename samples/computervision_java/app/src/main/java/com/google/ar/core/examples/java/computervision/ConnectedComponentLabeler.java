@@ -0,0 +1,430 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Labels the 8-connected components of a binary image, such as the edge map of {@link
+ * EdgeDetector}, and measures the area, bounding box and centroid of each component.
+ *
+ * <p>Labelling takes two passes over the image with a union-find forest over the pixel indices.
+ * The first pass links each foreground pixel to its neighbours within horizontal stripes, which are
+ * processed in parallel since they touch disjoint parts of the forest. The stripes are then merged
+ * along their boundary rows, and every tree is flattened and numbered in a serial sweep. The
+ * second pass writes the final labels and measures the components per stripe in parallel, after
+ * which the per stripe measurements are merged.
+ *
+ * <p>Measurements are kept in primitive arrays of a fixed capacity, and the label and forest
+ * buffers are reused between frames, so no memory is allocated once the image size is stable.
+ * Components beyond the capacity are labelled as background and reported by {@link
+ * #isOverflowed()}. The labeler is not thread safe.
+ */
+public class ConnectedComponentLabeler {
+  /** Default maximum number of components. */
+  public static final int DEFAULT_CAPACITY = 4096;
+
+  /** Pixels of at least this unsigned value are foreground, such as {@link EdgeDetector} edges. */
+  public static final int FOREGROUND_THRESHOLD = 0x80;
+
+  /** Label of background pixels. */
+  public static final int BACKGROUND = -1;
+
+  // Stripes smaller than this cost more to schedule than they save.
+  private static final int MIN_STRIPE_ROWS = 16;
+
+  private final int capacity;
+
+  // Pool used to process the stripes in parallel, or null to process them serially.
+  private ForkJoinPool pool = null;
+
+  // Union-find forest over the pixel indices, BACKGROUND for background pixels. After flattening,
+  // every foreground pixel points straight at the root of its tree.
+  private int[] parents = new int[0];
+
+  // Final label of every pixel, in rows of width.
+  private int[] labels = new int[0];
+
+  private int width = 0;
+  private int height = 0;
+  private int componentCount = 0;
+  private boolean overflowed = false;
+
+  // Measurements per stripe, capacity entries per stripe.
+  private int stripeCount = 0;
+  private int stripeRows = 0;
+  private int[] stripeAreas = new int[0];
+  private int[] stripeLefts = new int[0];
+  private int[] stripeTops = new int[0];
+  private int[] stripeRights = new int[0];
+  private int[] stripeBottoms = new int[0];
+  private long[] stripeSumsX = new long[0];
+  private long[] stripeSumsY = new long[0];
+
+  // Merged measurements per component.
+  private final int[] areas;
+  private final int[] lefts;
+  private final int[] tops;
+  private final int[] rights;
+  private final int[] bottoms;
+  private final long[] sumsX;
+  private final long[] sumsY;
+
+  /** Creates a labeler with {@link #DEFAULT_CAPACITY}. */
+  public ConnectedComponentLabeler() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a labeler.
+   *
+   * @param capacity the maximum number of components measured per image.
+   */
+  public ConnectedComponentLabeler(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+    }
+    this.capacity = capacity;
+    areas = new int[capacity];
+    lefts = new int[capacity];
+    tops = new int[capacity];
+    rights = new int[capacity];
+    bottoms = new int[capacity];
+    sumsX = new long[capacity];
+    sumsY = new long[capacity];
+  }
+
+  /**
+   * Enables or disables parallel processing. When enabled, the passes over the image are split into
+   * stripes which are processed on the common fork-join pool. The output is identical in both
+   * modes.
+   *
+   * @param enabled whether to process the image in parallel stripes.
+   */
+  public void setParallelEnabled(boolean enabled) {
+    setPool(enabled ? ForkJoinPool.commonPool() : null);
+  }
+
+  /**
+   * Processes the stripes on {@code pool}, or serially if it is null. Tests use this to process
+   * several stripes whatever the number of processors.
+   */
+  /* package-private */
+  void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Labels the components of a binary image plane.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane, where pixels of at least {@link #FOREGROUND_THRESHOLD}
+   *     are foreground. The buffer position and limit are ignored.
+   */
+  public void label(int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    resize(width, height);
+
+    // First pass: link the pixels of each stripe.
+    runStripes(
+        (startStripe, endStripe) -> {
+          for (int stripe = startStripe; stripe < endStripe; stripe++) {
+            linkStripe(input, rowStride, pixelStride, stripe);
+          }
+        });
+
+    // Merge the stripes along their boundaries.
+    for (int stripe = 1; stripe < stripeCount; stripe++) {
+      int row = stripe * stripeRows;
+      for (int x = 0; x < width; x++) {
+        int pixel = row * width + x;
+        if (parents[pixel] == BACKGROUND) {
+          continue;
+        }
+        for (int dx = -1; dx <= 1; dx++) {
+          int neighbourX = x + dx;
+          if (neighbourX >= 0 && neighbourX < width && parents[pixel - width + dx] != BACKGROUND) {
+            union(pixel, pixel - width + dx);
+          }
+        }
+      }
+    }
+
+    // Flatten the trees and number their roots. Roots are the smallest index of their tree, so
+    // the parent of every other pixel has already been flattened when it is reached.
+    componentCount = 0;
+    overflowed = false;
+    for (int pixel = 0; pixel < width * height; pixel++) {
+      int parent = parents[pixel];
+      if (parent == BACKGROUND) {
+        labels[pixel] = BACKGROUND;
+      } else if (parent == pixel) {
+        if (componentCount < capacity) {
+          labels[pixel] = componentCount++;
+        } else {
+          labels[pixel] = BACKGROUND;
+          overflowed = true;
+        }
+      } else {
+        parents[pixel] = parents[parent];
+      }
+    }
+
+    // Second pass: label the pixels and measure the components of each stripe.
+    runStripes(
+        (startStripe, endStripe) -> {
+          for (int stripe = startStripe; stripe < endStripe; stripe++) {
+            measureStripe(stripe);
+          }
+        });
+    mergeStripes();
+  }
+
+  /** Returns the width of the last labelled image. */
+  public int getWidth() {
+    return width;
+  }
+
+  /** Returns the height of the last labelled image. */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the label of every pixel of the last labelled image in rows of {@link #getWidth()},
+   * from 0 to {@link #getComponentCount()} - 1, or {@link #BACKGROUND}. The array is reused by the
+   * next call to {@link #label}, and may be larger than the image.
+   */
+  public int[] getLabels() {
+    return labels;
+  }
+
+  /** Returns the number of components, at most the capacity. */
+  public int getComponentCount() {
+    return componentCount;
+  }
+
+  /** Returns whether the last image had more components than the capacity. */
+  public boolean isOverflowed() {
+    return overflowed;
+  }
+
+  /** Returns the number of pixels of a component. */
+  public int getArea(int component) {
+    return areas[component];
+  }
+
+  /** Returns the first column of the bounding box of a component. */
+  public int getLeft(int component) {
+    return lefts[component];
+  }
+
+  /** Returns the first row of the bounding box of a component. */
+  public int getTop(int component) {
+    return tops[component];
+  }
+
+  /** Returns the column after the last column of the bounding box of a component. */
+  public int getRight(int component) {
+    return rights[component];
+  }
+
+  /** Returns the row after the last row of the bounding box of a component. */
+  public int getBottom(int component) {
+    return bottoms[component];
+  }
+
+  /** Returns the mean column of the pixels of a component. */
+  public float getCentroidX(int component) {
+    return (float) sumsX[component] / areas[component];
+  }
+
+  /** Returns the mean row of the pixels of a component. */
+  public float getCentroidY(int component) {
+    return (float) sumsY[component] / areas[component];
+  }
+
+  /** Links the foreground pixels of a stripe to their neighbours above and to the left. */
+  private void linkStripe(ByteBuffer input, int rowStride, int pixelStride, int stripe) {
+    int startRow = stripe * stripeRows;
+    int endRow = Math.min(startRow + stripeRows, height);
+    for (int y = startRow; y < endRow; y++) {
+      int inputOffset = y * rowStride;
+      for (int x = 0; x < width; x++) {
+        int pixel = y * width + x;
+        if ((input.get(inputOffset + x * pixelStride) & 0xFF) < FOREGROUND_THRESHOLD) {
+          parents[pixel] = BACKGROUND;
+          continue;
+        }
+        parents[pixel] = pixel;
+        if (x > 0 && parents[pixel - 1] != BACKGROUND) {
+          union(pixel, pixel - 1);
+        }
+        // The row above the stripe belongs to another stripe, and is merged afterwards.
+        if (y > startRow) {
+          int above = pixel - width;
+          if (x > 0 && parents[above - 1] != BACKGROUND) {
+            union(pixel, above - 1);
+          }
+          if (parents[above] != BACKGROUND) {
+            union(pixel, above);
+          }
+          if (x < width - 1 && parents[above + 1] != BACKGROUND) {
+            union(pixel, above + 1);
+          }
+        }
+      }
+    }
+  }
+
+  /** Labels the pixels of a stripe, and measures its part of every component. */
+  private void measureStripe(int stripe) {
+    int offset = stripe * capacity;
+    for (int component = 0; component < componentCount; component++) {
+      stripeAreas[offset + component] = 0;
+      stripeLefts[offset + component] = Integer.MAX_VALUE;
+      stripeTops[offset + component] = Integer.MAX_VALUE;
+      stripeRights[offset + component] = Integer.MIN_VALUE;
+      stripeBottoms[offset + component] = Integer.MIN_VALUE;
+      stripeSumsX[offset + component] = 0;
+      stripeSumsY[offset + component] = 0;
+    }
+
+    int startRow = stripe * stripeRows;
+    int endRow = Math.min(startRow + stripeRows, height);
+    for (int y = startRow; y < endRow; y++) {
+      for (int x = 0; x < width; x++) {
+        int pixel = y * width + x;
+        int parent = parents[pixel];
+        if (parent == BACKGROUND) {
+          continue;
+        }
+        // Roots were labelled while flattening, and are not written here.
+        int component = labels[parent];
+        if (parent != pixel) {
+          labels[pixel] = component;
+        }
+        if (component == BACKGROUND) {
+          continue;
+        }
+        int entry = offset + component;
+        stripeAreas[entry]++;
+        stripeLefts[entry] = Math.min(stripeLefts[entry], x);
+        stripeTops[entry] = Math.min(stripeTops[entry], y);
+        stripeRights[entry] = Math.max(stripeRights[entry], x + 1);
+        stripeBottoms[entry] = Math.max(stripeBottoms[entry], y + 1);
+        stripeSumsX[entry] += x;
+        stripeSumsY[entry] += y;
+      }
+    }
+  }
+
+  /** Merges the measurements of all stripes. */
+  private void mergeStripes() {
+    for (int component = 0; component < componentCount; component++) {
+      int area = 0;
+      int left = Integer.MAX_VALUE;
+      int top = Integer.MAX_VALUE;
+      int right = Integer.MIN_VALUE;
+      int bottom = Integer.MIN_VALUE;
+      long sumX = 0;
+      long sumY = 0;
+      for (int stripe = 0; stripe < stripeCount; stripe++) {
+        int entry = stripe * capacity + component;
+        area += stripeAreas[entry];
+        left = Math.min(left, stripeLefts[entry]);
+        top = Math.min(top, stripeTops[entry]);
+        right = Math.max(right, stripeRights[entry]);
+        bottom = Math.max(bottom, stripeBottoms[entry]);
+        sumX += stripeSumsX[entry];
+        sumY += stripeSumsY[entry];
+      }
+      areas[component] = area;
+      lefts[component] = left;
+      tops[component] = top;
+      rights[component] = right;
+      bottoms[component] = bottom;
+      sumsX[component] = sumX;
+      sumsY[component] = sumY;
+    }
+  }
+
+  /** Joins the trees of two foreground pixels, keeping the smaller root. */
+  private void union(int first, int second) {
+    int firstRoot = find(first);
+    int secondRoot = find(second);
+    if (firstRoot < secondRoot) {
+      parents[secondRoot] = firstRoot;
+    } else if (secondRoot < firstRoot) {
+      parents[firstRoot] = secondRoot;
+    }
+  }
+
+  /** Returns the root of the tree of a foreground pixel, halving the path to it. */
+  private int find(int pixel) {
+    while (parents[pixel] != pixel) {
+      parents[pixel] = parents[parents[pixel]];
+      pixel = parents[pixel];
+    }
+    return pixel;
+  }
+
+  /**
+   * Processes the stripes in the range [0, stripeCount), in parallel if enabled. The body receives
+   * ranges of stripes rather than rows.
+   */
+  private void runStripes(RowBands.Body body) {
+    if (pool == null || stripeCount == 1) {
+      body.processRows(0, stripeCount);
+      return;
+    }
+    // Align the bands to the stripes, so that every band covers whole stripes.
+    RowBands.run(
+        pool,
+        0,
+        height,
+        stripeRows,
+        (startRow, endRow) ->
+            body.processRows(startRow / stripeRows, (endRow + stripeRows - 1) / stripeRows));
+  }
+
+  /** Recomputes the stripes for a new image size, reallocating the buffers that are too small. */
+  private void resize(int width, int height) {
+    this.width = width;
+    this.height = height;
+    if (parents.length < width * height) {
+      parents = new int[width * height];
+      labels = new int[width * height];
+    }
+
+    int maxStripes = pool == null ? 1 : pool.getParallelism();
+    stripeCount = Math.max(1, Math.min(maxStripes, height / MIN_STRIPE_ROWS));
+    stripeRows = (height + stripeCount - 1) / stripeCount;
+    stripeCount = Math.max(1, (height + stripeRows - 1) / stripeRows);
+    if (stripeAreas.length < stripeCount * capacity) {
+      stripeAreas = new int[stripeCount * capacity];
+      stripeLefts = new int[stripeCount * capacity];
+      stripeTops = new int[stripeCount * capacity];
+      stripeRights = new int[stripeCount * capacity];
+      stripeBottoms = new int[stripeCount * capacity];
+      stripeSumsX = new long[stripeCount * capacity];
+      stripeSumsY = new long[stripeCount * capacity];
+    }
+  }
+}
@@ -55,10 +55,23 @@ public class CpuImageRenderer {
   private int overlayTextureId = -1;
   private float splitterPosition = 0.0f;
 
+  // Records the texture upload and draw latencies, or null to not record them.
+  private StageLatencyRecorder latencyRecorder = null;
+
   public int getTextureId() {
     return backgroundTextureId;
   }
 
+  /**
+   * Sets the recorder of the {@link StageLatencyRecorder.Stage#TEXTURE_UPLOAD} and {@link
+   * StageLatencyRecorder.Stage#DRAW} latencies.
+   *
+   * @param latencyRecorder the recorder, or null to stop recording.
+   */
+  public void setLatencyRecorder(StageLatencyRecorder latencyRecorder) {
+    this.latencyRecorder = latencyRecorder;
+  }
+
   /**
    * Allocates and initializes OpenGL resources needed by the background renderer. Must be called on
    * the OpenGL thread, typically in {@link GLSurfaceView.Renderer#onSurfaceCreated(GL10,
@@ -179,6 +192,7 @@ public class CpuImageRenderer {
 
     // Apply overlay image buffer
     if (processedImageBytesGrayscale != null) {
+      long uploadStart = System.nanoTime();
       GLES20.glActiveTexture(GLES20.GL_TEXTURE1);
       GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, overlayTextureId);
       GLES20.glTexImage2D(
@@ -191,6 +205,9 @@ public class CpuImageRenderer {
           GLES20.GL_LUMINANCE,
           GLES20.GL_UNSIGNED_BYTE,
           processedImageBytesGrayscale);
+      if (latencyRecorder != null) {
+        latencyRecorder.recordSince(StageLatencyRecorder.Stage.TEXTURE_UPLOAD, uploadStart);
+      }
     }
 
     updateTextureCoordinates(frame);
@@ -204,6 +221,8 @@ public class CpuImageRenderer {
    * unavailable for any reason, and only background should be drawn.
    */
   public void drawWithoutCpuImage() {
+    long drawStart = System.nanoTime();
+
     // No need to test or write depth, the screen quad has arbitrary depth, and is expected
     // to be drawn first.
     GLES20.glDisable(GLES20.GL_DEPTH_TEST);
@@ -246,6 +265,10 @@ public class CpuImageRenderer {
     GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
     ShaderUtil.checkGLError(TAG, "Draw");
+
+    if (latencyRecorder != null) {
+      latencyRecorder.recordSince(StageLatencyRecorder.Stage.DRAW, drawStart);
+    }
   }
 
   private void updateTextureCoordinates(Frame frame) {
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import com.google.ar.core.Coordinates2d;
+import com.google.ar.core.Frame;
+
+/**
+ * Maps rectangles from view coordinates, such as a touch area or the centre of the screen, to the
+ * {@link RegionOfInterest} they cover in the CPU image. The mapping accounts for the display
+ * rotation and the cropping of the camera image to the view aspect ratio, using {@link
+ * Frame#transformCoordinates2d}.
+ */
+public class DisplayRegionMapper {
+  // Corners of the rectangle, reused between calls to avoid allocations on every frame.
+  private final float[] viewCorners = new float[8];
+  private final float[] imageCorners = new float[8];
+
+  /**
+   * Adds the bounding box of a view rectangle in CPU image pixels to a region of interest. The
+   * bounding box is rounded outwards to whole pixels, so that it covers the whole rectangle.
+   *
+   * @param frame the current frame, which defines the mapping from view to image coordinates.
+   * @param left left edge of the rectangle, in view pixels.
+   * @param top top edge of the rectangle, in view pixels.
+   * @param right right edge of the rectangle, in view pixels.
+   * @param bottom bottom edge of the rectangle, in view pixels.
+   * @param regions the region of interest receiving the bounding box.
+   * @return false if the region of interest is full.
+   */
+  public boolean addViewRect(
+      Frame frame, float left, float top, float right, float bottom, RegionOfInterest regions) {
+    viewCorners[0] = left;
+    viewCorners[1] = top;
+    viewCorners[2] = right;
+    viewCorners[3] = top;
+    viewCorners[4] = right;
+    viewCorners[5] = bottom;
+    viewCorners[6] = left;
+    viewCorners[7] = bottom;
+    frame.transformCoordinates2d(
+        Coordinates2d.VIEW, viewCorners, Coordinates2d.IMAGE_PIXELS, imageCorners);
+
+    // The display may be rotated relative to the image, so any corner can be the top left one.
+    float minX = Float.MAX_VALUE;
+    float minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE;
+    float maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < imageCorners.length; i += 2) {
+      minX = Math.min(minX, imageCorners[i]);
+      minY = Math.min(minY, imageCorners[i + 1]);
+      maxX = Math.max(maxX, imageCorners[i]);
+      maxY = Math.max(maxY, imageCorners[i + 1]);
+    }
+    return regions.add(
+        (int) Math.floor(minX),
+        (int) Math.floor(minY),
+        (int) Math.ceil(maxX),
+        (int) Math.ceil(maxY));
+  }
+}
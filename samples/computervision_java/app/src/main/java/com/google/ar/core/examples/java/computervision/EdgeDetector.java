@@ -16,12 +16,72 @@
 package com.google.ar.core.examples.java.computervision;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
 
 /** Detects edges from input YUV image. */
 public class EdgeDetector {
-  private byte[] inputPixels = new byte[0]; // Reuse java byte array to avoid multiple allocations.
+  static final int SOBEL_EDGE_THRESHOLD = 128 * 128;
 
-  private static final int SOBEL_EDGE_THRESHOLD = 128 * 128;
+  // Bounds of the image contrast passed to getThresholdForContrast(). Below the minimum the
+  // threshold would turn sensor noise into edges.
+  private static final int MIN_CONTRAST = 16;
+  private static final int MAX_CONTRAST = 255;
+
+  // Output values of the edge map.
+  static final byte EDGE = (byte) 0xFF;
+  static final byte NO_EDGE = (byte) 0x1F;
+
+  // Pool used to process the image in parallel row bands, or null to process it serially.
+  private ForkJoinPool pool = null;
+
+  // Squared gradient magnitude above which a pixel is considered an edge.
+  private volatile int threshold = SOBEL_EDGE_THRESHOLD;
+
+  // Reuse the direct output buffer to avoid allocations on every frame.
+  private ByteBuffer outputBuffer = ByteBuffer.allocateDirect(0);
+
+  /**
+   * Enables or disables parallel processing. When enabled, the image is split into row bands which
+   * are processed on the common fork-join pool. The output is identical in both modes.
+   *
+   * @param enabled whether to process the image in parallel row bands.
+   */
+  public synchronized void setParallelEnabled(boolean enabled) {
+    pool = enabled ? ForkJoinPool.commonPool() : null;
+  }
+
+  /** Returns whether the image is processed in parallel row bands. */
+  public synchronized boolean isParallelEnabled() {
+    return pool != null;
+  }
+
+  /**
+   * Sets the squared gradient magnitude above which a pixel is considered an edge. Defaults to
+   * {@link #SOBEL_EDGE_THRESHOLD}.
+   */
+  public void setThreshold(int threshold) {
+    this.threshold = threshold;
+  }
+
+  /** Returns the squared gradient magnitude above which a pixel is considered an edge. */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Returns an edge threshold which adapts to the image contrast, such as {@link
+   * LuminanceStatistics#getContrast()}. A step between two gray levels is an edge if it is larger
+   * than a quarter of the contrast. The Sobel filter responds to a step of height h with a gradient
+   * magnitude of 4h, so the threshold is the squared contrast, which is {@link
+   * #SOBEL_EDGE_THRESHOLD} at a typical contrast of 128. Dim or hazy images then keep their edges,
+   * and high contrast images do not turn texture into edges.
+   *
+   * @param contrast spread of the gray levels of the image.
+   */
+  public static int getThresholdForContrast(int contrast) {
+    int clamped = Math.max(MIN_CONTRAST, Math.min(MAX_CONTRAST, contrast));
+    return clamped * clamped;
+  }
 
   /**
    * Process a grayscale image using the Sobel edge detector.
@@ -34,39 +94,294 @@ public class EdgeDetector {
    *     pixel. Number of bytes is width * height, row padding (if any) is removed.
    */
   public synchronized ByteBuffer detect(int width, int height, int stride, ByteBuffer input) {
-    // Reallocate input byte array if its size is different from the required size.
-    if (stride * height > inputPixels.length) {
-      inputPixels = new byte[stride * height];
-    }
+    // Allocate a new output byte array, which is owned by the caller.
+    ByteBuffer output = ByteBuffer.wrap(new byte[width * height]);
+    detect(width, height, stride, /* pixelStride= */ 1, input, output);
+    return output;
+  }
 
-    // Allocate a new output byte array.
-    byte[] outputPixels = new byte[width * height];
+  /**
+   * Process a grayscale image plane using the Sobel edge detector, reading the pixels straight from
+   * the input buffer. This is intended for the planes of {@link android.media.Image}, which are
+   * direct buffers that do not need to be copied before processing.
+   *
+   * <p>The returned buffer is owned by the edge detector and reused by the next call, so no memory
+   * is allocated once the image size is stable.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position and limit are ignored.
+   * @return a direct buffer of width * height bytes, where the byte value is the strength of the
+   *     edge at that pixel. The buffer is only valid until the next call to this method.
+   */
+  public synchronized ByteBuffer detect(
+      int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    // Reallocate the output buffer only if it is too small for the required size.
+    if (outputBuffer.capacity() < width * height) {
+      outputBuffer = ByteBuffer.allocateDirect(width * height);
+    }
+    outputBuffer.clear();
+    outputBuffer.limit(width * height);
+    detect(width, height, rowStride, pixelStride, input, outputBuffer);
+    return outputBuffer;
+  }
 
-    // Copy input buffer into a java array for ease of access. This is not the most optimal
-    // way to process an image, but used here for simplicity.
-    input.position(0);
+  /**
+   * Process a grayscale image plane using the Sobel edge detector, reading the pixels straight from
+   * the input buffer and writing the result into a caller supplied buffer.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position and limit are ignored.
+   * @param output buffer of at least width * height bytes which receives the processed image, with
+   *     row padding (if any) removed. The buffer position and limit are ignored.
+   */
+  public synchronized void detect(
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer input,
+      ByteBuffer output) {
+    if (width < 3 || height < 3) {
+      // There are no pixels with a full neighbourhood.
+      for (int i = 0; i < width * height; i++) {
+        output.put(i, (byte) 0);
+      }
+      return;
+    }
 
-    // Note: On certain devices with specific resolution where the stride is not equal to the width.
-    // In such situation the memory allocated for the frame may not be exact multiple of stride x
-    // height hence the capacity of the ByteBuffer could be less. To handle such situations it will
-    // be better to transfer the exact amount of image bytes to the destination bytes.
-    input.get(inputPixels, 0, input.capacity());
+    // The first and last rows have no neighbours above or below, so are left empty.
+    for (int i = 0; i < width; i++) {
+      output.put(i, (byte) 0);
+      output.put((height - 1) * width + i, (byte) 0);
+    }
 
     // Detect edges.
-    for (int j = 1; j < height - 1; j++) {
-      for (int i = 1; i < width - 1; i++) {
-        // Offset of the pixel at [i, j] of the input image.
-        int offset = (j * stride) + i;
-
-        // Neighbour pixels around the pixel at [i, j].
-        int a00 = inputPixels[offset - stride - 1];
-        int a01 = inputPixels[offset - stride];
-        int a02 = inputPixels[offset - stride + 1];
-        int a10 = inputPixels[offset - 1];
-        int a12 = inputPixels[offset + 1];
-        int a20 = inputPixels[offset + stride - 1];
-        int a21 = inputPixels[offset + stride];
-        int a22 = inputPixels[offset + stride + 1];
+    int threshold = this.threshold;
+    if (pool == null) {
+      detectRows(
+          input,
+          rowStride,
+          pixelStride,
+          output,
+          width,
+          1,
+          height - 1,
+          threshold,
+          EDGE,
+          NO_EDGE,
+          (byte) 0);
+    } else {
+      RowBands.run(
+          pool,
+          1,
+          height - 1,
+          (startRow, endRow) ->
+              detectRows(
+                  input,
+                  rowStride,
+                  pixelStride,
+                  output,
+                  width,
+                  startRow,
+                  endRow,
+                  threshold,
+                  EDGE,
+                  NO_EDGE,
+                  (byte) 0));
+    }
+  }
+
+  /**
+   * Process the regions of interest of a grayscale image plane using the Sobel edge detector.
+   * Input pixels outside the regions and the one pixel wide ring around them are not read, and
+   * output pixels outside the regions are left unchanged, so the output may keep the result of a
+   * previous frame there.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position and limit are ignored.
+   * @param output buffer of at least width * height bytes which receives the processed pixels of
+   *     the regions, with row padding (if any) removed. The buffer position and limit are ignored.
+   * @param regions the regions to process, in image pixel coordinates. Parts of the regions outside
+   *     the image are ignored.
+   */
+  public synchronized void detect(
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer input,
+      ByteBuffer output,
+      RegionOfInterest regions) {
+    int threshold = this.threshold;
+    for (int r = 0; r < regions.getCount(); r++) {
+      int left = Math.max(regions.getLeft(r), 0);
+      int top = Math.max(regions.getTop(r), 0);
+      int right = Math.min(regions.getRight(r), width);
+      int bottom = Math.min(regions.getBottom(r), height);
+      if (left >= right || top >= bottom) {
+        continue;
+      }
+
+      // Pixels on the image border have no full neighbourhood, and are left empty like in the
+      // full image.
+      for (int i = left; i < right; i++) {
+        if (top == 0) {
+          output.put(i, (byte) 0);
+        }
+        if (bottom == height) {
+          output.put((height - 1) * width + i, (byte) 0);
+        }
+      }
+      for (int j = top; j < bottom; j++) {
+        if (left == 0) {
+          output.put(j * width, (byte) 0);
+        }
+        if (right == width) {
+          output.put(j * width + width - 1, (byte) 0);
+        }
+      }
+
+      int startColumn = Math.max(left, 1);
+      int endColumn = Math.min(right, width - 1);
+      int startRow = Math.max(top, 1);
+      int endRow = Math.min(bottom, height - 1);
+      if (startColumn >= endColumn || startRow >= endRow) {
+        continue;
+      }
+      if (pool == null) {
+        detectRegion(
+            input,
+            rowStride,
+            pixelStride,
+            output,
+            width,
+            startRow,
+            endRow,
+            startColumn,
+            endColumn,
+            threshold,
+            EDGE,
+            NO_EDGE);
+      } else {
+        RowBands.run(
+            pool,
+            startRow,
+            endRow,
+            (bandStartRow, bandEndRow) ->
+                detectRegion(
+                    input,
+                    rowStride,
+                    pixelStride,
+                    output,
+                    width,
+                    bandStartRow,
+                    bandEndRow,
+                    startColumn,
+                    endColumn,
+                    threshold,
+                    EDGE,
+                    NO_EDGE));
+      }
+    }
+  }
+
+  /**
+   * Applies the Sobel filter to the output rows in the range [startRow, endRow), which must not
+   * include the first or last row of the image. Reads the input rows from startRow - 1 to endRow
+   * inclusive.
+   *
+   * @param threshold squared gradient magnitude above which a pixel is considered an edge.
+   * @param edge output value of edge pixels.
+   * @param noEdge output value of the other pixels.
+   * @param border output value of the first and last pixel of each row.
+   */
+  static void detectRows(
+      ByteBuffer input,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer output,
+      int width,
+      int startRow,
+      int endRow,
+      int threshold,
+      byte edge,
+      byte noEdge,
+      byte border) {
+    detectRegion(
+        input,
+        rowStride,
+        pixelStride,
+        output,
+        width,
+        startRow,
+        endRow,
+        1,
+        width - 1,
+        threshold,
+        edge,
+        noEdge);
+    for (int j = startRow; j < endRow; j++) {
+      output.put(j * width, border);
+      output.put(j * width + width - 1, border);
+    }
+  }
+
+  /**
+   * Applies the Sobel filter to the output pixels in the columns [startColumn, endColumn) of the
+   * rows [startRow, endRow), which must not include the border pixels of the image. Only reads the
+   * input pixels of the region and the one pixel wide ring around it, and only writes the output
+   * pixels of the region.
+   *
+   * @param threshold squared gradient magnitude above which a pixel is considered an edge.
+   * @param edge output value of edge pixels.
+   * @param noEdge output value of the other pixels.
+   */
+  static void detectRegion(
+      ByteBuffer input,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer output,
+      int width,
+      int startRow,
+      int endRow,
+      int startColumn,
+      int endColumn,
+      int threshold,
+      byte edge,
+      byte noEdge) {
+    for (int j = startRow; j < endRow; j++) {
+      // Offsets of the rows above, at and below row j of the input image.
+      int above = (j - 1) * rowStride;
+      int center = j * rowStride;
+      int below = (j + 1) * rowStride;
+
+      // The left and middle columns of the neighbourhood of the pixel at [startColumn, j]. The
+      // window slides one pixel to the right per iteration, so only the right column has to be read
+      // each time.
+      int left = (startColumn - 1) * pixelStride;
+      int a00 = input.get(above + left);
+      int a10 = input.get(center + left);
+      int a20 = input.get(below + left);
+      int a01 = input.get(above + left + pixelStride);
+      int a11 = input.get(center + left + pixelStride);
+      int a21 = input.get(below + left + pixelStride);
+
+      int outputOffset = j * width;
+      for (int i = startColumn; i < endColumn; i++) {
+        // Right column of the neighbourhood of the pixel at [i, j].
+        int right = (i + 1) * pixelStride;
+        int a02 = input.get(above + right);
+        int a12 = input.get(center + right);
+        int a22 = input.get(below + right);
 
         // Sobel X filter:
         //   -1, 0, 1,
@@ -80,14 +395,20 @@ public class EdgeDetector {
         //   -1, -2, -1
         int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
 
-        if ((xSum * xSum) + (ySum * ySum) > SOBEL_EDGE_THRESHOLD) {
-          outputPixels[(j * width) + i] = (byte) 0xFF;
+        if ((xSum * xSum) + (ySum * ySum) > threshold) {
+          output.put(outputOffset + i, edge);
         } else {
-          outputPixels[(j * width) + i] = (byte) 0x1F;
+          output.put(outputOffset + i, noEdge);
         }
+
+        // Slide the neighbourhood one pixel to the right.
+        a00 = a01;
+        a10 = a11;
+        a20 = a21;
+        a01 = a02;
+        a11 = a12;
+        a21 = a22;
       }
     }
-
-    return ByteBuffer.wrap(outputPixels);
   }
 }
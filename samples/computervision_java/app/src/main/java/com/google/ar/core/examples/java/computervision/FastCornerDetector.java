@@ -0,0 +1,387 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Detects FAST-9 corners in a grayscale image plane, such as the Y plane of a CPU image.
+ *
+ * <p>A pixel is a corner if at least 9 contiguous pixels of the circle of radius 3 around it are
+ * all brighter or all darker than the pixel by more than a threshold. Corners are scored either by
+ * the sum of those differences above the threshold, or optionally by the Harris response of their
+ * neighbourhood, which prefers corners over strong edges. To spread the keypoints over the image,
+ * only the best corner of each cell of a square grid is kept, and at most a fixed number of the
+ * best cells are reported, which bounds the cost of later stages such as tracking.
+ *
+ * <p>The image can be processed in parallel row bands, which are aligned to the rows of cells so
+ * that every cell is owned by a single band. All buffers are reused between frames, so no memory
+ * is allocated once the image size is stable.
+ */
+public class FastCornerDetector {
+  /** Default difference in gray levels between a corner and the pixels of its arc. */
+  public static final int DEFAULT_THRESHOLD = 20;
+
+  /** Default width and height of the cells of the suppression grid, in pixels. */
+  public static final int DEFAULT_CELL_SIZE = 16;
+
+  /** Default maximum number of keypoints per frame. */
+  public static final int DEFAULT_MAX_KEYPOINTS = 500;
+
+  // Offsets of the 16 pixels of the circle of radius 3, clockwise from the top.
+  private static final int[] CIRCLE_X = {0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3, -3, -3, -2, -1};
+  private static final int[] CIRCLE_Y = {-3, -3, -2, -1, 0, 1, 2, 3, 3, 3, 2, 1, 0, -1, -2, -3};
+  private static final int CIRCLE_SIZE = 16;
+
+  // Pixels closer to the image border than the circle radius have no full circle.
+  private static final int BORDER = 3;
+
+  // Harris responses are computed over a 5x5 window of central differences, which reads as far from
+  // the corner as the circle does.
+  private static final int HARRIS_RADIUS = 2;
+  private static final float HARRIS_K = 0.04f;
+
+  private final int threshold;
+  private final int cellSize;
+  private final int maxKeypoints;
+  private boolean harrisEnabled = false;
+
+  // Pool used to process the image in parallel row bands, or null to process it serially.
+  private ForkJoinPool pool = null;
+
+  // Offsets of the circle pixels in the input buffer, for the strides they were computed for.
+  private final int[] circleOffsets = new int[CIRCLE_SIZE];
+  private int circleRowStride = -1;
+  private int circlePixelStride = -1;
+
+  // Best corner of each cell, as its score and its position y * width + x, or -1 if none.
+  private int cellsX = 0;
+  private int cellsY = 0;
+  private float[] cellScores = new float[0];
+  private int[] cellPositions = new int[0];
+
+  // Scratch copy of the cell scores, for selecting the best cells.
+  private float[] selectionScores = new float[0];
+
+  /** Creates a detector with the default parameters. */
+  public FastCornerDetector() {
+    this(DEFAULT_THRESHOLD, DEFAULT_CELL_SIZE, DEFAULT_MAX_KEYPOINTS);
+  }
+
+  /**
+   * Creates a detector.
+   *
+   * @param threshold difference in gray levels by which the pixels of the arc must be brighter or
+   *     darker than a corner.
+   * @param cellSize width and height of the cells of the suppression grid, in pixels.
+   * @param maxKeypoints maximum number of keypoints per frame.
+   */
+  public FastCornerDetector(int threshold, int cellSize, int maxKeypoints) {
+    if (cellSize < 1 || maxKeypoints < 1) {
+      throw new IllegalArgumentException(
+          "Cell size and maximum keypoint count must be positive, got "
+              + cellSize
+              + " and "
+              + maxKeypoints);
+    }
+    this.threshold = threshold;
+    this.cellSize = cellSize;
+    this.maxKeypoints = maxKeypoints;
+  }
+
+  /**
+   * Enables or disables parallel processing. When enabled, the image is split into row bands which
+   * are processed on the common fork-join pool. The output is identical in both modes.
+   *
+   * @param enabled whether to process the image in parallel row bands.
+   */
+  public synchronized void setParallelEnabled(boolean enabled) {
+    setPool(enabled ? ForkJoinPool.commonPool() : null);
+  }
+
+  /**
+   * Processes the row bands on {@code pool}, or serially if it is null. Tests use this to process
+   * several bands whatever the number of processors.
+   */
+  /* package-private */
+  synchronized void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /**
+   * Enables or disables Harris scoring. When enabled, corners are scored by the Harris response of
+   * their neighbourhood instead of the FAST score, which costs more but suppresses corners on
+   * edges.
+   *
+   * @param enabled whether to score corners by their Harris response.
+   */
+  public synchronized void setHarrisEnabled(boolean enabled) {
+    harrisEnabled = enabled;
+  }
+
+  /**
+   * Detects the corners of a grayscale image plane.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position and limit are ignored.
+   * @param keypoints the list receiving the keypoints, in row major order of their cells. It is
+   *     cleared first, and receives at most the maximum number of keypoints or its capacity,
+   *     whichever is smaller.
+   */
+  public synchronized void detect(
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer input,
+      KeypointList keypoints) {
+    keypoints.clear();
+    if (width <= 2 * BORDER || height <= 2 * BORDER) {
+      return;
+    }
+    updateCircleOffsets(rowStride, pixelStride);
+    resizeGrid(width, height);
+
+    if (pool == null) {
+      detectRows(input, width, height, rowStride, pixelStride, 0, height);
+    } else {
+      RowBands.run(
+          pool,
+          0,
+          height,
+          cellSize,
+          (startRow, endRow) ->
+              detectRows(input, width, height, rowStride, pixelStride, startRow, endRow));
+    }
+
+    selectKeypoints(width, Math.min(maxKeypoints, keypoints.getCapacity()), keypoints);
+  }
+
+  /**
+   * Finds the best corner of each cell of the rows [startRow, endRow). The rows must cover whole
+   * rows of cells, so that no other band writes the same cells.
+   */
+  private void detectRows(
+      ByteBuffer input,
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      int startRow,
+      int endRow) {
+    int[] circle = circleOffsets;
+    int firstRow = Math.max(startRow, BORDER);
+    int lastRow = Math.min(endRow, height - BORDER);
+    for (int y = firstRow; y < lastRow; y++) {
+      int rowOffset = y * rowStride;
+      int cellRowOffset = (y / cellSize) * cellsX;
+      for (int x = BORDER; x < width - BORDER; x++) {
+        int center = rowOffset + x * pixelStride;
+        int value = input.get(center) & 0xFF;
+        int high = value + threshold;
+        int low = value - threshold;
+
+        // Any arc of 9 contiguous pixels contains at least 2 of the 4 pixels at the top, right,
+        // bottom and left of the circle. This rejects most pixels after reading only those 4.
+        int top = input.get(center + circle[0]) & 0xFF;
+        int right = input.get(center + circle[4]) & 0xFF;
+        int bottom = input.get(center + circle[8]) & 0xFF;
+        int left = input.get(center + circle[12]) & 0xFF;
+        int brightCount =
+            (top > high ? 1 : 0)
+                + (right > high ? 1 : 0)
+                + (bottom > high ? 1 : 0)
+                + (left > high ? 1 : 0);
+        int darkCount =
+            (top < low ? 1 : 0)
+                + (right < low ? 1 : 0)
+                + (bottom < low ? 1 : 0)
+                + (left < low ? 1 : 0);
+        if (brightCount < 2 && darkCount < 2) {
+          continue;
+        }
+
+        // Classify the whole circle, and sum the differences beyond the threshold for scoring.
+        int brightMask = 0;
+        int darkMask = 0;
+        int brightSum = 0;
+        int darkSum = 0;
+        for (int k = 0; k < CIRCLE_SIZE; k++) {
+          int circleValue = input.get(center + circle[k]) & 0xFF;
+          if (circleValue > high) {
+            brightMask |= 1 << k;
+            brightSum += circleValue - high;
+          } else if (circleValue < low) {
+            darkMask |= 1 << k;
+            darkSum += low - circleValue;
+          }
+        }
+        boolean bright = hasArc(brightMask);
+        if (!bright && !hasArc(darkMask)) {
+          continue;
+        }
+
+        float score =
+            harrisEnabled
+                ? harrisScore(input, center, rowStride, pixelStride)
+                : (bright ? brightSum : darkSum);
+        int cell = cellRowOffset + x / cellSize;
+        if (cellPositions[cell] < 0 || score > cellScores[cell]) {
+          cellScores[cell] = score;
+          cellPositions[cell] = y * width + x;
+        }
+      }
+    }
+  }
+
+  /** Returns whether a mask of circle pixels has 9 contiguous bits set, wrapping around. */
+  private static boolean hasArc(int mask) {
+    if (Integer.bitCount(mask) < 9) {
+      return false;
+    }
+    // Double the circle to handle the wraparound, then narrow the mask to the starts of runs of
+    // 2, 4, 8 and finally 9 set bits.
+    int bits = mask | (mask << CIRCLE_SIZE);
+    int runs = bits & (bits >>> 1);
+    runs &= runs >>> 2;
+    runs &= runs >>> 4;
+    runs &= bits >>> 8;
+    return runs != 0;
+  }
+
+  /** Returns the Harris corner response of the window around a pixel. */
+  private static float harrisScore(ByteBuffer input, int center, int rowStride, int pixelStride) {
+    float sumXx = 0;
+    float sumYy = 0;
+    float sumXy = 0;
+    for (int dy = -HARRIS_RADIUS; dy <= HARRIS_RADIUS; dy++) {
+      for (int dx = -HARRIS_RADIUS; dx <= HARRIS_RADIUS; dx++) {
+        int offset = center + dy * rowStride + dx * pixelStride;
+        int gradientX =
+            (input.get(offset + pixelStride) & 0xFF) - (input.get(offset - pixelStride) & 0xFF);
+        int gradientY =
+            (input.get(offset + rowStride) & 0xFF) - (input.get(offset - rowStride) & 0xFF);
+        sumXx += gradientX * gradientX;
+        sumYy += gradientY * gradientY;
+        sumXy += gradientX * gradientY;
+      }
+    }
+    float trace = sumXx + sumYy;
+    return (sumXx * sumYy - sumXy * sumXy) - HARRIS_K * trace * trace;
+  }
+
+  /** Adds the corners of the best cells to the keypoint list, at most maxCount of them. */
+  private void selectKeypoints(int width, int maxCount, KeypointList keypoints) {
+    int cellCount = cellsX * cellsY;
+    int cornerCount = 0;
+    for (int cell = 0; cell < cellCount; cell++) {
+      if (cellPositions[cell] >= 0) {
+        selectionScores[cornerCount++] = cellScores[cell];
+      }
+    }
+
+    // If there are too many corners, only keep those scoring at least as high as the maxCount-th
+    // best corner, preferring the cells that come first among equal scores.
+    float minScore = -Float.MAX_VALUE;
+    if (cornerCount > maxCount) {
+      minScore = selectKthLargest(selectionScores, cornerCount, maxCount - 1);
+    }
+    int aboveCount = 0;
+    for (int i = 0; i < cornerCount; i++) {
+      if (selectionScores[i] > minScore) {
+        aboveCount++;
+      }
+    }
+    int equalCount = maxCount - aboveCount;
+
+    for (int cell = 0; cell < cellCount && keypoints.getCount() < maxCount; cell++) {
+      int position = cellPositions[cell];
+      if (position < 0) {
+        continue;
+      }
+      float score = cellScores[cell];
+      if (score > minScore || (score == minScore && equalCount-- > 0)) {
+        keypoints.add(position % width, position / width, score);
+      }
+    }
+  }
+
+  /**
+   * Returns the k-th largest of the first count values, counting from 0. Reorders the values.
+   */
+  private static float selectKthLargest(float[] values, int count, int k) {
+    int left = 0;
+    int right = count - 1;
+    while (left < right) {
+      float pivot = values[(left + right) >>> 1];
+      int i = left;
+      int j = right;
+      while (i <= j) {
+        while (values[i] > pivot) {
+          i++;
+        }
+        while (values[j] < pivot) {
+          j--;
+        }
+        if (i <= j) {
+          float swap = values[i];
+          values[i] = values[j];
+          values[j] = swap;
+          i++;
+          j--;
+        }
+      }
+      if (k <= j) {
+        right = j;
+      } else if (k >= i) {
+        left = i;
+      } else {
+        return values[k];
+      }
+    }
+    return values[k];
+  }
+
+  private void updateCircleOffsets(int rowStride, int pixelStride) {
+    if (rowStride == circleRowStride && pixelStride == circlePixelStride) {
+      return;
+    }
+    for (int k = 0; k < CIRCLE_SIZE; k++) {
+      circleOffsets[k] = CIRCLE_Y[k] * rowStride + CIRCLE_X[k] * pixelStride;
+    }
+    circleRowStride = rowStride;
+    circlePixelStride = pixelStride;
+  }
+
+  /** Empties the grid for a new frame, reallocating the arrays that are too small. */
+  private void resizeGrid(int width, int height) {
+    cellsX = (width + cellSize - 1) / cellSize;
+    cellsY = (height + cellSize - 1) / cellSize;
+    int cellCount = cellsX * cellsY;
+    if (cellPositions.length < cellCount) {
+      cellScores = new float[cellCount];
+      cellPositions = new int[cellCount];
+      selectionScores = new float[cellCount];
+    }
+    for (int cell = 0; cell < cellCount; cell++) {
+      cellPositions[cell] = -1;
+    }
+  }
+}
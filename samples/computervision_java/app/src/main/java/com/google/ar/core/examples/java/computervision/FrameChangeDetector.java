@@ -0,0 +1,267 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Cheap gate in front of CPU image processing which detects whether a frame differs from the last
+ * processed frame. When the phone is still, consecutive camera frames are nearly identical, and the
+ * previous result can be reused instead of processing the frame again.
+ *
+ * <p>The image is divided into square blocks. Every few pixels in both directions are sampled, and
+ * a block has changed when the mean absolute difference of its samples to the samples of the last
+ * processed frame exceeds a threshold, which keeps sensor noise from triggering a change. Sampling
+ * reads only a small fraction of the pixels, so the gate costs much less than the processing it
+ * skips.
+ *
+ * <p>Typical use, once per frame:
+ *
+ * <pre>{@code
+ * if (changeDetector.detectChanges(width, height, rowStride, pixelStride, input)) {
+ *   edgeDetector.detect(
+ *       width, height, rowStride, pixelStride, input, output,
+ *       changeDetector.getChangedRegions());
+ *   changeDetector.acceptChangedBlocks();
+ * }
+ * }</pre>
+ *
+ * <p>The reference samples are only updated for the blocks which the caller accepts as processed,
+ * so a slow drift accumulates until it is large enough to count as a change. No memory is
+ * allocated once the image size is stable. The detector is not thread safe.
+ */
+public class FrameChangeDetector {
+  /** Default width and height of a block, in pixels. */
+  public static final int DEFAULT_BLOCK_SIZE = 32;
+
+  /** Default distance between two samples, in pixels. */
+  public static final int DEFAULT_SAMPLE_STEP = 4;
+
+  /** Default mean absolute difference of the samples of a block above which it has changed. */
+  public static final int DEFAULT_BLOCK_THRESHOLD = 6;
+
+  /** Default fraction of changed blocks above which the frame has changed. */
+  public static final float DEFAULT_FRAME_THRESHOLD = 0.02f;
+
+  private final int blockSize;
+  private final int sampleStep;
+  private final int blockThreshold;
+  private final float frameThreshold;
+
+  // Size of the image and of the sample and block grids.
+  private int width = 0;
+  private int height = 0;
+  private int samplesX = 0;
+  private int samplesY = 0;
+  private int blocksX = 0;
+  private int blocksY = 0;
+
+  // Samples of the current frame and of the last processed frame, in rows of samplesX.
+  private byte[] currentSamples = new byte[0];
+  private byte[] referenceSamples = new byte[0];
+  private boolean hasReference = false;
+
+  // Per block sum of absolute sample differences, and whether the block has changed.
+  private int[] blockDifferences = new int[0];
+  private boolean[] changedBlocks = new boolean[0];
+  private int changedBlockCount = 0;
+
+  private RegionOfInterest changedRegions = new RegionOfInterest(1);
+
+  /** Creates a detector with the default parameters. */
+  public FrameChangeDetector() {
+    this(DEFAULT_BLOCK_SIZE, DEFAULT_SAMPLE_STEP, DEFAULT_BLOCK_THRESHOLD, DEFAULT_FRAME_THRESHOLD);
+  }
+
+  /**
+   * Creates a detector.
+   *
+   * @param blockSize width and height of a block, in pixels. Must be a multiple of sampleStep.
+   * @param sampleStep distance between two samples, in pixels.
+   * @param blockThreshold mean absolute difference of the samples of a block, in gray levels, above
+   *     which the block has changed.
+   * @param frameThreshold fraction of changed blocks above which the frame has changed. Use 0 to
+   *     treat any changed block as a changed frame.
+   */
+  public FrameChangeDetector(
+      int blockSize, int sampleStep, int blockThreshold, float frameThreshold) {
+    if (sampleStep < 1 || blockSize < sampleStep || blockSize % sampleStep != 0) {
+      throw new IllegalArgumentException(
+          "Block size must be a multiple of the sample step, got "
+              + blockSize
+              + " and "
+              + sampleStep);
+    }
+    this.blockSize = blockSize;
+    this.sampleStep = sampleStep;
+    this.blockThreshold = blockThreshold;
+    this.frameThreshold = frameThreshold;
+  }
+
+  /**
+   * Samples a grayscale image plane and compares it to the last processed frame. Every block
+   * changes when there is no processed frame of the same size yet.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position and limit are ignored.
+   * @return whether the fraction of changed blocks exceeds the frame threshold. If not, the result
+   *     of the last processed frame can be reused.
+   */
+  public boolean detectChanges(
+      int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    if (width != this.width || height != this.height) {
+      resize(width, height);
+    }
+
+    // Sample the image, and sum the absolute differences to the reference per block.
+    int samplesPerBlock = blockSize / sampleStep;
+    for (int b = 0; b < blocksX * blocksY; b++) {
+      blockDifferences[b] = 0;
+    }
+    for (int sy = 0; sy < samplesY; sy++) {
+      int inputOffset = sy * sampleStep * rowStride;
+      int sampleOffset = sy * samplesX;
+      int blockOffset = (sy / samplesPerBlock) * blocksX;
+      for (int sx = 0; sx < samplesX; sx++) {
+        byte sample = input.get(inputOffset + sx * sampleStep * pixelStride);
+        currentSamples[sampleOffset + sx] = sample;
+        blockDifferences[blockOffset + sx / samplesPerBlock] +=
+            Math.abs((sample & 0xFF) - (referenceSamples[sampleOffset + sx] & 0xFF));
+      }
+    }
+
+    changedBlockCount = 0;
+    for (int by = 0; by < blocksY; by++) {
+      int blockSamplesY = Math.min(samplesPerBlock, samplesY - by * samplesPerBlock);
+      for (int bx = 0; bx < blocksX; bx++) {
+        int blockSamplesX = Math.min(samplesPerBlock, samplesX - bx * samplesPerBlock);
+        int b = by * blocksX + bx;
+        changedBlocks[b] =
+            !hasReference || blockDifferences[b] > blockThreshold * blockSamplesX * blockSamplesY;
+        if (changedBlocks[b]) {
+          changedBlockCount++;
+        }
+      }
+    }
+
+    collectChangedRegions();
+    return changedBlockCount > 0 && changedBlockCount > frameThreshold * blocksX * blocksY;
+  }
+
+  /** Returns the number of blocks which changed in the last call to {@link #detectChanges}. */
+  public int getChangedBlockCount() {
+    return changedBlockCount;
+  }
+
+  /** Returns the number of blocks the image is divided into. */
+  public int getBlockCount() {
+    return blocksX * blocksY;
+  }
+
+  /**
+   * Returns the blocks which changed in the last call to {@link #detectChanges}, in image pixel
+   * coordinates. Horizontally adjacent blocks are merged into one rectangle, and every rectangle is
+   * grown by one pixel, so that it also covers the output pixels of 3x3 operators next to the block
+   * which read pixels of the block. The regions are reused by the next call.
+   */
+  public RegionOfInterest getChangedRegions() {
+    return changedRegions;
+  }
+
+  /**
+   * Makes the samples of the changed blocks the reference for the next frames. Call this after
+   * processing the regions returned by {@link #getChangedRegions()}.
+   */
+  public void acceptChangedBlocks() {
+    int samplesPerBlock = blockSize / sampleStep;
+    for (int sy = 0; sy < samplesY; sy++) {
+      int sampleOffset = sy * samplesX;
+      int blockOffset = (sy / samplesPerBlock) * blocksX;
+      for (int sx = 0; sx < samplesX; sx++) {
+        if (changedBlocks[blockOffset + sx / samplesPerBlock]) {
+          referenceSamples[sampleOffset + sx] = currentSamples[sampleOffset + sx];
+        }
+      }
+    }
+    hasReference = true;
+  }
+
+  /**
+   * Makes the samples of all blocks the reference for the next frames. Call this after processing
+   * the whole frame.
+   */
+  public void acceptAllBlocks() {
+    System.arraycopy(currentSamples, 0, referenceSamples, 0, samplesX * samplesY);
+    hasReference = true;
+  }
+
+  /** Forgets the last processed frame, so that every block of the next frame changes. */
+  public void reset() {
+    hasReference = false;
+  }
+
+  /** Recomputes the grids for a new image size, reallocating the arrays that are too small. */
+  private void resize(int width, int height) {
+    this.width = width;
+    this.height = height;
+    samplesX = (width + sampleStep - 1) / sampleStep;
+    samplesY = (height + sampleStep - 1) / sampleStep;
+    blocksX = (width + blockSize - 1) / blockSize;
+    blocksY = (height + blockSize - 1) / blockSize;
+    if (currentSamples.length < samplesX * samplesY) {
+      currentSamples = new byte[samplesX * samplesY];
+      referenceSamples = new byte[samplesX * samplesY];
+    }
+    if (changedBlocks.length < blocksX * blocksY) {
+      blockDifferences = new int[blocksX * blocksY];
+      changedBlocks = new boolean[blocksX * blocksY];
+    }
+    // Every other block of a row can start a separate rectangle.
+    int maxRegionCount = blocksY * ((blocksX + 1) / 2);
+    if (changedRegions.getCapacity() < maxRegionCount) {
+      changedRegions = new RegionOfInterest(maxRegionCount);
+    }
+    hasReference = false;
+  }
+
+  /** Merges runs of changed blocks in each block row into rectangles. */
+  private void collectChangedRegions() {
+    changedRegions.clear();
+    for (int by = 0; by < blocksY; by++) {
+      int top = Math.max(by * blockSize - 1, 0);
+      int bottom = Math.min((by + 1) * blockSize + 1, height);
+      int bx = 0;
+      while (bx < blocksX) {
+        if (!changedBlocks[by * blocksX + bx]) {
+          bx++;
+          continue;
+        }
+        int start = bx;
+        while (bx < blocksX && changedBlocks[by * blocksX + bx]) {
+          bx++;
+        }
+        changedRegions.add(
+            Math.max(start * blockSize - 1, 0),
+            top,
+            Math.min(bx * blockSize + 1, width),
+            bottom);
+      }
+    }
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CPU reference implementation of the edge detection shaders used by {@link TextureReader} for the
+ * {@link TextureReaderImage#IMAGE_FORMAT_EDGE_I8} and {@link
+ * TextureReaderImage#IMAGE_FORMAT_EDGE_PACKED} formats.
+ *
+ * <p>Given the grayscale image that the {@link TextureReaderImage#IMAGE_FORMAT_I8} format
+ * downloads, {@link #detect} computes the same edges as gpu_download_sobel_i8.frag, and {@link
+ * #pack} the same bits as gpu_download_sobel_packed.frag, so the shader output can be checked
+ * without a GPU.
+ *
+ * <p>The results differ from {@link EdgeDetector} in two intended ways. Pixels outside the image
+ * are clamped to the nearest image pixel, like the texture sampler does, so border pixels have
+ * edges too. And luminance is unsigned, 0 to 255, like the texture the shaders read, whereas {@link
+ * EdgeDetector} reads the bytes of the CPU image as signed values, so that gray levels above 127
+ * wrap around to negative values. Both agree on the inner pixels of images with gray levels of at
+ * most 127.
+ */
+public final class GpuSobelReference {
+  /** Number of pixels packed into each byte of the {@code IMAGE_FORMAT_EDGE_PACKED} format. */
+  public static final int PIXELS_PER_BYTE = 8;
+
+  private GpuSobelReference() {}
+
+  /**
+   * Detects edges in a grayscale image like gpu_download_sobel_i8.frag.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param input bytes of the image, without row padding.
+   * @param threshold squared gradient magnitude above which a pixel is an edge.
+   * @param output buffer of at least width * height bytes which receives 0xFF for edge pixels and
+   *     0x1F for other pixels.
+   */
+  public static void detect(
+      int width, int height, ByteBuffer input, int threshold, ByteBuffer output) {
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        boolean edge = isEdge(input, width, height, i, j, threshold);
+        output.put(j * width + i, edge ? EdgeDetector.EDGE : EdgeDetector.NO_EDGE);
+      }
+    }
+  }
+
+  /**
+   * Packs an edge image into one bit per pixel like gpu_download_sobel_packed.frag. Bit k of byte i
+   * of a row holds pixel 8 * i + k, which is set if the pixel is 0xFF.
+   *
+   * @param width image width, a multiple of {@link #PIXELS_PER_BYTE}.
+   * @param height image height.
+   * @param edges edge image of width * height bytes, as produced by {@link #detect}.
+   * @param packed buffer of at least width * height / 8 bytes which receives the packed bits.
+   */
+  public static void pack(int width, int height, ByteBuffer edges, ByteBuffer packed) {
+    checkPackedWidth(width);
+    int packedWidth = width / PIXELS_PER_BYTE;
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < packedWidth; i++) {
+        int bits = 0;
+        for (int k = 0; k < PIXELS_PER_BYTE; k++) {
+          if (edges.get(j * width + i * PIXELS_PER_BYTE + k) == EdgeDetector.EDGE) {
+            bits |= 1 << k;
+          }
+        }
+        packed.put(j * packedWidth + i, (byte) bits);
+      }
+    }
+  }
+
+  /**
+   * Expands a packed edge image to one byte per pixel, 0xFF for edge pixels and 0x1F for other
+   * pixels, so that it can be displayed like the output of {@link EdgeDetector}.
+   *
+   * @param width image width, a multiple of {@link #PIXELS_PER_BYTE}.
+   * @param height image height.
+   * @param packed packed bits of width * height / 8 bytes.
+   * @param output buffer of at least width * height bytes which receives the edge image.
+   */
+  public static void unpack(int width, int height, ByteBuffer packed, ByteBuffer output) {
+    checkPackedWidth(width);
+    int byteCount = width * height / PIXELS_PER_BYTE;
+    for (int i = 0; i < byteCount; i++) {
+      int bits = packed.get(i);
+      int offset = i * PIXELS_PER_BYTE;
+      for (int k = 0; k < PIXELS_PER_BYTE; k++) {
+        output.put(offset + k, (bits & (1 << k)) != 0 ? EdgeDetector.EDGE : EdgeDetector.NO_EDGE);
+      }
+    }
+  }
+
+  private static boolean isEdge(
+      ByteBuffer input, int width, int height, int x, int y, int threshold) {
+    int a00 = sample(input, width, height, x - 1, y - 1);
+    int a01 = sample(input, width, height, x, y - 1);
+    int a02 = sample(input, width, height, x + 1, y - 1);
+    int a10 = sample(input, width, height, x - 1, y);
+    int a12 = sample(input, width, height, x + 1, y);
+    int a20 = sample(input, width, height, x - 1, y + 1);
+    int a21 = sample(input, width, height, x, y + 1);
+    int a22 = sample(input, width, height, x + 1, y + 1);
+
+    int xSum = -a00 - (2 * a10) - a20 + a02 + (2 * a12) + a22;
+    int ySum = a00 + (2 * a01) + a02 - a20 - (2 * a21) - a22;
+    return (xSum * xSum) + (ySum * ySum) > threshold;
+  }
+
+  /** Returns the unsigned pixel value, clamping coordinates to the image like the sampler. */
+  private static int sample(ByteBuffer input, int width, int height, int x, int y) {
+    x = Math.max(0, Math.min(width - 1, x));
+    y = Math.max(0, Math.min(height - 1, y));
+    return input.get(y * width + x) & 0xFF;
+  }
+
+  private static void checkPackedWidth(int width) {
+    if (width % PIXELS_PER_BYTE != 0) {
+      throw new IllegalArgumentException(
+          "Image width must be a multiple of " + PIXELS_PER_BYTE + ", got " + width);
+    }
+  }
+}
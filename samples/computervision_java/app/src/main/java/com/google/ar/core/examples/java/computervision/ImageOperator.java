@@ -0,0 +1,389 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A stage of a CPU image processing pipeline, see {@link ImagePipeline}. Operators read a single
+ * channel 8-bit image and write a single channel 8-bit image without row padding.
+ *
+ * <p>Operators are either point operators, where each output pixel only depends on the input pixel
+ * at the same position, or neighbourhood operators. Point operators are lookup tables, so that the
+ * pipeline can fuse them into the pass of the operator before them.
+ */
+public abstract class ImageOperator {
+
+  // Operators are only created through the factory methods below.
+  private ImageOperator() {}
+
+  /** Creates an operator which smooths the image with a 3x3 Gaussian kernel. */
+  public static ImageOperator gaussianBlur() {
+    return new GaussianBlur();
+  }
+
+  /** Creates an operator which detects edges the same way as {@link EdgeDetector}. */
+  public static ImageOperator sobel() {
+    return new Sobel(null);
+  }
+
+  /**
+   * Creates an operator which detects edges the same way as the given edge detector, with the
+   * threshold the detector has when a pass over the image starts. Use this to follow {@link
+   * EdgeDetector#setThreshold} changes, for example an automatic threshold.
+   */
+  public static ImageOperator sobel(EdgeDetector thresholdSource) {
+    return new Sobel(thresholdSource);
+  }
+
+  /**
+   * Creates an operator which sets pixels of at least the given level to 0xFF, and all other pixels
+   * to 0x00.
+   */
+  public static ImageOperator threshold(int level) {
+    byte[] table = new byte[256];
+    for (int i = 0; i < 256; i++) {
+      table[i] = i >= level ? (byte) 0xFF : 0;
+    }
+    return new PointOperator(table);
+  }
+
+  /** Creates an operator which halves the image size by averaging blocks of 2x2 pixels. */
+  public static ImageOperator downscale() {
+    return new Downscale();
+  }
+
+  /** Creates an operator which replaces each pixel by the maximum of its 3x3 neighbourhood. */
+  public static ImageOperator dilate() {
+    return new Morphology(/* dilate= */ true);
+  }
+
+  /** Creates an operator which replaces each pixel by the minimum of its 3x3 neighbourhood. */
+  public static ImageOperator erode() {
+    return new Morphology(/* dilate= */ false);
+  }
+
+  /** Returns the output image width for the given input image width. */
+  int getOutputWidth(int inputWidth) {
+    return inputWidth;
+  }
+
+  /** Returns the output image height for the given input image height. */
+  int getOutputHeight(int inputHeight) {
+    return inputHeight;
+  }
+
+  /**
+   * Called once before the rows of a pass are computed, possibly in parallel. Operators with
+   * parameters which may change between frames read them here, so that all rows of the pass use
+   * the same values.
+   */
+  void beginPass() {}
+
+  /** Returns whether each output pixel only depends on the input pixel at the same position. */
+  boolean isPointOperator() {
+    return false;
+  }
+
+  /** Maps an input pixel value to the output pixel value. Only supported by point operators. */
+  int map(int value) {
+    throw new UnsupportedOperationException("Not a point operator.");
+  }
+
+  /**
+   * Computes the output rows in the range [startRow, endRow). Different row ranges may be computed
+   * concurrently, so implementations must only write their own rows.
+   *
+   * @param input bytes of the input image. The buffer position and limit are ignored.
+   * @param width input image width.
+   * @param height input image height.
+   * @param rowStride number of bytes between the starts of two consecutive input rows.
+   * @param pixelStride number of bytes between two consecutive input pixels of a row.
+   * @param output buffer receiving the output image, with rows of {@link #getOutputWidth(int)}
+   *     bytes.
+   * @param lut lookup table of 256 entries, applied to every value written to the output. This is
+   *     how the point operators following this operator are fused into its pass.
+   * @param startRow first output row to compute.
+   * @param endRow output row after the last row to compute.
+   */
+  abstract void applyRows(
+      ByteBuffer input,
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer output,
+      byte[] lut,
+      int startRow,
+      int endRow);
+
+  /** Maps every pixel through a lookup table. */
+  private static final class PointOperator extends ImageOperator {
+    private final byte[] table;
+
+    PointOperator(byte[] table) {
+      this.table = table;
+    }
+
+    @Override
+    boolean isPointOperator() {
+      return true;
+    }
+
+    @Override
+    int map(int value) {
+      return table[value] & 0xFF;
+    }
+
+    @Override
+    void applyRows(
+        ByteBuffer input,
+        int width,
+        int height,
+        int rowStride,
+        int pixelStride,
+        ByteBuffer output,
+        byte[] lut,
+        int startRow,
+        int endRow) {
+      for (int j = startRow; j < endRow; j++) {
+        int inputOffset = j * rowStride;
+        int outputOffset = j * width;
+        for (int i = 0; i < width; i++) {
+          int value = table[input.get(inputOffset + i * pixelStride) & 0xFF] & 0xFF;
+          output.put(outputOffset + i, lut[value]);
+        }
+      }
+    }
+  }
+
+  /** Convolves the image with the separable kernel [1 2 1] x [1 2 1] / 16. */
+  private static final class GaussianBlur extends ImageOperator {
+    @Override
+    void applyRows(
+        ByteBuffer input,
+        int width,
+        int height,
+        int rowStride,
+        int pixelStride,
+        ByteBuffer output,
+        byte[] lut,
+        int startRow,
+        int endRow) {
+      for (int j = startRow; j < endRow; j++) {
+        // Rows outside the image are clamped to the nearest image row.
+        int above = Math.max(j - 1, 0) * rowStride;
+        int center = j * rowStride;
+        int below = Math.min(j + 1, height - 1) * rowStride;
+        int outputOffset = j * width;
+
+        // Vertically weighted column sums of the neighbourhood, slid one pixel to the right per
+        // iteration. Columns outside the image are clamped to the nearest image column.
+        int left = weightedColumn(input, above, center, below);
+        int middle = left;
+        for (int i = 0; i < width; i++) {
+          int right =
+              i + 1 < width
+                  ? weightedColumn(
+                      input,
+                      above + (i + 1) * pixelStride,
+                      center + (i + 1) * pixelStride,
+                      below + (i + 1) * pixelStride)
+                  : middle;
+          // The kernel weights add up to 16, round to nearest.
+          int sum = left + (2 * middle) + right;
+          output.put(outputOffset + i, lut[(sum + 8) >> 4]);
+          left = middle;
+          middle = right;
+        }
+      }
+    }
+
+    private static int weightedColumn(ByteBuffer input, int above, int center, int below) {
+      return (input.get(above) & 0xFF)
+          + (2 * (input.get(center) & 0xFF))
+          + (input.get(below) & 0xFF);
+    }
+  }
+
+  /** Detects edges with {@link EdgeDetector#detectRows}. */
+  private static final class Sobel extends ImageOperator {
+    // Edge detector to read the threshold from, or null to use the default threshold.
+    private final EdgeDetector thresholdSource;
+    private volatile int threshold = EdgeDetector.SOBEL_EDGE_THRESHOLD;
+
+    Sobel(EdgeDetector thresholdSource) {
+      this.thresholdSource = thresholdSource;
+    }
+
+    @Override
+    void beginPass() {
+      if (thresholdSource != null) {
+        threshold = thresholdSource.getThreshold();
+      }
+    }
+
+    @Override
+    void applyRows(
+        ByteBuffer input,
+        int width,
+        int height,
+        int rowStride,
+        int pixelStride,
+        ByteBuffer output,
+        byte[] lut,
+        int startRow,
+        int endRow) {
+      byte border = lut[0];
+      if (width < 3 || height < 3) {
+        // There are no pixels with a full neighbourhood.
+        for (int i = startRow * width; i < endRow * width; i++) {
+          output.put(i, border);
+        }
+        return;
+      }
+
+      // The first and last rows have no neighbours above or below, so are left empty.
+      if (startRow == 0) {
+        for (int i = 0; i < width; i++) {
+          output.put(i, border);
+        }
+      }
+      if (endRow == height) {
+        for (int i = 0; i < width; i++) {
+          output.put((height - 1) * width + i, border);
+        }
+      }
+
+      int firstRow = Math.max(startRow, 1);
+      int lastRow = Math.min(endRow, height - 1);
+      if (firstRow < lastRow) {
+        EdgeDetector.detectRows(
+            input,
+            rowStride,
+            pixelStride,
+            output,
+            width,
+            firstRow,
+            lastRow,
+            threshold,
+            lut[EdgeDetector.EDGE & 0xFF],
+            lut[EdgeDetector.NO_EDGE & 0xFF],
+            border);
+      }
+    }
+  }
+
+  /** Averages blocks of 2x2 pixels. */
+  private static final class Downscale extends ImageOperator {
+    @Override
+    int getOutputWidth(int inputWidth) {
+      return Math.max(1, inputWidth / 2);
+    }
+
+    @Override
+    int getOutputHeight(int inputHeight) {
+      return Math.max(1, inputHeight / 2);
+    }
+
+    @Override
+    void applyRows(
+        ByteBuffer input,
+        int width,
+        int height,
+        int rowStride,
+        int pixelStride,
+        ByteBuffer output,
+        byte[] lut,
+        int startRow,
+        int endRow) {
+      int outputWidth = getOutputWidth(width);
+      for (int j = startRow; j < endRow; j++) {
+        // Images of a single row or column reuse it for both rows or columns of the block.
+        int top = (2 * j) * rowStride;
+        int bottom = Math.min(2 * j + 1, height - 1) * rowStride;
+        int outputOffset = j * outputWidth;
+        for (int i = 0; i < outputWidth; i++) {
+          int left = (2 * i) * pixelStride;
+          int right = Math.min(2 * i + 1, width - 1) * pixelStride;
+          int sum =
+              (input.get(top + left) & 0xFF)
+                  + (input.get(top + right) & 0xFF)
+                  + (input.get(bottom + left) & 0xFF)
+                  + (input.get(bottom + right) & 0xFF);
+          output.put(outputOffset + i, lut[(sum + 2) >> 2]);
+        }
+      }
+    }
+  }
+
+  /** Computes the maximum (dilation) or minimum (erosion) of the 3x3 neighbourhood. */
+  private static final class Morphology extends ImageOperator {
+    private final boolean dilate;
+
+    Morphology(boolean dilate) {
+      this.dilate = dilate;
+    }
+
+    @Override
+    void applyRows(
+        ByteBuffer input,
+        int width,
+        int height,
+        int rowStride,
+        int pixelStride,
+        ByteBuffer output,
+        byte[] lut,
+        int startRow,
+        int endRow) {
+      for (int j = startRow; j < endRow; j++) {
+        // Rows outside the image are clamped to the nearest image row.
+        int above = Math.max(j - 1, 0) * rowStride;
+        int center = j * rowStride;
+        int below = Math.min(j + 1, height - 1) * rowStride;
+        int outputOffset = j * width;
+
+        // Column extremes of the neighbourhood, slid one pixel to the right per iteration.
+        int left = column(input, above, center, below);
+        int middle = left;
+        for (int i = 0; i < width; i++) {
+          int right =
+              i + 1 < width
+                  ? column(
+                      input,
+                      above + (i + 1) * pixelStride,
+                      center + (i + 1) * pixelStride,
+                      below + (i + 1) * pixelStride)
+                  : middle;
+          int value =
+              dilate
+                  ? Math.max(left, Math.max(middle, right))
+                  : Math.min(left, Math.min(middle, right));
+          output.put(outputOffset + i, lut[value]);
+          left = middle;
+          middle = right;
+        }
+      }
+    }
+
+    private int column(ByteBuffer input, int above, int center, int below) {
+      int a = input.get(above) & 0xFF;
+      int b = input.get(center) & 0xFF;
+      int c = input.get(below) & 0xFF;
+      return dilate ? Math.max(a, Math.max(b, c)) : Math.min(a, Math.min(b, c));
+    }
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Chains {@link ImageOperator}s into a CPU image processing pipeline.
+ *
+ * <p>Each neighbourhood operator takes one pass over the image. Point operators are fused into the
+ * pass of the operator before them, so that for example a blur, an edge detector and a threshold
+ * take only two passes over memory. The intermediate and output buffers are reused between frames,
+ * so no memory is allocated once the image size is stable.
+ */
+public class ImagePipeline {
+  private final List<ImageOperator> operators = new ArrayList<>();
+
+  // Passes compiled from the operators, or null if they need to be compiled again.
+  private List<Pass> passes = null;
+
+  // Pool used to process the passes in parallel row bands, or null to process them serially.
+  private ForkJoinPool pool = null;
+
+  // Passes alternate between these two buffers, so that every pass reads the output of the
+  // previous pass.
+  private final ByteBuffer[] buffers = {ByteBuffer.allocateDirect(0), ByteBuffer.allocateDirect(0)};
+
+  private int outputWidth = 0;
+  private int outputHeight = 0;
+
+  /** A single pass over the image: an operator followed by the point operators fused into it. */
+  private static final class Pass {
+    final ImageOperator operator;
+    final byte[] lut = new byte[256];
+
+    Pass(ImageOperator operator) {
+      this.operator = operator;
+      for (int i = 0; i < 256; i++) {
+        lut[i] = (byte) i;
+      }
+    }
+
+    /** Fuses a point operator into this pass, to be applied after the operators already in it. */
+    void fuse(ImageOperator pointOperator) {
+      for (int i = 0; i < 256; i++) {
+        lut[i] = (byte) pointOperator.map(lut[i] & 0xFF);
+      }
+    }
+  }
+
+  /**
+   * Appends an operator to the end of the pipeline.
+   *
+   * @param operator the operator to append.
+   * @return this pipeline, so that calls can be chained.
+   */
+  public synchronized ImagePipeline add(ImageOperator operator) {
+    operators.add(operator);
+    passes = null;
+    return this;
+  }
+
+  /**
+   * Enables or disables parallel processing. When enabled, every pass is split into row bands which
+   * are processed on the common fork-join pool. The output is identical in both modes.
+   *
+   * @param enabled whether to process the image in parallel row bands.
+   */
+  public synchronized void setParallelEnabled(boolean enabled) {
+    setPool(enabled ? ForkJoinPool.commonPool() : null);
+  }
+
+  /**
+   * Processes the row bands on {@code pool}, or serially if it is null. Tests use this to process
+   * several bands whatever the number of processors.
+   */
+  /* package-private */
+  synchronized void setPool(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  /** Returns the number of passes over memory taken by the pipeline, after fusing operators. */
+  public synchronized int getPassCount() {
+    compileIfNeeded();
+    return passes.size();
+  }
+
+  /** Returns the output image width of the last call to {@link #process}. */
+  public synchronized int getOutputWidth() {
+    return outputWidth;
+  }
+
+  /** Returns the output image height of the last call to {@link #process}. */
+  public synchronized int getOutputHeight() {
+    return outputHeight;
+  }
+
+  /**
+   * Runs the pipeline on a grayscale image plane, reading the pixels straight from the input
+   * buffer.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position and limit are ignored.
+   * @return a direct buffer of {@link #getOutputWidth()} * {@link #getOutputHeight()} bytes holding
+   *     the output of the last operator. The buffer is only valid until the next call to this
+   *     method.
+   */
+  public synchronized ByteBuffer process(
+      int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    compileIfNeeded();
+    if (passes.isEmpty()) {
+      throw new IllegalStateException("The pipeline has no operators.");
+    }
+
+    ByteBuffer source = input;
+    int sourceWidth = width;
+    int sourceHeight = height;
+    int sourceRowStride = rowStride;
+    int sourcePixelStride = pixelStride;
+    for (int p = 0; p < passes.size(); p++) {
+      Pass pass = passes.get(p);
+      int targetWidth = pass.operator.getOutputWidth(sourceWidth);
+      int targetHeight = pass.operator.getOutputHeight(sourceHeight);
+
+      // Reallocate the intermediate buffer only if it is too small for the required size.
+      if (buffers[p % 2].capacity() < targetWidth * targetHeight) {
+        buffers[p % 2] = ByteBuffer.allocateDirect(targetWidth * targetHeight);
+      }
+      ByteBuffer target = buffers[p % 2];
+
+      runPass(
+          pass,
+          source,
+          sourceWidth,
+          sourceHeight,
+          sourceRowStride,
+          sourcePixelStride,
+          target,
+          targetHeight);
+
+      source = target;
+      sourceWidth = targetWidth;
+      sourceHeight = targetHeight;
+      sourceRowStride = targetWidth;
+      sourcePixelStride = 1;
+    }
+
+    outputWidth = sourceWidth;
+    outputHeight = sourceHeight;
+    source.clear();
+    source.limit(outputWidth * outputHeight);
+    return source;
+  }
+
+  private void runPass(
+      Pass pass,
+      ByteBuffer input,
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer output,
+      int outputHeight) {
+    pass.operator.beginPass();
+    if (pool == null) {
+      pass.operator.applyRows(
+          input, width, height, rowStride, pixelStride, output, pass.lut, 0, outputHeight);
+    } else {
+      RowBands.run(
+          pool,
+          0,
+          outputHeight,
+          (startRow, endRow) ->
+              pass.operator.applyRows(
+                  input,
+                  width,
+                  height,
+                  rowStride,
+                  pixelStride,
+                  output,
+                  pass.lut,
+                  startRow,
+                  endRow));
+    }
+  }
+
+  /** Groups the operators into passes, fusing every point operator into the pass before it. */
+  private void compileIfNeeded() {
+    if (passes != null) {
+      return;
+    }
+    passes = new ArrayList<>();
+    Pass current = null;
+    for (ImageOperator operator : operators) {
+      if (current != null && operator.isPointOperator()) {
+        current.fuse(operator);
+      } else {
+        current = new Pass(operator);
+        passes.add(current);
+      }
+    }
+  }
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Multi-scale pyramid of a grayscale image, such as the Y plane of a CPU image. Level 0 holds the
+ * image at full resolution, and every further level halves the width and height of the level
+ * before it by averaging blocks of 2x2 pixels.
+ *
+ * <p>Analyzers can process the cheapest level that is detailed enough for them, instead of changing
+ * the camera configuration. All levels are stored without row padding in arrays which are reused
+ * between frames, so no memory is allocated once the image size is stable. The pyramid is not
+ * thread safe.
+ */
+public class ImagePyramid {
+  /** Default number of levels: full, 1/2, 1/4 and 1/8 resolution. */
+  public static final int DEFAULT_LEVEL_COUNT = 4;
+
+  private final byte[][] levels;
+  private final ByteBuffer[] levelBuffers;
+  private final int[] widths;
+  private final int[] heights;
+
+  /** Creates a pyramid with {@link #DEFAULT_LEVEL_COUNT} levels. */
+  public ImagePyramid() {
+    this(DEFAULT_LEVEL_COUNT);
+  }
+
+  /**
+   * Creates a pyramid.
+   *
+   * @param levelCount the number of levels, including the full resolution level.
+   */
+  public ImagePyramid(int levelCount) {
+    if (levelCount < 1) {
+      throw new IllegalArgumentException("A pyramid needs at least one level.");
+    }
+    levels = new byte[levelCount][0];
+    levelBuffers = new ByteBuffer[levelCount];
+    widths = new int[levelCount];
+    heights = new int[levelCount];
+    for (int level = 0; level < levelCount; level++) {
+      levelBuffers[level] = ByteBuffer.wrap(levels[level]);
+    }
+  }
+
+  /**
+   * Builds all levels of the pyramid from a grayscale image plane. The plane is copied into level
+   * 0, so the pyramid stays valid after the image is closed.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position is restored before returning.
+   */
+  public void build(int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    resize(width, height);
+
+    // Copy the full resolution level, removing row and pixel padding.
+    byte[] base = levels[0];
+    if (pixelStride == 1) {
+      int position = input.position();
+      for (int j = 0; j < height; j++) {
+        input.position(j * rowStride);
+        input.get(base, j * width, width);
+      }
+      input.position(position);
+    } else {
+      for (int j = 0; j < height; j++) {
+        int inputOffset = j * rowStride;
+        int outputOffset = j * width;
+        for (int i = 0; i < width; i++) {
+          base[outputOffset + i] = input.get(inputOffset + i * pixelStride);
+        }
+      }
+    }
+
+    for (int level = 1; level < levels.length; level++) {
+      downscale(
+          levels[level - 1],
+          widths[level - 1],
+          heights[level - 1],
+          levels[level],
+          widths[level],
+          heights[level]);
+    }
+  }
+
+  /** Returns the number of levels. */
+  public int getLevelCount() {
+    return levels.length;
+  }
+
+  /** Returns the width of a level, in pixels. */
+  public int getWidth(int level) {
+    return widths[level];
+  }
+
+  /** Returns the height of a level, in pixels. */
+  public int getHeight(int level) {
+    return heights[level];
+  }
+
+  /**
+   * Returns the pixels of a level, in rows of {@link #getWidth(int)} bytes. The array is reused by
+   * the next call to {@link #build}, and may be larger than the level.
+   */
+  public byte[] getPixels(int level) {
+    return levels[level];
+  }
+
+  /**
+   * Returns the pixels of a level as a buffer, in rows of {@link #getWidth(int)} bytes, so that it
+   * can be passed to {@link EdgeDetector} or {@link ImagePipeline}. The buffer is reused by the
+   * next call to {@link #build}.
+   */
+  public ByteBuffer getBuffer(int level) {
+    return levelBuffers[level];
+  }
+
+  /**
+   * Returns the finest level which is at most the given width, or the coarsest level if all levels
+   * are wider. Use this to pick the cheapest level which still has enough detail for an analyzer.
+   */
+  public int getLevelForMaxWidth(int maxWidth) {
+    for (int level = 0; level < levels.length - 1; level++) {
+      if (widths[level] <= maxWidth) {
+        return level;
+      }
+    }
+    return levels.length - 1;
+  }
+
+  /** Computes the level sizes and reallocates the level arrays that are too small. */
+  private void resize(int width, int height) {
+    for (int level = 0; level < levels.length; level++) {
+      widths[level] = width;
+      heights[level] = height;
+      if (levels[level].length < width * height) {
+        levels[level] = new byte[width * height];
+        levelBuffers[level] = ByteBuffer.wrap(levels[level]);
+      }
+      width = Math.max(1, width / 2);
+      height = Math.max(1, height / 2);
+    }
+  }
+
+  /**
+   * Averages blocks of 2x2 pixels of the source into the destination, rounding to nearest. The
+   * inner loop only does sequential array reads and writes, which the compiler can vectorize.
+   */
+  private static void downscale(
+      byte[] source,
+      int sourceWidth,
+      int sourceHeight,
+      byte[] destination,
+      int destinationWidth,
+      int destinationHeight) {
+    // Images of a single column or row reuse it for both columns or rows of the block.
+    int right = sourceWidth > 1 ? 1 : 0;
+    for (int j = 0; j < destinationHeight; j++) {
+      int top = (2 * j) * sourceWidth;
+      int bottom = Math.min(2 * j + 1, sourceHeight - 1) * sourceWidth;
+      int outputOffset = j * destinationWidth;
+      for (int i = 0; i < destinationWidth; i++) {
+        int x = 2 * i;
+        int sum =
+            (source[top + x] & 0xFF)
+                + (source[top + x + right] & 0xFF)
+                + (source[bottom + x] & 0xFF)
+                + (source[bottom + x + right] & 0xFF);
+        destination[outputOffset + i] = (byte) ((sum + 2) >> 2);
+      }
+    }
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * Fixed capacity list of keypoints, such as the corners found by {@link FastCornerDetector}. The
+ * coordinates and scores are kept in parallel primitive arrays, so the list can be refilled every
+ * frame without creating an object per keypoint.
+ */
+public class KeypointList {
+  private final float[] x;
+  private final float[] y;
+  private final float[] score;
+  private int count = 0;
+
+  /**
+   * Creates an empty list.
+   *
+   * @param capacity the maximum number of keypoints.
+   */
+  public KeypointList(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+    }
+    x = new float[capacity];
+    y = new float[capacity];
+    score = new float[capacity];
+  }
+
+  /** Removes all keypoints. */
+  public void clear() {
+    count = 0;
+  }
+
+  /**
+   * Adds a keypoint.
+   *
+   * @param x column of the keypoint, in image pixels.
+   * @param y row of the keypoint, in image pixels.
+   * @param score strength of the keypoint, higher is stronger.
+   * @return false if the list is full, in which case the keypoint is not added.
+   */
+  public boolean add(float x, float y, float score) {
+    if (count == this.x.length) {
+      return false;
+    }
+    this.x[count] = x;
+    this.y[count] = y;
+    this.score[count] = score;
+    count++;
+    return true;
+  }
+
+  /** Returns the number of keypoints. */
+  public int getCount() {
+    return count;
+  }
+
+  /** Returns the maximum number of keypoints. */
+  public int getCapacity() {
+    return x.length;
+  }
+
+  /** Returns the column of a keypoint, in image pixels. */
+  public float getX(int index) {
+    return x[index];
+  }
+
+  /** Returns the row of a keypoint, in image pixels. */
+  public float getY(int index) {
+    return y[index];
+  }
+
+  /** Returns the strength of a keypoint. */
+  public float getScore(int index) {
+    return score[index];
+  }
+}
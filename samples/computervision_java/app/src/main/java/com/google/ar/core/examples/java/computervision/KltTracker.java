@@ -0,0 +1,412 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tracks sparse keypoints between consecutive grayscale frames with the pyramidal Lucas-Kanade
+ * method, so that features do not have to be detected again on every frame.
+ *
+ * <p>Each frame is reduced to an {@link ImagePyramid}. Every track is first followed on the
+ * coarsest level, where the motion is small, and the estimate is refined on each finer level.
+ * Tracks are lost when they leave the image, when their window has too little texture, or when
+ * the window no longer matches. When fewer than the minimum number of tracks are left, new
+ * {@link FastCornerDetector} corners are added in the grid cells without a track.
+ *
+ * <p>The state of the tracks is kept in parallel primitive arrays, and the two pyramids of the
+ * previous and current frame are swapped and reused, so no memory is allocated once the image size
+ * is stable.
+ */
+public class KltTracker {
+  /** Default maximum number of tracks. */
+  public static final int DEFAULT_MAX_TRACKS = 300;
+
+  /** Default number of tracks below which new corners are detected. */
+  public static final int DEFAULT_MIN_TRACKS = 150;
+
+  // Half the width of the square window matched around each track, in pixels.
+  private static final int WINDOW_RADIUS = 3;
+  private static final int WINDOW_SIZE = 2 * WINDOW_RADIUS + 1;
+  private static final int WINDOW_AREA = WINDOW_SIZE * WINDOW_SIZE;
+
+  // Refinement on each level stops after this many iterations, or once the update is smaller than
+  // the given number of pixels.
+  private static final int MAX_ITERATIONS = 10;
+  private static final float MIN_UPDATE = 0.01f;
+
+  // Tracks whose full resolution window has a smaller minimum eigenvalue of the gradient matrix,
+  // per pixel and in squared gray levels, lack the texture to be tracked reliably.
+  private static final float MIN_EIGENVALUE = 4f;
+
+  // Tracks whose window differs by more than this mean absolute gray level after matching are
+  // lost.
+  private static final float MAX_ERROR = 24f;
+
+  private final int maxTracks;
+  private final int minTracks;
+  private final FastCornerDetector cornerDetector;
+  private final KeypointList corners;
+
+  // Pyramids of the previous and the current frame, swapped after every frame.
+  private ImagePyramid previousPyramid = new ImagePyramid();
+  private ImagePyramid currentPyramid = new ImagePyramid();
+  private boolean hasPreviousFrame = false;
+
+  // Track state: position in the current and previous frame, identifier, number of frames
+  // tracked, and matching error of the last frame.
+  private final float[] x;
+  private final float[] y;
+  private final float[] previousX;
+  private final float[] previousY;
+  private final float[] error;
+  private final int[] ids;
+  private final int[] ages;
+  private int trackCount = 0;
+  private int nextId = 0;
+
+  // Grid cells occupied by a track, used to place new corners away from existing tracks.
+  private boolean[] occupiedCells = new boolean[0];
+
+  // Window samples of the previous frame and their gradients, reused for every track.
+  private final float[] templateValues = new float[WINDOW_AREA];
+  private final float[] templateGradientX = new float[WINDOW_AREA];
+  private final float[] templateGradientY = new float[WINDOW_AREA];
+
+  // Result of the last call to trackPoint().
+  private float trackedX;
+  private float trackedY;
+  private float trackedError;
+
+  /** Creates a tracker with the default parameters. */
+  public KltTracker() {
+    this(DEFAULT_MAX_TRACKS, DEFAULT_MIN_TRACKS);
+  }
+
+  /**
+   * Creates a tracker.
+   *
+   * @param maxTracks maximum number of tracks.
+   * @param minTracks number of tracks below which new corners are detected.
+   */
+  public KltTracker(int maxTracks, int minTracks) {
+    if (maxTracks < 1 || minTracks > maxTracks) {
+      throw new IllegalArgumentException(
+          "Expected 0 < minTracks <= maxTracks, got " + minTracks + " and " + maxTracks);
+    }
+    this.maxTracks = maxTracks;
+    this.minTracks = minTracks;
+    cornerDetector =
+        new FastCornerDetector(
+            FastCornerDetector.DEFAULT_THRESHOLD, FastCornerDetector.DEFAULT_CELL_SIZE, maxTracks);
+    corners = new KeypointList(maxTracks);
+    x = new float[maxTracks];
+    y = new float[maxTracks];
+    previousX = new float[maxTracks];
+    previousY = new float[maxTracks];
+    error = new float[maxTracks];
+    ids = new int[maxTracks];
+    ages = new int[maxTracks];
+  }
+
+  /**
+   * Enables or disables detecting new corners in parallel row bands, see {@link
+   * FastCornerDetector#setParallelEnabled}.
+   */
+  public synchronized void setParallelEnabled(boolean enabled) {
+    cornerDetector.setParallelEnabled(enabled);
+  }
+
+  /**
+   * Tracks the keypoints into a new frame, then detects new corners if too few tracks are left.
+   * The first frame, and the first frame after a change of size, only detect corners.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position is restored before returning.
+   */
+  public synchronized void update(
+      int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    currentPyramid.build(width, height, rowStride, pixelStride, input);
+    if (!hasPreviousFrame
+        || previousPyramid.getWidth(0) != width
+        || previousPyramid.getHeight(0) != height) {
+      trackCount = 0;
+    }
+
+    trackPoints();
+    if (trackCount < minTracks) {
+      addCorners();
+    }
+
+    ImagePyramid swap = previousPyramid;
+    previousPyramid = currentPyramid;
+    currentPyramid = swap;
+    hasPreviousFrame = true;
+  }
+
+  /** Removes all tracks, and forgets the previous frame. */
+  public synchronized void reset() {
+    trackCount = 0;
+    hasPreviousFrame = false;
+  }
+
+  /** Returns the number of tracks. */
+  public synchronized int getTrackCount() {
+    return trackCount;
+  }
+
+  /** Returns the column of a track in the last frame, in image pixels. */
+  public synchronized float getX(int track) {
+    return x[track];
+  }
+
+  /** Returns the row of a track in the last frame, in image pixels. */
+  public synchronized float getY(int track) {
+    return y[track];
+  }
+
+  /** Returns the column of a track in the frame before the last frame, in image pixels. */
+  public synchronized float getPreviousX(int track) {
+    return previousX[track];
+  }
+
+  /** Returns the row of a track in the frame before the last frame, in image pixels. */
+  public synchronized float getPreviousY(int track) {
+    return previousY[track];
+  }
+
+  /** Returns the identifier of a track, which stays the same while the track is followed. */
+  public synchronized int getId(int track) {
+    return ids[track];
+  }
+
+  /** Returns the number of frames a track has been followed for, 0 for a new track. */
+  public synchronized int getAge(int track) {
+    return ages[track];
+  }
+
+  /** Returns the mean absolute gray level difference of the window of a track in the last frame. */
+  public synchronized float getError(int track) {
+    return error[track];
+  }
+
+  /** Follows every track into the current frame, and removes the lost tracks. */
+  private void trackPoints() {
+    int width = currentPyramid.getWidth(0);
+    int height = currentPyramid.getHeight(0);
+    int kept = 0;
+    for (int i = 0; i < trackCount; i++) {
+      if (!trackPoint(x[i], y[i])
+          || trackedX < WINDOW_RADIUS
+          || trackedY < WINDOW_RADIUS
+          || trackedX > width - 1 - WINDOW_RADIUS
+          || trackedY > height - 1 - WINDOW_RADIUS) {
+        continue;
+      }
+      previousX[kept] = x[i];
+      previousY[kept] = y[i];
+      x[kept] = trackedX;
+      y[kept] = trackedY;
+      error[kept] = trackedError;
+      ids[kept] = ids[i];
+      ages[kept] = ages[i] + 1;
+      kept++;
+    }
+    trackCount = kept;
+  }
+
+  /**
+   * Finds the position in the current frame of a point of the previous frame. Returns false if
+   * the point is lost, otherwise sets trackedX, trackedY and trackedError.
+   */
+  private boolean trackPoint(float pointX, float pointY) {
+    int levelCount = currentPyramid.getLevelCount();
+
+    // Displacement guessed from the coarser levels, in pixels of the current level.
+    float guessX = 0f;
+    float guessY = 0f;
+    for (int level = levelCount - 1; level >= 0; level--) {
+      byte[] previous = previousPyramid.getPixels(level);
+      byte[] current = currentPyramid.getPixels(level);
+      int width = currentPyramid.getWidth(level);
+      int height = currentPyramid.getHeight(level);
+
+      // Each level averages blocks of 2x2 pixels of the level below it.
+      float scale = 1f / (1 << level);
+      float levelX = (pointX + 0.5f) * scale - 0.5f;
+      float levelY = (pointY + 0.5f) * scale - 0.5f;
+
+      // Sample the window of the previous frame and its gradient matrix.
+      float gradientXx = 0f;
+      float gradientXy = 0f;
+      float gradientYy = 0f;
+      int sample = 0;
+      for (int dy = -WINDOW_RADIUS; dy <= WINDOW_RADIUS; dy++) {
+        for (int dx = -WINDOW_RADIUS; dx <= WINDOW_RADIUS; dx++) {
+          float sampleX = levelX + dx;
+          float sampleY = levelY + dy;
+          float gradientX =
+              0.5f
+                  * (interpolate(previous, width, height, sampleX + 1, sampleY)
+                      - interpolate(previous, width, height, sampleX - 1, sampleY));
+          float gradientY =
+              0.5f
+                  * (interpolate(previous, width, height, sampleX, sampleY + 1)
+                      - interpolate(previous, width, height, sampleX, sampleY - 1));
+          templateValues[sample] = interpolate(previous, width, height, sampleX, sampleY);
+          templateGradientX[sample] = gradientX;
+          templateGradientY[sample] = gradientY;
+          gradientXx += gradientX * gradientX;
+          gradientXy += gradientX * gradientY;
+          gradientYy += gradientY * gradientY;
+          sample++;
+        }
+      }
+
+      // Reject windows without texture in both directions.
+      float determinant = gradientXx * gradientYy - gradientXy * gradientXy;
+      if (determinant <= 0f) {
+        return false;
+      }
+      if (level == 0) {
+        float minEigenvalue =
+            0.5f
+                * (gradientXx
+                    + gradientYy
+                    - (float)
+                        Math.sqrt(
+                            (gradientXx - gradientYy) * (gradientXx - gradientYy)
+                                + 4f * gradientXy * gradientXy));
+        if (minEigenvalue < MIN_EIGENVALUE * WINDOW_AREA) {
+          return false;
+        }
+      }
+
+      // Gauss-Newton iterations on the displacement within this level.
+      float updateX = 0f;
+      float updateY = 0f;
+      float errorSum = 0f;
+      for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+        float mismatchX = 0f;
+        float mismatchY = 0f;
+        errorSum = 0f;
+        sample = 0;
+        for (int dy = -WINDOW_RADIUS; dy <= WINDOW_RADIUS; dy++) {
+          for (int dx = -WINDOW_RADIUS; dx <= WINDOW_RADIUS; dx++) {
+            float difference =
+                templateValues[sample]
+                    - interpolate(
+                        current,
+                        width,
+                        height,
+                        levelX + guessX + updateX + dx,
+                        levelY + guessY + updateY + dy);
+            mismatchX += difference * templateGradientX[sample];
+            mismatchY += difference * templateGradientY[sample];
+            errorSum += Math.abs(difference);
+            sample++;
+          }
+        }
+        float stepX = (gradientYy * mismatchX - gradientXy * mismatchY) / determinant;
+        float stepY = (gradientXx * mismatchY - gradientXy * mismatchX) / determinant;
+        updateX += stepX;
+        updateY += stepY;
+        if (stepX * stepX + stepY * stepY < MIN_UPDATE * MIN_UPDATE) {
+          break;
+        }
+      }
+
+      if (level > 0) {
+        guessX = 2f * (guessX + updateX);
+        guessY = 2f * (guessY + updateY);
+      } else {
+        trackedX = pointX + guessX + updateX;
+        trackedY = pointY + guessY + updateY;
+        trackedError = errorSum / WINDOW_AREA;
+      }
+    }
+    return trackedError <= MAX_ERROR;
+  }
+
+  /** Adds new corners of the current frame in the grid cells which have no track. */
+  private void addCorners() {
+    int width = currentPyramid.getWidth(0);
+    int height = currentPyramid.getHeight(0);
+    cornerDetector.detect(
+        width,
+        height,
+        /* rowStride= */ width,
+        /* pixelStride= */ 1,
+        currentPyramid.getBuffer(0),
+        corners);
+
+    int cellSize = FastCornerDetector.DEFAULT_CELL_SIZE;
+    int cellsX = (width + cellSize - 1) / cellSize;
+    int cellsY = (height + cellSize - 1) / cellSize;
+    if (occupiedCells.length < cellsX * cellsY) {
+      occupiedCells = new boolean[cellsX * cellsY];
+    }
+    for (int cell = 0; cell < cellsX * cellsY; cell++) {
+      occupiedCells[cell] = false;
+    }
+    for (int i = 0; i < trackCount; i++) {
+      occupiedCells[((int) y[i] / cellSize) * cellsX + (int) x[i] / cellSize] = true;
+    }
+
+    for (int i = 0; i < corners.getCount() && trackCount < maxTracks; i++) {
+      float cornerX = corners.getX(i);
+      float cornerY = corners.getY(i);
+      if (occupiedCells[((int) cornerY / cellSize) * cellsX + (int) cornerX / cellSize]
+          || cornerX < WINDOW_RADIUS
+          || cornerY < WINDOW_RADIUS
+          || cornerX > width - 1 - WINDOW_RADIUS
+          || cornerY > height - 1 - WINDOW_RADIUS) {
+        continue;
+      }
+      x[trackCount] = cornerX;
+      y[trackCount] = cornerY;
+      previousX[trackCount] = cornerX;
+      previousY[trackCount] = cornerY;
+      error[trackCount] = 0f;
+      ids[trackCount] = nextId++;
+      ages[trackCount] = 0;
+      trackCount++;
+    }
+  }
+
+  /** Samples an image with bilinear interpolation, clamping coordinates to the image. */
+  private static float interpolate(
+      byte[] image, int width, int height, float sampleX, float sampleY) {
+    sampleX = Math.max(0f, Math.min(width - 1, sampleX));
+    sampleY = Math.max(0f, Math.min(height - 1, sampleY));
+    int left = (int) sampleX;
+    int top = (int) sampleY;
+    int right = Math.min(left + 1, width - 1);
+    int bottom = Math.min(top + 1, height - 1);
+    float fractionX = sampleX - left;
+    float fractionY = sampleY - top;
+    float topValue =
+        (image[top * width + left] & 0xFF) * (1f - fractionX)
+            + (image[top * width + right] & 0xFF) * fractionX;
+    float bottomValue =
+        (image[bottom * width + left] & 0xFF) * (1f - fractionX)
+            + (image[bottom * width + right] & 0xFF) * fractionX;
+    return topValue * (1f - fractionY) + bottomValue * fractionY;
+  }
+}
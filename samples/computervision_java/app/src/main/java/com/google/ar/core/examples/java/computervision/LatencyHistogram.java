@@ -0,0 +1,181 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * Histogram of latencies with fixed log-linear buckets, which keeps the tail latency that a
+ * smoothed average such as {@link FrameTimeHelper} hides.
+ *
+ * <p>Latencies are counted in microseconds. Values below 16 us have a bucket each, and every
+ * further power of two is split into 8 buckets, so percentiles are accurate to within 12.5%. The
+ * buckets are allocated once, so recording allocates no memory. All methods are synchronized, so
+ * latencies can be recorded on one thread and read on another.
+ */
+public class LatencyHistogram {
+  // Number of nanoseconds in one microsecond and in one millisecond.
+  private static final long NANOSECONDS_PER_MICROSECOND = 1000L;
+  private static final float MICROSECONDS_PER_MILLISECOND = 1000f;
+
+  // Rate by which the smoothed latency approaches the latest latency.
+  private static final float SMOOTHING_FACTOR = .03f;
+
+  // Each power of two is split into 2^SUB_BUCKET_BITS buckets.
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  // Values below this have a bucket each.
+  private static final int LINEAR_BUCKET_COUNT = 2 * SUB_BUCKET_COUNT;
+  private static final int LINEAR_BUCKET_BITS = SUB_BUCKET_BITS + 1;
+
+  // Highest power of two tracked, 2^35 us is about 9.5 hours. Larger values are counted in the last
+  // bucket.
+  private static final int MAX_EXPONENT = 35;
+
+  /** Number of buckets of every histogram. */
+  public static final int BUCKET_COUNT =
+      LINEAR_BUCKET_COUNT + (MAX_EXPONENT - LINEAR_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  /** Summary of a histogram at one point in time. Latencies are in milliseconds. */
+  public static final class Snapshot {
+    public long count;
+    public float mean;
+    public float p50;
+    public float p90;
+    public float p99;
+    public float max;
+  }
+
+  private final long[] counts = new long[BUCKET_COUNT];
+  private long count = 0;
+  private long sumMicros = 0;
+  private long maxMicros = 0;
+  private float smoothedMicros = 0f;
+
+  /** Records a latency, in nanoseconds. */
+  public synchronized void record(long nanos) {
+    long micros = Math.max(nanos, 0) / NANOSECONDS_PER_MICROSECOND;
+    counts[getBucket(micros)]++;
+    count++;
+    sumMicros += micros;
+    maxMicros = Math.max(maxMicros, micros);
+    smoothedMicros =
+        count == 1 ? micros : smoothedMicros + SMOOTHING_FACTOR * (micros - smoothedMicros);
+  }
+
+  /** Records the latency from a {@link System#nanoTime()} start time until now. */
+  public void recordSince(long startNanos) {
+    record(System.nanoTime() - startNanos);
+  }
+
+  /** Removes all recorded latencies. */
+  public synchronized void reset() {
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      counts[i] = 0;
+    }
+    count = 0;
+    sumMicros = 0;
+    maxMicros = 0;
+    smoothedMicros = 0f;
+  }
+
+  /** Returns the number of recorded latencies. */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the exponentially smoothed latency, which follows the recent latencies rather than the
+   * whole history, in milliseconds, or zero if nothing was recorded.
+   */
+  public synchronized float getSmoothedLatency() {
+    return smoothedMicros / MICROSECONDS_PER_MILLISECOND;
+  }
+
+  /**
+   * Returns the latency below which the given fraction of the recorded latencies fall, in
+   * milliseconds, or zero if nothing was recorded.
+   *
+   * @param fraction the fraction of latencies, between 0 and 1, for example 0.99 for the 99th
+   *     percentile.
+   */
+  public synchronized float getPercentile(double fraction) {
+    if (count == 0) {
+      return 0f;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * count));
+    long cumulative = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      cumulative += counts[i];
+      if (cumulative >= rank) {
+        // Report the highest value of the bucket, but never more than the largest recorded value.
+        long highest = Math.min(getBucketUpperBound(i) - 1, maxMicros);
+        return highest / MICROSECONDS_PER_MILLISECOND;
+      }
+    }
+    return maxMicros / MICROSECONDS_PER_MILLISECOND;
+  }
+
+  /** Fills a snapshot with the current summary, without allocating memory. */
+  public synchronized void getSnapshot(Snapshot snapshot) {
+    snapshot.count = count;
+    snapshot.mean = count == 0 ? 0f : sumMicros / (count * MICROSECONDS_PER_MILLISECOND);
+    snapshot.p50 = getPercentile(0.5);
+    snapshot.p90 = getPercentile(0.9);
+    snapshot.p99 = getPercentile(0.99);
+    snapshot.max = maxMicros / MICROSECONDS_PER_MILLISECOND;
+  }
+
+  /**
+   * Copies the bucket counts into an array of at least {@link #BUCKET_COUNT} entries, so that
+   * histograms can be merged, for example across devices.
+   */
+  public synchronized void getBucketCounts(long[] bucketCounts) {
+    System.arraycopy(counts, 0, bucketCounts, 0, BUCKET_COUNT);
+  }
+
+  /** Returns the lowest latency counted in a bucket, in microseconds. */
+  public static long getBucketLowerBound(int bucket) {
+    if (bucket < LINEAR_BUCKET_COUNT) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT + LINEAR_BUCKET_BITS;
+    int subBucket = (bucket - LINEAR_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    return (long) (SUB_BUCKET_COUNT + subBucket) << (exponent - SUB_BUCKET_BITS);
+  }
+
+  /** Returns the lowest latency counted in the next bucket, in microseconds. */
+  public static long getBucketUpperBound(int bucket) {
+    if (bucket < LINEAR_BUCKET_COUNT) {
+      return bucket + 1;
+    }
+    int exponent = (bucket - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT + LINEAR_BUCKET_BITS;
+    return getBucketLowerBound(bucket) + (1L << (exponent - SUB_BUCKET_BITS));
+  }
+
+  /** Returns the bucket counting a latency, in microseconds. */
+  static int getBucket(long micros) {
+    if (micros < LINEAR_BUCKET_COUNT) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    // The bits below the leading one select the bucket within the power of two.
+    int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return LINEAR_BUCKET_COUNT + (exponent - LINEAR_BUCKET_BITS) * SUB_BUCKET_COUNT + subBucket;
+  }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Brightness statistics of a grayscale image plane, shared by all analyzers of a frame: a
+ * histogram, the mean and percentiles, and the mean of every tile of a coarse grid.
+ *
+ * <p>Every few pixels in both directions are sampled, which reads only a small fraction of the
+ * image but is accurate enough for exposure and thresholding decisions. The statistics are cached
+ * by the frame timestamp, so {@link #update} only scans the image for the first caller of a frame,
+ * and every further caller reads the cached statistics.
+ *
+ * <p>No memory is allocated once the image size is stable. The methods are synchronized, so the
+ * statistics can be updated by the rendering thread and read by a worker thread.
+ */
+public class LuminanceStatistics {
+  /** Number of histogram bins, one per gray level. */
+  public static final int BIN_COUNT = 256;
+
+  /** Default distance between two samples, in pixels. */
+  public static final int DEFAULT_SAMPLE_STEP = 4;
+
+  /** Default number of tile columns and rows of the grid. */
+  public static final int DEFAULT_TILE_COUNT = 4;
+
+  private final int sampleStep;
+  private final int tileColumns;
+  private final int tileRows;
+
+  private final int[] histogram = new int[BIN_COUNT];
+  private final long[] tileSums;
+  private final int[] tileCounts;
+
+  // Tile column of every sampled column, recomputed when the image width changes.
+  private int[] sampleColumnTiles = new int[0];
+
+  private long timestamp = Long.MIN_VALUE;
+  private int width = 0;
+  private int height = 0;
+  private int sampleCount = 0;
+  private long sum = 0;
+
+  /** Creates statistics with the default sample step and tile grid. */
+  public LuminanceStatistics() {
+    this(DEFAULT_SAMPLE_STEP, DEFAULT_TILE_COUNT, DEFAULT_TILE_COUNT);
+  }
+
+  /**
+   * Creates statistics.
+   *
+   * @param sampleStep distance between two samples, in pixels. Use 1 to sample every pixel.
+   * @param tileColumns number of tile columns of the grid.
+   * @param tileRows number of tile rows of the grid.
+   */
+  public LuminanceStatistics(int sampleStep, int tileColumns, int tileRows) {
+    if (sampleStep < 1 || tileColumns < 1 || tileRows < 1) {
+      throw new IllegalArgumentException(
+          "Sample step and tile counts must be positive, got "
+              + sampleStep
+              + ", "
+              + tileColumns
+              + " and "
+              + tileRows);
+    }
+    this.sampleStep = sampleStep;
+    this.tileColumns = tileColumns;
+    this.tileRows = tileRows;
+    tileSums = new long[tileColumns * tileRows];
+    tileCounts = new int[tileColumns * tileRows];
+  }
+
+  /**
+   * Computes the statistics of a grayscale image plane, unless they were already computed for the
+   * frame with the same timestamp and image size.
+   *
+   * @param timestamp timestamp of the frame, for example {@link android.media.Image#getTimestamp}.
+   * @param width image width.
+   * @param height image height.
+   * @param rowStride number of bytes between the starts of two consecutive rows.
+   * @param pixelStride number of bytes between two consecutive pixels of a row.
+   * @param input bytes of the image plane. The buffer position and limit are ignored.
+   * @return whether the image was scanned, false if the cached statistics were kept.
+   */
+  public synchronized boolean update(
+      long timestamp, int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    if (timestamp == this.timestamp && width == this.width && height == this.height) {
+      return false;
+    }
+    if (width != this.width) {
+      resize(width);
+    }
+    this.timestamp = timestamp;
+    this.width = width;
+    this.height = height;
+
+    for (int i = 0; i < BIN_COUNT; i++) {
+      histogram[i] = 0;
+    }
+    for (int i = 0; i < tileSums.length; i++) {
+      tileSums[i] = 0;
+      tileCounts[i] = 0;
+    }
+
+    // Sample the centers of the step x step cells, so that the samples are spread evenly.
+    int offset = sampleStep / 2;
+    int samplesX = (width - offset + sampleStep - 1) / sampleStep;
+    int samplesY = (height - offset + sampleStep - 1) / sampleStep;
+    long total = 0;
+    for (int sy = 0; sy < samplesY; sy++) {
+      int y = offset + sy * sampleStep;
+      int rowOffset = y * rowStride + offset * pixelStride;
+      int columnStride = sampleStep * pixelStride;
+      int tileRowOffset = (y * tileRows / height) * tileColumns;
+      for (int sx = 0; sx < samplesX; sx++) {
+        int value = input.get(rowOffset + sx * columnStride) & 0xFF;
+        histogram[value]++;
+        int tile = tileRowOffset + sampleColumnTiles[sx];
+        tileSums[tile] += value;
+        tileCounts[tile]++;
+        total += value;
+      }
+    }
+    sampleCount = Math.max(samplesX, 0) * Math.max(samplesY, 0);
+    sum = total;
+    return true;
+  }
+
+  /** Forgets the cached statistics, so that the next call to {@link #update} scans the image. */
+  public synchronized void reset() {
+    timestamp = Long.MIN_VALUE;
+    width = 0;
+    height = 0;
+    sampleCount = 0;
+    sum = 0;
+    for (int i = 0; i < BIN_COUNT; i++) {
+      histogram[i] = 0;
+    }
+    for (int i = 0; i < tileSums.length; i++) {
+      tileSums[i] = 0;
+      tileCounts[i] = 0;
+    }
+  }
+
+  /** Returns the timestamp of the frame the statistics were computed for. */
+  public synchronized long getTimestamp() {
+    return timestamp;
+  }
+
+  /** Returns the number of sampled pixels. */
+  public synchronized int getSampleCount() {
+    return sampleCount;
+  }
+
+  /** Copies the sample count of every gray level into an array of {@link #BIN_COUNT} elements. */
+  public synchronized void getHistogram(int[] histogram) {
+    System.arraycopy(this.histogram, 0, histogram, 0, BIN_COUNT);
+  }
+
+  /** Returns the mean gray level of the samples, or 0 if there are none. */
+  public synchronized float getMean() {
+    return sampleCount > 0 ? (float) sum / sampleCount : 0f;
+  }
+
+  /**
+   * Returns the smallest gray level such that the given fraction of the samples are at most that
+   * level, or 0 if there are no samples.
+   *
+   * @param fraction fraction of the samples, between 0 and 1.
+   */
+  public synchronized int getPercentile(float fraction) {
+    if (sampleCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(fraction * sampleCount));
+    long cumulative = 0;
+    for (int value = 0; value < BIN_COUNT; value++) {
+      cumulative += histogram[value];
+      if (cumulative >= rank) {
+        return value;
+      }
+    }
+    return BIN_COUNT - 1;
+  }
+
+  /**
+   * Returns the spread of the gray levels between the 10th and 90th percentile, a measure of the
+   * image contrast which ignores a few very dark or bright pixels.
+   */
+  public synchronized int getContrast() {
+    return getPercentile(0.9f) - getPercentile(0.1f);
+  }
+
+  /** Returns the number of tile columns of the grid. */
+  public int getTileColumns() {
+    return tileColumns;
+  }
+
+  /** Returns the number of tile rows of the grid. */
+  public int getTileRows() {
+    return tileRows;
+  }
+
+  /** Returns the mean gray level of the samples of a tile, or 0 if it has none. */
+  public synchronized float getTileMean(int column, int row) {
+    int tile = row * tileColumns + column;
+    return tileCounts[tile] > 0 ? (float) tileSums[tile] / tileCounts[tile] : 0f;
+  }
+
+  /** Recomputes the tile column of every sampled column for a new image width. */
+  private void resize(int width) {
+    int offset = sampleStep / 2;
+    int samplesX = Math.max(0, (width - offset + sampleStep - 1) / sampleStep);
+    if (sampleColumnTiles.length < samplesX) {
+      sampleColumnTiles = new int[samplesX];
+    }
+    for (int sx = 0; sx < samplesX; sx++) {
+      sampleColumnTiles[sx] = (offset + sx * sampleStep) * tileColumns / width;
+    }
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+/**
+ * A list of axis aligned rectangles in image pixel coordinates, which restricts CPU image
+ * processing to the parts of the image the app cares about, see {@link EdgeDetector}.
+ *
+ * <p>Rectangles are stored in a single array of fixed capacity, so that the list can be refilled
+ * every frame without allocating memory.
+ */
+public class RegionOfInterest {
+  // Number of values stored per rectangle: left, top, right and bottom.
+  private static final int VALUES_PER_RECT = 4;
+
+  private final int[] rects;
+  private int count = 0;
+
+  /**
+   * Creates an empty list.
+   *
+   * @param capacity the maximum number of rectangles.
+   */
+  public RegionOfInterest(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+    }
+    rects = new int[capacity * VALUES_PER_RECT];
+  }
+
+  /** Removes all rectangles. */
+  public void clear() {
+    count = 0;
+  }
+
+  /**
+   * Adds a rectangle. Empty rectangles are ignored.
+   *
+   * @param left first column of the rectangle.
+   * @param top first row of the rectangle.
+   * @param right column after the last column of the rectangle.
+   * @param bottom row after the last row of the rectangle.
+   * @return false if the list is full, in which case the rectangle is not added.
+   */
+  public boolean add(int left, int top, int right, int bottom) {
+    if (left >= right || top >= bottom) {
+      return true;
+    }
+    if (count == getCapacity()) {
+      return false;
+    }
+    int offset = count * VALUES_PER_RECT;
+    rects[offset] = left;
+    rects[offset + 1] = top;
+    rects[offset + 2] = right;
+    rects[offset + 3] = bottom;
+    count++;
+    return true;
+  }
+
+  /** Returns the number of rectangles. */
+  public int getCount() {
+    return count;
+  }
+
+  /** Returns the maximum number of rectangles. */
+  public int getCapacity() {
+    return rects.length / VALUES_PER_RECT;
+  }
+
+  /** Returns the first column of a rectangle. */
+  public int getLeft(int index) {
+    return rects[index * VALUES_PER_RECT];
+  }
+
+  /** Returns the first row of a rectangle. */
+  public int getTop(int index) {
+    return rects[index * VALUES_PER_RECT + 1];
+  }
+
+  /** Returns the column after the last column of a rectangle. */
+  public int getRight(int index) {
+    return rects[index * VALUES_PER_RECT + 2];
+  }
+
+  /** Returns the row after the last row of a rectangle. */
+  public int getBottom(int index) {
+    return rects[index * VALUES_PER_RECT + 3];
+  }
+
+  /** Returns the number of pixels covered by the rectangles, counting overlaps repeatedly. */
+  public long getArea() {
+    long area = 0;
+    for (int i = 0; i < count; i++) {
+      area += (long) (getRight(i) - getLeft(i)) * (getBottom(i) - getTop(i));
+    }
+    return area;
+  }
+}
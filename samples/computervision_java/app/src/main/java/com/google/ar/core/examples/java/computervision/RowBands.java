@@ -0,0 +1,100 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of image rows into bands and processes the bands on a fork-join pool.
+ *
+ * <p>Each band writes only its own output rows. Neighbourhood filters may still read the rows just
+ * above and below a band (its halo), since the input image is never written, so the bands need no
+ * coordination and produce exactly the same output as a single serial pass.
+ */
+final class RowBands {
+  /** Processes the output rows in the range [startRow, endRow). */
+  interface Body {
+    void processRows(int startRow, int endRow);
+  }
+
+  // Bands smaller than this cost more to schedule than they save.
+  private static final int MIN_BAND_ROWS = 16;
+
+  // Create a few bands per worker so that a slow band does not leave the other workers idle.
+  private static final int BANDS_PER_WORKER = 4;
+
+  private RowBands() {}
+
+  /**
+   * Processes the rows in the range [startRow, endRow). If {@code pool} is null, or the range is
+   * too small to be worth splitting, the rows are processed on the caller thread.
+   */
+  static void run(ForkJoinPool pool, int startRow, int endRow, Body body) {
+    run(pool, startRow, endRow, /* rowAlignment= */ 1, body);
+  }
+
+  /**
+   * Same as above, but every band except the last starts and ends on a multiple of {@code
+   * rowAlignment} rows from {@code startRow}, for bodies which own whole blocks of rows, such as
+   * the cells of a grid.
+   */
+  static void run(ForkJoinPool pool, int startRow, int endRow, int rowAlignment, Body body) {
+    int rowCount = endRow - startRow;
+    if (rowCount <= 0) {
+      return;
+    }
+    if (pool == null || rowCount < 2 * MIN_BAND_ROWS) {
+      body.processRows(startRow, endRow);
+      return;
+    }
+
+    int bandCount = pool.getParallelism() * BANDS_PER_WORKER;
+    int bandRows = Math.max(MIN_BAND_ROWS, (rowCount + bandCount - 1) / bandCount);
+    bandRows = (bandRows + rowAlignment - 1) / rowAlignment * rowAlignment;
+    pool.invoke(new BandTask(body, startRow, endRow, bandRows));
+  }
+
+  /** Recursively halves the row range on band boundaries until a single band is left. */
+  private static final class BandTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Body body;
+    private final int startRow;
+    private final int endRow;
+    private final int bandRows;
+
+    BandTask(Body body, int startRow, int endRow, int bandRows) {
+      this.body = body;
+      this.startRow = startRow;
+      this.endRow = endRow;
+      this.bandRows = bandRows;
+    }
+
+    @Override
+    protected void compute() {
+      int bands = (endRow - startRow + bandRows - 1) / bandRows;
+      if (bands <= 1) {
+        body.processRows(startRow, endRow);
+        return;
+      }
+      int splitRow = startRow + (bands / 2) * bandRows;
+      invokeAll(
+          new BandTask(body, startRow, splitRow, bandRows),
+          new BandTask(body, splitRow, endRow, bandRows));
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Records a {@link LatencyHistogram} for each stage of the CPU image path, so that jank can be
+ * traced to the stage causing it.
+ *
+ * <p>Stages are timed on the OpenGL thread with {@link System#nanoTime()}, except {@link
+ * Stage#ANALYZE}, which runs on the worker thread of {@link AsyncImageProcessor} when the image is
+ * processed asynchronously:
+ *
+ * <pre>{@code
+ * long start = System.nanoTime();
+ * Frame frame = session.update();
+ * latencyRecorder.recordSince(StageLatencyRecorder.Stage.SESSION_UPDATE, start);
+ * }</pre>
+ *
+ * <p>OpenGL calls return before the GPU executes them, so the texture upload and draw stages
+ * measure the time the OpenGL thread spends issuing them.
+ */
+public class StageLatencyRecorder {
+  /** Stages of the CPU image path. */
+  public enum Stage {
+    SESSION_UPDATE,
+    IMAGE_ACQUIRE,
+    DETECT,
+    ANALYZE,
+    TEXTURE_UPLOAD,
+    DRAW
+  }
+
+  private static final Stage[] STAGES = Stage.values();
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+  public StageLatencyRecorder() {
+    for (int i = 0; i < STAGES.length; i++) {
+      histograms[i] = new LatencyHistogram();
+    }
+  }
+
+  /** Records the latency of a stage from a {@link System#nanoTime()} start time until now. */
+  public void recordSince(Stage stage, long startNanos) {
+    histograms[stage.ordinal()].recordSince(startNanos);
+  }
+
+  /** Returns the histogram of a stage. */
+  public LatencyHistogram getHistogram(Stage stage) {
+    return histograms[stage.ordinal()];
+  }
+
+  /** Returns the smoothed recent latency of a stage, in milliseconds, or zero if not recorded. */
+  public float getSmoothedLatency(Stage stage) {
+    return histograms[stage.ordinal()].getSmoothedLatency();
+  }
+
+  /** Removes all recorded latencies. */
+  public void reset() {
+    for (LatencyHistogram histogram : histograms) {
+      histogram.reset();
+    }
+  }
+
+  /**
+   * Writes the summary of every stage, followed by the non-empty buckets of every stage, to a text
+   * file. Latencies are in milliseconds, and bucket bounds in microseconds.
+   *
+   * @param file the file to write. An existing file is replaced.
+   */
+  public void dump(File file) throws IOException {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+    long[] bucketCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+      writer.println("stage\tcount\tmean\tp50\tp90\tp99\tmax");
+      for (Stage stage : STAGES) {
+        getHistogram(stage).getSnapshot(snapshot);
+        writer.println(
+            String.format(
+                Locale.US,
+                "%s\t%d\t%.3f\t%.3f\t%.3f\t%.3f\t%.3f",
+                stage,
+                snapshot.count,
+                snapshot.mean,
+                snapshot.p50,
+                snapshot.p90,
+                snapshot.p99,
+                snapshot.max));
+      }
+
+      writer.println();
+      writer.println("stage\tlower_us\tupper_us\tcount");
+      for (Stage stage : STAGES) {
+        getHistogram(stage).getBucketCounts(bucketCounts);
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT; i++) {
+          if (bucketCounts[i] > 0) {
+            writer.println(
+                stage
+                    + "\t"
+                    + LatencyHistogram.getBucketLowerBound(i)
+                    + "\t"
+                    + LatencyHistogram.getBucketUpperBound(i)
+                    + "\t"
+                    + bucketCounts[i]);
+          }
+        }
+      }
+      if (writer.checkError()) {
+        throw new IOException("Failed to write " + file);
+      }
+    }
+  }
+}
@@ -25,7 +25,6 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 /**
  * Helper class for ARCore apps to read camera image from an OpenGL OES texture.
@@ -57,7 +56,19 @@ import java.nio.IntBuffer;
  *
  * <p>releaseFrame(bufferIndex);
  *
- * <p>Note: To use any of the above two methods, you need to call create() routine to initialize the
+ * <p>(C) Non-blocking ring method: the reader keeps a configurable ring of frame buffers, and
+ * inserts a fence after every submitted read. Call submitFrame() every frame, and tryAcquireFrame()
+ * to get the newest frame whose fence has signalled, if any. tryAcquireFrame() never blocks, so
+ * the GPU is never stalled while it is still writing a buffer. When all buffers are in flight,
+ * submitFrame() reuses the oldest submitted buffer, dropping its frame:
+ *
+ * <p>submitFrame(textureId, textureWidth, textureHeight);
+ *
+ * <p>image = tryAcquireFrame();
+ *
+ * <p>if (image != null) { ...; releaseFrame(image.bufferIndex); }
+ *
+ * <p>Note: To use any of the above methods, you need to call create() routine to initialize the
  * reader before calling any of the reading routine. You will also need to call destroy() method to
  * release the internal resource when you are done with the reader.
  */
@@ -66,22 +77,42 @@ public class TextureReader {
 
   // By default, we create only two internal buffers. So you can only hold more than one buffer
   // index in your app without releasing it. If you need to hold more than one buffers, you can
-  // increase the bufferCount member.
-  private final int bufferCount = 2;
+  // pass a larger buffer count to the constructor.
+  private static final int DEFAULT_BUFFER_COUNT = 2;
+
+  // States of the internal buffers.
+  private static final int BUFFER_FREE = 0;
+  private static final int BUFFER_SUBMITTED = 1;
+  private static final int BUFFER_ACQUIRED = 2;
+
+  private final int bufferCount;
   private int[] frameBuffer;
   private int[] texture;
   private int[] pbo;
-  private Boolean[] bufferUsed;
+  private int[] bufferState;
+  private long[] fence;
+  private long[] submitSequence;
+  private long nextSubmitSequence = 0;
+  private long droppedFrameCount = 0;
   private int frontIndex = -1;
   private int backIndex = -1;
+  private final int[] viewport = new int[4];
 
-  // By default, the output image format is set to RGBA. You can also set it to IMAGE_FORMAT_I8.
+  // By default, the output image format is set to RGBA. You can also set it to IMAGE_FORMAT_I8, or
+  // to one of the IMAGE_FORMAT_EDGE_* formats, which detect edges on the GPU.
   private int imageFormat = TextureReaderImage.IMAGE_FORMAT_RGBA;
   private int imageWidth = 0;
   private int imageHeight = 0;
+  // Width of the framebuffer and the read pixels. Smaller than the image width for packed formats.
+  private int renderWidth = 0;
   private int pixelBufferSize = 0;
   private Boolean keepAspectRatio = false;
 
+  // Squared gradient magnitude above which the edge formats detect an edge, and the location of
+  // the uniform it is passed to, or -1 for the other formats.
+  private int edgeThreshold = EdgeDetector.SOBEL_EDGE_THRESHOLD;
+  private int quadEdgeThresholdUniform = -1;
+
   private FloatBuffer quadVertices;
   private FloatBuffer quadTexCoord;
   private int quadProgram;
@@ -108,12 +139,33 @@ public class TextureReader {
         1.0f, 1.0f,
       };
 
+  /** Constructs a texture reader with two internal buffers. */
+  public TextureReader() {
+    this(DEFAULT_BUFFER_COUNT);
+  }
+
+  /**
+   * Constructs a texture reader.
+   *
+   * @param bufferCount the number of internal buffers, which bounds the number of reads in flight
+   *     plus the number of frames acquired by the app at the same time.
+   */
+  public TextureReader(int bufferCount) {
+    if (bufferCount < 1) {
+      throw new IllegalArgumentException("At least one buffer is needed.");
+    }
+    this.bufferCount = bufferCount;
+  }
+
   /**
    * Creates the texture reader. This function needs to be called from the OpenGL rendering thread.
    *
-   * @param format the format of the output pixel buffer. It can be one of the two values:
-   *     TextureReaderImage.IMAGE_FORMAT_RGBA or TextureReaderImage.IMAGE_FORMAT_I8.
-   * @param width the width of the output image.
+   * @param format the format of the output pixel buffer. It can be one of the values:
+   *     TextureReaderImage.IMAGE_FORMAT_RGBA, TextureReaderImage.IMAGE_FORMAT_I8, or, to detect
+   *     edges on the GPU and only read back the result, TextureReaderImage.IMAGE_FORMAT_EDGE_I8 or
+   *     TextureReaderImage.IMAGE_FORMAT_EDGE_PACKED.
+   * @param width the width of the output image. Must be a multiple of 8 for
+   *     TextureReaderImage.IMAGE_FORMAT_EDGE_PACKED.
    * @param height the height of the output image.
    * @param keepAspectRatio whether or not to keep aspect ratio. If true, the output image may be
    *     cropped if the image aspect ratio is different from the texture aspect ratio. If false, the
@@ -121,10 +173,13 @@ public class TextureReader {
    */
   public void create(Context context, int format, int width, int height, Boolean keepAspectRatio)
       throws IOException {
-    if (format != TextureReaderImage.IMAGE_FORMAT_RGBA
-        && format != TextureReaderImage.IMAGE_FORMAT_I8) {
+    if (!TextureReaderImage.isValidFormat(format)) {
       throw new RuntimeException("Image format not supported.");
     }
+    if (format == TextureReaderImage.IMAGE_FORMAT_EDGE_PACKED
+        && width % GpuSobelReference.PIXELS_PER_BYTE != 0) {
+      throw new RuntimeException("Image width must be a multiple of 8 for the packed format.");
+    }
 
     this.keepAspectRatio = keepAspectRatio;
     imageFormat = format;
@@ -133,34 +188,41 @@ public class TextureReader {
     frontIndex = -1;
     backIndex = -1;
 
+    // Each pixel of the packed format holds 8 image pixels.
+    renderWidth =
+        imageFormat == TextureReaderImage.IMAGE_FORMAT_EDGE_PACKED
+            ? imageWidth / GpuSobelReference.PIXELS_PER_BYTE
+            : imageWidth;
     if (imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA) {
-      pixelBufferSize = imageWidth * imageHeight * 4;
-    } else if (imageFormat == TextureReaderImage.IMAGE_FORMAT_I8) {
-      pixelBufferSize = imageWidth * imageHeight;
+      pixelBufferSize = renderWidth * imageHeight * 4;
+    } else {
+      pixelBufferSize = renderWidth * imageHeight;
     }
 
     // Create framebuffers and PBOs.
     pbo = new int[bufferCount];
     frameBuffer = new int[bufferCount];
     texture = new int[bufferCount];
-    bufferUsed = new Boolean[bufferCount];
+    bufferState = new int[bufferCount];
+    fence = new long[bufferCount];
+    submitSequence = new long[bufferCount];
     GLES30.glGenBuffers(bufferCount, pbo, 0);
     GLES20.glGenFramebuffers(bufferCount, frameBuffer, 0);
     GLES20.glGenTextures(bufferCount, texture, 0);
 
     for (int i = 0; i < bufferCount; i++) {
-      bufferUsed[i] = false;
+      bufferState[i] = BUFFER_FREE;
       GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[i]);
 
       GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture[i]);
       GLES30.glTexImage2D(
           GLES30.GL_TEXTURE_2D,
           0,
-          imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_R8 : GLES30.GL_RGBA,
-          imageWidth,
+          imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA ? GLES30.GL_RGBA : GLES30.GL_R8,
+          renderWidth,
           imageHeight,
           0,
-          imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES30.GL_RGBA,
+          imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA ? GLES30.GL_RGBA : GLES30.GL_RED,
           GLES30.GL_UNSIGNED_BYTE,
           null);
       GLES20.glTexParameteri(
@@ -212,14 +274,24 @@ public class TextureReader {
 
     int vertexShader =
         ShaderUtil.loadGLShader(TAG, context, GLES20.GL_VERTEX_SHADER, "shaders/gpu_download.vert");
+    String fragmentShaderName;
+    switch (imageFormat) {
+      case TextureReaderImage.IMAGE_FORMAT_I8:
+        fragmentShaderName = "shaders/gpu_download_i8.frag";
+        break;
+      case TextureReaderImage.IMAGE_FORMAT_EDGE_I8:
+        fragmentShaderName = "shaders/gpu_download_sobel_i8.frag";
+        break;
+      case TextureReaderImage.IMAGE_FORMAT_EDGE_PACKED:
+        fragmentShaderName = "shaders/gpu_download_sobel_packed.frag";
+        break;
+      case TextureReaderImage.IMAGE_FORMAT_RGBA:
+      default:
+        fragmentShaderName = "shaders/gpu_download_rgba.frag";
+        break;
+    }
     int fragmentShader =
-        ShaderUtil.loadGLShader(
-            TAG,
-            context,
-            GLES20.GL_FRAGMENT_SHADER,
-            imageFormat == TextureReaderImage.IMAGE_FORMAT_I8
-                ? "shaders/gpu_download_i8.frag"
-                : "shaders/gpu_download_rgba.frag");
+        ShaderUtil.loadGLShader(TAG, context, GLES20.GL_FRAGMENT_SHADER, fragmentShaderName);
 
     quadProgram = GLES20.glCreateProgram();
     GLES20.glAttachShader(quadProgram, vertexShader);
@@ -231,10 +303,36 @@ public class TextureReader {
     quadTexCoordAttrib = GLES20.glGetAttribLocation(quadProgram, "a_TexCoord");
     int texLoc = GLES20.glGetUniformLocation(quadProgram, "sTexture");
     GLES20.glUniform1i(texLoc, 0);
+
+    if (imageFormat == TextureReaderImage.IMAGE_FORMAT_EDGE_I8
+        || imageFormat == TextureReaderImage.IMAGE_FORMAT_EDGE_PACKED) {
+      // The edge shaders sample the neighbours of each image pixel. This assumes that the quad
+      // covers the whole texture, i.e. that the aspect ratio is not kept.
+      int pixelSizeLoc = GLES20.glGetUniformLocation(quadProgram, "u_PixelSize");
+      GLES20.glUniform2f(pixelSizeLoc, 1.0f / imageWidth, 1.0f / imageHeight);
+      quadEdgeThresholdUniform = GLES20.glGetUniformLocation(quadProgram, "u_EdgeThreshold");
+    } else {
+      quadEdgeThresholdUniform = -1;
+    }
+  }
+
+  /**
+   * Sets the squared gradient magnitude above which the IMAGE_FORMAT_EDGE_* formats detect an edge,
+   * for example the current threshold of an {@link EdgeDetector} which follows the image contrast.
+   * Takes effect from the next submitted frame. Defaults to {@link
+   * EdgeDetector#SOBEL_EDGE_THRESHOLD}.
+   */
+  public void setEdgeThreshold(int threshold) {
+    edgeThreshold = threshold;
   }
 
   /** Destroy the texture reader. */
   public void destroy() {
+    if (fence != null) {
+      for (int i = 0; i < bufferCount; i++) {
+        deleteFence(i);
+      }
+    }
     if (frameBuffer != null) {
       GLES20.glDeleteFramebuffers(bufferCount, frameBuffer, 0);
       frameBuffer = null;
@@ -254,35 +352,43 @@ public class TextureReader {
    * immediately. Instead, it returns a frame buffer index, which can be used to acquire the frame
    * buffer later through acquireFrame().
    *
-   * <p>If there is no enough frame buffer available, an exception will be thrown.
+   * <p>If there is no free frame buffer, the oldest buffer which was submitted but not acquired is
+   * reused, and its frame is dropped. If all buffers are acquired by the app, nothing is submitted.
    *
    * @param textureId the id of the input OpenGL texture.
    * @param textureWidth width of the texture in pixels.
    * @param textureHeight height of the texture in pixels.
-   * @return the index to the frame buffer this request is associated to. You should use this index
-   *     to acquire the frame using acquireFrame(); and you should release the frame buffer using
-   *     releaseBuffer() routine after using of the frame.
+   * @return the index to the frame buffer this request is associated to, or -1 if all buffers are
+   *     acquired. You should use this index to acquire the frame using acquireFrame(); and you
+   *     should release the frame buffer using releaseBuffer() routine after using of the frame.
    */
   public int submitFrame(int textureId, int textureWidth, int textureHeight) {
-    // Find next buffer.
+    // Find next buffer, or else the oldest submitted buffer, whose frame is dropped.
     int bufferIndex = -1;
     for (int i = 0; i < bufferCount; i++) {
-      if (!bufferUsed[i]) {
+      if (bufferState[i] == BUFFER_FREE) {
         bufferIndex = i;
         break;
       }
+      if (bufferState[i] == BUFFER_SUBMITTED
+          && (bufferIndex == -1 || submitSequence[i] < submitSequence[bufferIndex])) {
+        bufferIndex = i;
+      }
     }
     if (bufferIndex == -1) {
-      throw new RuntimeException("No buffer available.");
+      return -1;
+    }
+    if (bufferState[bufferIndex] == BUFFER_SUBMITTED) {
+      deleteFence(bufferIndex);
+      droppedFrameCount++;
     }
 
     // Bind both read and write to framebuffer.
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, frameBuffer[bufferIndex]);
 
     // Save and setup viewport
-    IntBuffer viewport = IntBuffer.allocate(4);
-    GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport);
-    GLES20.glViewport(0, 0, imageWidth, imageHeight);
+    GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, viewport, 0);
+    GLES20.glViewport(0, 0, renderWidth, imageHeight);
 
     // Draw texture to framebuffer.
     drawTexture(textureId, textureWidth, textureHeight);
@@ -294,22 +400,67 @@ public class TextureReader {
     GLES30.glReadPixels(
         0,
         0,
-        imageWidth,
+        renderWidth,
         imageHeight,
-        imageFormat == TextureReaderImage.IMAGE_FORMAT_I8 ? GLES30.GL_RED : GLES20.GL_RGBA,
+        imageFormat == TextureReaderImage.IMAGE_FORMAT_RGBA ? GLES20.GL_RGBA : GLES30.GL_RED,
         GLES20.GL_UNSIGNED_BYTE,
         0);
 
+    // Signal when the GPU has finished writing the PBO, so that the read can be polled.
+    fence[bufferIndex] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
     // Restore viewport.
-    GLES20.glViewport(viewport.get(0), viewport.get(1), viewport.get(2), viewport.get(3));
+    GLES20.glViewport(viewport[0], viewport[1], viewport[2], viewport[3]);
 
     GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
 
-    bufferUsed[bufferIndex] = true;
+    bufferState[bufferIndex] = BUFFER_SUBMITTED;
+    submitSequence[bufferIndex] = nextSubmitSequence++;
     return bufferIndex;
   }
 
+  /**
+   * Acquires the newest submitted frame which the GPU has finished writing, without blocking. Older
+   * submitted frames are dropped, since a newer frame is available.
+   *
+   * @return a TextureReaderImage object whose bufferIndex has to be passed to releaseFrame() after
+   *     using the frame, or null if no submitted frame is ready yet.
+   */
+  public TextureReaderImage tryAcquireFrame() {
+    // Find the newest submitted buffer whose fence has signalled.
+    int bufferIndex = -1;
+    for (int i = 0; i < bufferCount; i++) {
+      if (bufferState[i] == BUFFER_SUBMITTED
+          && (bufferIndex == -1 || submitSequence[i] > submitSequence[bufferIndex])
+          && isFenceSignaled(i)) {
+        bufferIndex = i;
+      }
+    }
+    if (bufferIndex == -1) {
+      return null;
+    }
+
+    // Drop the older submitted frames.
+    for (int i = 0; i < bufferCount; i++) {
+      if (bufferState[i] == BUFFER_SUBMITTED
+          && submitSequence[i] < submitSequence[bufferIndex]) {
+        deleteFence(i);
+        bufferState[i] = BUFFER_FREE;
+        droppedFrameCount++;
+      }
+    }
+
+    TextureReaderImage image = acquireFrame(bufferIndex);
+    image.bufferIndex = bufferIndex;
+    return image;
+  }
+
+  /** Returns the number of submitted frames which were dropped before being acquired. */
+  public long getDroppedFrameCount() {
+    return droppedFrameCount;
+  }
+
   /**
    * Acquires the frame requested earlier. This routine returns a TextureReaderImage object that
    * contains the pixels mapped to the frame buffer requested previously through submitFrame().
@@ -321,9 +472,13 @@ public class TextureReader {
    * @return a TextureReaderImage object if succeed. Null otherwise.
    */
   public TextureReaderImage acquireFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (bufferIndex < 0
+        || bufferIndex >= bufferCount
+        || bufferState[bufferIndex] != BUFFER_SUBMITTED) {
       throw new RuntimeException("Invalid buffer index.");
     }
+    deleteFence(bufferIndex);
+    bufferState[bufferIndex] = BUFFER_ACQUIRED;
 
     // Bind the current PB and acquire the pixel buffer.
     GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
@@ -347,13 +502,16 @@ public class TextureReader {
    *     returned from submitFrame().
    */
   public void releaseFrame(int bufferIndex) {
-    if (bufferIndex < 0 || bufferIndex >= bufferCount || !bufferUsed[bufferIndex]) {
+    if (bufferIndex < 0 || bufferIndex >= bufferCount || bufferState[bufferIndex] == BUFFER_FREE) {
       throw new RuntimeException("Invalid buffer index.");
     }
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
-    GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
-    GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
-    bufferUsed[bufferIndex] = false;
+    if (bufferState[bufferIndex] == BUFFER_ACQUIRED) {
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pbo[bufferIndex]);
+      GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+      GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+    }
+    deleteFence(bufferIndex);
+    bufferState[bufferIndex] = BUFFER_FREE;
   }
 
   /**
@@ -387,6 +545,25 @@ public class TextureReader {
     return null;
   }
 
+  /** Returns whether the GPU has finished the read into a buffer, without blocking. */
+  private boolean isFenceSignaled(int bufferIndex) {
+    if (fence[bufferIndex] == 0) {
+      return true;
+    }
+    // A zero timeout only polls the fence. The flush makes sure that the fence is eventually
+    // signalled, even if no other GL call flushes the command stream.
+    int status =
+        GLES30.glClientWaitSync(fence[bufferIndex], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, 0);
+    return status == GLES30.GL_ALREADY_SIGNALED || status == GLES30.GL_CONDITION_SATISFIED;
+  }
+
+  private void deleteFence(int bufferIndex) {
+    if (fence[bufferIndex] != 0) {
+      GLES30.glDeleteSync(fence[bufferIndex]);
+      fence[bufferIndex] = 0;
+    }
+  }
+
   /** Draws texture to full screen. */
   private void drawTexture(int textureId, int textureWidth, int textureHeight) {
     // Disable features that we don't use.
@@ -445,6 +622,9 @@ public class TextureReader {
     GLES20.glEnableVertexAttribArray(quadTexCoordAttrib);
 
     GLES20.glUseProgram(quadProgram);
+    if (quadEdgeThresholdUniform != -1) {
+      GLES20.glUniform1f(quadEdgeThresholdUniform, edgeThreshold);
+    }
 
     // Select input texture.
     GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
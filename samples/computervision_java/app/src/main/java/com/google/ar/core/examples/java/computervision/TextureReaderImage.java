@@ -25,6 +25,18 @@ public class TextureReaderImage {
   /** The id corresponding to grayscale. */
   public static final int IMAGE_FORMAT_I8 = 1;
 
+  /**
+   * The id corresponding to grayscale edges detected on the GPU: 0xFF for edge pixels and 0x1F for
+   * other pixels, like the output of {@link EdgeDetector}.
+   */
+  public static final int IMAGE_FORMAT_EDGE_I8 = 2;
+
+  /**
+   * The id corresponding to edges detected on the GPU and packed into one bit per pixel, see {@link
+   * GpuSobelReference#pack}. The buffer holds width * height / 8 bytes.
+   */
+  public static final int IMAGE_FORMAT_EDGE_PACKED = 3;
+
   /** The width of the image, in pixels. */
   public int width;
 
@@ -34,9 +46,15 @@ public class TextureReaderImage {
   /** The image buffer. */
   public ByteBuffer buffer;
 
-  /** Pixel format. Can be either IMAGE_FORMAT_RGBA or IMAGE_FORMAT_I8. */
+  /** Pixel format. Can be any of the IMAGE_FORMAT_* values. */
   public int format;
 
+  /**
+   * Index of the frame buffer holding the image, to be passed to TextureReader.releaseFrame(). Set
+   * by TextureReader.tryAcquireFrame(), -1 otherwise.
+   */
+  public int bufferIndex = -1;
+
   /** Default constructor. */
   public TextureReaderImage() {
     width = 1;
@@ -58,7 +76,7 @@ public class TextureReaderImage {
       throw new RuntimeException("Invalid image size.");
     }
 
-    if (imgFormat != IMAGE_FORMAT_RGBA && imgFormat != IMAGE_FORMAT_I8) {
+    if (!isValidFormat(imgFormat)) {
       throw new RuntimeException("Invalid image format.");
     }
 
@@ -71,4 +89,12 @@ public class TextureReaderImage {
     format = imgFormat;
     buffer = imgBuffer;
   }
+
+  /** Returns whether the format is one of the IMAGE_FORMAT_* values. */
+  static boolean isValidFormat(int format) {
+    return format == IMAGE_FORMAT_RGBA
+        || format == IMAGE_FORMAT_I8
+        || format == IMAGE_FORMAT_EDGE_I8
+        || format == IMAGE_FORMAT_EDGE_PACKED;
+  }
 }
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes camera images, such as those from {@link com.google.ar.core.Frame#acquireCameraImage()},
+ * into a container file which {@link YuvFrameReplaySource} replays without a camera or device, for
+ * example to benchmark the CPU image pipeline on a desktop JVM.
+ *
+ * <p>The file starts with a header of the magic number {@link #MAGIC} and the format version
+ * {@link #VERSION}. Each frame follows as the timestamp in nanoseconds, the width, the height and
+ * the number of planes, then the row stride, pixel stride and byte count of each plane, then the
+ * bytes of each plane exactly as they are in the image, including row padding. All numbers are
+ * little endian. The planes are written straight from their buffers, so no memory is allocated per
+ * frame.
+ */
+public class YuvFrameRecorder implements Closeable {
+  /** Magic number at the start of the file, the bytes "YUV1". */
+  public static final int MAGIC = 0x31565559;
+
+  /** Version of the container format. */
+  public static final int VERSION = 1;
+
+  /** Maximum number of planes of a frame. */
+  public static final int MAX_PLANE_COUNT = 3;
+
+  // Sizes of the headers, in bytes.
+  static final int FILE_HEADER_SIZE = 8;
+  static final int FRAME_HEADER_SIZE = 20;
+  static final int PLANE_HEADER_SIZE = 12;
+
+  private final FileOutputStream stream;
+  private final FileChannel channel;
+  private final ByteBuffer header =
+      ByteBuffer.allocateDirect(FRAME_HEADER_SIZE + MAX_PLANE_COUNT * PLANE_HEADER_SIZE)
+          .order(ByteOrder.LITTLE_ENDIAN);
+  private int frameCount = 0;
+
+  /**
+   * Creates the file and writes its header.
+   *
+   * @param file the file to write. An existing file is replaced.
+   */
+  public YuvFrameRecorder(File file) throws IOException {
+    stream = new FileOutputStream(file);
+    channel = stream.getChannel();
+    header.clear();
+    header.putInt(MAGIC);
+    header.putInt(VERSION);
+    header.flip();
+    writeFully(header);
+  }
+
+  /**
+   * Appends a frame to the file.
+   *
+   * @param timestampNanos the timestamp of the image, in nanoseconds.
+   * @param width image width.
+   * @param height image height.
+   * @param planes the planes of the image, for example Y, U and V. The bytes from the position to
+   *     the limit of each buffer are written, and the position is restored before returning.
+   * @param rowStrides the number of bytes between the starts of two consecutive rows of each plane.
+   * @param pixelStrides the number of bytes between two consecutive pixels of a row of each plane.
+   */
+  public void writeFrame(
+      long timestampNanos,
+      int width,
+      int height,
+      ByteBuffer[] planes,
+      int[] rowStrides,
+      int[] pixelStrides)
+      throws IOException {
+    if (planes.length > MAX_PLANE_COUNT) {
+      throw new IllegalArgumentException(
+          "At most " + MAX_PLANE_COUNT + " planes are supported, got " + planes.length);
+    }
+    header.clear();
+    header.putLong(timestampNanos);
+    header.putInt(width);
+    header.putInt(height);
+    header.putInt(planes.length);
+    for (int i = 0; i < planes.length; i++) {
+      header.putInt(rowStrides[i]);
+      header.putInt(pixelStrides[i]);
+      header.putInt(planes[i].remaining());
+    }
+    header.flip();
+    writeFully(header);
+
+    for (ByteBuffer plane : planes) {
+      int position = plane.position();
+      writeFully(plane);
+      plane.position(position);
+    }
+    frameCount++;
+  }
+
+  /** Returns the number of frames written. */
+  public int getFrameCount() {
+    return frameCount;
+  }
+
+  @Override
+  public void close() throws IOException {
+    stream.close();
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+}
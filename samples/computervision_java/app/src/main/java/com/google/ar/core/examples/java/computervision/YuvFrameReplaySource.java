@@ -0,0 +1,190 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays the camera images recorded by {@link YuvFrameRecorder}. The file is memory mapped and the
+ * planes of each frame are views into the mapping, so replaying a frame neither reads nor copies
+ * the file, and frames can be fed to the CPU image pipeline as fast as it processes them.
+ *
+ * <p>The source only depends on the Java standard library, so it also runs on a desktop JVM, for
+ * example in benchmarks and regression tests. Indexing stops at the first frame which was cut short
+ * or is invalid, for example because the app was killed while recording. Files are limited to 2 GB.
+ */
+public class YuvFrameReplaySource implements Closeable {
+  /** A recorded camera image. The plane buffers are read only views into the file. */
+  public static final class RecordedFrame {
+    private final long timestampNanos;
+    private final int width;
+    private final int height;
+    private final ByteBuffer[] planes;
+    private final int[] rowStrides;
+    private final int[] pixelStrides;
+
+    private RecordedFrame(
+        long timestampNanos,
+        int width,
+        int height,
+        ByteBuffer[] planes,
+        int[] rowStrides,
+        int[] pixelStrides) {
+      this.timestampNanos = timestampNanos;
+      this.width = width;
+      this.height = height;
+      this.planes = planes;
+      this.rowStrides = rowStrides;
+      this.pixelStrides = pixelStrides;
+    }
+
+    /** Returns the timestamp of the image, in nanoseconds. */
+    public long getTimestamp() {
+      return timestampNanos;
+    }
+
+    /** Returns the image width. */
+    public int getWidth() {
+      return width;
+    }
+
+    /** Returns the image height. */
+    public int getHeight() {
+      return height;
+    }
+
+    /** Returns the number of planes. */
+    public int getPlaneCount() {
+      return planes.length;
+    }
+
+    /** Returns the bytes of a plane, including row padding. */
+    public ByteBuffer getPlane(int plane) {
+      return planes[plane];
+    }
+
+    /** Returns the number of bytes between the starts of two consecutive rows of a plane. */
+    public int getRowStride(int plane) {
+      return rowStrides[plane];
+    }
+
+    /** Returns the number of bytes between two consecutive pixels of a row of a plane. */
+    public int getPixelStride(int plane) {
+      return pixelStrides[plane];
+    }
+  }
+
+  private final RandomAccessFile file;
+  private final List<RecordedFrame> frames = new ArrayList<>();
+
+  /**
+   * Maps a recorded file and indexes its frames.
+   *
+   * @param path the file written by {@link YuvFrameRecorder}.
+   */
+  public YuvFrameReplaySource(File path) throws IOException {
+    file = new RandomAccessFile(path, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Recordings larger than 2 GB are not supported: " + path);
+      }
+      MappedByteBuffer mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      mapping.order(ByteOrder.LITTLE_ENDIAN);
+      if (mapping.remaining() < YuvFrameRecorder.FILE_HEADER_SIZE
+          || mapping.getInt() != YuvFrameRecorder.MAGIC) {
+        throw new IOException("Not a YUV frame recording: " + path);
+      }
+      int version = mapping.getInt();
+      if (version != YuvFrameRecorder.VERSION) {
+        throw new IOException("Unsupported YUV frame recording version " + version + ": " + path);
+      }
+      indexFrames(mapping);
+    } catch (IOException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /** Returns the number of recorded frames. */
+  public int getFrameCount() {
+    return frames.size();
+  }
+
+  /** Returns a recorded frame. */
+  public RecordedFrame getFrame(int index) {
+    return frames.get(index);
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  /** Reads the frame headers, and creates the plane views of every complete frame. */
+  private void indexFrames(ByteBuffer mapping) {
+    while (mapping.remaining() >= YuvFrameRecorder.FRAME_HEADER_SIZE) {
+      long timestampNanos = mapping.getLong();
+      int width = mapping.getInt();
+      int height = mapping.getInt();
+      int planeCount = mapping.getInt();
+      if (width <= 0
+          || height <= 0
+          || planeCount < 1
+          || planeCount > YuvFrameRecorder.MAX_PLANE_COUNT
+          || mapping.remaining() < planeCount * YuvFrameRecorder.PLANE_HEADER_SIZE) {
+        return;
+      }
+
+      int[] rowStrides = new int[planeCount];
+      int[] pixelStrides = new int[planeCount];
+      int[] sizes = new int[planeCount];
+      long frameSize = 0;
+      for (int i = 0; i < planeCount; i++) {
+        rowStrides[i] = mapping.getInt();
+        pixelStrides[i] = mapping.getInt();
+        sizes[i] = mapping.getInt();
+        if (sizes[i] < 0) {
+          return;
+        }
+        frameSize += sizes[i];
+      }
+      if (frameSize > mapping.remaining()) {
+        return;
+      }
+
+      ByteBuffer[] planes = new ByteBuffer[planeCount];
+      for (int i = 0; i < planeCount; i++) {
+        int end = mapping.position() + sizes[i];
+        ByteBuffer plane = mapping.duplicate();
+        plane.limit(end);
+        planes[i] = plane.slice().asReadOnlyBuffer();
+        mapping.position(end);
+      }
+      frames.add(
+          new RecordedFrame(timestampNanos, width, height, planes, rowStrides, pixelStrides));
+    }
+  }
+}
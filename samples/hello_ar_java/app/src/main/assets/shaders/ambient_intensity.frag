@@ -24,9 +24,6 @@ precision mediump float;
 // The albedo texture.
 uniform sampler2D u_AlbedoTexture;
 
-// A color to be multiplied with the albedo before any lighting operations.
-uniform vec3 u_AlbedoColor;
-
 // The diffuse reflection factor of light emitted from the upper hemisphere of
 // the light source.
 uniform float u_UpperDiffuseIntensity;
@@ -42,12 +39,18 @@ uniform float u_SpecularIntensity;
 // tend towards smaller specular highlights.
 uniform float u_SpecularPower;
 
-// The direction of the light source's upper hemisphere.
-uniform vec4 u_ViewLightDirection;
-
-// This must be set to output of LightEstimate.getColorCorrection() to match
-// color to the scene.
-uniform vec4 u_ColorCorrection;
+// Uniforms shared by all shaders, updated once per frame. The layout must match
+// the uniform buffer filled by HelloArActivity, and the block must be declared
+// the same way in every shader stage.
+layout(std140) uniform FrameUniforms {
+  highp mat4 u_View;
+  highp mat4 u_Projection;
+  // The direction of the light source's upper hemisphere.
+  highp vec4 u_ViewLightDirection;
+  // The output of LightEstimate.getColorCorrection(), to match color to the
+  // scene.
+  highp vec4 u_ColorCorrection;
+};
 
 #if USE_DEPTH_FOR_OCCLUSION
 uniform sampler2D u_DepthTexture;
@@ -60,6 +63,9 @@ in vec3 v_ViewNormal;
 in vec2 v_TexCoord;
 in vec3 v_ScreenSpacePosition;
 
+// A color to be multiplied with the albedo before any lighting operations.
+in vec3 v_AlbedoColor;
+
 layout(location = 0) out vec4 o_FragColor;
 
 #if USE_DEPTH_FOR_OCCLUSION
@@ -179,7 +185,7 @@ void main() {
   // Addressing from the top-left of the albedo texture, read and convert the
   // SRGB color to linear color space.
   vec4 albedoColor = texture(u_AlbedoTexture, vec2(v_TexCoord.x, 1.0 - v_TexCoord.y));
-  albedoColor.rgb *= u_AlbedoColor;
+  albedoColor.rgb *= v_AlbedoColor;
   albedoColor.rgb = pow(albedoColor.rgb, vec3(kInverseGamma));
 
   // Compute diffuse term by approximating a hemisphere light.
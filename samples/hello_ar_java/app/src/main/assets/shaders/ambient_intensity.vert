@@ -15,22 +15,40 @@
  * limitations under the License.
  */
 
-uniform mat4 u_ModelView;
-uniform mat4 u_ModelViewProjection;
+// Uniforms shared by all shaders, updated once per frame. The layout must match
+// the uniform buffer filled by HelloArActivity, and the block must be declared
+// the same way in every shader stage.
+layout(std140) uniform FrameUniforms {
+  highp mat4 u_View;
+  highp mat4 u_Projection;
+  // The direction of the light source's upper hemisphere.
+  highp vec4 u_ViewLightDirection;
+  // The output of LightEstimate.getColorCorrection(), to match color to the
+  // scene.
+  highp vec4 u_ColorCorrection;
+};
 
 layout(location = 0) in vec4 a_Position;
 layout(location = 1) in vec2 a_TexCoord;
 layout(location = 2) in vec3 a_Normal;
 
+// Per-instance attributes. The model matrix takes locations 3 to 6.
+layout(location = 3) in mat4 a_Model;
+layout(location = 7) in vec3 a_AlbedoColor;
+
 out vec3 v_ViewPosition;
 out vec3 v_ViewNormal;
 out vec2 v_TexCoord;
 out vec3 v_ScreenSpacePosition;
+out vec3 v_AlbedoColor;
 
 void main() {
-  v_ViewPosition = (u_ModelView * a_Position).xyz;
-  v_ViewNormal = normalize((u_ModelView * vec4(a_Normal, 0.0)).xyz);
+  mat4 modelView = u_View * a_Model;
+  vec4 viewPosition = modelView * a_Position;
+  v_ViewPosition = viewPosition.xyz;
+  v_ViewNormal = normalize((modelView * vec4(a_Normal, 0.0)).xyz);
   v_TexCoord = a_TexCoord;
-  gl_Position = u_ModelViewProjection * a_Position;
+  v_AlbedoColor = a_AlbedoColor;
+  gl_Position = u_Projection * viewPosition;
   v_ScreenSpacePosition = gl_Position.xyz / gl_Position.w;
 }
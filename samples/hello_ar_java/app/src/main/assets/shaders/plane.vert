@@ -15,8 +15,19 @@
  * limitations under the License.
  */
 
+// Uniforms shared by all shaders, updated once per frame. The layout must match
+// the uniform buffer filled by HelloArActivity, and the block must be declared
+// the same way in every shader stage.
+layout(std140) uniform FrameUniforms {
+  highp mat4 u_View;
+  highp mat4 u_Projection;
+  // The direction of the light source's upper hemisphere.
+  highp vec4 u_ViewLightDirection;
+  // The output of LightEstimate.getColorCorrection(), to match color to the
+  // scene.
+  highp vec4 u_ColorCorrection;
+};
 uniform mat4 u_Model;
-uniform mat4 u_ModelViewProjection;
 uniform mat2 u_PlaneUvMatrix;
 uniform vec3 u_Normal;
 
@@ -38,5 +49,5 @@ void main() {
    // Project vertices in world frame onto vec_u and vec_v.
    vec2 uv = vec2(dot(world_pos.xyz, vec_u), dot(world_pos.xyz, vec_v));
    v_TexCoordAlpha = vec3(u_PlaneUvMatrix * uv, a_XZPositionAlpha.z);
-   gl_Position = u_ModelViewProjection * local_pos;
+   gl_Position = u_Projection * (u_View * world_pos);
 }
@@ -15,12 +15,23 @@
  * limitations under the License.
  */
 
-uniform mat4 u_ModelViewProjection;
+// Uniforms shared by all shaders, updated once per frame. The layout must match
+// the uniform buffer filled by HelloArActivity, and the block must be declared
+// the same way in every shader stage.
+layout(std140) uniform FrameUniforms {
+  highp mat4 u_View;
+  highp mat4 u_Projection;
+  // The direction of the light source's upper hemisphere.
+  highp vec4 u_ViewLightDirection;
+  // The output of LightEstimate.getColorCorrection(), to match color to the
+  // scene.
+  highp vec4 u_ColorCorrection;
+};
 uniform float u_PointSize;
 
 layout(location = 0) in vec4 a_Position;
 
 void main() {
-  gl_Position = u_ModelViewProjection * a_Position;
+  gl_Position = u_Projection * (u_View * a_Position);
   gl_PointSize = u_PointSize;
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.GLES30;
+import java.util.Arrays;
+
+/**
+ * Fences which tell when the GPU has finished the commands of each of the last {@link
+ * #FRAME_COUNT} frames, so that memory drawn from by a frame can be written again without waiting
+ * for the GPU to finish all commands.
+ *
+ * <p>Memory last drawn from in frame {@code n} may be written in frame {@code n + FRAME_COUNT},
+ * after calling {@link #waitForFrame} for it. Fences are only created once {@link #enable()} is
+ * called, so applications without streaming buffers do not pay for them.
+ */
+/* package-private */
+class FrameFences {
+  /** Number of frames which may be in flight. */
+  static final int FRAME_COUNT = 3;
+
+  private static final long WAIT_TIMEOUT_NANOSECONDS = 100_000_000L;
+
+  // Fence inserted at the end of each of the last frames, indexed by frame number modulo
+  // FRAME_COUNT, or 0 if there is none.
+  private final long[] fences = new long[FRAME_COUNT];
+  private boolean enabled = false;
+
+  /** Starts inserting fences at the end of frames. */
+  void enable() {
+    enabled = true;
+  }
+
+  /** Forgets the fences of a lost GL context, which were deleted with it. */
+  void invalidate() {
+    Arrays.fill(fences, 0);
+  }
+
+  /** Inserts the fence of frame {@code frameNumber}, after its last command. */
+  void endFrame(long frameNumber) {
+    if (!enabled) {
+      return;
+    }
+    int index = getIndex(frameNumber);
+    deleteFence(index);
+    fences[index] = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    GLError.maybeThrowGLException("Failed to insert frame fence", "glFenceSync");
+  }
+
+  /**
+   * Waits until the GPU has finished the frame {@code FRAME_COUNT} frames before {@code
+   * frameNumber}, and so all frames before it. Returns immediately if it has finished, or if the
+   * frame was already waited for.
+   */
+  void waitForFrame(long frameNumber) {
+    int index = getIndex(frameNumber);
+    if (fences[index] == 0) {
+      return;
+    }
+    int status;
+    do {
+      status =
+          GLES30.glClientWaitSync(
+              fences[index], GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, WAIT_TIMEOUT_NANOSECONDS);
+    } while (status == GLES30.GL_TIMEOUT_EXPIRED);
+    if (status == GLES30.GL_WAIT_FAILED) {
+      GLError.throwGLExceptionIfAny("Failed to wait for frame fence", "glClientWaitSync");
+    }
+    deleteFence(index);
+  }
+
+  private static int getIndex(long frameNumber) {
+    return (int) (frameNumber % FRAME_COUNT);
+  }
+
+  private void deleteFence(int index) {
+    if (fences[index] != 0) {
+      GLES30.glDeleteSync(fences[index]);
+      GLError.maybeThrowGLException("Failed to delete frame fence", "glDeleteSync");
+      fences[index] = 0;
+    }
+  }
+}
@@ -25,20 +25,56 @@ import java.util.List;
 
 /* package-private */
 class GLError {
+  // Whether errors are checked after GL calls. SampleRender sets this at the start of every
+  // callback according to its GLErrorCheckPolicy. The flag is a process-wide static shared by all
+  // SampleRender instances, so with several instances on different GL threads, the policy of the
+  // one whose callback started last applies to the GL calls of all of them.
+  private static boolean enabled = true;
+
+  public static void setEnabled(boolean enabled) {
+    GLError.enabled = enabled;
+  }
+
   public static void maybeThrowGLException(String reason, String api) {
+    if (!enabled) {
+      return;
+    }
+    throwGLExceptionIfAny(reason, api);
+  }
+
+  public static void maybeLogGLError(int priority, String tag, String reason, String api) {
+    if (!enabled) {
+      return;
+    }
     List<Integer> errorCodes = getGlErrors();
     if (errorCodes != null) {
-      throw new GLException(errorCodes.get(0), formatErrorMessage(reason, api, errorCodes));
+      Log.println(priority, tag, formatErrorMessage(reason, api, errorCodes));
     }
   }
 
-  public static void maybeLogGLError(int priority, String tag, String reason, String api) {
+  /**
+   * Logs the errors raised since the last check, even if checks after GL calls are disabled. Used
+   * by {@link SampleRender} for the checks at frame boundaries, which run outside of the renderer's
+   * error handling.
+   */
+  public static void logGLErrorIfAny(int priority, String tag, String reason, String api) {
     List<Integer> errorCodes = getGlErrors();
     if (errorCodes != null) {
       Log.println(priority, tag, formatErrorMessage(reason, api, errorCodes));
     }
   }
 
+  /**
+   * Throws a {@link GLException} for the errors raised since the last check, even if checks after
+   * GL calls are disabled.
+   */
+  public static void throwGLExceptionIfAny(String reason, String api) {
+    List<Integer> errorCodes = getGlErrors();
+    if (errorCodes != null) {
+      throw new GLException(errorCodes.get(0), formatErrorMessage(reason, api, errorCodes));
+    }
+  }
+
   private static String formatErrorMessage(String reason, String api, List<Integer> errorCodes) {
     StringBuilder builder = new StringBuilder(String.format("%s: %s: ", reason, api));
     Iterator<Integer> iterator = errorCodes.iterator();
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+/**
+ * How often {@link SampleRender} checks for GL errors.
+ *
+ * <p>Every {@code glGetError} call may wait for the driver, so checking after each GL call is
+ * useful during development but costly in release builds. The policy is chosen when constructing
+ * the {@link SampleRender}. GL errors found by a check after a GL call are thrown as {@link
+ * android.opengl.GLException}s. GL errors found by a check at a frame boundary are logged instead,
+ * as they are found outside of the renderer's error handling.
+ *
+ * <p>With every policy, GL calls made while the surface is created or changed are checked, since
+ * they run rarely.
+ */
+public enum GLErrorCheckPolicy {
+  /** Check for errors after every GL call. The error names the call which caused it. */
+  ALWAYS,
+
+  /**
+   * Check for errors once at the end of every frame. The error only names the frame in which it was
+   * raised.
+   */
+  ONCE_PER_FRAME,
+
+  /**
+   * Check for errors after every GL call of every Nth frame, and for errors raised by the frames in
+   * between at the start of each checked frame.
+   */
+  SAMPLED,
+
+  /** Never check for errors while drawing frames, which then carry no error checking overhead. */
+  OFF
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.GLES11Ext;
+import android.opengl.GLES30;
+import java.util.Arrays;
+
+/**
+ * A shadow copy of the GL state set by the {@link SampleRender} classes, which skips calls that
+ * would not change the state.
+ *
+ * <p>The cache covers the current program, vertex array, blend function, depth write mask, depth
+ * test, active texture unit, textures bound to each unit and buffers bound to each target. It is
+ * only correct if all of this state is changed through it, so GL calls made elsewhere must be
+ * followed by {@link #invalidate()}. Values that are not known, for example after invalidating, are
+ * stored as {@link #UNKNOWN} so that the next call is always issued.
+ */
+/* package-private */
+class GLStateCache {
+  private static final int UNKNOWN = -1;
+
+  // Texture units with cached bindings. Bindings on other units are always issued.
+  private static final int TEXTURE_UNIT_COUNT = 16;
+
+  private static final int[] TEXTURE_TARGETS = {
+    GLES30.GL_TEXTURE_2D, GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES30.GL_TEXTURE_CUBE_MAP
+  };
+
+  private static final int[] BUFFER_TARGETS = {
+    GLES30.GL_ARRAY_BUFFER, GLES30.GL_ELEMENT_ARRAY_BUFFER, GLES30.GL_UNIFORM_BUFFER
+  };
+
+  private int program;
+  private int vertexArray;
+  private final int[] blendFunc = new int[4];
+  private int depthMask;
+  private int depthTest;
+  private int activeTextureUnit;
+  // Texture bound to each target of each unit, indexed by unit * TEXTURE_TARGETS.length + target.
+  private final int[] textures = new int[TEXTURE_UNIT_COUNT * TEXTURE_TARGETS.length];
+  private final int[] buffers = new int[BUFFER_TARGETS.length];
+
+  private int issuedCallCount;
+  private int elidedCallCount;
+  private int lastFrameIssuedCallCount;
+  private int lastFrameElidedCallCount;
+
+  GLStateCache() {
+    invalidate();
+  }
+
+  /** Forgets the whole state, so that the next call of every kind is issued. */
+  void invalidate() {
+    program = UNKNOWN;
+    vertexArray = UNKNOWN;
+    Arrays.fill(blendFunc, UNKNOWN);
+    depthMask = UNKNOWN;
+    depthTest = UNKNOWN;
+    activeTextureUnit = UNKNOWN;
+    Arrays.fill(textures, UNKNOWN);
+    Arrays.fill(buffers, UNKNOWN);
+  }
+
+  /** Starts counting the calls of a new frame. */
+  void beginFrame() {
+    lastFrameIssuedCallCount = issuedCallCount;
+    lastFrameElidedCallCount = elidedCallCount;
+    issuedCallCount = 0;
+    elidedCallCount = 0;
+  }
+
+  /** Returns the number of state changes issued to GL during the last frame. */
+  int getLastFrameIssuedCallCount() {
+    return lastFrameIssuedCallCount;
+  }
+
+  /** Returns the number of state changes skipped during the last frame. */
+  int getLastFrameElidedCallCount() {
+    return lastFrameElidedCallCount;
+  }
+
+  void useProgram(int programId) {
+    if (isCurrent(program == programId)) {
+      return;
+    }
+    GLES30.glUseProgram(programId);
+    GLError.maybeThrowGLException("Failed to use shader program", "glUseProgram");
+    program = programId;
+  }
+
+  void bindVertexArray(int vertexArrayId) {
+    if (isCurrent(vertexArray == vertexArrayId)) {
+      return;
+    }
+    GLES30.glBindVertexArray(vertexArrayId);
+    GLError.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
+    vertexArray = vertexArrayId;
+    // The element array buffer binding is part of the vertex array object.
+    buffers[getBufferTargetIndex(GLES30.GL_ELEMENT_ARRAY_BUFFER)] = UNKNOWN;
+  }
+
+  void blendFuncSeparate(int sourceRgb, int destRgb, int sourceAlpha, int destAlpha) {
+    if (isCurrent(
+        blendFunc[0] == sourceRgb
+            && blendFunc[1] == destRgb
+            && blendFunc[2] == sourceAlpha
+            && blendFunc[3] == destAlpha)) {
+      return;
+    }
+    GLES30.glBlendFuncSeparate(sourceRgb, destRgb, sourceAlpha, destAlpha);
+    GLError.maybeThrowGLException("Failed to set blend mode", "glBlendFuncSeparate");
+    blendFunc[0] = sourceRgb;
+    blendFunc[1] = destRgb;
+    blendFunc[2] = sourceAlpha;
+    blendFunc[3] = destAlpha;
+  }
+
+  void depthMask(boolean enabled) {
+    int value = enabled ? 1 : 0;
+    if (isCurrent(depthMask == value)) {
+      return;
+    }
+    GLES30.glDepthMask(enabled);
+    GLError.maybeThrowGLException("Failed to set depth write mask", "glDepthMask");
+    depthMask = value;
+  }
+
+  void depthTest(boolean enabled) {
+    int value = enabled ? 1 : 0;
+    if (isCurrent(depthTest == value)) {
+      return;
+    }
+    if (enabled) {
+      GLES30.glEnable(GLES30.GL_DEPTH_TEST);
+      GLError.maybeThrowGLException("Failed to enable depth test", "glEnable");
+    } else {
+      GLES30.glDisable(GLES30.GL_DEPTH_TEST);
+      GLError.maybeThrowGLException("Failed to disable depth test", "glDisable");
+    }
+    depthTest = value;
+  }
+
+  private void activeTexture(int unit) {
+    if (isCurrent(activeTextureUnit == unit)) {
+      return;
+    }
+    GLES30.glActiveTexture(GLES30.GL_TEXTURE0 + unit);
+    GLError.maybeThrowGLException("Failed to set active texture", "glActiveTexture");
+    activeTextureUnit = unit;
+  }
+
+  /**
+   * Binds a texture to the given target of a texture unit, where {@code unit} counts from 0. The
+   * unit is only made active if the texture is not bound to it yet, so callers must not rely on
+   * which unit is active afterwards.
+   */
+  void bindTexture(int unit, int target, int textureId) {
+    int index = getTextureIndex(unit, target);
+    if (index >= 0 && isCurrent(textures[index] == textureId)) {
+      return;
+    }
+    if (index < 0) {
+      issuedCallCount++;
+    }
+    activeTexture(unit);
+    GLES30.glBindTexture(target, textureId);
+    GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+    if (index >= 0) {
+      textures[index] = textureId;
+    }
+  }
+
+  void bindBuffer(int target, int bufferId) {
+    int index = getBufferTargetIndex(target);
+    if (index >= 0 && isCurrent(buffers[index] == bufferId)) {
+      return;
+    }
+    if (index < 0) {
+      issuedCallCount++;
+    }
+    GLES30.glBindBuffer(target, bufferId);
+    GLError.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+    if (index >= 0) {
+      buffers[index] = bufferId;
+    }
+  }
+
+  /**
+   * Binds a range of a buffer to an indexed binding point, which also binds it to the target
+   * itself.
+   */
+  void bindBufferRange(int target, int index, int bufferId, int offset, int size) {
+    issuedCallCount++;
+    GLES30.glBindBufferRange(target, index, bufferId, offset, size);
+    GLError.maybeThrowGLException(
+        "Failed to bind buffer range to binding point", "glBindBufferRange");
+    int targetIndex = getBufferTargetIndex(target);
+    if (targetIndex >= 0) {
+      buffers[targetIndex] = bufferId;
+    }
+  }
+
+  /** Forgets a program which is about to be deleted, so that a new program with its ID is used. */
+  void forgetProgram(int programId) {
+    if (program == programId) {
+      program = UNKNOWN;
+    }
+  }
+
+  /** Forgets a vertex array which is about to be deleted, as GL unbinds it. */
+  void forgetVertexArray(int vertexArrayId) {
+    if (vertexArray == vertexArrayId) {
+      vertexArray = UNKNOWN;
+    }
+  }
+
+  /** Forgets a texture which is about to be deleted, as GL unbinds it from all units. */
+  void forgetTexture(int textureId) {
+    for (int i = 0; i < textures.length; i++) {
+      if (textures[i] == textureId) {
+        textures[i] = UNKNOWN;
+      }
+    }
+  }
+
+  /** Forgets a buffer which is about to be deleted, as GL unbinds it from all targets. */
+  void forgetBuffer(int bufferId) {
+    for (int i = 0; i < buffers.length; i++) {
+      if (buffers[i] == bufferId) {
+        buffers[i] = UNKNOWN;
+      }
+    }
+  }
+
+  /** Counts a state change as elided if the state is already current, or issued otherwise. */
+  private boolean isCurrent(boolean current) {
+    if (current) {
+      elidedCallCount++;
+    } else {
+      issuedCallCount++;
+    }
+    return current;
+  }
+
+  private static int getTextureIndex(int unit, int target) {
+    if (unit < 0 || unit >= TEXTURE_UNIT_COUNT) {
+      return -1;
+    }
+    for (int i = 0; i < TEXTURE_TARGETS.length; i++) {
+      if (TEXTURE_TARGETS[i] == target) {
+        return unit * TEXTURE_TARGETS.length + i;
+      }
+    }
+    return -1;
+  }
+
+  private static int getBufferTargetIndex(int target) {
+    for (int i = 0; i < BUFFER_TARGETS.length; i++) {
+      if (BUFFER_TARGETS[i] == target) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -18,6 +18,11 @@ package com.google.ar.core.examples.java.common.samplerender;
 import android.opengl.GLES30;
 import android.util.Log;
 import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 /* package-private */
 class GpuBuffer {
@@ -27,19 +32,82 @@ class GpuBuffer {
   public static final int INT_SIZE = 4;
   public static final int FLOAT_SIZE = 4;
 
+  // Minimum alignment of the data written by each set() of a streaming buffer, in bytes.
+  private static final int STREAMING_ALIGNMENT = 16;
+
+  // Number of regions of a streaming buffer. The data of a region may still be drawn in the frame
+  // which replaces it, so a region is only reused FrameFences.FRAME_COUNT region changes, and so
+  // at least as many frames, after that frame.
+  private static final int STREAMING_REGION_COUNT = FrameFences.FRAME_COUNT + 1;
+
+  private final SampleRender render;
   private final int target;
   private final int numberOfBytesPerEntry;
+  private final boolean streaming;
+  private final int streamingAlignment;
   private final int[] bufferId = {0};
   private int size;
   private int capacity;
 
-  public GpuBuffer(int target, int numberOfBytesPerEntry, Buffer entries) {
+  // A streaming buffer is split into STREAMING_REGION_COUNT regions of regionCapacity bytes. The
+  // first set() of a frame moves on to the next region, and later set()s of the frame append to it
+  // from regionCursor on.
+  private int region = 0;
+  private int regionCapacity = 0;
+  private int regionCursor = 0;
+  private long regionFrameNumber = -1;
+  private int offset = 0;
+
+  public GpuBuffer(SampleRender render, int target, int numberOfBytesPerEntry, Buffer entries) {
+    this(render, target, numberOfBytesPerEntry, entries, /*streaming=*/ false);
+  }
+
+  /**
+   * Constructs a buffer, which is a streaming buffer if {@code streaming} is true. A streaming
+   * buffer writes the data of every {@link #set} to a new range of the buffer, see {@link
+   * #getOffset()}, rather than overwriting data which the GPU may still draw from.
+   */
+  public GpuBuffer(
+      SampleRender render,
+      int target,
+      int numberOfBytesPerEntry,
+      Buffer entries,
+      boolean streaming) {
+    this(render, target, numberOfBytesPerEntry, entries, streaming, STREAMING_ALIGNMENT);
+  }
+
+  /**
+   * Constructs a buffer like {@link #GpuBuffer(SampleRender, int, int, Buffer, boolean)}, whose
+   * streaming offsets are multiples of {@code streamingAlignment} bytes, for example the {@code
+   * GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT} of ranges bound to a uniform block. The alignment must be
+   * a power of two.
+   */
+  public GpuBuffer(
+      SampleRender render,
+      int target,
+      int numberOfBytesPerEntry,
+      Buffer entries,
+      boolean streaming,
+      int streamingAlignment) {
+    if (streamingAlignment <= 0 || (streamingAlignment & (streamingAlignment - 1)) != 0) {
+      throw new IllegalArgumentException(
+          "Streaming alignment must be a power of two, got " + streamingAlignment);
+    }
     if (entries != null && !entries.isDirect()) {
       throw new IllegalArgumentException("If non-null, entries buffer must be a direct buffer");
     }
+    if (streaming && entries != null) {
+      throw new IllegalArgumentException("Streaming buffers must be constructed without entries");
+    }
 
+    this.render = render;
     this.target = target;
     this.numberOfBytesPerEntry = numberOfBytesPerEntry;
+    this.streaming = streaming;
+    this.streamingAlignment = Math.max(streamingAlignment, STREAMING_ALIGNMENT);
+    if (streaming) {
+      render.getFrameFences().enable();
+    }
     if (entries == null) {
       this.size = 0;
       this.capacity = 0;
@@ -50,14 +118,13 @@ class GpuBuffer {
 
     try {
       // Clear VAO to prevent unintended state change.
-      GLES30.glBindVertexArray(0);
-      GLError.maybeThrowGLException("Failed to unbind vertex array", "glBindVertexArray");
+      GLStateCache stateCache = render.getStateCache();
+      stateCache.bindVertexArray(0);
 
       GLES30.glGenBuffers(1, bufferId, 0);
       GLError.maybeThrowGLException("Failed to generate buffers", "glGenBuffers");
 
-      GLES30.glBindBuffer(target, bufferId[0]);
-      GLError.maybeThrowGLException("Failed to bind buffer object", "glBindBuffer");
+      stateCache.bindBuffer(target, bufferId[0]);
 
       if (entries != null) {
         entries.rewind();
@@ -79,8 +146,11 @@ class GpuBuffer {
     if (!entries.isDirect()) {
       throw new IllegalArgumentException("If non-null, entries buffer must be a direct buffer");
     }
-    GLES30.glBindBuffer(target, bufferId[0]);
-    GLError.maybeThrowGLException("Failed to bind vertex buffer object", "glBindBuffer");
+    if (streaming) {
+      setStreaming(entries);
+      return;
+    }
+    render.getStateCache().bindBuffer(target, bufferId[0]);
 
     entries.rewind();
 
@@ -97,8 +167,96 @@ class GpuBuffer {
     }
   }
 
+  /**
+   * Appends the entries to the region of the current frame and maps that range of the buffer
+   * without synchronization, which is safe because the GPU has finished the frames which drew from
+   * the region before.
+   */
+  private void setStreaming(Buffer entries) {
+    long frameNumber = render.getFrameNumber();
+    if (frameNumber != regionFrameNumber) {
+      render.getFrameFences().waitForFrame(frameNumber);
+      region = (region + 1) % STREAMING_REGION_COUNT;
+      regionFrameNumber = frameNumber;
+      regionCursor = 0;
+    }
+
+    int start = align(regionCursor);
+    int byteCount = entries.limit() * numberOfBytesPerEntry;
+    boolean grow = start + byteCount > regionCapacity;
+    if (grow) {
+      // Draws recorded by the render queue may refer to the storage which is orphaned below, so
+      // they are issued while it is still attached to the buffer.
+      render.flushRenderQueue();
+    }
+    // The buffer is bound to the copy write target, which neither changes the vertex array object
+    // nor the vertex buffer binding used to set up attributes.
+    GLStateCache stateCache = render.getStateCache();
+    stateCache.bindBuffer(GLES30.GL_COPY_WRITE_BUFFER, bufferId[0]);
+    if (grow) {
+      // Orphan the storage of the buffer, so that draws issued before keep reading the old
+      // storage while the new storage is written without waiting for them.
+      regionCapacity = align(Math.max(2 * regionCapacity, byteCount));
+      GLES30.glBufferData(
+          GLES30.GL_COPY_WRITE_BUFFER,
+          STREAMING_REGION_COUNT * regionCapacity,
+          null,
+          GLES30.GL_STREAM_DRAW);
+      GLError.maybeThrowGLException("Failed to grow streaming buffer object", "glBufferData");
+      start = 0;
+    }
+
+    offset = region * regionCapacity + start;
+    size = entries.limit();
+    regionCursor = start + byteCount;
+    if (byteCount == 0) {
+      return;
+    }
+
+    entries.rewind();
+    Buffer mapped =
+        GLES30.glMapBufferRange(
+            GLES30.GL_COPY_WRITE_BUFFER,
+            offset,
+            byteCount,
+            GLES30.GL_MAP_WRITE_BIT
+                | GLES30.GL_MAP_INVALIDATE_RANGE_BIT
+                | GLES30.GL_MAP_UNSYNCHRONIZED_BIT);
+    GLError.maybeThrowGLException("Failed to map streaming buffer object", "glMapBufferRange");
+    if (mapped == null) {
+      throw new IllegalStateException("Failed to map streaming buffer object");
+    }
+    copy(entries, ((ByteBuffer) mapped).order(ByteOrder.nativeOrder()));
+    if (!GLES30.glUnmapBuffer(GLES30.GL_COPY_WRITE_BUFFER)) {
+      // The contents were lost, for example because the display mode changed. The next set()
+      // replaces them.
+      Log.w(TAG, "Streaming buffer object contents were corrupted while mapped");
+    }
+    GLError.maybeThrowGLException("Failed to unmap streaming buffer object", "glUnmapBuffer");
+  }
+
+  private static void copy(Buffer entries, ByteBuffer mapped) {
+    if (entries instanceof FloatBuffer) {
+      mapped.asFloatBuffer().put((FloatBuffer) entries);
+    } else if (entries instanceof IntBuffer) {
+      mapped.asIntBuffer().put((IntBuffer) entries);
+    } else if (entries instanceof ShortBuffer) {
+      mapped.asShortBuffer().put((ShortBuffer) entries);
+    } else if (entries instanceof ByteBuffer) {
+      mapped.put((ByteBuffer) entries);
+    } else {
+      throw new IllegalArgumentException(
+          "Unsupported entries buffer type " + entries.getClass().getSimpleName());
+    }
+  }
+
+  private int align(int byteCount) {
+    return (byteCount + streamingAlignment - 1) & -streamingAlignment;
+  }
+
   public void free() {
     if (bufferId[0] != 0) {
+      render.getStateCache().forgetBuffer(bufferId[0]);
       GLES30.glDeleteBuffers(1, bufferId, 0);
       GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free buffer object", "glDeleteBuffers");
       bufferId[0] = 0;
@@ -112,4 +270,16 @@ class GpuBuffer {
   public int getSize() {
     return size;
   }
+
+  /**
+   * Returns the offset of the data of the last {@link #set} in the buffer, in bytes. This is always
+   * 0 for buffers which are not streaming.
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
 }
@@ -42,7 +42,25 @@ public class IndexBuffer implements Closeable {
    * instead.
    */
   public IndexBuffer(SampleRender render, IntBuffer entries) {
-    buffer = new GpuBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, GpuBuffer.INT_SIZE, entries);
+    buffer = new GpuBuffer(render, GLES30.GL_ELEMENT_ARRAY_BUFFER, GpuBuffer.INT_SIZE, entries);
+  }
+
+  private IndexBuffer(GpuBuffer buffer) {
+    this.buffer = buffer;
+  }
+
+  /**
+   * Construct an empty streaming {@link IndexBuffer}, for data which is replaced every frame, see
+   * {@link VertexBuffer#createStreaming}.
+   */
+  public static IndexBuffer createStreaming(SampleRender render) {
+    return new IndexBuffer(
+        new GpuBuffer(
+            render,
+            GLES30.GL_ELEMENT_ARRAY_BUFFER,
+            GpuBuffer.INT_SIZE,
+            /*entries=*/ null,
+            /*streaming=*/ true));
   }
 
   /**
@@ -70,6 +88,11 @@ public class IndexBuffer implements Closeable {
     return buffer.getBufferId();
   }
 
+  /* package-private */
+  int getOffset() {
+    return buffer.getOffset();
+  }
+
   /* package-private */
   int getSize() {
     return buffer.getSize();
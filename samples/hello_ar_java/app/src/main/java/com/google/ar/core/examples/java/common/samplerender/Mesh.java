@@ -30,7 +30,9 @@ import java.nio.IntBuffer;
 /**
  * A collection of vertices, faces, and other attributes that define how to render a 3D object.
  *
- * <p>To render the mesh, use {@link SampleRender#draw()}.
+ * <p>To render the mesh, use {@link SampleRender#draw()}. To render many copies of the mesh in a
+ * single draw call, give it per-instance {@link VertexBuffer}s and use {@link
+ * SampleRender#drawInstanced}.
  */
 public class Mesh implements Closeable {
   private static final String TAG = Mesh.class.getSimpleName();
@@ -59,10 +61,19 @@ public class Mesh implements Closeable {
     }
   }
 
+  private final SampleRender render;
   private final int[] vertexArrayId = {0};
   private final PrimitiveMode primitiveMode;
   private final IndexBuffer indexBuffer;
   private final VertexBuffer[] vertexBuffers;
+  private final VertexBuffer[] instanceBuffers;
+  // Byte offset the attributes of each vertex buffer, then each instance buffer, point at.
+  // Streaming buffers move their data on every set(), so their attributes are pointed at the offset
+  // saved for a draw before drawing.
+  private final int[] attributeOffsets;
+  private final boolean hasStreamingBuffers;
+  // Parameters of immediate draws, see saveDrawParameters().
+  private final int[] drawParameters;
 
   /**
    * Construct a {@link Mesh}.
@@ -81,13 +92,50 @@ public class Mesh implements Closeable {
       PrimitiveMode primitiveMode,
       IndexBuffer indexBuffer,
       VertexBuffer[] vertexBuffers) {
+    this(render, primitiveMode, indexBuffer, vertexBuffers, new VertexBuffer[0]);
+  }
+
+  /**
+   * Construct a {@link Mesh} with per-instance attributes, to be drawn with {@link
+   * SampleRender#drawInstanced}.
+   *
+   * <p>Entries of the {@code instanceBuffers} advance once per instance rather than once per
+   * vertex. Their attribute locations follow the locations of the {@code vertexBuffers}, in order.
+   * An instance buffer of up to 4 entries per instance takes a single location, a larger one takes
+   * one location per 4 entries, so that for example a {@code mat4} attribute takes 4 consecutive
+   * locations.
+   */
+  public Mesh(
+      SampleRender render,
+      PrimitiveMode primitiveMode,
+      IndexBuffer indexBuffer,
+      VertexBuffer[] vertexBuffers,
+      VertexBuffer[] instanceBuffers) {
     if (vertexBuffers == null || vertexBuffers.length == 0) {
       throw new IllegalArgumentException("Must pass at least one vertex buffer");
     }
+    for (VertexBuffer instanceBuffer : instanceBuffers) {
+      int entries = instanceBuffer.getNumberOfEntriesPerVertex();
+      if (entries > 4 && entries % 4 != 0) {
+        throw new IllegalArgumentException(
+            "Instance buffers of more than 4 entries per instance must have a multiple of 4"
+                + " entries, got "
+                + entries);
+      }
+    }
 
+    this.render = render;
     this.primitiveMode = primitiveMode;
     this.indexBuffer = indexBuffer;
     this.vertexBuffers = vertexBuffers;
+    this.instanceBuffers = instanceBuffers;
+    this.attributeOffsets = new int[vertexBuffers.length + instanceBuffers.length];
+    this.drawParameters = new int[getDrawParameterCount()];
+    boolean hasStreamingBuffers = false;
+    for (int i = 0; i < attributeOffsets.length; ++i) {
+      hasStreamingBuffers |= getAttributeBuffer(i).isStreaming();
+    }
+    this.hasStreamingBuffers = hasStreamingBuffers;
 
     try {
       // Create vertex array
@@ -95,25 +143,35 @@ public class Mesh implements Closeable {
       GLError.maybeThrowGLException("Failed to generate a vertex array", "glGenVertexArrays");
 
       // Bind vertex array
-      GLES30.glBindVertexArray(vertexArrayId[0]);
-      GLError.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
+      GLStateCache stateCache = render.getStateCache();
+      stateCache.bindVertexArray(vertexArrayId[0]);
 
       if (indexBuffer != null) {
-        GLES30.glBindBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.getBufferId());
+        stateCache.bindBuffer(GLES30.GL_ELEMENT_ARRAY_BUFFER, indexBuffer.getBufferId());
       }
 
       for (int i = 0; i < vertexBuffers.length; ++i) {
         // Bind each vertex buffer to vertex array
-        GLES30.glBindBuffer(GLES30.GL_ARRAY_BUFFER, vertexBuffers[i].getBufferId());
-        GLError.maybeThrowGLException("Failed to bind vertex buffer", "glBindBuffer");
-        GLES30.glVertexAttribPointer(
-            i, vertexBuffers[i].getNumberOfEntriesPerVertex(), GLES30.GL_FLOAT, false, 0, 0);
-        GLError.maybeThrowGLException(
-            "Failed to associate vertex buffer with vertex array", "glVertexAttribPointer");
+        pointAttributes(i, i, vertexBuffers[i].getOffset());
         GLES30.glEnableVertexAttribArray(i);
         GLError.maybeThrowGLException(
             "Failed to enable vertex buffer", "glEnableVertexAttribArray");
       }
+
+      int location = vertexBuffers.length;
+      for (int i = vertexBuffers.length; i < attributeOffsets.length; ++i) {
+        // Bind each instance buffer to vertex array, splitting it into attributes of up to 4
+        // entries.
+        int nextLocation = pointAttributes(i, location, getAttributeBuffer(i).getOffset());
+        for (; location < nextLocation; ++location) {
+          GLES30.glVertexAttribDivisor(location, 1);
+          GLError.maybeThrowGLException(
+              "Failed to set instance buffer divisor", "glVertexAttribDivisor");
+          GLES30.glEnableVertexAttribArray(location);
+          GLError.maybeThrowGLException(
+              "Failed to enable instance buffer", "glEnableVertexAttribArray");
+        }
+      }
     } catch (Throwable t) {
       close();
       throw t;
@@ -128,6 +186,19 @@ public class Mesh implements Closeable {
    * (location 2, vec3).
    */
   public static Mesh createFromAsset(SampleRender render, String assetFileName) throws IOException {
+    return createFromAsset(render, assetFileName, new VertexBuffer[0]);
+  }
+
+  /**
+   * Constructs a {@link Mesh} from the given Wavefront OBJ file, with per-instance attributes.
+   *
+   * <p>The attributes of the OBJ file are indexed like in {@link #createFromAsset(SampleRender,
+   * String)}, and the attributes of the {@code instanceBuffers} follow from location 3, see {@link
+   * #Mesh(SampleRender, PrimitiveMode, IndexBuffer, VertexBuffer[], VertexBuffer[])}.
+   */
+  public static Mesh createFromAsset(
+      SampleRender render, String assetFileName, VertexBuffer[] instanceBuffers)
+      throws IOException {
     try (InputStream inputStream = render.getAssets().open(assetFileName)) {
       Obj obj = ObjUtils.convertToRenderable(ObjReader.read(inputStream));
 
@@ -145,42 +216,215 @@ public class Mesh implements Closeable {
 
       IndexBuffer indexBuffer = new IndexBuffer(render, vertexIndices);
 
-      return new Mesh(render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers);
+      return new Mesh(
+          render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, vertexBuffers, instanceBuffers);
     }
   }
 
   @Override
   public void close() {
     if (vertexArrayId[0] != 0) {
+      render.getStateCache().forgetVertexArray(vertexArrayId[0]);
       GLES30.glDeleteVertexArrays(1, vertexArrayId, 0);
       GLError.maybeLogGLError(
           Log.WARN, TAG, "Failed to free vertex array object", "glDeleteVertexArrays");
     }
   }
 
+  /* package-private */
+  int getVertexArrayId() {
+    return vertexArrayId[0];
+  }
+
+  /** Returns the number of parameters saved by {@link #saveDrawParameters}. */
+  /* package-private */
+  int getDrawParameterCount() {
+    return attributeOffsets.length + 2;
+  }
+
+  /**
+   * Saves the parameters of a draw which depend on the data last set to the buffers of the mesh
+   * into {@code parameters} from {@code start} on: the offset of each vertex and instance buffer,
+   * the offset of the index buffer and the number of indices or vertices to draw. Streaming buffers
+   * move their data on every set, so draws which are issued later, such as those recorded by the
+   * {@link RenderQueue}, are issued with the parameters saved when they were recorded.
+   */
+  /* package-private */
+  void saveDrawParameters(int[] parameters, int start) {
+    for (int i = 0; i < attributeOffsets.length; ++i) {
+      parameters[start + i] = getAttributeBuffer(i).getOffset();
+    }
+    int indexStart = start + attributeOffsets.length;
+    if (indexBuffer == null) {
+      parameters[indexStart] = 0;
+      parameters[indexStart + 1] = getNumberOfVertices();
+    } else {
+      parameters[indexStart] = indexBuffer.getOffset();
+      parameters[indexStart + 1] = indexBuffer.getSize();
+    }
+  }
+
   /* package-private */
   void draw() {
+    saveDrawParameters(drawParameters, 0);
+    draw(drawParameters, 0);
+  }
+
+  /**
+   * Draws the mesh with the parameters saved from {@code start} on by {@link #saveDrawParameters}.
+   */
+  /* package-private */
+  void draw(int[] parameters, int start) {
     if (vertexArrayId[0] == 0) {
       throw new IllegalStateException("Tried to draw a freed Mesh");
     }
 
-    GLES30.glBindVertexArray(vertexArrayId[0]);
-    GLError.maybeThrowGLException("Failed to bind vertex array object", "glBindVertexArray");
+    bindVertexArray(parameters, start);
+    int indexStart = start + attributeOffsets.length;
     if (indexBuffer == null) {
-      // Sanity check for debugging
-      int numberOfVertices = vertexBuffers[0].getNumberOfVertices();
-      for (int i = 1; i < vertexBuffers.length; ++i) {
-        if (vertexBuffers[i].getNumberOfVertices() != numberOfVertices) {
-          throw new IllegalStateException("Vertex buffers have mismatching numbers of vertices");
-        }
-      }
-      GLES30.glDrawArrays(primitiveMode.glesEnum, 0, numberOfVertices);
+      GLES30.glDrawArrays(primitiveMode.glesEnum, 0, parameters[indexStart + 1]);
       GLError.maybeThrowGLException("Failed to draw vertex array object", "glDrawArrays");
     } else {
       GLES30.glDrawElements(
-          primitiveMode.glesEnum, indexBuffer.getSize(), GLES30.GL_UNSIGNED_INT, 0);
+          primitiveMode.glesEnum,
+          parameters[indexStart + 1],
+          GLES30.GL_UNSIGNED_INT,
+          parameters[indexStart]);
       GLError.maybeThrowGLException(
           "Failed to draw vertex array object with indices", "glDrawElements");
     }
   }
+
+  /* package-private */
+  void drawInstanced(int instanceCount) {
+    checkInstanceCount(instanceCount);
+    saveDrawParameters(drawParameters, 0);
+    drawInstanced(instanceCount, drawParameters, 0);
+  }
+
+  /**
+   * Draws instances of the mesh with the parameters saved from {@code start} on by {@link
+   * #saveDrawParameters}. The instance count must have been checked with {@link
+   * #checkInstanceCount} when the parameters were saved.
+   */
+  /* package-private */
+  void drawInstanced(int instanceCount, int[] parameters, int start) {
+    if (vertexArrayId[0] == 0) {
+      throw new IllegalStateException("Tried to draw a freed Mesh");
+    }
+    if (instanceCount == 0) {
+      return;
+    }
+
+    bindVertexArray(parameters, start);
+    int indexStart = start + attributeOffsets.length;
+    if (indexBuffer == null) {
+      GLES30.glDrawArraysInstanced(
+          primitiveMode.glesEnum, 0, parameters[indexStart + 1], instanceCount);
+      GLError.maybeThrowGLException(
+          "Failed to draw instances of vertex array object", "glDrawArraysInstanced");
+    } else {
+      GLES30.glDrawElementsInstanced(
+          primitiveMode.glesEnum,
+          parameters[indexStart + 1],
+          GLES30.GL_UNSIGNED_INT,
+          parameters[indexStart],
+          instanceCount);
+      GLError.maybeThrowGLException(
+          "Failed to draw instances of vertex array object with indices",
+          "glDrawElementsInstanced");
+    }
+  }
+
+  /** Checks that the instance buffers hold at least {@code instanceCount} instances. */
+  /* package-private */
+  void checkInstanceCount(int instanceCount) {
+    if (instanceCount < 0) {
+      throw new IllegalArgumentException("Instance count must not be negative");
+    }
+    for (VertexBuffer instanceBuffer : instanceBuffers) {
+      if (instanceBuffer.getNumberOfVertices() < instanceCount) {
+        throw new IllegalArgumentException(
+            "Instance buffer holds "
+                + instanceBuffer.getNumberOfVertices()
+                + " instances, fewer than "
+                + instanceCount);
+      }
+    }
+  }
+
+  /**
+   * Binds the vertex array, pointing the attributes of streaming buffers at the offsets saved from
+   * {@code start} on by {@link #saveDrawParameters}.
+   */
+  private void bindVertexArray(int[] parameters, int start) {
+    render.getStateCache().bindVertexArray(vertexArrayId[0]);
+    if (!hasStreamingBuffers) {
+      return;
+    }
+    int location = 0;
+    for (int i = 0; i < attributeOffsets.length; ++i) {
+      int offset = parameters[start + i];
+      if (offset != attributeOffsets[i]) {
+        pointAttributes(i, location, offset);
+      }
+      location += getLocationCount(i);
+    }
+  }
+
+  /**
+   * Points the attributes of the {@code index}th vertex or instance buffer at its data at {@code
+   * offset} bytes, from {@code location} on. Returns the location after the last attribute of the
+   * buffer.
+   */
+  private int pointAttributes(int index, int location, int offset) {
+    VertexBuffer buffer = getAttributeBuffer(index);
+    render.getStateCache().bindBuffer(GLES30.GL_ARRAY_BUFFER, buffer.getBufferId());
+    int entries = buffer.getNumberOfEntriesPerVertex();
+    int locationCount = getLocationCount(index);
+    int entriesPerLocation = entries / locationCount;
+    // Vertex buffers take a single tightly packed attribute, instance buffers may be split.
+    int stride = index < vertexBuffers.length ? 0 : entries * GpuBuffer.FLOAT_SIZE;
+    for (int i = 0; i < locationCount; ++i) {
+      GLES30.glVertexAttribPointer(
+          location + i,
+          entriesPerLocation,
+          GLES30.GL_FLOAT,
+          false,
+          stride,
+          offset + i * entriesPerLocation * GpuBuffer.FLOAT_SIZE);
+      GLError.maybeThrowGLException(
+          "Failed to associate vertex buffer with vertex array", "glVertexAttribPointer");
+    }
+    attributeOffsets[index] = offset;
+    return location + locationCount;
+  }
+
+  /** Returns the {@code index}th vertex buffer, or instance buffer after the vertex buffers. */
+  private VertexBuffer getAttributeBuffer(int index) {
+    return index < vertexBuffers.length
+        ? vertexBuffers[index]
+        : instanceBuffers[index - vertexBuffers.length];
+  }
+
+  /** Returns the number of attribute locations taken by the {@code index}th buffer. */
+  private int getLocationCount(int index) {
+    if (index < vertexBuffers.length) {
+      return 1;
+    }
+    int entries = instanceBuffers[index - vertexBuffers.length].getNumberOfEntriesPerVertex();
+    return entries > 4 ? entries / 4 : 1;
+  }
+
+  /** Returns the number of vertices to draw without an index buffer. */
+  private int getNumberOfVertices() {
+    // Sanity check for debugging
+    int numberOfVertices = vertexBuffers[0].getNumberOfVertices();
+    for (int i = 1; i < vertexBuffers.length; ++i) {
+      if (vertexBuffers[i].getNumberOfVertices() != numberOfVertices) {
+        throw new IllegalStateException("Vertex buffers have mismatching numbers of vertices");
+      }
+    }
+    return numberOfVertices;
+  }
 }
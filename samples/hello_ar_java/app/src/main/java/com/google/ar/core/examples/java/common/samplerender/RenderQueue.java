@@ -0,0 +1,232 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import java.util.Arrays;
+
+/**
+ * Records draw calls and issues them in an order which minimizes GL state changes, see {@link
+ * SampleRender#setRenderQueueEnabled}.
+ *
+ * <p>Every draw is recorded as a 64-bit sort key. From the most significant bits down, the key of
+ * an opaque draw holds its {@link Pass}, shader program, texture set, mesh and depth, so that
+ * sorting the keys groups draws which share a program, then textures, then a mesh, and draws
+ * nearer objects first within a group. The key of a transparent draw holds its pass, its depth
+ * reversed and only then its program and texture set, so that transparent objects are drawn
+ * back-to-front and blend correctly. The lowest bits hold the recording order, which breaks ties
+ * so that the sort is stable.
+ *
+ * <p>Keys are sorted with a radix sort into arrays which are reused between frames, so no memory
+ * is allocated once the number of draws per frame is stable.
+ *
+ * <p>Draws are issued by {@link SampleRender#flushRenderQueue}, so the uniforms of a {@link
+ * Shader} are read when the queue is flushed rather than when a draw is recorded. Draws which need
+ * different uniform values must therefore use different shaders, per-instance attributes (see
+ * {@link SampleRender#drawInstanced}) or a {@link UniformBuffer}. The offsets and sizes of the data
+ * last set to the buffers of a {@link Mesh} are saved with each draw, so a streaming buffer (see
+ * {@link VertexBuffer#createStreaming}) may be set again for every draw of a frame.
+ */
+public final class RenderQueue {
+  /** The passes of a frame, drawn in this order. */
+  public enum Pass {
+    /** Drawn first, for example the camera background. */
+    BACKGROUND,
+    /** Opaque objects, sorted by state and then front-to-back. */
+    OPAQUE,
+    /** Transparent objects, sorted back-to-front. */
+    TRANSPARENT
+  }
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  // Bit widths of the key fields. With the 2 pass bits, the fields of either kind of key add up to
+  // 64 bits.
+  // Program, texture set and mesh fields hold the low bits of their IDs, so distinct IDs may share
+  // a value; such draws are merely grouped less well.
+  private static final int PROGRAM_BITS = 12;
+  private static final int TEXTURE_SET_BITS = 10;
+  private static final int MESH_BITS = 12;
+  private static final int OPAQUE_DEPTH_BITS = 12;
+  private static final int TRANSPARENT_DEPTH_BITS = 24;
+  private static final int INDEX_BITS = 16;
+
+  /** Maximum number of draws recorded between two flushes. */
+  public static final int MAX_DRAWS = 1 << INDEX_BITS;
+
+  // Instance count of a draw which is not instanced.
+  private static final int NOT_INSTANCED = -1;
+
+  private static final int RADIX_BITS = 8;
+  private static final int RADIX = 1 << RADIX_BITS;
+
+  private long[] keys = new long[INITIAL_CAPACITY];
+  private long[] sortedKeys = new long[INITIAL_CAPACITY];
+  private Mesh[] meshes = new Mesh[INITIAL_CAPACITY];
+  private Shader[] shaders = new Shader[INITIAL_CAPACITY];
+  // Number of instances of each draw, or NOT_INSTANCED.
+  private int[] instanceCounts = new int[INITIAL_CAPACITY];
+  // Draw parameters saved by Mesh.saveDrawParameters() for all draws, and the index of the first
+  // parameter of each draw.
+  private int[] drawParameters = new int[INITIAL_CAPACITY];
+  private int[] drawParameterStarts = new int[INITIAL_CAPACITY];
+  private int drawParameterCount = 0;
+  private final int[] bucketOffsets = new int[RADIX];
+  private int size = 0;
+
+  RenderQueue() {}
+
+  /** Records a draw, see {@link SampleRender#draw(Mesh, Shader, Pass, float)}. */
+  void add(Mesh mesh, Shader shader, Pass pass, float depth) {
+    record(mesh, shader, NOT_INSTANCED, pass, depth);
+  }
+
+  /** Records an instanced draw, see {@link SampleRender#drawInstanced}. */
+  void addInstanced(Mesh mesh, Shader shader, int instanceCount, Pass pass, float depth) {
+    // Checked now, as the instance buffers may be set again before the queue is flushed.
+    mesh.checkInstanceCount(instanceCount);
+    record(mesh, shader, instanceCount, pass, depth);
+  }
+
+  private void record(Mesh mesh, Shader shader, int instanceCount, Pass pass, float depth) {
+    if (size == MAX_DRAWS) {
+      throw new IllegalStateException(
+          "Render queue holds the maximum of " + MAX_DRAWS + " draws, flush it more often");
+    }
+    if (size == keys.length) {
+      int capacity = Math.min(2 * size, MAX_DRAWS);
+      keys = Arrays.copyOf(keys, capacity);
+      sortedKeys = new long[capacity];
+      meshes = Arrays.copyOf(meshes, capacity);
+      shaders = Arrays.copyOf(shaders, capacity);
+      instanceCounts = Arrays.copyOf(instanceCounts, capacity);
+      drawParameterStarts = Arrays.copyOf(drawParameterStarts, capacity);
+    }
+    int parameterEnd = drawParameterCount + mesh.getDrawParameterCount();
+    if (parameterEnd > drawParameters.length) {
+      int capacity = Math.max(2 * drawParameters.length, parameterEnd);
+      drawParameters = Arrays.copyOf(drawParameters, capacity);
+    }
+    mesh.saveDrawParameters(drawParameters, drawParameterCount);
+    drawParameterStarts[size] = drawParameterCount;
+    drawParameterCount = parameterEnd;
+    keys[size] = createKey(pass, shader, mesh, depth, size);
+    meshes[size] = mesh;
+    shaders[size] = shader;
+    instanceCounts[size] = instanceCount;
+    size++;
+  }
+
+  /** Sorts the recorded draws, issues them and clears the queue. */
+  void flush() {
+    sort();
+    try {
+      for (int i = 0; i < size; i++) {
+        int index = (int) (keys[i] & ((1 << INDEX_BITS) - 1));
+        shaders[index].use();
+        if (instanceCounts[index] == NOT_INSTANCED) {
+          meshes[index].draw(drawParameters, drawParameterStarts[index]);
+        } else {
+          meshes[index].drawInstanced(
+              instanceCounts[index], drawParameters, drawParameterStarts[index]);
+        }
+      }
+    } finally {
+      clear();
+    }
+  }
+
+  /** Removes all recorded draws without issuing them. */
+  void clear() {
+    // Release the references, so that closed meshes and shaders can be collected.
+    Arrays.fill(meshes, 0, size, null);
+    Arrays.fill(shaders, 0, size, null);
+    size = 0;
+    drawParameterCount = 0;
+  }
+
+  /** Sorts the keys of the recorded draws in ascending unsigned order. */
+  /* package-private */
+  void sort() {
+    // Least significant digit radix sort, ping-ponging between the two key arrays. Digits which are
+    // the same for all keys, such as unused passes, are skipped.
+    long[] source = keys;
+    long[] target = sortedKeys;
+    for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+      Arrays.fill(bucketOffsets, 0);
+      for (int i = 0; i < size; i++) {
+        bucketOffsets[(int) ((source[i] >>> shift) & (RADIX - 1))]++;
+      }
+      if (size == 0 || bucketOffsets[(int) ((source[0] >>> shift) & (RADIX - 1))] == size) {
+        continue;
+      }
+      int offset = 0;
+      for (int bucket = 0; bucket < RADIX; bucket++) {
+        int count = bucketOffsets[bucket];
+        bucketOffsets[bucket] = offset;
+        offset += count;
+      }
+      for (int i = 0; i < size; i++) {
+        long key = source[i];
+        target[bucketOffsets[(int) ((key >>> shift) & (RADIX - 1))]++] = key;
+      }
+      long[] swap = source;
+      source = target;
+      target = swap;
+    }
+    keys = source;
+    sortedKeys = target;
+  }
+
+  /** Returns the sort key of the draw recorded at {@code index}, for checking the sort order. */
+  /* package-private */
+  long getKey(int index) {
+    return keys[index];
+  }
+
+  private static long createKey(Pass pass, Shader shader, Mesh mesh, float depth, int index) {
+    long key = pass.ordinal();
+    if (pass == Pass.TRANSPARENT) {
+      // Farther objects first, then grouped by state where the depths are equal.
+      long reversedDepth =
+          ((1L << TRANSPARENT_DEPTH_BITS) - 1) - quantizeDepth(depth, TRANSPARENT_DEPTH_BITS);
+      key = append(key, reversedDepth, TRANSPARENT_DEPTH_BITS);
+      key = append(key, shader.getProgramId(), PROGRAM_BITS);
+      key = append(key, shader.getTextureSetHash(), TEXTURE_SET_BITS);
+    } else {
+      key = append(key, shader.getProgramId(), PROGRAM_BITS);
+      key = append(key, shader.getTextureSetHash(), TEXTURE_SET_BITS);
+      key = append(key, mesh.getVertexArrayId(), MESH_BITS);
+      key = append(key, quantizeDepth(depth, OPAQUE_DEPTH_BITS), OPAQUE_DEPTH_BITS);
+    }
+    return append(key, index, INDEX_BITS);
+  }
+
+  /** Shifts {@code key} left by {@code bits} and stores the low bits of {@code value} below it. */
+  private static long append(long key, long value, int bits) {
+    return (key << bits) | (value & ((1L << bits) - 1));
+  }
+
+  /**
+   * Maps a depth to an integer of the given number of bits, at most 31, preserving order. The bits
+   * of a non-negative float increase with its value, so their most significant bits quantize depth
+   * finely near the camera and coarsely far away, without choosing a depth range.
+   */
+  private static long quantizeDepth(float depth, int bits) {
+    // Negative depths and NaN are treated as 0.
+    int floatBits = depth > 0f ? Float.floatToIntBits(depth) : 0;
+    return floatBits >>> (Integer.SIZE - 1 - bits);
+  }
+}
@@ -17,23 +17,65 @@ package com.google.ar.core.examples.java.common.samplerender;
 
 import android.content.res.AssetManager;
 import android.opengl.GLES30;
+import android.opengl.GLException;
 import android.opengl.GLSurfaceView;
+import android.util.Log;
+import com.google.ar.core.examples.java.common.samplerender.RenderQueue.Pass;
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 /** A SampleRender context. */
 public class SampleRender {
+  private static final String TAG = SampleRender.class.getSimpleName();
+
   private final AssetManager assetManager;
+  private final GLStateCache stateCache = new GLStateCache();
+  private final RenderQueue renderQueue = new RenderQueue();
+  private final FrameFences frameFences = new FrameFences();
+  private boolean renderQueueEnabled = false;
+  private final GLErrorCheckPolicy errorCheckPolicy;
+  private final int errorCheckFrameInterval;
+  private long frameCount = 0;
 
   /**
-   * Constructs a SampleRender object and instantiates GLSurfaceView parameters.
+   * Constructs a SampleRender object and instantiates GLSurfaceView parameters. GL errors are
+   * checked after every GL call.
    *
    * @param glSurfaceView Android GLSurfaceView
    * @param renderer Renderer implementation to receive callbacks
    * @param assetManager AssetManager for loading Android resources
    */
   public SampleRender(GLSurfaceView glSurfaceView, Renderer renderer, AssetManager assetManager) {
+    this(glSurfaceView, renderer, assetManager, GLErrorCheckPolicy.ALWAYS, 1);
+  }
+
+  /**
+   * Constructs a SampleRender object and instantiates GLSurfaceView parameters.
+   *
+   * <p>The error check policy is applied through a process-wide flag, which every SampleRender sets
+   * at the start of its callbacks. Apps which render with several SampleRender instances at once
+   * should give them all the same policy.
+   *
+   * @param glSurfaceView Android GLSurfaceView
+   * @param renderer Renderer implementation to receive callbacks
+   * @param assetManager AssetManager for loading Android resources
+   * @param errorCheckPolicy How often to check for GL errors
+   * @param errorCheckFrameInterval Number of frames between checked frames for {@link
+   *     GLErrorCheckPolicy#SAMPLED}, ignored by the other policies
+   */
+  public SampleRender(
+      GLSurfaceView glSurfaceView,
+      Renderer renderer,
+      AssetManager assetManager,
+      GLErrorCheckPolicy errorCheckPolicy,
+      int errorCheckFrameInterval) {
+    if (errorCheckFrameInterval < 1) {
+      throw new IllegalArgumentException(
+          "Error check frame interval must be at least 1, got " + errorCheckFrameInterval);
+    }
     this.assetManager = assetManager;
+    this.errorCheckPolicy = errorCheckPolicy;
+    this.errorCheckFrameInterval = errorCheckFrameInterval;
     glSurfaceView.setPreserveEGLContextOnPause(true);
     glSurfaceView.setEGLContextClientVersion(3);
     glSurfaceView.setEGLConfigChooser(8, 8, 8, 8, 16, 0);
@@ -41,6 +83,11 @@ public class SampleRender {
         new GLSurfaceView.Renderer() {
           @Override
           public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+            // The state of a new context is not known to the cache.
+            stateCache.invalidate();
+            frameFences.invalidate();
+            // Setup runs rarely, so its errors are checked with every policy.
+            GLError.setEnabled(true);
             GLES30.glClearColor(0.0f, 0.0f, 0.0f, 1.0f);
             GLES30.glEnable(GLES30.GL_BLEND);
             renderer.onSurfaceCreated(SampleRender.this);
@@ -48,26 +95,155 @@ public class SampleRender {
 
           @Override
           public void onSurfaceChanged(GL10 gl, int w, int h) {
+            GLError.setEnabled(true);
             GLES30.glViewport(0, 0, w, h);
             renderer.onSurfaceChanged(SampleRender.this, w, h);
           }
 
           @Override
           public void onDrawFrame(GL10 gl) {
+            stateCache.beginFrame();
+            beginFrameErrorChecks();
+            // Drop the draws of a frame which failed before they were flushed.
+            renderQueue.clear();
             GLES30.glClear(GL10.GL_COLOR_BUFFER_BIT | GL10.GL_DEPTH_BUFFER_BIT);
             renderer.onDrawFrame(SampleRender.this);
+            // The rest of the frame runs outside of the renderer's error handling, so errors are
+            // logged rather than thrown, which would stop the GL thread.
+            try {
+              renderQueue.flush();
+              frameFences.endFrame(frameCount);
+            } catch (GLException e) {
+              Log.e(TAG, "Failed to end frame", e);
+            }
+            if (errorCheckPolicy == GLErrorCheckPolicy.ONCE_PER_FRAME) {
+              GLError.logGLErrorIfAny(Log.ERROR, TAG, "Failed to draw frame", "onDrawFrame");
+            }
+            frameCount++;
           }
         });
     glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
     glSurfaceView.setWillNotDraw(false);
   }
 
-  /** Draw a {@link Mesh} with the specified {@link Shader}. */
+  /**
+   * Draw a {@link Mesh} with the specified {@link Shader}. If the render queue is enabled, the draw
+   * is recorded in the {@link Pass#OPAQUE} pass.
+   */
   public void draw(Mesh mesh, Shader shader) {
+    draw(mesh, shader, Pass.OPAQUE, /* depth= */ 0f);
+  }
+
+  /**
+   * Draw a {@link Mesh} with the specified {@link Shader}. If the render queue is enabled, the draw
+   * is recorded to be issued in sorted order, otherwise it is issued immediately.
+   *
+   * @param pass the pass to draw in.
+   * @param depth the distance of the object from the camera, for example the negated view space z
+   *     coordinate of its center. Negative distances are treated as 0.
+   */
+  public void draw(Mesh mesh, Shader shader, Pass pass, float depth) {
+    if (renderQueueEnabled) {
+      renderQueue.add(mesh, shader, pass, depth);
+      return;
+    }
     shader.use();
     mesh.draw();
   }
 
+  /**
+   * Draw {@code instanceCount} instances of a {@link Mesh} with the specified {@link Shader} in a
+   * single draw call. The per-instance attributes are read from the instance buffers of the mesh,
+   * which must hold at least {@code instanceCount} entries. If the render queue is enabled, the
+   * draw is recorded in the {@link Pass#OPAQUE} pass.
+   */
+  public void drawInstanced(Mesh mesh, Shader shader, int instanceCount) {
+    drawInstanced(mesh, shader, instanceCount, Pass.OPAQUE, /* depth= */ 0f);
+  }
+
+  /**
+   * Draw {@code instanceCount} instances of a {@link Mesh} like {@link #drawInstanced(Mesh, Shader,
+   * int)}, in the given pass and at the given depth like {@link #draw(Mesh, Shader, Pass, float)}.
+   */
+  public void drawInstanced(Mesh mesh, Shader shader, int instanceCount, Pass pass, float depth) {
+    if (renderQueueEnabled) {
+      renderQueue.addInstanced(mesh, shader, instanceCount, pass, depth);
+      return;
+    }
+    shader.use();
+    mesh.drawInstanced(instanceCount);
+  }
+
+  /**
+   * Enables or disables the render queue. While enabled, draws are recorded instead of issued, and
+   * are sorted by pass, shader, textures, mesh and depth when the queue is flushed, which happens
+   * after {@link Renderer#onDrawFrame} returns or when {@link #flushRenderQueue} is called.
+   * Disabling the queue flushes it.
+   *
+   * <p>Only the offsets and sizes of the data last set to the buffers of a {@link Mesh} are saved
+   * when a draw is recorded, so a streaming {@link VertexBuffer} or {@link IndexBuffer} may be set
+   * again for every draw. Everything else a draw reads is read when the queue is flushed:
+   *
+   * <ul>
+   *   <li>the uniforms of its shader,
+   *   <li>the contents of buffers which are not streaming, which are overwritten in place,
+   *   <li>the data of a {@link UniformBuffer}, whose last {@link UniformBuffer#set} is bound,
+   *   <li>the textures its shader binds and their contents.
+   * </ul>
+   *
+   * <p>A renderer is therefore only safe to queue if it does not change these between its draws
+   * of a frame, like the background, point cloud and instanced object draws of the samples.
+   * PlaneRenderer is not safe to queue, as it sets the uniforms of a single shader for every plane.
+   * Draws which depend on being issued in order must be recorded in different passes. A streaming
+   * buffer which outgrows its storage flushes the queue, so the draws of that frame are then sorted
+   * in two groups.
+   */
+  public void setRenderQueueEnabled(boolean enabled) {
+    if (!enabled) {
+      renderQueue.flush();
+    }
+    renderQueueEnabled = enabled;
+  }
+
+  /**
+   * Issues the draws recorded by the render queue in sorted order. Call this before changing GL
+   * state directly, or before reading back the frame.
+   */
+  public void flushRenderQueue() {
+    renderQueue.flush();
+  }
+
+  /**
+   * Binds a {@link Texture} to texture unit 0, so that its data can be changed with GL calls.
+   *
+   * <p>{@link SampleRender} keeps track of the GL state to skip calls which would not change it, so
+   * textures must be bound with this method rather than with {@code glBindTexture}.
+   */
+  public void bindTexture(Texture texture) {
+    stateCache.bindTexture(0, texture.getTarget().glesEnum, texture.getTextureId());
+  }
+
+  /**
+   * Forgets all GL state known to {@link SampleRender}. Call this after changing GL state other
+   * than through the {@link SampleRender} classes.
+   */
+  public void invalidateState() {
+    stateCache.invalidate();
+  }
+
+  /** Returns the number of GL state changes issued during the last frame. */
+  public int getIssuedStateChangeCount() {
+    return stateCache.getLastFrameIssuedCallCount();
+  }
+
+  /**
+   * Returns the number of GL state changes skipped during the last frame because the state was
+   * already current.
+   */
+  public int getElidedStateChangeCount() {
+    return stateCache.getLastFrameElidedCallCount();
+  }
+
   /** Interface to be implemented for rendering callbacks. */
   public static interface Renderer {
     /**
@@ -92,8 +268,46 @@ public class SampleRender {
     public void onDrawFrame(SampleRender render);
   }
 
+  /** Enables the checks after GL calls if the error check policy checks them in this frame. */
+  private void beginFrameErrorChecks() {
+    switch (errorCheckPolicy) {
+      case ALWAYS:
+        GLError.setEnabled(true);
+        break;
+      case SAMPLED:
+        boolean checkedFrame = frameCount % errorCheckFrameInterval == 0;
+        if (checkedFrame) {
+          // Report errors of the unchecked frames before, so they are not blamed on the next call.
+          GLError.logGLErrorIfAny(
+              Log.ERROR, TAG, "Failed to draw an unchecked frame", "onDrawFrame");
+        }
+        GLError.setEnabled(checkedFrame);
+        break;
+      case ONCE_PER_FRAME:
+      case OFF:
+        GLError.setEnabled(false);
+        break;
+    }
+  }
+
   /* package-private */
   AssetManager getAssets() {
     return assetManager;
   }
+
+  /* package-private */
+  GLStateCache getStateCache() {
+    return stateCache;
+  }
+
+  /* package-private */
+  FrameFences getFrameFences() {
+    return frameFences;
+  }
+
+  /** Returns the number of the current frame, or of the next frame outside of a frame. */
+  /* package-private */
+  long getFrameNumber() {
+    return frameCount;
+  }
 }
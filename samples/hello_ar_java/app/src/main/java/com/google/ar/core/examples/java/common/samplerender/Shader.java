@@ -25,6 +25,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -35,6 +36,8 @@ import java.util.regex.Matcher;
 public class Shader implements Closeable {
   private static final String TAG = Shader.class.getSimpleName();
 
+  private static final int INITIAL_UNIFORM_CAPACITY = 8;
+
   /**
    * A factor to be used in a blend function.
    *
@@ -65,12 +68,21 @@ public class Shader implements Closeable {
     }
   }
 
+  private final SampleRender render;
   private int programId = 0;
-  private final Map<Integer, Uniform> uniforms = new HashMap<>();
   private int maxTextureUnit = 0;
 
-  private final Map<String, Integer> uniformLocations = new HashMap<>();
-  private final Map<Integer, String> uniformNames = new HashMap<>();
+  // Uniforms are numbered in the order their names are first looked up. The arrays below are
+  // indexed by that number, and grow as needed.
+  private final Map<String, Integer> uniformIndices = new HashMap<>();
+  private int uniformCount = 0;
+  private int[] uniformLocations = new int[INITIAL_UNIFORM_CAPACITY];
+  private String[] uniformNames = new String[INITIAL_UNIFORM_CAPACITY];
+  private Uniform[] uniforms = new Uniform[INITIAL_UNIFORM_CAPACITY];
+
+  // Whether a uniform was set since its value was last uploaded to the program. The program keeps
+  // uniform values between uses, so only dirty uniforms are uploaded.
+  private boolean[] dirtyUniforms = new boolean[INITIAL_UNIFORM_CAPACITY];
 
   private boolean depthTest = true;
   private boolean depthWrite = true;
@@ -90,6 +102,7 @@ public class Shader implements Closeable {
       String vertexShaderCode,
       String fragmentShaderCode,
       Map<String, String> defines) {
+    this.render = render;
     int vertexShaderId = 0;
     int fragmentShaderId = 0;
     String definesCode = createShaderDefinesCode(defines);
@@ -159,6 +172,7 @@ public class Shader implements Closeable {
   @Override
   public void close() {
     if (programId != 0) {
+      render.getStateCache().forgetProgram(programId);
       GLES30.glDeleteProgram(programId);
       programId = 0;
     }
@@ -218,34 +232,66 @@ public class Shader implements Closeable {
     return this;
   }
 
+  /**
+   * Connect a uniform block to a {@link UniformBuffer}. The block then reads the data of the
+   * buffer, without any uploads when the shader is used.
+   */
+  public Shader setUniformBlock(String name, UniformBuffer uniformBuffer) {
+    int blockIndex = GLES30.glGetUniformBlockIndex(programId, name);
+    GLError.maybeThrowGLException("Failed to find uniform block", "glGetUniformBlockIndex");
+    if (blockIndex == GLES30.GL_INVALID_INDEX) {
+      throw new IllegalArgumentException("Shader uniform block does not exist: " + name);
+    }
+    GLES30.glUniformBlockBinding(programId, blockIndex, uniformBuffer.getBindingPoint());
+    GLError.maybeThrowGLException("Failed to bind uniform block", "glUniformBlockBinding");
+    return this;
+  }
+
   /** Set a texture uniform. */
   public Shader setTexture(String name, Texture texture) {
     // Special handling for Textures. If replacing an existing texture uniform, reuse the texture
     // unit.
-    int location = getUniformLocation(name);
-    Uniform uniform = uniforms.get(location);
-    int textureUnit;
-    if (!(uniform instanceof UniformTexture)) {
-      textureUnit = maxTextureUnit++;
+    int index = getUniformIndex(name);
+    Uniform uniform = uniforms[index];
+    if (uniform instanceof UniformTexture) {
+      // The texture is bound on every use, so the sampler uniform itself does not change.
+      ((UniformTexture) uniform).texture = texture;
     } else {
-      UniformTexture uniformTexture = (UniformTexture) uniform;
-      textureUnit = uniformTexture.getTextureUnit();
+      setUniform(index, new UniformTexture(maxTextureUnit++, texture));
     }
-    uniforms.put(location, new UniformTexture(textureUnit, texture));
     return this;
   }
 
   /** Set a {@code bool} uniform. */
   public Shader setBool(String name, boolean v0) {
-    int[] values = {v0 ? 1 : 0};
-    uniforms.put(getUniformLocation(name), new UniformInt(values));
+    int value = v0 ? 1 : 0;
+    int index = getUniformIndex(name);
+    Uniform uniform = uniforms[index];
+    if (uniform instanceof UniformInt) {
+      UniformInt uniformInt = (UniformInt) uniform;
+      if (uniformInt.values[0] != value) {
+        uniformInt.values[0] = value;
+        dirtyUniforms[index] = true;
+      }
+    } else {
+      setUniform(index, new UniformInt(new int[] {value}));
+    }
     return this;
   }
 
   /** Set a {@code float} uniform. */
   public Shader set1(String name, float v0) {
-    float[] values = {v0};
-    uniforms.put(getUniformLocation(name), new Uniform1f(values));
+    int index = getUniformIndex(name);
+    Uniform uniform = uniforms[index];
+    if (uniform instanceof Uniform1f) {
+      UniformFloats uniformFloats = (UniformFloats) uniform;
+      if (uniformFloats.values[0] != v0) {
+        uniformFloats.values[0] = v0;
+        dirtyUniforms[index] = true;
+      }
+    } else {
+      setUniform(index, new Uniform1f(new float[] {v0}));
+    }
     return this;
   }
 
@@ -254,7 +300,12 @@ public class Shader implements Closeable {
     if (values.length != 2) {
       throw new IllegalArgumentException("Value array length must be 2");
     }
-    uniforms.put(getUniformLocation(name), new Uniform2f(values.clone()));
+    int index = getUniformIndex(name);
+    if (uniforms[index] instanceof Uniform2f) {
+      updateFloats(index, values);
+    } else {
+      setUniform(index, new Uniform2f(values.clone()));
+    }
     return this;
   }
   /** Set a {@code vec3} uniform. */
@@ -262,7 +313,12 @@ public class Shader implements Closeable {
     if (values.length != 3) {
       throw new IllegalArgumentException("Value array length must be 3");
     }
-    uniforms.put(getUniformLocation(name), new Uniform3f(values.clone()));
+    int index = getUniformIndex(name);
+    if (uniforms[index] instanceof Uniform3f) {
+      updateFloats(index, values);
+    } else {
+      setUniform(index, new Uniform3f(values.clone()));
+    }
     return this;
   }
 
@@ -271,7 +327,12 @@ public class Shader implements Closeable {
     if (values.length != 4) {
       throw new IllegalArgumentException("Value array length must be 4");
     }
-    uniforms.put(getUniformLocation(name), new Uniform4f(values.clone()));
+    int index = getUniformIndex(name);
+    if (uniforms[index] instanceof Uniform4f) {
+      updateFloats(index, values);
+    } else {
+      setUniform(index, new Uniform4f(values.clone()));
+    }
     return this;
   }
 
@@ -280,7 +341,12 @@ public class Shader implements Closeable {
     if (values.length != 4) {
       throw new IllegalArgumentException("Value array must be 4 (2x2)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix2f(values.clone()));
+    int index = getUniformIndex(name);
+    if (uniforms[index] instanceof UniformMatrix2f) {
+      updateFloats(index, values);
+    } else {
+      setUniform(index, new UniformMatrix2f(values.clone()));
+    }
     return this;
   }
 
@@ -289,7 +355,12 @@ public class Shader implements Closeable {
     if (values.length != 9) {
       throw new IllegalArgumentException("Value array must be 9 (3x3)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix3f(values.clone()));
+    int index = getUniformIndex(name);
+    if (uniforms[index] instanceof UniformMatrix3f) {
+      updateFloats(index, values);
+    } else {
+      setUniform(index, new UniformMatrix3f(values.clone()));
+    }
     return this;
   }
 
@@ -298,7 +369,12 @@ public class Shader implements Closeable {
     if (values.length != 16) {
       throw new IllegalArgumentException("Value array must be 16 (4x4)");
     }
-    uniforms.put(getUniformLocation(name), new UniformMatrix4f(values.clone()));
+    int index = getUniformIndex(name);
+    if (uniforms[index] instanceof UniformMatrix4f) {
+      updateFloats(index, values);
+    } else {
+      setUniform(index, new UniformMatrix4f(values.clone()));
+    }
     return this;
   }
 
@@ -308,71 +384,88 @@ public class Shader implements Closeable {
     if (programId == 0) {
       throw new IllegalStateException("Attempted to use freed shader");
     }
-    GLES30.glUseProgram(programId);
-    GLError.maybeThrowGLException("Failed to use shader program", "glUseProgram");
-    GLES30.glBlendFuncSeparate(
+    // The state cache skips the calls which would not change the current state.
+    GLStateCache stateCache = render.getStateCache();
+    stateCache.useProgram(programId);
+    stateCache.blendFuncSeparate(
         sourceRgbBlend.glesEnum,
         destRgbBlend.glesEnum,
         sourceAlphaBlend.glesEnum,
         destAlphaBlend.glesEnum);
-    GLError.maybeThrowGLException("Failed to set blend mode", "glBlendFuncSeparate");
-    GLES30.glDepthMask(depthWrite);
-    GLError.maybeThrowGLException("Failed to set depth write mask", "glDepthMask");
-    if (depthTest) {
-      GLES30.glEnable(GLES30.GL_DEPTH_TEST);
-      GLError.maybeThrowGLException("Failed to enable depth test", "glEnable");
-    } else {
-      GLES30.glDisable(GLES30.GL_DEPTH_TEST);
-      GLError.maybeThrowGLException("Failed to disable depth test", "glDisable");
-    }
-    try {
-      for (Map.Entry<Integer, Uniform> entry : uniforms.entrySet()) {
-        try {
-          entry.getValue().use(entry.getKey());
-        } catch (GLException e) {
-          String name = uniformNames.get(entry.getKey());
-          throw new IllegalArgumentException("Error setting uniform `" + name + "'", e);
+    stateCache.depthMask(depthWrite);
+    stateCache.depthTest(depthTest);
+    for (int i = 0; i < uniformCount; i++) {
+      Uniform uniform = uniforms[i];
+      if (uniform == null) {
+        continue;
+      }
+      try {
+        // Texture bindings are not part of the program, so are checked on every use.
+        uniform.bind(stateCache);
+        if (dirtyUniforms[i]) {
+          uniform.use(uniformLocations[i]);
+          dirtyUniforms[i] = false;
         }
+      } catch (GLException e) {
+        throw new IllegalArgumentException("Error setting uniform `" + uniformNames[i] + "'", e);
+      }
+    }
+  }
+
+  /* package-private */
+  int getProgramId() {
+    return programId;
+  }
+
+  /**
+   * Returns a hash of the textures the shader binds, so that draws which bind the same textures can
+   * be grouped.
+   */
+  /* package-private */
+  int getTextureSetHash() {
+    int hash = 0;
+    for (int i = 0; i < uniformCount; i++) {
+      if (uniforms[i] instanceof UniformTexture) {
+        hash = 31 * hash + ((UniformTexture) uniforms[i]).texture.getTextureId();
       }
-    } finally {
-      GLES30.glActiveTexture(GLES30.GL_TEXTURE0);
-      GLError.maybeLogGLError(Log.WARN, TAG, "Failed to set active texture", "glActiveTexture");
     }
+    return hash;
   }
 
   private static interface Uniform {
+    /** Uploads the value of the uniform to the current program. */
     public void use(int location);
+
+    /** Binds the state the uniform refers to which is not part of the program, if any. */
+    public default void bind(GLStateCache stateCache) {}
   }
 
   private static class UniformTexture implements Uniform {
     private final int textureUnit;
-    private final Texture texture;
+    private Texture texture;
 
     public UniformTexture(int textureUnit, Texture texture) {
       this.textureUnit = textureUnit;
       this.texture = texture;
     }
 
-    public int getTextureUnit() {
-      return textureUnit;
-    }
-
     @Override
-    public void use(int location) {
+    public void bind(GLStateCache stateCache) {
       if (texture.getTextureId() == 0) {
         throw new IllegalStateException("Tried to draw with freed texture");
       }
-      GLES30.glActiveTexture(GLES30.GL_TEXTURE0 + textureUnit);
-      GLError.maybeThrowGLException("Failed to set active texture", "glActiveTexture");
-      GLES30.glBindTexture(texture.getTarget().glesEnum, texture.getTextureId());
-      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+      stateCache.bindTexture(textureUnit, texture.getTarget().glesEnum, texture.getTextureId());
+    }
+
+    @Override
+    public void use(int location) {
       GLES30.glUniform1i(location, textureUnit);
       GLError.maybeThrowGLException("Failed to set shader texture uniform", "glUniform1i");
     }
   }
 
   private static class UniformInt implements Uniform {
-    private final int[] values;
+    final int[] values;
 
     public UniformInt(int[] values) {
       this.values = values;
@@ -385,12 +478,19 @@ public class Shader implements Closeable {
     }
   }
 
-  private static class Uniform1f implements Uniform {
-    private final float[] values;
+  /** A uniform of float values, which setters update in place. */
+  private abstract static class UniformFloats implements Uniform {
+    final float[] values;
 
-    public Uniform1f(float[] values) {
+    UniformFloats(float[] values) {
       this.values = values;
     }
+  }
+
+  private static class Uniform1f extends UniformFloats {
+    public Uniform1f(float[] values) {
+      super(values);
+    }
 
     @Override
     public void use(int location) {
@@ -399,11 +499,9 @@ public class Shader implements Closeable {
     }
   }
 
-  private static class Uniform2f implements Uniform {
-    private final float[] values;
-
+  private static class Uniform2f extends UniformFloats {
     public Uniform2f(float[] values) {
-      this.values = values;
+      super(values);
     }
 
     @Override
@@ -413,11 +511,9 @@ public class Shader implements Closeable {
     }
   }
 
-  private static class Uniform3f implements Uniform {
-    private final float[] values;
-
+  private static class Uniform3f extends UniformFloats {
     public Uniform3f(float[] values) {
-      this.values = values;
+      super(values);
     }
 
     @Override
@@ -427,11 +523,9 @@ public class Shader implements Closeable {
     }
   }
 
-  private static class Uniform4f implements Uniform {
-    private final float[] values;
-
+  private static class Uniform4f extends UniformFloats {
     public Uniform4f(float[] values) {
-      this.values = values;
+      super(values);
     }
 
     @Override
@@ -441,11 +535,9 @@ public class Shader implements Closeable {
     }
   }
 
-  private static class UniformMatrix2f implements Uniform {
-    private final float[] values;
-
+  private static class UniformMatrix2f extends UniformFloats {
     public UniformMatrix2f(float[] values) {
-      this.values = values;
+      super(values);
     }
 
     @Override
@@ -455,11 +547,9 @@ public class Shader implements Closeable {
     }
   }
 
-  private static class UniformMatrix3f implements Uniform {
-    private final float[] values;
-
+  private static class UniformMatrix3f extends UniformFloats {
     public UniformMatrix3f(float[] values) {
-      this.values = values;
+      super(values);
     }
 
     @Override
@@ -469,11 +559,9 @@ public class Shader implements Closeable {
     }
   }
 
-  private static class UniformMatrix4f implements Uniform {
-    private final float[] values;
-
+  private static class UniformMatrix4f extends UniformFloats {
     public UniformMatrix4f(float[] values) {
-      this.values = values;
+      super(values);
     }
 
     @Override
@@ -483,19 +571,46 @@ public class Shader implements Closeable {
     }
   }
 
-  private int getUniformLocation(String name) {
-    Integer locationObject = uniformLocations.get(name);
-    if (locationObject != null) {
-      return locationObject;
+  private void setUniform(int index, Uniform uniform) {
+    uniforms[index] = uniform;
+    dirtyUniforms[index] = true;
+  }
+
+  /**
+   * Copies new values into the storage of a float uniform, so that setting a uniform which was
+   * already set does not allocate. The uniform is only uploaded again if a value changed.
+   */
+  private void updateFloats(int index, float[] values) {
+    float[] storage = ((UniformFloats) uniforms[index]).values;
+    if (!Arrays.equals(storage, values)) {
+      System.arraycopy(values, 0, storage, 0, values.length);
+      dirtyUniforms[index] = true;
+    }
+  }
+
+  /** Returns the index of a uniform, looking up its location the first time it is used. */
+  private int getUniformIndex(String name) {
+    Integer indexObject = uniformIndices.get(name);
+    if (indexObject != null) {
+      return indexObject;
     }
     int location = GLES30.glGetUniformLocation(programId, name);
     GLError.maybeThrowGLException("Failed to find uniform", "glGetUniformLocation");
     if (location == -1) {
       throw new IllegalArgumentException("Shader uniform does not exist: " + name);
     }
-    uniformLocations.put(name, Integer.valueOf(location));
-    uniformNames.put(Integer.valueOf(location), name);
-    return location;
+    if (uniformCount == uniforms.length) {
+      int capacity = uniformCount * 2;
+      uniformLocations = Arrays.copyOf(uniformLocations, capacity);
+      uniformNames = Arrays.copyOf(uniformNames, capacity);
+      uniforms = Arrays.copyOf(uniforms, capacity);
+      dirtyUniforms = Arrays.copyOf(dirtyUniforms, capacity);
+    }
+    int index = uniformCount++;
+    uniformLocations[index] = location;
+    uniformNames[index] = name;
+    uniformIndices.put(name, index);
+    return index;
   }
 
   private static int createShader(int type, String code) {
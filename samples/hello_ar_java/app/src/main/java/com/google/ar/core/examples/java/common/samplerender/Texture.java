@@ -28,6 +28,7 @@ import java.io.IOException;
 public class Texture implements Closeable {
   private static final String TAG = Texture.class.getSimpleName();
 
+  private final SampleRender render;
   private final int[] textureId = {0};
   private final Target target;
 
@@ -76,14 +77,14 @@ public class Texture implements Closeable {
    * #createFromAsset} if you want a texture with data.
    */
   public Texture(SampleRender render, Target target, WrapMode wrapMode) {
+    this.render = render;
     this.target = target;
 
     GLES30.glGenTextures(1, textureId, 0);
     GLError.maybeThrowGLException("Texture creation failed", "glGenTextures");
 
     try {
-      GLES30.glBindTexture(target.glesEnum, textureId[0]);
-      GLError.maybeThrowGLException("Failed to bind texture", "glBindTexture");
+      render.getStateCache().bindTexture(0, target.glesEnum, textureId[0]);
       GLES30.glTexParameteri(target.glesEnum, GLES30.GL_TEXTURE_MIN_FILTER, GLES30.GL_LINEAR);
       GLError.maybeThrowGLException("Failed to set texture parameter", "glTexParameteri");
       GLES30.glTexParameteri(target.glesEnum, GLES30.GL_TEXTURE_MAG_FILTER, GLES30.GL_LINEAR);
@@ -104,7 +105,7 @@ public class Texture implements Closeable {
       SampleRender render, String assetFileName, WrapMode wrapMode) throws IOException {
     Texture texture = new Texture(render, Target.TEXTURE_2D, wrapMode);
     try {
-      GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, texture.getTextureId());
+      render.getStateCache().bindTexture(0, GLES30.GL_TEXTURE_2D, texture.getTextureId());
       Bitmap bitmap = BitmapFactory.decodeStream(render.getAssets().open(assetFileName));
       GLUtils.texImage2D(GLES30.GL_TEXTURE_2D, 0, bitmap, 0);
       bitmap.recycle();
@@ -121,6 +122,7 @@ public class Texture implements Closeable {
   @Override
   public void close() {
     if (textureId[0] != 0) {
+      render.getStateCache().forgetTexture(textureId[0]);
       GLES30.glDeleteTextures(1, textureId, 0);
       GLError.maybeLogGLError(Log.WARN, TAG, "Failed to free texture", "glDeleteTextures");
       textureId[0] = 0;
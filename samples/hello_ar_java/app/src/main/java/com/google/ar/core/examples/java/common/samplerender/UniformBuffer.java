@@ -0,0 +1,124 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import android.opengl.GLES30;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * A block of uniform data stored GPU-side, shared by all {@link Shader}s which read it.
+ *
+ * <p>The buffer is bound to a fixed binding point. Shaders connect a uniform block to the binding
+ * point with {@link Shader#setUniformBlock}, after which updating the buffer with {@link #set}
+ * updates the uniforms of all of them. Data which is the same for every draw call of a frame, such
+ * as camera matrices, is then uploaded once per frame instead of once per shader.
+ *
+ * <p>The data is streamed: every {@link #set} writes to a new range of the buffer and binds that
+ * range to the binding point, so it does not wait for the GPU to finish the draws of earlier frames
+ * which still read the previous data.
+ *
+ * <p>The data must follow the std140 layout of the uniform block: for example {@code float}s take 1
+ * entry, {@code vec3}s and {@code vec4}s take 4 entries and {@code mat4}s take 16 entries.
+ *
+ * @see <a
+ *     href="https://www.khronos.org/registry/OpenGL-Refpages/es3.0/html/glBindBufferRange.xhtml">glBindBufferRange</a>
+ */
+public class UniformBuffer implements Closeable {
+  private final SampleRender render;
+  private final GpuBuffer buffer;
+  private final int bindingPoint;
+  private final int numberOfEntries;
+
+  /**
+   * Construct a {@link UniformBuffer} of {@code numberOfEntries} floats, initially zero, and bind
+   * it to a binding point.
+   *
+   * @param bindingPoint The uniform buffer binding point, from 0 up to {@code
+   *     GL_MAX_UNIFORM_BUFFER_BINDINGS} exclusive, which is at least 24.
+   * @param numberOfEntries The size of the uniform block, in floats.
+   */
+  public UniformBuffer(SampleRender render, int bindingPoint, int numberOfEntries) {
+    if (bindingPoint < 0) {
+      throw new IllegalArgumentException("Binding point must not be negative");
+    }
+    if (numberOfEntries <= 0) {
+      throw new IllegalArgumentException("Uniform buffer must have at least one entry");
+    }
+
+    this.render = render;
+    this.bindingPoint = bindingPoint;
+    this.numberOfEntries = numberOfEntries;
+    // Ranges bound to a binding point must start at a multiple of the offset alignment.
+    int[] offsetAlignment = {0};
+    GLES30.glGetIntegerv(GLES30.GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT, offsetAlignment, 0);
+    GLError.maybeThrowGLException(
+        "Failed to query uniform buffer offset alignment", "glGetIntegerv");
+    buffer =
+        new GpuBuffer(
+            render,
+            GLES30.GL_UNIFORM_BUFFER,
+            GpuBuffer.FLOAT_SIZE,
+            /*entries=*/ null,
+            /*streaming=*/ true,
+            offsetAlignment[0]);
+    try {
+      set(
+          ByteBuffer.allocateDirect(numberOfEntries * GpuBuffer.FLOAT_SIZE)
+              .order(ByteOrder.nativeOrder())
+              .asFloatBuffer());
+    } catch (Throwable t) {
+      close();
+      throw t;
+    }
+  }
+
+  /**
+   * Populate with new data.
+   *
+   * <p>The entire buffer is replaced by the contents of the <i>direct</i> buffer {@code entries}
+   * starting from the beginning of the buffer, not the current cursor position. The cursor will be
+   * left in an undefined position after this function returns. The size of {@code entries} must be
+   * the number of entries specified during construction.
+   */
+  public void set(FloatBuffer entries) {
+    if (entries == null || entries.limit() != numberOfEntries) {
+      throw new IllegalArgumentException(
+          "Uniform buffer data must have " + numberOfEntries + " entries");
+    }
+    buffer.set(entries);
+    render
+        .getStateCache()
+        .bindBufferRange(
+            GLES30.GL_UNIFORM_BUFFER,
+            bindingPoint,
+            buffer.getBufferId(),
+            buffer.getOffset(),
+            numberOfEntries * GpuBuffer.FLOAT_SIZE);
+  }
+
+  /** Returns the binding point the buffer is bound to. */
+  public int getBindingPoint() {
+    return bindingPoint;
+  }
+
+  @Override
+  public void close() {
+    buffer.free();
+  }
+}
@@ -54,7 +54,33 @@ public class VertexBuffer implements Closeable {
     }
 
     this.numberOfEntriesPerVertex = numberOfEntriesPerVertex;
-    buffer = new GpuBuffer(GLES30.GL_ARRAY_BUFFER, GpuBuffer.FLOAT_SIZE, entries);
+    buffer = new GpuBuffer(render, GLES30.GL_ARRAY_BUFFER, GpuBuffer.FLOAT_SIZE, entries);
+  }
+
+  private VertexBuffer(GpuBuffer buffer, int numberOfEntriesPerVertex) {
+    this.buffer = buffer;
+    this.numberOfEntriesPerVertex = numberOfEntriesPerVertex;
+  }
+
+  /**
+   * Construct an empty streaming {@link VertexBuffer}, for data which is replaced every frame.
+   *
+   * <p>Every {@link #set} of a streaming buffer writes to a new range of GPU memory, which the GPU
+   * is known to be done with, instead of overwriting data which previous draws may still read.
+   * This avoids the GPU synchronization of replacing the data of a buffer in use, at the cost of
+   * keeping the data of the last few frames in GPU memory. A {@link Mesh} draws the data of the
+   * last {@link #set} before it is drawn, or before the draw is recorded if the render queue is
+   * enabled, so a streaming buffer may be set again for each draw of a frame.
+   */
+  public static VertexBuffer createStreaming(SampleRender render, int numberOfEntriesPerVertex) {
+    return new VertexBuffer(
+        new GpuBuffer(
+            render,
+            GLES30.GL_ARRAY_BUFFER,
+            GpuBuffer.FLOAT_SIZE,
+            /*entries=*/ null,
+            /*streaming=*/ true),
+        numberOfEntriesPerVertex);
   }
 
   /**
@@ -89,6 +115,16 @@ public class VertexBuffer implements Closeable {
     return buffer.getBufferId();
   }
 
+  /* package-private */
+  int getOffset() {
+    return buffer.getOffset();
+  }
+
+  /* package-private */
+  boolean isStreaming() {
+    return buffer.isStreaming();
+  }
+
   /* package-private */
   int getNumberOfEntriesPerVertex() {
     return numberOfEntriesPerVertex;
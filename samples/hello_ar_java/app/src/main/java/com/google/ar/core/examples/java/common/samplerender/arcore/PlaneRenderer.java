@@ -15,7 +15,6 @@
  */
 package com.google.ar.core.examples.java.common.samplerender.arcore;
 
-import android.opengl.Matrix;
 import com.google.ar.core.Camera;
 import com.google.ar.core.Plane;
 import com.google.ar.core.Pose;
@@ -26,12 +25,10 @@ import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Shader.BlendFactor;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
+import com.google.ar.core.examples.java.common.samplerender.UniformBuffer;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -49,24 +46,6 @@ public class PlaneRenderer {
   private static final String FRAGMENT_SHADER_NAME = "shaders/plane.frag";
   private static final String TEXTURE_NAME = "models/trigrid.png";
 
-  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
-  private static final int BYTES_PER_INT = Integer.SIZE / 8;
-  private static final int COORDS_PER_VERTEX = 3; // x, z, alpha
-
-  private static final int VERTS_PER_BOUNDARY_VERT = 2;
-  private static final int INDICES_PER_BOUNDARY_VERT = 3;
-  private static final int INITIAL_BUFFER_BOUNDARY_VERTS = 64;
-
-  private static final int INITIAL_VERTEX_BUFFER_SIZE_BYTES =
-      BYTES_PER_FLOAT * COORDS_PER_VERTEX * VERTS_PER_BOUNDARY_VERT * INITIAL_BUFFER_BOUNDARY_VERTS;
-
-  private static final int INITIAL_INDEX_BUFFER_SIZE_BYTES =
-      BYTES_PER_INT
-          * INDICES_PER_BOUNDARY_VERT
-          * INDICES_PER_BOUNDARY_VERT
-          * INITIAL_BUFFER_BOUNDARY_VERTS;
-
-  private static final float FADE_RADIUS_M = 0.25f;
   private static final float DOTS_PER_METER = 10.0f;
   private static final float EQUILATERAL_TRIANGLE_SCALE = (float) (1 / Math.sqrt(3));
 
@@ -82,20 +61,10 @@ public class PlaneRenderer {
   private final VertexBuffer vertexBufferObject;
   private final Shader shader;
 
-  private FloatBuffer vertexBuffer =
-      ByteBuffer.allocateDirect(INITIAL_VERTEX_BUFFER_SIZE_BYTES)
-          .order(ByteOrder.nativeOrder())
-          .asFloatBuffer();
-  private IntBuffer indexBuffer =
-      ByteBuffer.allocateDirect(INITIAL_INDEX_BUFFER_SIZE_BYTES)
-          .order(ByteOrder.nativeOrder())
-          .asIntBuffer();
+  private final PlaneTessellator tessellator = new PlaneTessellator();
 
   // Temporary lists/matrices allocated here to reduce number of allocations for each frame.
-  private final float[] viewMatrix = new float[16];
   private final float[] modelMatrix = new float[16];
-  private final float[] modelViewMatrix = new float[16];
-  private final float[] modelViewProjectionMatrix = new float[16];
   private final float[] planeAngleUvMatrix =
       new float[4]; // 2x2 rotation matrix applied to uv coords.
   private final float[] normalVector = new float[3];
@@ -106,11 +75,15 @@ public class PlaneRenderer {
    * Allocates and initializes OpenGL resources needed by the plane renderer. Must be called during
    * a {@link SampleRender.Renderer} callback, typically in {@link
    * SampleRender.Renderer#onSurfaceCreated}.
+   *
+   * @param frameUniformBuffer the buffer of the {@code FrameUniforms} uniform block, which holds
+   *     the view and projection matrices of the frame.
    */
-  public PlaneRenderer(SampleRender render) throws IOException {
+  public PlaneRenderer(SampleRender render, UniformBuffer frameUniformBuffer) throws IOException {
     Texture texture = Texture.createFromAsset(render, TEXTURE_NAME, Texture.WrapMode.REPEAT);
     shader =
         Shader.createFromAssets(render, VERTEX_SHADER_NAME, FRAGMENT_SHADER_NAME, /*defines=*/ null)
+            .setUniformBlock("FrameUniforms", frameUniformBuffer)
             .setTexture("u_Texture", texture)
             .set4("u_GridControl", GRID_CONTROL)
             .setBlend(
@@ -120,8 +93,10 @@ public class PlaneRenderer {
                 BlendFactor.ONE_MINUS_SRC_ALPHA) // ALPHA (dest)
             .setDepthWrite(false);
 
-    indexBufferObject = new IndexBuffer(render, /*entries=*/ null);
-    vertexBufferObject = new VertexBuffer(render, COORDS_PER_VERTEX, /*entries=*/ null);
+    // The buffers are refilled for every plane, so they stream their data instead of
+    // overwriting data which previous draws may still read.
+    indexBufferObject = IndexBuffer.createStreaming(render);
+    vertexBufferObject = VertexBuffer.createStreaming(render, PlaneTessellator.COORDS_PER_VERTEX);
     VertexBuffer[] vertexBuffers = {vertexBufferObject};
     mesh = new Mesh(render, Mesh.PrimitiveMode.TRIANGLE_STRIP, indexBufferObject, vertexBuffers);
   }
@@ -131,97 +106,21 @@ public class PlaneRenderer {
       float[] planeMatrix, float extentX, float extentZ, FloatBuffer boundary) {
     System.arraycopy(planeMatrix, 0, modelMatrix, 0, 16);
     if (boundary == null) {
-      vertexBuffer.limit(0);
-      indexBuffer.limit(0);
+      tessellator.clear();
       return;
     }
-
-    // Generate a new set of vertices and a corresponding triangle strip index set so that
-    // the plane boundary polygon has a fading edge. This is done by making a copy of the
-    // boundary polygon vertices and scaling it down around center to push it inwards. Then
-    // the index buffer is setup accordingly.
-    boundary.rewind();
-    int boundaryVertices = boundary.limit() / 2;
-    int numVertices;
-    int numIndices;
-
-    numVertices = boundaryVertices * VERTS_PER_BOUNDARY_VERT;
-    // drawn as GL_TRIANGLE_STRIP with 3n-2 triangles (n-2 for fill, 2n for perimeter).
-    numIndices = boundaryVertices * INDICES_PER_BOUNDARY_VERT;
-
-    if (vertexBuffer.capacity() < numVertices * COORDS_PER_VERTEX) {
-      int size = vertexBuffer.capacity();
-      while (size < numVertices * COORDS_PER_VERTEX) {
-        size *= 2;
-      }
-      vertexBuffer =
-          ByteBuffer.allocateDirect(BYTES_PER_FLOAT * size)
-              .order(ByteOrder.nativeOrder())
-              .asFloatBuffer();
-    }
-    vertexBuffer.rewind();
-    vertexBuffer.limit(numVertices * COORDS_PER_VERTEX);
-
-    if (indexBuffer.capacity() < numIndices) {
-      int size = indexBuffer.capacity();
-      while (size < numIndices) {
-        size *= 2;
-      }
-      indexBuffer =
-          ByteBuffer.allocateDirect(BYTES_PER_INT * size)
-              .order(ByteOrder.nativeOrder())
-              .asIntBuffer();
-    }
-    indexBuffer.rewind();
-    indexBuffer.limit(numIndices);
-
-    // Note: when either dimension of the bounding box is smaller than 2*FADE_RADIUS_M we
-    // generate a bunch of 0-area triangles.  These don't get rendered though so it works
-    // out ok.
-    float xScale = Math.max((extentX - 2 * FADE_RADIUS_M) / extentX, 0.0f);
-    float zScale = Math.max((extentZ - 2 * FADE_RADIUS_M) / extentZ, 0.0f);
-
-    while (boundary.hasRemaining()) {
-      float x = boundary.get();
-      float z = boundary.get();
-      vertexBuffer.put(x);
-      vertexBuffer.put(z);
-      vertexBuffer.put(0.0f);
-      vertexBuffer.put(x * xScale);
-      vertexBuffer.put(z * zScale);
-      vertexBuffer.put(1.0f);
-    }
-
-    // step 1, perimeter
-    indexBuffer.put((short) ((boundaryVertices - 1) * 2));
-    for (int i = 0; i < boundaryVertices; ++i) {
-      indexBuffer.put((short) (i * 2));
-      indexBuffer.put((short) (i * 2 + 1));
-    }
-    indexBuffer.put((short) 1);
-    // This leaves us on the interior edge of the perimeter between the inset vertices
-    // for boundary verts n-1 and 0.
-
-    // step 2, interior:
-    for (int i = 1; i < boundaryVertices / 2; ++i) {
-      indexBuffer.put((short) ((boundaryVertices - 1 - i) * 2 + 1));
-      indexBuffer.put((short) (i * 2 + 1));
-    }
-    if (boundaryVertices % 2 != 0) {
-      indexBuffer.put((short) ((boundaryVertices / 2) * 2 + 1));
-    }
+    tessellator.tessellate(extentX, extentZ, boundary);
   }
 
   /**
-   * Draws the collection of tracked planes, with closer planes hiding more distant ones.
+   * Draws the collection of tracked planes, with closer planes hiding more distant ones. The view
+   * and projection matrices are read from the {@code FrameUniforms} block, which must be set for
+   * the frame before.
    *
    * @param allPlanes The collection of planes to draw.
    * @param cameraPose The pose of the camera, as returned by {@link Camera#getPose()}
-   * @param cameraProjection The projection matrix, as returned by {@link
-   *     Camera#getProjectionMatrix(float[], int, float, float)}
    */
-  public void drawPlanes(
-      SampleRender render, Collection<Plane> allPlanes, Pose cameraPose, float[] cameraProjection) {
+  public void drawPlanes(SampleRender render, Collection<Plane> allPlanes, Pose cameraPose) {
     // Planes must be sorted by distance from camera so that we draw closer planes first, and
     // they occlude the farther planes.
     List<SortablePlane> sortedPlanes = new ArrayList<>();
@@ -246,8 +145,6 @@ public class PlaneRenderer {
           }
         });
 
-    cameraPose.inverse().toMatrix(viewMatrix, 0);
-
     for (SortablePlane sortedPlane : sortedPlanes) {
       Plane plane = sortedPlane.plane;
       float[] planeMatrix = new float[16];
@@ -276,20 +173,15 @@ public class PlaneRenderer {
       planeAngleUvMatrix[2] = +(float) Math.sin(angleRadians) * uScale;
       planeAngleUvMatrix[3] = +(float) Math.cos(angleRadians) * vScale;
 
-      // Build the ModelView and ModelViewProjection matrices
-      // for calculating cube position and light.
-      Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-      Matrix.multiplyMM(modelViewProjectionMatrix, 0, cameraProjection, 0, modelViewMatrix, 0);
-
-      // Populate the shader uniforms for this frame.
+      // Populate the shader uniforms of this plane. The view and projection matrices are shared
+      // by all planes.
       shader.setMatrix4("u_Model", modelMatrix);
-      shader.setMatrix4("u_ModelViewProjection", modelViewProjectionMatrix);
       shader.setMatrix2("u_PlaneUvMatrix", planeAngleUvMatrix);
       shader.set3("u_Normal", normalVector);
 
       // Set the position of the plane
-      vertexBufferObject.set(vertexBuffer);
-      indexBufferObject.set(indexBuffer);
+      vertexBufferObject.set(tessellator.getVertexBuffer());
+      indexBufferObject.set(tessellator.getIndexBuffer());
 
       render.draw(mesh, shader);
     }
@@ -57,10 +57,12 @@ import com.google.ar.core.examples.java.common.helpers.InstantPlacementSettings;
 import com.google.ar.core.examples.java.common.helpers.SnackbarHelper;
 import com.google.ar.core.examples.java.common.helpers.TapHelper;
 import com.google.ar.core.examples.java.common.helpers.TrackingStateHelper;
+import com.google.ar.core.examples.java.common.samplerender.GLErrorCheckPolicy;
 import com.google.ar.core.examples.java.common.samplerender.Mesh;
 import com.google.ar.core.examples.java.common.samplerender.SampleRender;
 import com.google.ar.core.examples.java.common.samplerender.Shader;
 import com.google.ar.core.examples.java.common.samplerender.Texture;
+import com.google.ar.core.examples.java.common.samplerender.UniformBuffer;
 import com.google.ar.core.examples.java.common.samplerender.VertexBuffer;
 import com.google.ar.core.examples.java.common.samplerender.arcore.BackgroundRenderer;
 import com.google.ar.core.examples.java.common.samplerender.arcore.PlaneRenderer;
@@ -72,6 +74,9 @@ import com.google.ar.core.exceptions.UnavailableDeviceNotCompatibleException;
 import com.google.ar.core.exceptions.UnavailableSdkTooOldException;
 import com.google.ar.core.exceptions.UnavailableUserDeclinedInstallationException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -119,6 +124,22 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
   // place an object on the ground or floor in front of them.
   private static final float APPROXIMATE_DISTANCE_METERS = 2.0f;
 
+  private static final int BYTES_PER_FLOAT = Float.SIZE / 8;
+
+  // Uniforms shared by all shaders, laid out like the FrameUniforms block of the shaders: the view
+  // matrix, the projection matrix, the view-space light direction and the color correction.
+  private static final int FRAME_UNIFORMS_BINDING_POINT = 0;
+  private static final int FRAME_UNIFORMS_VIEW_OFFSET = 0;
+  private static final int FRAME_UNIFORMS_PROJECTION_OFFSET = 16;
+  private static final int FRAME_UNIFORMS_LIGHT_DIRECTION_OFFSET = 32;
+  private static final int FRAME_UNIFORMS_COLOR_CORRECTION_OFFSET = 36;
+  private static final int FRAME_UNIFORMS_SIZE = 40;
+  private UniformBuffer frameUniformBuffer;
+  private final FloatBuffer frameUniforms =
+      ByteBuffer.allocateDirect(FRAME_UNIFORMS_SIZE * BYTES_PER_FLOAT)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
+
   // Point Cloud
   private static final String POINT_CLOUD_VERTEX_SHADER_NAME = "shaders/point_cloud.vert";
   private static final String POINT_CLOUD_FRAGMENT_SHADER_NAME = "shaders/point_cloud.frag";
@@ -136,7 +157,22 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
       "shaders/ambient_intensity.frag";
   // Note: the last component must be zero to avoid applying the translational part of the matrix.
   private static final float[] LIGHT_DIRECTION = {0.250f, 0.866f, 0.433f, 0.0f};
+  // Maximum number of placed objects, which are all drawn in a single instanced draw call.
+  private static final int MAX_ANCHORS = 20;
+  private static final int FLOATS_PER_MODEL_MATRIX = 16;
+  private static final int FLOATS_PER_COLOR = 3;
   private Mesh virtualObjectMesh;
+  // Per-instance model matrices and albedo colors of the virtual objects.
+  private VertexBuffer virtualObjectModelMatrixBuffer;
+  private VertexBuffer virtualObjectColorBuffer;
+  private final FloatBuffer virtualObjectModelMatrices =
+      ByteBuffer.allocateDirect(MAX_ANCHORS * FLOATS_PER_MODEL_MATRIX * BYTES_PER_FLOAT)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
+  private final FloatBuffer virtualObjectColors =
+      ByteBuffer.allocateDirect(MAX_ANCHORS * FLOATS_PER_COLOR * BYTES_PER_FLOAT)
+          .order(ByteOrder.nativeOrder())
+          .asFloatBuffer();
   private Shader virtualObjectShader;
   private Shader virtualObjectDepthShader;
 
@@ -160,9 +196,8 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
   private final float[] modelMatrix = new float[16];
   private final float[] viewMatrix = new float[16];
   private final float[] projectionMatrix = new float[16];
-  private final float[] modelViewMatrix = new float[16]; // view x model
-  private final float[] modelViewProjectionMatrix = new float[16]; // projection x view x model
   private final float[] viewLightDirection = new float[4]; // view x LIGHT_DIRECTION
+  private final float[] colorCorrectionRgba = new float[4];
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -175,8 +210,15 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     tapHelper = new TapHelper(/*context=*/ this);
     surfaceView.setOnTouchListener(tapHelper);
 
-    // Set up renderer.
-    render = new SampleRender(surfaceView, this, getAssets());
+    // Set up renderer. Release builds only check for GL errors once per frame, since every check
+    // may wait for the GL driver.
+    render =
+        new SampleRender(
+            surfaceView,
+            this,
+            getAssets(),
+            BuildConfig.DEBUG ? GLErrorCheckPolicy.ALWAYS : GLErrorCheckPolicy.ONCE_PER_FRAME,
+            /*errorCheckFrameInterval=*/ 1);
 
     installRequested = false;
     calculateUVTransform = true;
@@ -325,8 +367,10 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
     // an IOException.
     try {
       depthTexture = new Texture(render, Texture.Target.TEXTURE_2D, Texture.WrapMode.CLAMP_TO_EDGE);
-      planeRenderer = new PlaneRenderer(render);
       backgroundRenderer = new BackgroundRenderer(render, depthTexture);
+      frameUniformBuffer =
+          new UniformBuffer(render, FRAME_UNIFORMS_BINDING_POINT, FRAME_UNIFORMS_SIZE);
+      planeRenderer = new PlaneRenderer(render, frameUniformBuffer);
 
       // Point cloud
       pointCloudShader =
@@ -335,11 +379,12 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
                   POINT_CLOUD_VERTEX_SHADER_NAME,
                   POINT_CLOUD_FRAGMENT_SHADER_NAME,
                   /*defines=*/ null)
+              .setUniformBlock("FrameUniforms", frameUniformBuffer)
               .set4("u_Color", new float[] {31.0f / 255.0f, 188.0f / 255.0f, 210.0f / 255.0f, 1.0f})
               .set1("u_PointSize", 5.0f);
       // four entries per vertex: X, Y, Z, confidence
       pointCloudVertexBuffer =
-          new VertexBuffer(render, /*numberOfEntriesPerVertex=*/ 4, /*entries=*/ null);
+          VertexBuffer.createStreaming(render, /*numberOfEntriesPerVertex=*/ 4);
       final VertexBuffer[] pointCloudVertexBuffers = {pointCloudVertexBuffer};
       pointCloudMesh =
           new Mesh(
@@ -349,13 +394,29 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
       Texture virtualObjectTexture =
           Texture.createFromAsset(render, "models/andy.png", Texture.WrapMode.CLAMP_TO_EDGE);
 
-      virtualObjectMesh = Mesh.createFromAsset(render, "models/andy.obj");
+      virtualObjectModelMatrixBuffer =
+          VertexBuffer.createStreaming(
+              render, /*numberOfEntriesPerVertex=*/ FLOATS_PER_MODEL_MATRIX);
+      virtualObjectColorBuffer =
+          VertexBuffer.createStreaming(render, /*numberOfEntriesPerVertex=*/ FLOATS_PER_COLOR);
+      final VertexBuffer[] virtualObjectInstanceBuffers = {
+        virtualObjectModelMatrixBuffer, virtualObjectColorBuffer
+      };
+      virtualObjectMesh =
+          Mesh.createFromAsset(render, "models/andy.obj", virtualObjectInstanceBuffers);
 
       virtualObjectShader =
           createVirtualObjectShader(
-              render, virtualObjectTexture, /*use_depth_for_occlusion=*/ false);
+              render,
+              frameUniformBuffer,
+              virtualObjectTexture,
+              /*use_depth_for_occlusion=*/ false);
       virtualObjectDepthShader =
-          createVirtualObjectShader(render, virtualObjectTexture, /*use_depth_for_occlusion=*/ true)
+          createVirtualObjectShader(
+                  render,
+                  frameUniformBuffer,
+                  virtualObjectTexture,
+                  /*use_depth_for_occlusion=*/ true)
               .setTexture("u_DepthTexture", depthTexture);
     } catch (IOException e) {
       Log.e(TAG, "Failed to read an asset file", e);
@@ -403,7 +464,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
         // The rendering abstraction leaks a bit here. Populate the depth texture with the current
         // frame data.
         try (Image depthImage = frame.acquireDepthImage()) {
-          GLES30.glBindTexture(GLES30.GL_TEXTURE_2D, depthTexture.getTextureId());
+          render.bindTexture(depthTexture);
           GLES30.glTexImage2D(
               GLES30.GL_TEXTURE_2D,
               0,
@@ -447,9 +508,23 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
       // Compute lighting from average intensity of the image.
       // The first three components are color scaling factors.
       // The last one is the average pixel intensity in gamma space.
-      final float[] colorCorrectionRgba = new float[4];
       frame.getLightEstimate().getColorCorrection(colorCorrectionRgba, 0);
 
+      // Calculate view-space light direction
+      Matrix.multiplyMV(viewLightDirection, 0, viewMatrix, 0, LIGHT_DIRECTION, 0);
+
+      // Upload the uniforms shared by all shaders once for the whole frame.
+      frameUniforms.position(FRAME_UNIFORMS_VIEW_OFFSET);
+      frameUniforms.put(viewMatrix);
+      frameUniforms.position(FRAME_UNIFORMS_PROJECTION_OFFSET);
+      frameUniforms.put(projectionMatrix);
+      frameUniforms.position(FRAME_UNIFORMS_LIGHT_DIRECTION_OFFSET);
+      frameUniforms.put(viewLightDirection);
+      frameUniforms.position(FRAME_UNIFORMS_COLOR_CORRECTION_OFFSET);
+      frameUniforms.put(colorCorrectionRgba);
+      frameUniforms.rewind();
+      frameUniformBuffer.set(frameUniforms);
+
       // Visualize tracked points.
       // Use try-with-resources to automatically release the point cloud.
       try (PointCloud pointCloud = frame.acquirePointCloud()) {
@@ -457,8 +532,6 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
           pointCloudVertexBuffer.set(pointCloud.getPoints());
           lastPointCloudTimestamp = pointCloud.getTimestamp();
         }
-        Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, viewMatrix, 0);
-        pointCloudShader.setMatrix4("u_ModelViewProjection", modelViewProjectionMatrix);
         render.draw(pointCloudMesh, pointCloudShader);
       }
 
@@ -472,12 +545,13 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
 
       // Visualize planes.
       planeRenderer.drawPlanes(
-          render,
-          session.getAllTrackables(Plane.class),
-          camera.getDisplayOrientedPose(),
-          projectionMatrix);
+          render, session.getAllTrackables(Plane.class), camera.getDisplayOrientedPose());
 
-      // Visualize anchors created by touch.
+      // Visualize anchors created by touch. All objects are drawn with a single instanced draw
+      // call, so collect their model matrices and colors first.
+      virtualObjectModelMatrices.clear();
+      virtualObjectColors.clear();
+      int instanceCount = 0;
       for (ColoredAnchor coloredAnchor : anchors) {
         if (coloredAnchor.anchor.getTrackingState() != TrackingState.TRACKING) {
           continue;
@@ -494,22 +568,21 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
         // Get the current pose of an Anchor in world space. The Anchor pose is updated
         // during calls to session.update() as ARCore refines its estimate of the world.
         coloredAnchor.anchor.getPose().toMatrix(modelMatrix, 0);
+        virtualObjectModelMatrices.put(modelMatrix);
+        virtualObjectColors.put(coloredAnchor.color);
+        instanceCount++;
+      }
 
-        // Calculate model/view/projection matrices and view-space light direction
-        Matrix.multiplyMM(modelViewMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-        Matrix.multiplyMM(modelViewProjectionMatrix, 0, projectionMatrix, 0, modelViewMatrix, 0);
-        Matrix.multiplyMV(viewLightDirection, 0, viewMatrix, 0, LIGHT_DIRECTION, 0);
+      if (instanceCount > 0) {
+        virtualObjectModelMatrices.flip();
+        virtualObjectColors.flip();
+        virtualObjectModelMatrixBuffer.set(virtualObjectModelMatrices);
+        virtualObjectColorBuffer.set(virtualObjectColors);
 
-        // Update shader properties and draw
+        // Draw with the frame uniforms, which were uploaded above.
         Shader shader =
             depthSettings.useDepthForOcclusion() ? virtualObjectDepthShader : virtualObjectShader;
-        shader
-            .setMatrix4("u_ModelView", modelViewMatrix)
-            .setMatrix4("u_ModelViewProjection", modelViewProjectionMatrix)
-            .set4("u_ColorCorrection", colorCorrectionRgba)
-            .set4("u_ViewLightDirection", viewLightDirection)
-            .set3("u_AlbedoColor", coloredAnchor.color);
-        render.draw(virtualObjectMesh, shader);
+        render.drawInstanced(virtualObjectMesh, shader, instanceCount);
       }
 
     } catch (Throwable t) {
@@ -542,7 +615,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
             || (trackable instanceof InstantPlacementPoint)) {
           // Cap the number of objects created. This avoids overloading both the
           // rendering system and ARCore.
-          if (anchors.size() >= 20) {
+          if (anchors.size() >= MAX_ANCHORS) {
             anchors.get(0).anchor.detach();
             anchors.remove(0);
           }
@@ -706,7 +779,10 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
   }
 
   private static Shader createVirtualObjectShader(
-      SampleRender render, Texture virtualObjectTexture, boolean useDepthForOcclusion)
+      SampleRender render,
+      UniformBuffer frameUniformBuffer,
+      Texture virtualObjectTexture,
+      boolean useDepthForOcclusion)
       throws IOException {
     return Shader.createFromAssets(
             render,
@@ -718,6 +794,7 @@ public class HelloArActivity extends AppCompatActivity implements SampleRender.R
               }
             })
         .setBlend(Shader.BlendFactor.SRC_ALPHA, Shader.BlendFactor.ONE_MINUS_SRC_ALPHA)
+        .setUniformBlock("FrameUniforms", frameUniformBuffer)
         .setTexture("u_AlbedoTexture", virtualObjectTexture)
         .set1("u_UpperDiffuseIntensity", 1.0f)
         .set1("u_LowerDiffuseIntensity", 0.5f)
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.benchmarks;
+
+import com.google.ar.core.examples.java.computervision.FastCornerDetector;
+import com.google.ar.core.examples.java.computervision.ImagePyramid;
+import com.google.ar.core.examples.java.computervision.KeypointList;
+import java.nio.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Benchmarks the feature stages which run on every frame before tracking. */
+@State(Scope.Thread)
+public class FeatureBenchmark {
+  @Param({"640x480", "1280x720"})
+  public String resolution;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  private final ImagePyramid pyramid = new ImagePyramid();
+  private final FastCornerDetector cornerDetector = new FastCornerDetector();
+  private final KeypointList keypoints = new KeypointList(FastCornerDetector.DEFAULT_MAX_KEYPOINTS);
+  private int width;
+  private int height;
+  private ByteBuffer input;
+
+  @Setup
+  public void setUp() {
+    String[] size = resolution.split("x");
+    width = Integer.parseInt(size[0]);
+    height = Integer.parseInt(size[1]);
+    input = SyntheticImages.create(width, height, /* offsetX= */ 0, /* offsetY= */ 0);
+    cornerDetector.setParallelEnabled(parallel);
+  }
+
+  @Benchmark
+  public ImagePyramid buildPyramid() {
+    pyramid.build(width, height, SyntheticImages.getRowStride(width), /* pixelStride= */ 1, input);
+    return pyramid;
+  }
+
+  @Benchmark
+  public KeypointList detectCorners() {
+    cornerDetector.detect(
+        width, height, SyntheticImages.getRowStride(width), /* pixelStride= */ 1, input, keypoints);
+    return keypoints;
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the CPU work which HelloArActivity does on every frame before uploading its buffers:
+ * the view space light direction and the frame uniforms, written once per frame, and the model
+ * matrix and color of each anchor, written to the instance buffers of the instanced draw.
+ *
+ * <p>{@code android.opengl.Matrix} and {@code com.google.ar.core.Pose} are not available on a
+ * desktop JVM, so this uses plain Java implementations with the same column-major conventions. The
+ * GL uploads themselves are not measured.
+ */
+@State(Scope.Thread)
+public class InstanceBufferBenchmark {
+  private static final float[] LIGHT_DIRECTION = {0.250f, 0.866f, 0.433f, 0.0f};
+
+  // Layout of the FrameUniforms block, in floats, as in HelloArActivity.
+  private static final int FRAME_UNIFORMS_VIEW_OFFSET = 0;
+  private static final int FRAME_UNIFORMS_PROJECTION_OFFSET = 16;
+  private static final int FRAME_UNIFORMS_LIGHT_DIRECTION_OFFSET = 32;
+  private static final int FRAME_UNIFORMS_COLOR_CORRECTION_OFFSET = 36;
+  private static final int FRAME_UNIFORMS_SIZE = 40;
+
+  @Param({"1", "16", "64"})
+  public int anchorCount;
+
+  // Per anchor translation, rotation quaternion, as in a Pose, and RGB color.
+  private float[] translations;
+  private float[] rotations;
+  private float[][] colors;
+
+  private final float[] viewMatrix = new float[16];
+  private final float[] projectionMatrix = new float[16];
+  private final float[] modelMatrix = new float[16];
+  private final float[] viewLightDirection = new float[4];
+  private final float[] colorCorrectionRgba = {0.9f, 0.95f, 1.0f, 0.466f};
+
+  private FloatBuffer frameUniforms;
+  private FloatBuffer modelMatrices;
+  private FloatBuffer instanceColors;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    translations = new float[anchorCount * 3];
+    rotations = new float[anchorCount * 4];
+    colors = new float[anchorCount][3];
+    for (int i = 0; i < anchorCount; i++) {
+      for (int k = 0; k < 3; k++) {
+        translations[i * 3 + k] = random.nextFloat() * 4 - 2;
+      }
+      // Normalize a random quaternion.
+      float length = 0;
+      for (int k = 0; k < 4; k++) {
+        rotations[i * 4 + k] = random.nextFloat() * 2 - 1;
+        length += rotations[i * 4 + k] * rotations[i * 4 + k];
+      }
+      length = (float) Math.sqrt(length);
+      for (int k = 0; k < 4; k++) {
+        rotations[i * 4 + k] /= length;
+      }
+      for (int k = 0; k < 3; k++) {
+        colors[i][k] = random.nextFloat();
+      }
+    }
+    poseToMatrix(0.1f, 1.5f, 0.3f, 0f, 0.2f, 0f, 0.98f, viewMatrix);
+    for (int i = 0; i < 16; i++) {
+      projectionMatrix[i] = i % 5 == 0 ? 1.5f : 0f;
+    }
+    projectionMatrix[11] = -1f;
+
+    frameUniforms = createFloatBuffer(FRAME_UNIFORMS_SIZE);
+    modelMatrices = createFloatBuffer(anchorCount * 16);
+    instanceColors = createFloatBuffer(anchorCount * 3);
+  }
+
+  @Benchmark
+  public FloatBuffer frameUniforms() {
+    multiplyMV(viewLightDirection, viewMatrix, LIGHT_DIRECTION);
+    frameUniforms.position(FRAME_UNIFORMS_VIEW_OFFSET);
+    frameUniforms.put(viewMatrix);
+    frameUniforms.position(FRAME_UNIFORMS_PROJECTION_OFFSET);
+    frameUniforms.put(projectionMatrix);
+    frameUniforms.position(FRAME_UNIFORMS_LIGHT_DIRECTION_OFFSET);
+    frameUniforms.put(viewLightDirection);
+    frameUniforms.position(FRAME_UNIFORMS_COLOR_CORRECTION_OFFSET);
+    frameUniforms.put(colorCorrectionRgba);
+    frameUniforms.rewind();
+    return frameUniforms;
+  }
+
+  @Benchmark
+  public FloatBuffer instanceBuffers() {
+    modelMatrices.clear();
+    instanceColors.clear();
+    for (int i = 0; i < anchorCount; i++) {
+      poseToMatrix(
+          translations[i * 3],
+          translations[i * 3 + 1],
+          translations[i * 3 + 2],
+          rotations[i * 4],
+          rotations[i * 4 + 1],
+          rotations[i * 4 + 2],
+          rotations[i * 4 + 3],
+          modelMatrix);
+      modelMatrices.put(modelMatrix);
+      instanceColors.put(colors[i]);
+    }
+    modelMatrices.flip();
+    instanceColors.flip();
+    return modelMatrices;
+  }
+
+  private static FloatBuffer createFloatBuffer(int size) {
+    return ByteBuffer.allocateDirect(size * Float.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  /** Same as {@code Pose#toMatrix}: a column-major rigid transform from a unit quaternion. */
+  private static void poseToMatrix(
+      float tx, float ty, float tz, float qx, float qy, float qz, float qw, float[] result) {
+    result[0] = 1 - 2 * (qy * qy + qz * qz);
+    result[1] = 2 * (qx * qy + qz * qw);
+    result[2] = 2 * (qx * qz - qy * qw);
+    result[3] = 0;
+    result[4] = 2 * (qx * qy - qz * qw);
+    result[5] = 1 - 2 * (qx * qx + qz * qz);
+    result[6] = 2 * (qy * qz + qx * qw);
+    result[7] = 0;
+    result[8] = 2 * (qx * qz + qy * qw);
+    result[9] = 2 * (qy * qz - qx * qw);
+    result[10] = 1 - 2 * (qx * qx + qy * qy);
+    result[11] = 0;
+    result[12] = tx;
+    result[13] = ty;
+    result[14] = tz;
+    result[15] = 1;
+  }
+
+  /** Same as {@code android.opengl.Matrix#multiplyMV}: result = lhs * rhs, column-major. */
+  private static void multiplyMV(float[] result, float[] lhs, float[] rhs) {
+    for (int row = 0; row < 4; row++) {
+      result[row] =
+          lhs[row] * rhs[0]
+              + lhs[4 + row] * rhs[1]
+              + lhs[8 + row] * rhs[2]
+              + lhs[12 + row] * rhs[3];
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.benchmarks;
+
+import com.google.ar.core.examples.java.computervision.KltTracker;
+import com.google.ar.core.examples.java.computervision.YuvFrameRecorder;
+import com.google.ar.core.examples.java.computervision.YuvFrameReplaySource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks {@link KltTracker} on a sequence of frames replayed with {@link YuvFrameReplaySource}.
+ *
+ * <p>By default a synthetic sequence is recorded, in which the scene moves on a small circle so
+ * that the sequence loops without a jump. A recording made on a device with {@link
+ * YuvFrameRecorder} can be replayed instead with {@code -PjmhParams=replayFile=<path>} or the JMH
+ * option {@code -p replayFile=<path>}.
+ */
+@State(Scope.Thread)
+public class KltTrackerBenchmark {
+  private static final int SYNTHETIC_WIDTH = 640;
+  private static final int SYNTHETIC_HEIGHT = 480;
+  private static final int SYNTHETIC_FRAME_COUNT = 32;
+  private static final float SYNTHETIC_MOTION_RADIUS = 6f;
+
+  @Param({""})
+  public String replayFile;
+
+  @Param({"false", "true"})
+  public boolean parallel;
+
+  private final KltTracker tracker = new KltTracker();
+  private File syntheticFile;
+  private YuvFrameReplaySource replay;
+  private int frameIndex;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    File file;
+    if (replayFile.isEmpty()) {
+      syntheticFile = File.createTempFile("klt_benchmark", ".yuv");
+      recordSyntheticFrames(syntheticFile);
+      file = syntheticFile;
+    } else {
+      file = new File(replayFile);
+    }
+    replay = new YuvFrameReplaySource(file);
+    if (replay.getFrameCount() == 0) {
+      throw new IllegalStateException("No frames in " + file);
+    }
+    tracker.setParallelEnabled(parallel);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    replay.close();
+    if (syntheticFile != null) {
+      syntheticFile.delete();
+    }
+  }
+
+  @Benchmark
+  public int update() {
+    YuvFrameReplaySource.RecordedFrame frame = replay.getFrame(frameIndex);
+    frameIndex = (frameIndex + 1) % replay.getFrameCount();
+    tracker.update(
+        frame.getWidth(),
+        frame.getHeight(),
+        frame.getRowStride(0),
+        frame.getPixelStride(0),
+        frame.getPlane(0));
+    return tracker.getTrackCount();
+  }
+
+  private static void recordSyntheticFrames(File file) throws IOException {
+    int[] rowStrides = {SyntheticImages.getRowStride(SYNTHETIC_WIDTH)};
+    int[] pixelStrides = {1};
+    try (YuvFrameRecorder recorder = new YuvFrameRecorder(file)) {
+      for (int i = 0; i < SYNTHETIC_FRAME_COUNT; i++) {
+        double angle = 2 * Math.PI * i / SYNTHETIC_FRAME_COUNT;
+        ByteBuffer plane =
+            SyntheticImages.create(
+                SYNTHETIC_WIDTH,
+                SYNTHETIC_HEIGHT,
+                Math.round(SYNTHETIC_MOTION_RADIUS * (float) Math.cos(angle)),
+                Math.round(SYNTHETIC_MOTION_RADIUS * (float) Math.sin(angle)));
+        recorder.writeFrame(
+            i * 33_333_333L,
+            SYNTHETIC_WIDTH,
+            SYNTHETIC_HEIGHT,
+            new ByteBuffer[] {plane},
+            rowStrides,
+            pixelStrides);
+      }
+    }
+  }
+}
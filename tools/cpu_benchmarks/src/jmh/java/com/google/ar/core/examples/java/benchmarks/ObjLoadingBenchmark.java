@@ -0,0 +1,76 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.benchmarks;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks loading a Wavefront OBJ model into buffers, with the same calls as {@code
+ * Mesh.createFromAsset} makes before uploading the buffers to the GPU. The file is read into memory
+ * first, so that disk access is not measured.
+ */
+@State(Scope.Thread)
+public class ObjLoadingBenchmark {
+  // Directory of the hello_ar_java assets, set by build.gradle.
+  private static final String ASSETS_DIR_PROPERTY = "benchmarks.assetsDir";
+
+  @Param({"models/andy.obj"})
+  public String assetFileName;
+
+  private byte[] objBytes;
+
+  @Setup
+  public void setUp() throws IOException {
+    String assetsDir = System.getProperty(ASSETS_DIR_PROPERTY);
+    if (assetsDir == null) {
+      throw new IllegalStateException("Set -D" + ASSETS_DIR_PROPERTY + " to the assets directory.");
+    }
+    objBytes = Files.readAllBytes(new File(assetsDir, assetFileName).toPath());
+  }
+
+  @Benchmark
+  public void load(Blackhole blackhole) throws IOException {
+    try (InputStream inputStream = new ByteArrayInputStream(objBytes)) {
+      Obj obj = ObjUtils.convertToRenderable(ObjReader.read(inputStream));
+
+      IntBuffer vertexIndices = ObjData.getFaceVertexIndices(obj, /*numVerticesPerFace=*/ 3);
+      FloatBuffer localCoordinates = ObjData.getVertices(obj);
+      FloatBuffer textureCoordinates = ObjData.getTexCoords(obj, /*dimensions=*/ 2);
+      FloatBuffer normals = ObjData.getNormals(obj);
+
+      blackhole.consume(vertexIndices);
+      blackhole.consume(localCoordinates);
+      blackhole.consume(textureCoordinates);
+      blackhole.consume(normals);
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.benchmarks;
+
+import com.google.ar.core.examples.java.common.samplerender.arcore.PlaneTessellator;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the plane boundary tessellation which {@code PlaneRenderer} runs for every plane on
+ * every frame.
+ */
+@State(Scope.Thread)
+public class PlaneTessellatorBenchmark {
+  // ARCore plane polygons typically have tens of vertices. Large planes have more.
+  @Param({"16", "64", "256"})
+  public int boundaryVertexCount;
+
+  private final PlaneTessellator tessellator = new PlaneTessellator();
+  private FloatBuffer boundary;
+
+  @Setup
+  public void setUp() {
+    // An ellipse of 2 by 1.5 meters, like Plane#getPolygon() returns it.
+    boundary =
+        ByteBuffer.allocateDirect(boundaryVertexCount * 2 * Float.SIZE / 8)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    for (int i = 0; i < boundaryVertexCount; i++) {
+      double angle = 2 * Math.PI * i / boundaryVertexCount;
+      boundary.put((float) Math.cos(angle));
+      boundary.put(0.75f * (float) Math.sin(angle));
+    }
+    boundary.rewind();
+  }
+
+  @Benchmark
+  public IntBuffer tessellate() {
+    tessellator.tessellate(/* extentX= */ 2f, /* extentZ= */ 1.5f, boundary);
+    return tessellator.getIndexBuffer();
+  }
+}
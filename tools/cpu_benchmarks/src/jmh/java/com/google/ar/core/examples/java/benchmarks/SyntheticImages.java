@@ -0,0 +1,77 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Generates reproducible grayscale test images which look enough like camera images. */
+final class SyntheticImages {
+  // Camera image rows are padded, like the Y plane of a CPU image often is.
+  static final int ROW_PADDING = 64;
+
+  private SyntheticImages() {}
+
+  /** Returns the number of bytes between the starts of two rows of an image of the given width. */
+  static int getRowStride(int width) {
+    return width + ROW_PADDING;
+  }
+
+  /**
+   * Creates a direct buffer holding a textured scene: random rectangles of different brightness,
+   * which give edges and corners, with a little noise on top.
+   *
+   * @param width image width.
+   * @param height image height.
+   * @param offsetX horizontal shift of the scene, in pixels, to simulate camera motion.
+   * @param offsetY vertical shift of the scene, in pixels.
+   */
+  static ByteBuffer create(int width, int height, int offsetX, int offsetY) {
+    int rowStride = getRowStride(width);
+    ByteBuffer image = ByteBuffer.allocateDirect(rowStride * height);
+    Random random = new Random(42);
+    int sceneWidth = width + 2 * Math.abs(offsetX) + 1;
+    int sceneHeight = height + 2 * Math.abs(offsetY) + 1;
+    byte[] scene = new byte[sceneWidth * sceneHeight];
+    for (int i = 0; i < scene.length; i++) {
+      scene[i] = (byte) 96;
+    }
+    int rectangleCount = width * height / 2000;
+    for (int r = 0; r < rectangleCount; r++) {
+      int left = random.nextInt(sceneWidth);
+      int top = random.nextInt(sceneHeight);
+      int right = Math.min(sceneWidth, left + 4 + random.nextInt(60));
+      int bottom = Math.min(sceneHeight, top + 4 + random.nextInt(60));
+      byte value = (byte) (16 + random.nextInt(224));
+      for (int y = top; y < bottom; y++) {
+        for (int x = left; x < right; x++) {
+          scene[y * sceneWidth + x] = value;
+        }
+      }
+    }
+
+    Random noise = new Random(offsetX * 31 + offsetY);
+    for (int y = 0; y < height; y++) {
+      int sceneY = y + Math.abs(offsetY) + offsetY;
+      int sceneOffset = sceneY * sceneWidth + Math.abs(offsetX) + offsetX;
+      for (int x = 0; x < width; x++) {
+        int value = (scene[sceneOffset + x] & 0xFF) + noise.nextInt(5) - 2;
+        image.put(y * rowStride + x, (byte) Math.max(0, Math.min(255, value)));
+      }
+    }
+    return image;
+  }
+}
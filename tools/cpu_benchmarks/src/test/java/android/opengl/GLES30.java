@@ -0,0 +1,351 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.opengl;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fake of {@code android.opengl.GLES30} for tests of the render framework on a desktop JVM.
+ *
+ * <p>Calls have no effect, except that object creation returns new IDs, queries report success,
+ * uniform locations are looked up in {@link #uniformLocations} and the calls that tests check are
+ * counted. The calls made while drawing do not allocate, so that tests can count the allocations
+ * of the code under test.
+ */
+public class GLES30 {
+  public static final int GL_NO_ERROR = 0;
+  public static final int GL_FALSE = 0;
+  public static final int GL_TRUE = 1;
+  public static final int GL_INVALID_INDEX = 0xFFFFFFFF;
+
+  public static final int GL_POINTS = 0x0000;
+  public static final int GL_LINES = 0x0001;
+  public static final int GL_LINE_LOOP = 0x0002;
+  public static final int GL_LINE_STRIP = 0x0003;
+  public static final int GL_TRIANGLES = 0x0004;
+  public static final int GL_TRIANGLE_STRIP = 0x0005;
+  public static final int GL_TRIANGLE_FAN = 0x0006;
+
+  public static final int GL_ZERO = 0;
+  public static final int GL_ONE = 1;
+  public static final int GL_SRC_COLOR = 0x0300;
+  public static final int GL_ONE_MINUS_SRC_COLOR = 0x0301;
+  public static final int GL_SRC_ALPHA = 0x0302;
+  public static final int GL_ONE_MINUS_SRC_ALPHA = 0x0303;
+  public static final int GL_DST_ALPHA = 0x0304;
+  public static final int GL_ONE_MINUS_DST_ALPHA = 0x0305;
+  public static final int GL_DST_COLOR = 0x0306;
+  public static final int GL_ONE_MINUS_DST_COLOR = 0x0307;
+  public static final int GL_CONSTANT_COLOR = 0x8001;
+  public static final int GL_ONE_MINUS_CONSTANT_COLOR = 0x8002;
+  public static final int GL_CONSTANT_ALPHA = 0x8003;
+  public static final int GL_ONE_MINUS_CONSTANT_ALPHA = 0x8004;
+
+  public static final int GL_DEPTH_TEST = 0x0B71;
+  public static final int GL_BLEND = 0x0BE2;
+
+  public static final int GL_UNSIGNED_INT = 0x1405;
+  public static final int GL_FLOAT = 0x1406;
+
+  public static final int GL_TEXTURE_2D = 0x0DE1;
+  public static final int GL_TEXTURE_CUBE_MAP = 0x8513;
+  public static final int GL_TEXTURE0 = 0x84C0;
+  public static final int GL_LINEAR = 0x2601;
+  public static final int GL_TEXTURE_MAG_FILTER = 0x2800;
+  public static final int GL_TEXTURE_MIN_FILTER = 0x2801;
+  public static final int GL_TEXTURE_WRAP_S = 0x2802;
+  public static final int GL_TEXTURE_WRAP_T = 0x2803;
+  public static final int GL_REPEAT = 0x2901;
+  public static final int GL_CLAMP_TO_EDGE = 0x812F;
+  public static final int GL_MIRRORED_REPEAT = 0x8370;
+
+  public static final int GL_ARRAY_BUFFER = 0x8892;
+  public static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+  public static final int GL_UNIFORM_BUFFER = 0x8A11;
+  public static final int GL_COPY_WRITE_BUFFER = 0x8F37;
+  public static final int GL_STREAM_DRAW = 0x88E0;
+  public static final int GL_DYNAMIC_DRAW = 0x88E8;
+  public static final int GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT = 0x8A34;
+  public static final int GL_MAP_WRITE_BIT = 0x0002;
+  public static final int GL_MAP_INVALIDATE_RANGE_BIT = 0x0004;
+  public static final int GL_MAP_UNSYNCHRONIZED_BIT = 0x0020;
+
+  public static final int GL_FRAGMENT_SHADER = 0x8B30;
+  public static final int GL_VERTEX_SHADER = 0x8B31;
+  public static final int GL_COMPILE_STATUS = 0x8B81;
+  public static final int GL_LINK_STATUS = 0x8B82;
+
+  public static final int GL_SYNC_FLUSH_COMMANDS_BIT = 0x00000001;
+  public static final int GL_SYNC_GPU_COMMANDS_COMPLETE = 0x9117;
+  public static final int GL_ALREADY_SIGNALED = 0x911A;
+  public static final int GL_TIMEOUT_EXPIRED = 0x911B;
+  public static final int GL_CONDITION_SATISFIED = 0x911C;
+  public static final int GL_WAIT_FAILED = 0x911D;
+
+  /** Locations returned by {@link #glGetUniformLocation}, by uniform name. Not part of GLES30. */
+  public static final Map<String, Integer> uniformLocations = new HashMap<>();
+
+  /** Number of {@code glUseProgram} calls. Not part of GLES30. */
+  public static int useProgramCallCount;
+
+  /** Number of {@code glBindVertexArray} calls. Not part of GLES30. */
+  public static int bindVertexArrayCallCount;
+
+  /** Number of {@code glUniform*} calls, which upload uniform values. Not part of GLES30. */
+  public static int uniformCallCount;
+
+  /** Number of draw calls. Not part of GLES30. */
+  public static int drawCallCount;
+
+  /** Number of draw calls logged in {@link #drawLog}. Not part of GLES30. */
+  public static final int MAX_LOGGED_DRAWS = 16;
+
+  /**
+   * The offset of attribute 0, the offset of the indices, or 0 without indices, and the number of
+   * vertices or indices of each draw call, up to {@link #MAX_LOGGED_DRAWS}. Not part of GLES30.
+   */
+  public static final int[] drawLog = new int[3 * MAX_LOGGED_DRAWS];
+
+  // Offset of each vertex attribute. The fake has a single set of attributes, rather than one per
+  // vertex array object.
+  private static final int[] vertexAttribOffsets = new int[16];
+
+  private static int nextId = 1;
+
+  /** Clears the uniform locations and call counts. Not part of GLES30. */
+  public static void reset() {
+    uniformLocations.clear();
+    useProgramCallCount = 0;
+    bindVertexArrayCallCount = 0;
+    uniformCallCount = 0;
+    drawCallCount = 0;
+  }
+
+  public static int glGetError() {
+    return GL_NO_ERROR;
+  }
+
+  public static void glGetIntegerv(int pname, int[] params, int offset) {
+    params[offset] = pname == GL_UNIFORM_BUFFER_OFFSET_ALIGNMENT ? 256 : 0;
+  }
+
+  public static void glClear(int mask) {}
+
+  public static void glClearColor(float red, float green, float blue, float alpha) {}
+
+  public static void glViewport(int x, int y, int width, int height) {}
+
+  public static void glEnable(int cap) {}
+
+  public static void glDisable(int cap) {}
+
+  public static void glDepthMask(boolean flag) {}
+
+  public static void glBlendFuncSeparate(int srcRGB, int dstRGB, int srcAlpha, int dstAlpha) {}
+
+  public static int glCreateShader(int type) {
+    return nextId++;
+  }
+
+  public static void glShaderSource(int shader, String string) {}
+
+  public static void glCompileShader(int shader) {}
+
+  public static void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+    params[offset] = GL_TRUE;
+  }
+
+  public static String glGetShaderInfoLog(int shader) {
+    return "";
+  }
+
+  public static void glDeleteShader(int shader) {}
+
+  public static int glCreateProgram() {
+    return nextId++;
+  }
+
+  public static void glAttachShader(int program, int shader) {}
+
+  public static void glLinkProgram(int program) {}
+
+  public static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+    params[offset] = GL_TRUE;
+  }
+
+  public static String glGetProgramInfoLog(int program) {
+    return "";
+  }
+
+  public static void glUseProgram(int program) {
+    useProgramCallCount++;
+  }
+
+  public static void glDeleteProgram(int program) {}
+
+  public static int glGetUniformLocation(int program, String name) {
+    Integer location = uniformLocations.get(name);
+    return location == null ? -1 : location;
+  }
+
+  public static int glGetUniformBlockIndex(int program, String uniformBlockName) {
+    return GL_INVALID_INDEX;
+  }
+
+  public static void glUniformBlockBinding(
+      int program, int uniformBlockIndex, int uniformBlockBinding) {}
+
+  public static void glUniform1i(int location, int x) {
+    uniformCallCount++;
+  }
+
+  public static void glUniform1iv(int location, int count, int[] v, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glUniform1fv(int location, int count, float[] v, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glUniform2fv(int location, int count, float[] v, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glUniform3fv(int location, int count, float[] v, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glUniform4fv(int location, int count, float[] v, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glUniformMatrix2fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glUniformMatrix3fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glUniformMatrix4fv(
+      int location, int count, boolean transpose, float[] value, int offset) {
+    uniformCallCount++;
+  }
+
+  public static void glGenTextures(int n, int[] textures, int offset) {
+    generateIds(n, textures, offset);
+  }
+
+  public static void glDeleteTextures(int n, int[] textures, int offset) {}
+
+  public static void glActiveTexture(int texture) {}
+
+  public static void glBindTexture(int target, int texture) {}
+
+  public static void glTexParameteri(int target, int pname, int param) {}
+
+  public static void glGenerateMipmap(int target) {}
+
+  public static void glGenBuffers(int n, int[] buffers, int offset) {
+    generateIds(n, buffers, offset);
+  }
+
+  public static void glDeleteBuffers(int n, int[] buffers, int offset) {}
+
+  public static void glBindBuffer(int target, int buffer) {}
+
+  public static void glBindBufferRange(int target, int index, int buffer, int offset, int size) {}
+
+  public static void glBufferData(int target, int size, Buffer data, int usage) {}
+
+  public static void glBufferSubData(int target, int offset, int size, Buffer data) {}
+
+  public static Buffer glMapBufferRange(int target, int offset, int length, int access) {
+    return ByteBuffer.allocateDirect(length);
+  }
+
+  public static boolean glUnmapBuffer(int target) {
+    return true;
+  }
+
+  public static void glGenVertexArrays(int n, int[] arrays, int offset) {
+    generateIds(n, arrays, offset);
+  }
+
+  public static void glDeleteVertexArrays(int n, int[] arrays, int offset) {}
+
+  public static void glBindVertexArray(int array) {
+    bindVertexArrayCallCount++;
+  }
+
+  public static void glEnableVertexAttribArray(int index) {}
+
+  public static void glVertexAttribPointer(
+      int indx, int size, int type, boolean normalized, int stride, int offset) {
+    vertexAttribOffsets[indx] = offset;
+  }
+
+  public static void glVertexAttribDivisor(int index, int divisor) {}
+
+  public static void glDrawArrays(int mode, int first, int count) {
+    logDraw(0, count);
+  }
+
+  public static void glDrawElements(int mode, int count, int type, int offset) {
+    logDraw(offset, count);
+  }
+
+  public static void glDrawArraysInstanced(int mode, int first, int count, int instanceCount) {
+    logDraw(0, count);
+  }
+
+  public static void glDrawElementsInstanced(
+      int mode, int count, int type, int indicesOffset, int instanceCount) {
+    logDraw(indicesOffset, count);
+  }
+
+  public static long glFenceSync(int condition, int flags) {
+    return nextId++;
+  }
+
+  public static int glClientWaitSync(long sync, int flags, long timeout) {
+    return GL_ALREADY_SIGNALED;
+  }
+
+  public static void glDeleteSync(long sync) {}
+
+  private static void logDraw(int indicesOffset, int count) {
+    if (drawCallCount < MAX_LOGGED_DRAWS) {
+      drawLog[3 * drawCallCount] = vertexAttribOffsets[0];
+      drawLog[3 * drawCallCount + 1] = indicesOffset;
+      drawLog[3 * drawCallCount + 2] = count;
+    }
+    drawCallCount++;
+  }
+
+  private static void generateIds(int n, int[] ids, int offset) {
+    for (int i = 0; i < n; i++) {
+      ids[offset + i] = nextId++;
+    }
+  }
+
+  private GLES30() {}
+}
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.opengl;
+
+/** Fake of {@code android.opengl.GLException} for tests on a desktop JVM. */
+public class GLException extends RuntimeException {
+  private final int error;
+
+  public GLException(int error) {
+    this(error, GLU.gluErrorString(error));
+  }
+
+  public GLException(int error, String string) {
+    super(string);
+    this.error = error;
+  }
+
+  public int getError() {
+    return error;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.opengl;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Fake of {@code android.opengl.GLSurfaceView} for tests on a desktop JVM. It never calls its
+ * renderer, tests call it through {@link #getRenderer()} instead.
+ */
+public class GLSurfaceView {
+  public static final int RENDERMODE_WHEN_DIRTY = 0;
+  public static final int RENDERMODE_CONTINUOUSLY = 1;
+
+  /** Same as {@code android.opengl.GLSurfaceView.Renderer}. */
+  public interface Renderer {
+    void onSurfaceCreated(GL10 gl, EGLConfig config);
+
+    void onSurfaceChanged(GL10 gl, int width, int height);
+
+    void onDrawFrame(GL10 gl);
+  }
+
+  private Renderer renderer;
+
+  public void setPreserveEGLContextOnPause(boolean preserveOnPause) {}
+
+  public void setEGLContextClientVersion(int version) {}
+
+  public void setEGLConfigChooser(
+      int redSize, int greenSize, int blueSize, int alphaSize, int depthSize, int stencilSize) {}
+
+  public void setRenderer(Renderer renderer) {
+    this.renderer = renderer;
+  }
+
+  public void setRenderMode(int renderMode) {}
+
+  public void setWillNotDraw(boolean willNotDraw) {}
+
+  /** Returns the renderer set with {@link #setRenderer}. Not part of the Android API. */
+  public Renderer getRenderer() {
+    return renderer;
+  }
+}
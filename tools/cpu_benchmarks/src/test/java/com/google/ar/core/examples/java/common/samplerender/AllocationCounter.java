@@ -0,0 +1,51 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+
+/** Counts the memory which code under test allocates on the current thread. */
+final class AllocationCounter {
+  private static final int ROUNDS = 5;
+
+  private static final ThreadMXBean threadMXBean =
+      (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  /**
+   * Runs {@code code} once to warm it up, then up to {@link #ROUNDS} more times, and returns the
+   * fewest bytes allocated in one of those runs. The JVM occasionally allocates on the thread
+   * itself, for example while code is being compiled, so a single run may count bytes which {@code
+   * code} did not allocate; bytes which {@code code} does allocate are counted in every run.
+   */
+  static long countMinimumAllocatedBytes(Runnable code) {
+    code.run();
+    getAllocatedBytes();
+    long minimum = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS && minimum > 0; round++) {
+      long allocatedBytes = getAllocatedBytes();
+      code.run();
+      minimum = Math.min(minimum, getAllocatedBytes() - allocatedBytes);
+    }
+    return minimum;
+  }
+
+  private static long getAllocatedBytes() {
+    return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private AllocationCounter() {}
+}
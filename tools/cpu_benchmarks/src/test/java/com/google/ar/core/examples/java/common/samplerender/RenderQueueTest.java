@@ -0,0 +1,242 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import android.opengl.GLES30;
+import android.opengl.GLSurfaceView;
+import com.google.ar.core.examples.java.common.samplerender.RenderQueue.Pass;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks the order in which {@link RenderQueue} sorts draws, and that flushing it saves state
+ * changes without allocating.
+ */
+@RunWith(JUnit4.class)
+public class RenderQueueTest {
+  // More than the initial capacity of the queue, so that it grows while warming up.
+  private static final int DRAW_COUNT = 100;
+  private static final int FRAME_COUNT = 100;
+
+  private GLSurfaceView surfaceView;
+  private SampleRender render;
+  private RenderQueue queue;
+  // Created in this order, so that shaderA and meshA have the lower IDs.
+  private Shader shaderA;
+  private Shader shaderB;
+  private Mesh meshA;
+  private Mesh meshB;
+
+  // The draws of a frame, made by the renderer.
+  private Runnable frame = () -> {};
+
+  @Before
+  public void setUp() {
+    GLES30.reset();
+    surfaceView = new GLSurfaceView();
+    render =
+        new SampleRender(
+            surfaceView,
+            new SampleRender.Renderer() {
+              @Override
+              public void onSurfaceCreated(SampleRender render) {}
+
+              @Override
+              public void onSurfaceChanged(SampleRender render, int width, int height) {}
+
+              @Override
+              public void onDrawFrame(SampleRender render) {
+                frame.run();
+              }
+            },
+            /*assetManager=*/ null);
+    surfaceView.getRenderer().onSurfaceCreated(null, null);
+    queue = new RenderQueue();
+    shaderA = new Shader(render, "", "", /*defines=*/ null);
+    shaderB = new Shader(render, "", "", /*defines=*/ null);
+    meshA = createMesh();
+    meshB = createMesh();
+  }
+
+  @Test
+  public void sort_ordersDrawsByPass() {
+    queue.add(meshA, shaderA, Pass.TRANSPARENT, 1f);
+    queue.add(meshA, shaderA, Pass.OPAQUE, 1f);
+    queue.add(meshA, shaderA, Pass.BACKGROUND, 1f);
+    queue.add(meshA, shaderA, Pass.OPAQUE, 1f);
+
+    assertArrayEquals(new int[] {2, 1, 3, 0}, sortRecordedIndices(4));
+  }
+
+  @Test
+  public void sort_ordersTransparentDrawsBackToFront() {
+    queue.add(meshA, shaderA, Pass.TRANSPARENT, 1f);
+    queue.add(meshB, shaderB, Pass.TRANSPARENT, 5f);
+    queue.add(meshA, shaderA, Pass.TRANSPARENT, 3f);
+    queue.add(meshB, shaderB, Pass.TRANSPARENT, 0.5f);
+
+    assertArrayEquals(new int[] {1, 2, 0, 3}, sortRecordedIndices(4));
+  }
+
+  @Test
+  public void sort_groupsOpaqueDrawsByStateThenFrontToBack() {
+    queue.add(meshA, shaderA, Pass.OPAQUE, 2f);
+    queue.add(meshA, shaderB, Pass.OPAQUE, 0f);
+    queue.add(meshB, shaderA, Pass.OPAQUE, 0f);
+    queue.add(meshB, shaderB, Pass.OPAQUE, 0f);
+    queue.add(meshA, shaderA, Pass.OPAQUE, 1f);
+
+    assertArrayEquals(new int[] {4, 0, 2, 1, 3}, sortRecordedIndices(5));
+  }
+
+  @Test
+  public void sort_keepsRecordingOrderOfEqualDraws() {
+    for (int i = 0; i < DRAW_COUNT; i++) {
+      queue.add(meshA, shaderA, i % 2 == 0 ? Pass.OPAQUE : Pass.TRANSPARENT, 1f);
+    }
+
+    int[] expected = new int[DRAW_COUNT];
+    for (int i = 0; i < DRAW_COUNT / 2; i++) {
+      expected[i] = 2 * i;
+      expected[DRAW_COUNT / 2 + i] = 2 * i + 1;
+    }
+    assertArrayEquals(expected, sortRecordedIndices(DRAW_COUNT));
+  }
+
+  @Test
+  public void flush_issuesFewerStateChangesThanRecordingOrder() {
+    frame = this::drawAlternatingStates;
+
+    drawFrame();
+    GLES30.reset();
+    drawFrame();
+    assertEquals(DRAW_COUNT, GLES30.drawCallCount);
+    assertEquals(DRAW_COUNT, GLES30.useProgramCallCount);
+    assertEquals(DRAW_COUNT, GLES30.bindVertexArrayCallCount);
+
+    render.setRenderQueueEnabled(true);
+    drawFrame();
+    GLES30.reset();
+    drawFrame();
+    assertEquals(DRAW_COUNT, GLES30.drawCallCount);
+    assertEquals(2, GLES30.useProgramCallCount);
+    assertEquals(2, GLES30.bindVertexArrayCallCount);
+  }
+
+  @Test
+  public void flush_doesNotAllocate() {
+    render.setRenderQueueEnabled(true);
+    frame = this::drawAlternatingStates;
+
+    assertEquals(0, AllocationCounter.countMinimumAllocatedBytes(this::drawFrames));
+  }
+
+  @Test
+  public void flush_drawsStreamingMeshWithDataOfEachDraw() {
+    VertexBuffer vertexBuffer = VertexBuffer.createStreaming(render, 3);
+    IndexBuffer indexBuffer = IndexBuffer.createStreaming(render);
+    Mesh mesh =
+        new Mesh(
+            render, Mesh.PrimitiveMode.TRIANGLES, indexBuffer, new VertexBuffer[] {vertexBuffer});
+    FloatBuffer[] vertices = {createFloatBuffer(9), createFloatBuffer(18)};
+    IntBuffer[] indices = {createIntBuffer(3), createIntBuffer(6)};
+    int[] expectedDrawLog = new int[6];
+    frame =
+        () -> {
+          for (int i = 0; i < 2; i++) {
+            vertexBuffer.set(vertices[i]);
+            indexBuffer.set(indices[i]);
+            expectedDrawLog[3 * i] = vertexBuffer.getOffset();
+            expectedDrawLog[3 * i + 1] = indexBuffer.getOffset();
+            expectedDrawLog[3 * i + 2] = indices[i].limit();
+            render.draw(mesh, shaderA);
+          }
+        };
+    render.setRenderQueueEnabled(true);
+
+    // The buffers grow in the first frames, which orphans their storage, and then keep it.
+    for (int i = 0; i < 3; i++) {
+      GLES30.reset();
+      drawFrame();
+      assertEquals(2, GLES30.drawCallCount);
+      assertNotEquals(expectedDrawLog[0], expectedDrawLog[3]);
+      assertNotEquals(expectedDrawLog[1], expectedDrawLog[4]);
+      assertArrayEquals(expectedDrawLog, Arrays.copyOf(GLES30.drawLog, 6));
+    }
+  }
+
+  /** Sorts the queue and returns the recording indices of its first draws in sorted order. */
+  private int[] sortRecordedIndices(int count) {
+    queue.sort();
+    int[] indices = new int[count];
+    for (int i = 0; i < count; i++) {
+      indices[i] = (int) (queue.getKey(i) & (RenderQueue.MAX_DRAWS - 1));
+    }
+    return indices;
+  }
+
+  /** Draws with shaderA and meshA, then shaderB and meshB, and so on, at increasing depths. */
+  private void drawAlternatingStates() {
+    for (int i = 0; i < DRAW_COUNT; i++) {
+      if (i % 2 == 0) {
+        render.draw(meshA, shaderA, Pass.OPAQUE, i);
+      } else {
+        render.draw(meshB, shaderB, Pass.OPAQUE, i);
+      }
+    }
+  }
+
+  private void drawFrame() {
+    surfaceView.getRenderer().onDrawFrame(null);
+  }
+
+  private void drawFrames() {
+    for (int i = 0; i < FRAME_COUNT; i++) {
+      drawFrame();
+    }
+  }
+
+  private static FloatBuffer createFloatBuffer(int size) {
+    return ByteBuffer.allocateDirect(size * Float.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asFloatBuffer();
+  }
+
+  private static IntBuffer createIntBuffer(int size) {
+    return ByteBuffer.allocateDirect(size * Integer.BYTES)
+        .order(ByteOrder.nativeOrder())
+        .asIntBuffer();
+  }
+
+  private Mesh createMesh() {
+    return new Mesh(
+        render,
+        Mesh.PrimitiveMode.TRIANGLES,
+        /*indexBuffer=*/ null,
+        new VertexBuffer[] {new VertexBuffer(render, 3, /*entries=*/ null)});
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.common.samplerender;
+
+import static org.junit.Assert.assertEquals;
+
+import android.opengl.GLES30;
+import android.opengl.GLSurfaceView;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that the uniform setters of {@link Shader} update existing uniforms without allocating,
+ * and that only changed uniforms are uploaded when the shader is used.
+ */
+@RunWith(JUnit4.class)
+public class ShaderTest {
+  private static final int ITERATIONS = 10000;
+
+  private static final int FLOAT_LOCATION = 0;
+  private static final int VECTOR_LOCATION = 1;
+  private static final int MATRIX_LOCATION = 2;
+
+  private final float[] vector = new float[4];
+  private final float[] matrix = new float[16];
+  private Shader shader;
+
+  @Before
+  public void setUp() {
+    GLES30.reset();
+    GLES30.uniformLocations.put("u_Float", FLOAT_LOCATION);
+    GLES30.uniformLocations.put("u_Vector", VECTOR_LOCATION);
+    GLES30.uniformLocations.put("u_Matrix", MATRIX_LOCATION);
+    SampleRender render =
+        new SampleRender(
+            new GLSurfaceView(),
+            new SampleRender.Renderer() {
+              @Override
+              public void onSurfaceCreated(SampleRender render) {}
+
+              @Override
+              public void onSurfaceChanged(SampleRender render, int width, int height) {}
+
+              @Override
+              public void onDrawFrame(SampleRender render) {}
+            },
+            /*assetManager=*/ null);
+    shader = new Shader(render, "", "", /*defines=*/ null);
+  }
+
+  @Test
+  public void setters_doNotAllocateForExistingUniforms() {
+    // The first calls create the uniforms.
+    setUniformsAndUse(1);
+
+    assertEquals(
+        0, AllocationCounter.countMinimumAllocatedBytes(() -> setUniformsAndUse(ITERATIONS)));
+  }
+
+  @Test
+  public void use_uploadsOnlyChangedUniforms() {
+    shader.set1("u_Float", 1f).set4("u_Vector", vector).setMatrix4("u_Matrix", matrix);
+    shader.use();
+    assertEquals(3, GLES30.uniformCallCount);
+
+    shader.use();
+    assertEquals(3, GLES30.uniformCallCount);
+
+    shader.set1("u_Float", 1f).set4("u_Vector", vector.clone()).setMatrix4("u_Matrix", matrix);
+    shader.use();
+    assertEquals(3, GLES30.uniformCallCount);
+
+    vector[0] = 1f;
+    shader.set4("u_Vector", vector);
+    shader.use();
+    assertEquals(4, GLES30.uniformCallCount);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void set1_throwsForUnknownUniform() {
+    shader.set1("u_Unknown", 1f);
+  }
+
+  /** Sets each uniform to a new value and uploads it, {@code iterations} times. */
+  private void setUniformsAndUse(int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      vector[i % vector.length] = i;
+      matrix[i % matrix.length] = i;
+      shader.set1("u_Float", i).set4("u_Vector", vector).setMatrix4("u_Matrix", matrix);
+      shader.use();
+    }
+  }
+}
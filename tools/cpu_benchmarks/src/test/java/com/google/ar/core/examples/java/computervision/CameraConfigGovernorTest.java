@@ -0,0 +1,111 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the switching bands and hysteresis of {@link CameraConfigGovernor}. */
+@RunWith(JUnit4.class)
+public class CameraConfigGovernorTest {
+  private static final int LEVEL_COUNT = 3;
+  private static final float TARGET_FRAME_TIME = 1000f / 30f;
+  private static final long FRAME_MILLIS = 33;
+
+  // Loads inside the bands of a 30 fps target.
+  private static final float LOW_LOAD = 5f;
+  private static final float MEDIUM_LOAD = 15f;
+  private static final float HIGH_LOAD = 30f;
+
+  @Test
+  public void update_stepsUpWhileWorkTimeIsLow() {
+    CameraConfigGovernor governor = new CameraConfigGovernor(LEVEL_COUNT, TARGET_FRAME_TIME);
+    long now = 0;
+    governor.setLevel(0, now);
+
+    now = runFrames(governor, now, LOW_LOAD, 0f, CameraConfigGovernor.SWITCH_COOLDOWN_MILLIS);
+    assertEquals(0, governor.getLevel());
+    now = runFrames(governor, now, LOW_LOAD, 0f, CameraConfigGovernor.UPGRADE_HOLD_MILLIS + 100);
+    assertEquals(1, governor.getLevel());
+    now =
+        runFrames(
+            governor,
+            now,
+            LOW_LOAD,
+            0f,
+            CameraConfigGovernor.SWITCH_COOLDOWN_MILLIS
+                + CameraConfigGovernor.UPGRADE_HOLD_MILLIS
+                + 100);
+    assertEquals(2, governor.getLevel());
+  }
+
+  @Test
+  public void update_holdsLevelInsideBand() {
+    CameraConfigGovernor governor = new CameraConfigGovernor(LEVEL_COUNT, TARGET_FRAME_TIME);
+    governor.setLevel(1, 0);
+
+    // Neither the work time nor the analysis latency leaves the band between the two thresholds.
+    runFrames(governor, 0, MEDIUM_LOAD, MEDIUM_LOAD, 60000);
+    assertEquals(1, governor.getLevel());
+  }
+
+  @Test
+  public void update_stepsDownAndBlocksRetry() {
+    CameraConfigGovernor governor = new CameraConfigGovernor(LEVEL_COUNT, TARGET_FRAME_TIME);
+    long now = 0;
+    governor.setLevel(2, now);
+
+    // A slow analysis on a worker thread also counts.
+    now =
+        runFrames(governor, now, LOW_LOAD, HIGH_LOAD, CameraConfigGovernor.SWITCH_COOLDOWN_MILLIS);
+    now =
+        runFrames(governor, now, LOW_LOAD, HIGH_LOAD, CameraConfigGovernor.DOWNGRADE_HOLD_MILLIS);
+    assertEquals(1, governor.getLevel());
+
+    // The level which was too slow is not tried again until the retry block expires.
+    now = runFrames(governor, now, LOW_LOAD, 0f, CameraConfigGovernor.RETRY_BLOCK_MILLIS - 1000);
+    assertEquals(1, governor.getLevel());
+    runFrames(governor, now, LOW_LOAD, 0f, CameraConfigGovernor.UPGRADE_HOLD_MILLIS + 1000);
+    assertEquals(2, governor.getLevel());
+  }
+
+  @Test
+  public void update_ignoresUnknownWorkTime() {
+    CameraConfigGovernor governor = new CameraConfigGovernor(LEVEL_COUNT, TARGET_FRAME_TIME);
+    governor.setLevel(1, 0);
+
+    runFrames(governor, 0, 0f, HIGH_LOAD, 60000);
+    assertEquals(1, governor.getLevel());
+  }
+
+  /** Feeds a constant load to the governor for a duration, and returns the time after it. */
+  private static long runFrames(
+      CameraConfigGovernor governor,
+      long startMillis,
+      float cpuWorkTime,
+      float analysisLatency,
+      long durationMillis) {
+    long now = startMillis;
+    while (now < startMillis + durationMillis) {
+      now += FRAME_MILLIS;
+      governor.update(now, cpuWorkTime, analysisLatency);
+    }
+    return now;
+  }
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that the serial and stripe-parallel modes of {@link ConnectedComponentLabeler} agree with
+ * a breadth-first search of the 8-connected components.
+ */
+@RunWith(JUnit4.class)
+public class ConnectedComponentLabelerTest {
+  // Enough threads for several stripes, whatever the number of processors.
+  private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+  private static final int ROW_PADDING = 8;
+  private static final byte FOREGROUND = (byte) 0xFF;
+
+  @AfterClass
+  public static void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void label_matchesBreadthFirstSearch() {
+    // Sizes with a single stripe, and with several stripes of whole and partial rows.
+    int[][] sizes = {{1, 1}, {7, 5}, {40, 64}, {64, 67}, {101, 130}, {320, 240}};
+    // Foreground densities in percent, from isolated pixels to a few large components.
+    int[] densities = {5, 30, 50, 70};
+    for (int[] size : sizes) {
+      for (int density : densities) {
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+          int width = size[0];
+          int height = size[1];
+          int rowStride = width * pixelStride + ROW_PADDING;
+          String message =
+              "Size " + width + "x" + height + ", density " + density + ", stride " + pixelStride;
+          ByteBuffer input =
+              createImage(width, height, rowStride, pixelStride, density, width * height + density);
+          Components expected = labelBreadthFirst(width, height, rowStride, pixelStride, input);
+
+          ConnectedComponentLabeler serial = new ConnectedComponentLabeler();
+          serial.label(width, height, rowStride, pixelStride, input);
+          assertLabels(message + ", serial", expected, serial);
+
+          ConnectedComponentLabeler parallel = new ConnectedComponentLabeler();
+          parallel.setPool(pool);
+          parallel.label(width, height, rowStride, pixelStride, input);
+          assertLabels(message + ", parallel", expected, parallel);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void label_reusesBuffersAcrossImageSizes() {
+    ConnectedComponentLabeler labeler = new ConnectedComponentLabeler();
+    labeler.setPool(pool);
+    int[][] sizes = {{320, 240}, {64, 67}, {320, 240}};
+    for (int[] size : sizes) {
+      int width = size[0];
+      int height = size[1];
+      ByteBuffer input = createImage(width, height, width, 1, /* density= */ 40, width);
+      labeler.label(width, height, width, /* pixelStride= */ 1, input);
+      assertLabels(
+          "Size " + width + "x" + height,
+          labelBreadthFirst(width, height, width, /* pixelStride= */ 1, input),
+          labeler);
+    }
+  }
+
+  @Test
+  public void label_areasAddUpToForegroundPixels() {
+    int width = 200;
+    int height = 150;
+    ByteBuffer input = createImage(width, height, width, 1, /* density= */ 45, /* seed= */ 3);
+    int foregroundPixels = 0;
+    for (int i = 0; i < width * height; i++) {
+      if ((input.get(i) & 0xFF) >= ConnectedComponentLabeler.FOREGROUND_THRESHOLD) {
+        foregroundPixels++;
+      }
+    }
+
+    ConnectedComponentLabeler labeler = new ConnectedComponentLabeler();
+    labeler.setPool(pool);
+    labeler.label(width, height, width, /* pixelStride= */ 1, input);
+
+    assertFalse(labeler.isOverflowed());
+    int area = 0;
+    for (int component = 0; component < labeler.getComponentCount(); component++) {
+      area += labeler.getArea(component);
+    }
+    assertEquals(foregroundPixels, area);
+  }
+
+  /** Checks the labels and measurements of a labeler against the expected components. */
+  private static void assertLabels(
+      String message, Components expected, ConnectedComponentLabeler labeler) {
+    int pixelCount = labeler.getWidth() * labeler.getHeight();
+    assertArrayEquals(message, expected.labels, Arrays.copyOf(labeler.getLabels(), pixelCount));
+    assertEquals(message, expected.count, labeler.getComponentCount());
+    for (int component = 0; component < expected.count; component++) {
+      String componentMessage = message + ", component " + component;
+      assertEquals(componentMessage, expected.areas[component], labeler.getArea(component));
+      assertEquals(componentMessage, expected.lefts[component], labeler.getLeft(component));
+      assertEquals(componentMessage, expected.tops[component], labeler.getTop(component));
+      assertEquals(componentMessage, expected.rights[component], labeler.getRight(component));
+      assertEquals(componentMessage, expected.bottoms[component], labeler.getBottom(component));
+      assertEquals(
+          componentMessage,
+          (float) expected.sumsX[component] / expected.areas[component],
+          labeler.getCentroidX(component),
+          0f);
+      assertEquals(
+          componentMessage,
+          (float) expected.sumsY[component] / expected.areas[component],
+          labeler.getCentroidY(component),
+          0f);
+    }
+  }
+
+  /** Components found by {@link #labelBreadthFirst}. */
+  private static class Components {
+    int[] labels;
+    int count;
+    int[] areas;
+    int[] lefts;
+    int[] tops;
+    int[] rights;
+    int[] bottoms;
+    long[] sumsX;
+    long[] sumsY;
+  }
+
+  /**
+   * Labels the 8-connected components with a breadth-first search from their first pixel in raster
+   * order, which numbers them in the same order as {@link ConnectedComponentLabeler}.
+   */
+  private static Components labelBreadthFirst(
+      int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    int pixelCount = width * height;
+    Components components = new Components();
+    components.labels = new int[pixelCount];
+    components.areas = new int[pixelCount];
+    components.lefts = new int[pixelCount];
+    components.tops = new int[pixelCount];
+    components.rights = new int[pixelCount];
+    components.bottoms = new int[pixelCount];
+    components.sumsX = new long[pixelCount];
+    components.sumsY = new long[pixelCount];
+    Arrays.fill(components.labels, ConnectedComponentLabeler.BACKGROUND);
+
+    int[] queue = new int[pixelCount];
+    for (int start = 0; start < pixelCount; start++) {
+      if (components.labels[start] != ConnectedComponentLabeler.BACKGROUND
+          || !isForeground(input, rowStride, pixelStride, width, start)) {
+        continue;
+      }
+      int component = components.count++;
+      components.lefts[component] = Integer.MAX_VALUE;
+      components.tops[component] = Integer.MAX_VALUE;
+      components.rights[component] = Integer.MIN_VALUE;
+      components.bottoms[component] = Integer.MIN_VALUE;
+      int head = 0;
+      int tail = 0;
+      queue[tail++] = start;
+      components.labels[start] = component;
+      while (head < tail) {
+        int pixel = queue[head++];
+        int x = pixel % width;
+        int y = pixel / width;
+        components.areas[component]++;
+        components.lefts[component] = Math.min(components.lefts[component], x);
+        components.tops[component] = Math.min(components.tops[component], y);
+        components.rights[component] = Math.max(components.rights[component], x + 1);
+        components.bottoms[component] = Math.max(components.bottoms[component], y + 1);
+        components.sumsX[component] += x;
+        components.sumsY[component] += y;
+        for (int dy = -1; dy <= 1; dy++) {
+          for (int dx = -1; dx <= 1; dx++) {
+            int neighbourX = x + dx;
+            int neighbourY = y + dy;
+            if (neighbourX < 0 || neighbourX >= width || neighbourY < 0 || neighbourY >= height) {
+              continue;
+            }
+            int neighbour = neighbourY * width + neighbourX;
+            if (components.labels[neighbour] == ConnectedComponentLabeler.BACKGROUND
+                && isForeground(input, rowStride, pixelStride, width, neighbour)) {
+              components.labels[neighbour] = component;
+              queue[tail++] = neighbour;
+            }
+          }
+        }
+      }
+    }
+    return components;
+  }
+
+  private static boolean isForeground(
+      ByteBuffer input, int rowStride, int pixelStride, int width, int pixel) {
+    int value = input.get((pixel / width) * rowStride + (pixel % width) * pixelStride) & 0xFF;
+    return value >= ConnectedComponentLabeler.FOREGROUND_THRESHOLD;
+  }
+
+  /**
+   * Creates a direct buffer of random foreground pixels, of about {@code density} percent of the
+   * pixels. Bytes between pixels and after rows hold foreground values, which must be skipped, and
+   * foreground pixels hold values from the threshold up.
+   */
+  private static ByteBuffer createImage(
+      int width, int height, int rowStride, int pixelStride, int density, int seed) {
+    Random random = new Random(seed);
+    ByteBuffer image = ByteBuffer.allocateDirect(rowStride * height);
+    for (int i = 0; i < image.capacity(); i++) {
+      image.put(i, FOREGROUND);
+    }
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int value =
+            random.nextInt(100) < density
+                ? ConnectedComponentLabeler.FOREGROUND_THRESHOLD + random.nextInt(0x80)
+                : random.nextInt(ConnectedComponentLabeler.FOREGROUND_THRESHOLD);
+        image.put(y * rowStride + x * pixelStride, (byte) value);
+      }
+    }
+    return image;
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that the serial, parallel and region of interest modes of {@link EdgeDetector} agree. */
+@RunWith(JUnit4.class)
+public class EdgeDetectorTest {
+  // Camera image rows are padded, like the Y plane of a CPU image often is.
+  private static final int ROW_PADDING = 24;
+
+  // Output value of pixels the region of interest mode must not write.
+  private static final byte UNTOUCHED = (byte) 0x5A;
+
+  @Test
+  public void parallel_matchesSerial() {
+    int[][] sizes = {{3, 3}, {17, 5}, {64, 31}, {64, 33}, {640, 480}, {1279, 721}};
+    for (int[] size : sizes) {
+      for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+        int width = size[0];
+        int height = size[1];
+        int rowStride = width * pixelStride + ROW_PADDING;
+        ByteBuffer input = createImage(rowStride, height, /* seed= */ width * height);
+
+        byte[] serial = detect(false, width, height, rowStride, pixelStride, input);
+        byte[] parallel = detect(true, width, height, rowStride, pixelStride, input);
+
+        assertArrayEquals(
+            "Size " + width + "x" + height + ", pixel stride " + pixelStride, serial, parallel);
+      }
+    }
+  }
+
+  @Test
+  public void regionOfInterest_matchesFullImageInsideRegions() {
+    int width = 320;
+    int height = 240;
+    int rowStride = width + ROW_PADDING;
+    ByteBuffer input = createImage(rowStride, height, /* seed= */ 7);
+    byte[] full =
+        detect(/* parallel= */ false, width, height, rowStride, /* pixelStride= */ 1, input);
+
+    RegionOfInterest regions = new RegionOfInterest(4);
+    // Inside the image, touching the top left corner, overlapping the bottom right corner, and a
+    // single pixel.
+    regions.add(40, 30, 200, 100);
+    regions.add(0, 0, 50, 60);
+    regions.add(280, 200, 400, 300);
+    regions.add(150, 150, 151, 151);
+
+    for (boolean parallel : new boolean[] {false, true}) {
+      EdgeDetector edgeDetector = new EdgeDetector();
+      edgeDetector.setParallelEnabled(parallel);
+      ByteBuffer output = ByteBuffer.allocateDirect(width * height);
+      for (int i = 0; i < width * height; i++) {
+        output.put(i, UNTOUCHED);
+      }
+      edgeDetector.detect(width, height, rowStride, /* pixelStride= */ 1, input, output, regions);
+
+      for (int j = 0; j < height; j++) {
+        for (int i = 0; i < width; i++) {
+          byte expected = isInside(regions, i, j) ? full[j * width + i] : UNTOUCHED;
+          assertEquals(
+              "Pixel (" + i + ", " + j + "), parallel " + parallel,
+              expected,
+              output.get(j * width + i));
+        }
+      }
+    }
+  }
+
+  private static byte[] detect(
+      boolean parallel, int width, int height, int rowStride, int pixelStride, ByteBuffer input) {
+    EdgeDetector edgeDetector = new EdgeDetector();
+    edgeDetector.setParallelEnabled(parallel);
+    ByteBuffer output = edgeDetector.detect(width, height, rowStride, pixelStride, input);
+    byte[] bytes = new byte[width * height];
+    output.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Creates a direct buffer of rectangles of random gray levels over the full byte range, with a
+   * little noise, so that the image has edges of all strengths.
+   */
+  private static ByteBuffer createImage(int rowStride, int height, int seed) {
+    Random random = new Random(seed);
+    byte[] pixels = new byte[rowStride * height];
+    for (int r = 0; r < Math.max(1, pixels.length / 500); r++) {
+      int left = random.nextInt(rowStride);
+      int top = random.nextInt(height);
+      int right = Math.min(rowStride, left + 2 + random.nextInt(40));
+      int bottom = Math.min(height, top + 2 + random.nextInt(40));
+      byte value = (byte) random.nextInt(256);
+      for (int y = top; y < bottom; y++) {
+        for (int x = left; x < right; x++) {
+          pixels[y * rowStride + x] = value;
+        }
+      }
+    }
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] += (byte) (random.nextInt(5) - 2);
+    }
+    ByteBuffer image = ByteBuffer.allocateDirect(pixels.length);
+    image.put(pixels);
+    return image;
+  }
+
+  private static boolean isInside(RegionOfInterest regions, int x, int y) {
+    for (int r = 0; r < regions.getCount(); r++) {
+      if (x >= regions.getLeft(r)
+          && x < regions.getRight(r)
+          && y >= regions.getTop(r)
+          && y < regions.getBottom(r)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
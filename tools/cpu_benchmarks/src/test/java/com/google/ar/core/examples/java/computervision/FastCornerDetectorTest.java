@@ -0,0 +1,259 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks the serial and parallel modes, the suppression grid and the border of {@link
+ * FastCornerDetector}.
+ */
+@RunWith(JUnit4.class)
+public class FastCornerDetectorTest {
+  // Enough threads for several row bands, whatever the number of processors.
+  private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+  private static final int ROW_PADDING = 24;
+  private static final int CAPACITY = 10000;
+
+  private static final byte BACKGROUND = (byte) 40;
+  private static final byte DOT = (byte) 200;
+
+  @AfterClass
+  public static void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void parallel_matchesSerial() {
+    int[][] sizes = {{7, 7}, {64, 31}, {64, 33}, {320, 240}, {641, 479}};
+    for (boolean harris : new boolean[] {false, true}) {
+      for (int[] size : sizes) {
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+          int width = size[0];
+          int height = size[1];
+          int rowStride = width * pixelStride + ROW_PADDING;
+          ByteBuffer input =
+              createRectangles(width, height, rowStride, pixelStride, /* seed= */ width * height);
+          String message =
+              "Size " + width + "x" + height + ", stride " + pixelStride + ", Harris " + harris;
+
+          FastCornerDetector serial = new FastCornerDetector();
+          serial.setHarrisEnabled(harris);
+          KeypointList expected = new KeypointList(CAPACITY);
+          serial.detect(width, height, rowStride, pixelStride, input, expected);
+
+          FastCornerDetector parallel = new FastCornerDetector();
+          parallel.setHarrisEnabled(harris);
+          parallel.setPool(pool);
+          KeypointList actual = new KeypointList(CAPACITY);
+          parallel.detect(width, height, rowStride, pixelStride, input, actual);
+
+          assertKeypointsEqual(message, expected, actual);
+          if (width >= 320) {
+            assertTrue(message, expected.getCount() > 50);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void detect_keepsBestCornerOfEachCell() {
+    int width = 320;
+    int height = 240;
+    int rowStride = width + ROW_PADDING;
+    ByteBuffer input = createRectangles(width, height, rowStride, 1, /* seed= */ 5);
+    // Cells of a single pixel keep every corner.
+    KeypointList corners = new KeypointList(width * height);
+    new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 1, width * height)
+        .detect(width, height, rowStride, 1, input, corners);
+
+    for (int cellSize : new int[] {4, 8, 16, 33}) {
+      // The first of the highest scoring corners of each cell, in row major order.
+      int cellsX = (width + cellSize - 1) / cellSize;
+      int cellsY = (height + cellSize - 1) / cellSize;
+      int[] best = new int[cellsX * cellsY];
+      Arrays.fill(best, -1);
+      int bestCount = 0;
+      for (int i = 0; i < corners.getCount(); i++) {
+        int cell = getCell(corners, i, cellSize, cellsX);
+        if (best[cell] < 0) {
+          bestCount++;
+          best[cell] = i;
+        } else if (corners.getScore(i) > corners.getScore(best[cell])) {
+          best[cell] = i;
+        }
+      }
+
+      FastCornerDetector detector =
+          new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, cellSize, CAPACITY);
+      KeypointList keypoints = new KeypointList(CAPACITY);
+      detector.detect(width, height, rowStride, 1, input, keypoints);
+
+      String message = "Cell size " + cellSize;
+      assertEquals(message, bestCount, keypoints.getCount());
+      assertTrue(message, bestCount > cellsX * cellsY / 4);
+      for (int i = 0; i < keypoints.getCount(); i++) {
+        int expected = best[getCell(keypoints, i, cellSize, cellsX)];
+        assertEquals(message, corners.getX(expected), keypoints.getX(i), 0f);
+        assertEquals(message, corners.getY(expected), keypoints.getY(i), 0f);
+        assertEquals(message, corners.getScore(expected), keypoints.getScore(i), 0f);
+      }
+    }
+  }
+
+  @Test
+  public void detect_keepsBestCellsUpToMaxKeypoints() {
+    int width = 320;
+    int height = 240;
+    int rowStride = width + ROW_PADDING;
+    ByteBuffer input = createRectangles(width, height, rowStride, 1, /* seed= */ 9);
+    KeypointList all = new KeypointList(CAPACITY);
+    new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 16, CAPACITY)
+        .detect(width, height, rowStride, 1, input, all);
+    float[] scores = new float[all.getCount()];
+    for (int i = 0; i < all.getCount(); i++) {
+      scores[i] = all.getScore(i);
+    }
+    Arrays.sort(scores);
+
+    for (int maxKeypoints : new int[] {1, 10, all.getCount() / 2}) {
+      KeypointList best = new KeypointList(CAPACITY);
+      new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 16, maxKeypoints)
+          .detect(width, height, rowStride, 1, input, best);
+
+      String message = "Maximum " + maxKeypoints;
+      assertEquals(message, maxKeypoints, best.getCount());
+      // The kept keypoints are a subset of all keypoints, none scoring below the dropped ones.
+      float minScore = scores[scores.length - maxKeypoints];
+      int j = 0;
+      for (int i = 0; i < best.getCount(); i++) {
+        while (all.getX(j) != best.getX(i) || all.getY(j) != best.getY(i)) {
+          j++;
+        }
+        assertEquals(message, all.getScore(j), best.getScore(i), 0f);
+        assertTrue(message, best.getScore(i) >= minScore);
+      }
+    }
+
+    // The capacity of the list caps the count the same way.
+    KeypointList small = new KeypointList(10);
+    new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 16, CAPACITY)
+        .detect(width, height, rowStride, 1, input, small);
+    assertEquals(10, small.getCount());
+  }
+
+  @Test
+  public void detect_skipsPixelsWithinCircleRadiusOfBorder() {
+    int width = 64;
+    int height = 48;
+    int rowStride = width + ROW_PADDING;
+    // Dots at and just inside the 3 pixel border margin of every side.
+    int[][] inside = {{3, 20}, {width - 4, 20}, {20, 3}, {40, height - 4}, {3, 3}};
+    int[][] outside = {{2, 30}, {width - 3, 30}, {30, 2}, {50, height - 3}, {0, 0}};
+    ByteBuffer input = ByteBuffer.allocateDirect(rowStride * height);
+    for (int i = 0; i < input.capacity(); i++) {
+      input.put(i, BACKGROUND);
+    }
+    for (int[] dot : inside) {
+      input.put(dot[1] * rowStride + dot[0], DOT);
+    }
+    for (int[] dot : outside) {
+      input.put(dot[1] * rowStride + dot[0], DOT);
+    }
+
+    FastCornerDetector detector =
+        new FastCornerDetector(FastCornerDetector.DEFAULT_THRESHOLD, 8, CAPACITY);
+    KeypointList keypoints = new KeypointList(CAPACITY);
+    detector.detect(width, height, rowStride, 1, input, keypoints);
+
+    assertEquals(inside.length, keypoints.getCount());
+    for (int[] dot : inside) {
+      assertTrue("Dot " + dot[0] + "," + dot[1], contains(keypoints, dot[0], dot[1]));
+    }
+
+    // Images without a pixel outside the margin have no corners.
+    detector.detect(6, 6, rowStride, 1, input, keypoints);
+    assertEquals(0, keypoints.getCount());
+  }
+
+  private static void assertKeypointsEqual(
+      String message, KeypointList expected, KeypointList actual) {
+    assertEquals(message, expected.getCount(), actual.getCount());
+    for (int i = 0; i < expected.getCount(); i++) {
+      assertEquals(message, expected.getX(i), actual.getX(i), 0f);
+      assertEquals(message, expected.getY(i), actual.getY(i), 0f);
+      assertEquals(message, expected.getScore(i), actual.getScore(i), 0f);
+    }
+  }
+
+  private static int getCell(KeypointList keypoints, int index, int cellSize, int cellsX) {
+    int cellX = (int) keypoints.getX(index) / cellSize;
+    int cellY = (int) keypoints.getY(index) / cellSize;
+    return cellY * cellsX + cellX;
+  }
+
+  private static boolean contains(KeypointList keypoints, int x, int y) {
+    for (int i = 0; i < keypoints.getCount(); i++) {
+      if (keypoints.getX(i) == x && keypoints.getY(i) == y) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Creates an image of random overlapping rectangles of random gray levels, which have corners
+   * everywhere, with random bytes in the row and pixel padding.
+   */
+  private static ByteBuffer createRectangles(
+      int width, int height, int rowStride, int pixelStride, long seed) {
+    Random random = new Random(seed);
+    ByteBuffer image = ByteBuffer.allocateDirect(rowStride * height);
+    for (int i = 0; i < image.capacity(); i++) {
+      image.put(i, (byte) random.nextInt(256));
+    }
+    byte[] levels = new byte[width * height];
+    int rectangleCount = width * height / 200;
+    for (int r = 0; r < rectangleCount; r++) {
+      int left = random.nextInt(width);
+      int top = random.nextInt(height);
+      int right = Math.min(width, left + 4 + random.nextInt(24));
+      int bottom = Math.min(height, top + 4 + random.nextInt(24));
+      byte level = (byte) random.nextInt(256);
+      for (int y = top; y < bottom; y++) {
+        Arrays.fill(levels, y * width + left, y * width + right, level);
+      }
+    }
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.put(y * rowStride + x * pixelStride, levels[y * width + x]);
+      }
+    }
+    return image;
+  }
+}
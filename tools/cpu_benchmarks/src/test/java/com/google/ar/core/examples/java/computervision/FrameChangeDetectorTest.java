@@ -0,0 +1,219 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the changed blocks and regions reported by {@link FrameChangeDetector}. */
+@RunWith(JUnit4.class)
+public class FrameChangeDetectorTest {
+  // 8x5 blocks of the default size.
+  private static final int WIDTH = 256;
+  private static final int HEIGHT = 160;
+  private static final int PIXEL_STRIDE = 2;
+  private static final int ROW_STRIDE = WIDTH * PIXEL_STRIDE + 24;
+
+  private static final int BLOCK_SIZE = FrameChangeDetector.DEFAULT_BLOCK_SIZE;
+
+  @Test
+  public void detectChanges_reportsFirstFrameAsChanged() {
+    FrameChangeDetector detector = new FrameChangeDetector();
+
+    assertTrue(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, createImage()));
+
+    assertEquals(40, detector.getBlockCount());
+    assertEquals(40, detector.getChangedBlockCount());
+    // Every block row is a single region across the whole width.
+    RegionOfInterest regions = detector.getChangedRegions();
+    assertEquals(5, regions.getCount());
+    for (int by = 0; by < 5; by++) {
+      assertRegion(
+          regions,
+          by,
+          0,
+          Math.max(by * BLOCK_SIZE - 1, 0),
+          WIDTH,
+          Math.min((by + 1) * BLOCK_SIZE + 1, HEIGHT));
+    }
+  }
+
+  @Test
+  public void detectChanges_reportsIdenticalFrameAsUnchanged() {
+    FrameChangeDetector detector = new FrameChangeDetector();
+    ByteBuffer image = createImage();
+    detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image);
+    detector.acceptAllBlocks();
+
+    assertFalse(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image));
+
+    assertEquals(0, detector.getChangedBlockCount());
+    assertEquals(0, detector.getChangedRegions().getCount());
+  }
+
+  @Test
+  public void detectChanges_ignoresNoiseBelowThreshold() {
+    FrameChangeDetector detector = new FrameChangeDetector();
+    ByteBuffer image = createImage();
+    detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image);
+    detector.acceptAllBlocks();
+
+    // Sensor noise smaller than the block threshold on every pixel.
+    Random random = new Random(3);
+    ByteBuffer noisy = copy(image);
+    for (int i = 0; i < noisy.capacity(); i++) {
+      int delta = random.nextInt(2 * FrameChangeDetector.DEFAULT_BLOCK_THRESHOLD - 1);
+      delta -= FrameChangeDetector.DEFAULT_BLOCK_THRESHOLD - 1;
+      noisy.put(i, (byte) ((noisy.get(i) & 0xFF) + delta));
+    }
+
+    assertFalse(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, noisy));
+    assertEquals(0, detector.getChangedBlockCount());
+  }
+
+  @Test
+  public void detectChanges_reportsGrownRegionsOfLocalizedPatch() {
+    FrameChangeDetector detector = new FrameChangeDetector();
+    ByteBuffer image = createImage();
+    detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image);
+    detector.acceptAllBlocks();
+
+    // A patch across blocks 2 and 3 of block row 1, merged into one region.
+    ByteBuffer patched = copy(image);
+    fill(patched, 70, 40, 101, 61);
+
+    assertTrue(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, patched));
+    assertEquals(2, detector.getChangedBlockCount());
+    RegionOfInterest regions = detector.getChangedRegions();
+    assertEquals(1, regions.getCount());
+    assertRegion(regions, 0, 2 * BLOCK_SIZE - 1, BLOCK_SIZE - 1, 4 * BLOCK_SIZE + 1, 65);
+
+    // Once accepted, the patched frame is the reference.
+    detector.acceptChangedBlocks();
+    assertFalse(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, patched));
+  }
+
+  @Test
+  public void detectChanges_clampsRegionsOfCornerPatchesToImage() {
+    FrameChangeDetector detector = createDetectorOfAnyChangedBlock();
+    ByteBuffer image = createImage();
+    detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image);
+    detector.acceptAllBlocks();
+
+    // Patches in the first and last block of the top row, and in the bottom right block.
+    ByteBuffer patched = copy(image);
+    fill(patched, 0, 0, 8, 8);
+    fill(patched, WIDTH - 8, 0, WIDTH, 8);
+    fill(patched, WIDTH - 8, HEIGHT - 8, WIDTH, HEIGHT);
+
+    assertTrue(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, patched));
+    assertEquals(3, detector.getChangedBlockCount());
+    RegionOfInterest regions = detector.getChangedRegions();
+    assertEquals(3, regions.getCount());
+    assertRegion(regions, 0, 0, 0, BLOCK_SIZE + 1, BLOCK_SIZE + 1);
+    assertRegion(regions, 1, WIDTH - BLOCK_SIZE - 1, 0, WIDTH, BLOCK_SIZE + 1);
+    assertRegion(regions, 2, WIDTH - BLOCK_SIZE - 1, HEIGHT - BLOCK_SIZE - 1, WIDTH, HEIGHT);
+  }
+
+  @Test
+  public void acceptChangedBlocks_keepsReferenceOfUnchangedBlocks() {
+    FrameChangeDetector detector = createDetectorOfAnyChangedBlock();
+    ByteBuffer image = createImage();
+    detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image);
+    detector.acceptAllBlocks();
+
+    // A drift below the threshold is not accepted, so it accumulates until it counts as a change.
+    ByteBuffer drifted = copy(image);
+    addToBlock(drifted, 4);
+    assertFalse(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, drifted));
+    detector.acceptChangedBlocks();
+    addToBlock(drifted, 4);
+    assertTrue(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, drifted));
+    assertEquals(1, detector.getChangedBlockCount());
+  }
+
+  @Test
+  public void detectChanges_reportsEveryBlockAfterReset() {
+    FrameChangeDetector detector = new FrameChangeDetector();
+    ByteBuffer image = createImage();
+    detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image);
+    detector.acceptAllBlocks();
+
+    detector.reset();
+
+    assertTrue(detector.detectChanges(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, image));
+    assertEquals(40, detector.getChangedBlockCount());
+  }
+
+  private static FrameChangeDetector createDetectorOfAnyChangedBlock() {
+    return new FrameChangeDetector(
+        BLOCK_SIZE,
+        FrameChangeDetector.DEFAULT_SAMPLE_STEP,
+        FrameChangeDetector.DEFAULT_BLOCK_THRESHOLD,
+        /* frameThreshold= */ 0);
+  }
+
+  private static void assertRegion(
+      RegionOfInterest regions, int index, int left, int top, int right, int bottom) {
+    String message = "Region " + index;
+    assertEquals(message, left, regions.getLeft(index));
+    assertEquals(message, top, regions.getTop(index));
+    assertEquals(message, right, regions.getRight(index));
+    assertEquals(message, bottom, regions.getBottom(index));
+  }
+
+  /** Creates an image of random mid gray levels, so that patches and drifts never wrap around. */
+  private static ByteBuffer createImage() {
+    Random random = new Random(1);
+    ByteBuffer image = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+    for (int i = 0; i < image.capacity(); i++) {
+      image.put(i, (byte) (64 + random.nextInt(64)));
+    }
+    return image;
+  }
+
+  private static ByteBuffer copy(ByteBuffer image) {
+    ByteBuffer copy = ByteBuffer.allocateDirect(image.capacity());
+    copy.put(image.duplicate());
+    return copy;
+  }
+
+  /** Sets the pixels in [left, right) x [top, bottom) to white. */
+  private static void fill(ByteBuffer image, int left, int top, int right, int bottom) {
+    for (int y = top; y < bottom; y++) {
+      for (int x = left; x < right; x++) {
+        image.put(y * ROW_STRIDE + x * PIXEL_STRIDE, (byte) 0xFF);
+      }
+    }
+  }
+
+  /** Brightens every pixel of a block of the first block row by less than the block threshold. */
+  private static void addToBlock(ByteBuffer image, int blockX) {
+    for (int y = 0; y < BLOCK_SIZE; y++) {
+      for (int x = blockX * BLOCK_SIZE; x < (blockX + 1) * BLOCK_SIZE; x++) {
+        int offset = y * ROW_STRIDE + x * PIXEL_STRIDE;
+        image.put(offset, (byte) ((image.get(offset) & 0xFF) + 4));
+      }
+    }
+  }
+}
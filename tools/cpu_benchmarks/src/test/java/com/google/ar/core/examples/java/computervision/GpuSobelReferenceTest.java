@@ -0,0 +1,116 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks {@link GpuSobelReference}, the CPU model of the GPU edge detection shaders. */
+@RunWith(JUnit4.class)
+public class GpuSobelReferenceTest {
+  private static final int WIDTH = 96;
+  private static final int HEIGHT = 64;
+
+  @Test
+  public void detect_matchesEdgeDetectorOnInnerPixels() {
+    // Gray levels of at most 127, which EdgeDetector and the shaders read alike.
+    ByteBuffer input = createImage(/* maxGrayLevel= */ 127);
+    for (int threshold : new int[] {16 * 16, 64 * 64, EdgeDetector.SOBEL_EDGE_THRESHOLD}) {
+      ByteBuffer gpuEdges = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+      GpuSobelReference.detect(WIDTH, HEIGHT, input, threshold, gpuEdges);
+
+      EdgeDetector edgeDetector = new EdgeDetector();
+      edgeDetector.setThreshold(threshold);
+      ByteBuffer cpuEdges = edgeDetector.detect(WIDTH, HEIGHT, WIDTH, /* pixelStride= */ 1, input);
+
+      for (int j = 1; j < HEIGHT - 1; j++) {
+        for (int i = 1; i < WIDTH - 1; i++) {
+          assertEquals(
+              "Pixel (" + i + ", " + j + "), threshold " + threshold,
+              cpuEdges.get(j * WIDTH + i),
+              gpuEdges.get(j * WIDTH + i));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void detect_readsUnsignedGrayLevels() {
+    // A vertical step from 100 to 200 is an edge in unsigned luminance. EdgeDetector reads 200 as
+    // the signed byte -56, so this is where the two intentionally differ.
+    ByteBuffer input = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    for (int j = 0; j < HEIGHT; j++) {
+      for (int i = 0; i < WIDTH; i++) {
+        input.put(j * WIDTH + i, (byte) (i < WIDTH / 2 ? 100 : 200));
+      }
+    }
+    ByteBuffer edges = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    // The step has a gradient magnitude of 4 * 100.
+    GpuSobelReference.detect(WIDTH, HEIGHT, input, /* threshold= */ 399 * 399, edges);
+
+    int row = HEIGHT / 2 * WIDTH;
+    assertEquals(EdgeDetector.EDGE, edges.get(row + WIDTH / 2));
+    assertEquals(EdgeDetector.EDGE, edges.get(row + WIDTH / 2 - 1));
+    assertEquals(EdgeDetector.NO_EDGE, edges.get(row + WIDTH / 2 + 1));
+    assertEquals(EdgeDetector.NO_EDGE, edges.get(row + WIDTH / 2 - 2));
+  }
+
+  @Test
+  public void packAndUnpack_roundTrip() {
+    ByteBuffer edges = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    GpuSobelReference.detect(
+        WIDTH, HEIGHT, createImage(/* maxGrayLevel= */ 255), /* threshold= */ 64 * 64, edges);
+    ByteBuffer packed =
+        ByteBuffer.allocateDirect(WIDTH * HEIGHT / GpuSobelReference.PIXELS_PER_BYTE);
+    GpuSobelReference.pack(WIDTH, HEIGHT, edges, packed);
+    ByteBuffer unpacked = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    GpuSobelReference.unpack(WIDTH, HEIGHT, packed, unpacked);
+
+    for (int i = 0; i < WIDTH * HEIGHT; i++) {
+      assertEquals("Pixel " + i, edges.get(i), unpacked.get(i));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void pack_rejectsWidthNotMultipleOfEight() {
+    ByteBuffer buffer = ByteBuffer.allocate(WIDTH * HEIGHT);
+    GpuSobelReference.pack(WIDTH - 1, HEIGHT, buffer, buffer);
+  }
+
+  /** Creates an image of rectangles of random gray levels up to {@code maxGrayLevel}. */
+  private static ByteBuffer createImage(int maxGrayLevel) {
+    Random random = new Random(maxGrayLevel);
+    ByteBuffer image = ByteBuffer.allocateDirect(WIDTH * HEIGHT);
+    for (int r = 0; r < 40; r++) {
+      int left = random.nextInt(WIDTH);
+      int top = random.nextInt(HEIGHT);
+      int right = Math.min(WIDTH, left + 2 + random.nextInt(30));
+      int bottom = Math.min(HEIGHT, top + 2 + random.nextInt(30));
+      byte value = (byte) random.nextInt(maxGrayLevel + 1);
+      for (int y = top; y < bottom; y++) {
+        for (int x = left; x < right; x++) {
+          image.put(y * WIDTH + x, value);
+        }
+      }
+    }
+    return image;
+  }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that {@link ImagePipeline} fuses point operators without changing the output, and that
+ * its serial and parallel modes agree.
+ */
+@RunWith(JUnit4.class)
+public class ImagePipelineTest {
+  // Enough threads for several row bands, whatever the number of processors.
+  private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+  private static final int ROW_PADDING = 24;
+
+  @AfterClass
+  public static void tearDown() {
+    pool.shutdown();
+  }
+
+  @Test
+  public void process_fusedChainMatchesUnfusedChain() {
+    ImageOperator[][] chains = {
+      {ImageOperator.gaussianBlur(), ImageOperator.sobel(), ImageOperator.threshold(128)},
+      // Two point operators in a row only give the right output if fused in order.
+      {ImageOperator.gaussianBlur(), ImageOperator.threshold(200), ImageOperator.threshold(100)},
+      {
+        ImageOperator.threshold(90),
+        ImageOperator.dilate(),
+        ImageOperator.erode(),
+        ImageOperator.downscale(),
+        ImageOperator.threshold(60)
+      },
+    };
+    int[][] sizes = {{1, 1}, {7, 5}, {64, 33}, {320, 240}};
+    for (int c = 0; c < chains.length; c++) {
+      for (int[] size : sizes) {
+        for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+          int width = size[0];
+          int height = size[1];
+          int rowStride = width * pixelStride + ROW_PADDING;
+          ByteBuffer input = createImage(rowStride, height, /* seed= */ width * height + c);
+
+          ImagePipeline fused = new ImagePipeline();
+          for (ImageOperator operator : chains[c]) {
+            fused.add(operator);
+          }
+          byte[] expected = processUnfused(chains[c], width, height, rowStride, pixelStride, input);
+
+          assertArrayEquals(
+              "Chain " + c + ", size " + width + "x" + height + ", pixel stride " + pixelStride,
+              expected,
+              toArray(fused.process(width, height, rowStride, pixelStride, input)));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void process_parallelMatchesSerial() {
+    int[][] sizes = {{3, 3}, {64, 31}, {64, 33}, {640, 480}, {1279, 721}};
+    for (int[] size : sizes) {
+      for (int pixelStride = 1; pixelStride <= 2; pixelStride++) {
+        int width = size[0];
+        int height = size[1];
+        int rowStride = width * pixelStride + ROW_PADDING;
+        ByteBuffer input = createImage(rowStride, height, /* seed= */ width * height);
+
+        ImagePipeline serial = createPipeline();
+        ImagePipeline parallel = createPipeline();
+        parallel.setPool(pool);
+
+        assertArrayEquals(
+            "Size " + width + "x" + height + ", pixel stride " + pixelStride,
+            toArray(serial.process(width, height, rowStride, pixelStride, input)),
+            toArray(parallel.process(width, height, rowStride, pixelStride, input)));
+      }
+    }
+  }
+
+  @Test
+  public void getPassCount_fusesPointOperatorsIntoPreviousPass() {
+    assertEquals(0, new ImagePipeline().getPassCount());
+    assertEquals(4, createPipeline().getPassCount());
+    assertEquals(
+        2,
+        new ImagePipeline()
+            .add(ImageOperator.gaussianBlur())
+            .add(ImageOperator.sobel())
+            .add(ImageOperator.threshold(128))
+            .getPassCount());
+    // A leading point operator has no pass to be fused into.
+    assertEquals(
+        2,
+        new ImagePipeline()
+            .add(ImageOperator.threshold(128))
+            .add(ImageOperator.gaussianBlur())
+            .getPassCount());
+    assertEquals(
+        1,
+        new ImagePipeline()
+            .add(ImageOperator.threshold(128))
+            .add(ImageOperator.threshold(64))
+            .getPassCount());
+
+    // Adding an operator compiles the passes again.
+    ImagePipeline pipeline = new ImagePipeline().add(ImageOperator.dilate());
+    assertEquals(1, pipeline.getPassCount());
+    pipeline.add(ImageOperator.threshold(10));
+    assertEquals(1, pipeline.getPassCount());
+    pipeline.add(ImageOperator.erode());
+    assertEquals(2, pipeline.getPassCount());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void process_throwsWithoutOperators() {
+    new ImagePipeline().process(4, 4, 4, 1, ByteBuffer.allocateDirect(16));
+  }
+
+  @Test
+  public void process_halvesSizeOnDownscale() {
+    // Input width and height, followed by the expected sizes after one and two downscales.
+    int[][] sizes = {
+      {1, 1, 1, 1, 1, 1},
+      {2, 3, 1, 1, 1, 1},
+      {7, 5, 3, 2, 1, 1},
+      {640, 480, 320, 240, 160, 120},
+      {1279, 721, 639, 360, 319, 180},
+    };
+    ImagePipeline once = new ImagePipeline().add(ImageOperator.downscale());
+    ImagePipeline twice =
+        new ImagePipeline()
+            .add(ImageOperator.downscale())
+            .add(ImageOperator.gaussianBlur())
+            .add(ImageOperator.downscale());
+    for (int[] size : sizes) {
+      int width = size[0];
+      int height = size[1];
+      int rowStride = width + ROW_PADDING;
+      ByteBuffer input = createImage(rowStride, height, /* seed= */ width);
+      String message = "Size " + width + "x" + height;
+
+      ByteBuffer output = once.process(width, height, rowStride, 1, input);
+      assertEquals(message, size[2], once.getOutputWidth());
+      assertEquals(message, size[3], once.getOutputHeight());
+      assertEquals(message, size[2] * size[3], output.remaining());
+
+      output = twice.process(width, height, rowStride, 1, input);
+      assertEquals(message, size[4], twice.getOutputWidth());
+      assertEquals(message, size[5], twice.getOutputHeight());
+      assertEquals(message, size[4] * size[5], output.remaining());
+    }
+  }
+
+  @Test
+  public void process_downscaleAveragesBlocksWithRounding() {
+    // The last column and row of an odd sized image are dropped.
+    byte[] pixels = {
+      0, 1, 10, 20, 99,
+      2, 2, 30, 41, 99,
+      99, 99, 99, 99, 99,
+    };
+    ByteBuffer input = ByteBuffer.allocateDirect(pixels.length);
+    input.put(pixels);
+
+    ByteBuffer output =
+        new ImagePipeline().add(ImageOperator.downscale()).process(5, 3, 5, 1, input);
+
+    assertArrayEquals(new byte[] {(byte) 1, (byte) 25}, toArray(output));
+  }
+
+  /** Returns a pipeline with a downscale, two fused point operators and morphology. */
+  private static ImagePipeline createPipeline() {
+    return new ImagePipeline()
+        .add(ImageOperator.gaussianBlur())
+        .add(ImageOperator.threshold(100))
+        .add(ImageOperator.downscale())
+        .add(ImageOperator.sobel())
+        .add(ImageOperator.threshold(128))
+        .add(ImageOperator.dilate());
+  }
+
+  /** Runs every operator in its own pipeline, so that no operators are fused. */
+  private static byte[] processUnfused(
+      ImageOperator[] operators,
+      int width,
+      int height,
+      int rowStride,
+      int pixelStride,
+      ByteBuffer input) {
+    ByteBuffer source = input;
+    for (ImageOperator operator : operators) {
+      ImagePipeline pipeline = new ImagePipeline().add(operator);
+      ByteBuffer output = pipeline.process(width, height, rowStride, pixelStride, source);
+      source = ByteBuffer.allocateDirect(output.remaining());
+      source.put(output);
+      width = pipeline.getOutputWidth();
+      height = pipeline.getOutputHeight();
+      rowStride = width;
+      pixelStride = 1;
+    }
+    source.clear();
+    return toArray(source);
+  }
+
+  /** Creates an image of random blobs, with random bytes in the row and pixel padding. */
+  private static ByteBuffer createImage(int rowStride, int height, long seed) {
+    Random random = new Random(seed);
+    ByteBuffer image = ByteBuffer.allocateDirect(rowStride * height);
+    for (int i = 0; i < rowStride * height; i++) {
+      // Mostly smooth with occasional jumps, so that blur, edges and thresholds all matter.
+      int value = random.nextInt(8) == 0 ? random.nextInt(256) : 128 + random.nextInt(16);
+      image.put(i, (byte) value);
+    }
+    return image;
+  }
+
+  private static byte[] toArray(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return bytes;
+  }
+}
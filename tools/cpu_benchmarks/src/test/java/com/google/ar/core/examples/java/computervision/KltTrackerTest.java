@@ -0,0 +1,178 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks that {@link KltTracker} follows a known motion and re-seeds lost tracks. */
+@RunWith(JUnit4.class)
+public class KltTrackerTest {
+  private static final int WIDTH = 320;
+  private static final int HEIGHT = 240;
+  private static final int PIXEL_STRIDE = 2;
+  private static final int ROW_STRIDE = WIDTH * PIXEL_STRIDE + 24;
+
+  // Mean distance in pixels within which tracks must follow the motion of the image. Windows on
+  // the junction of several rectangles are less accurate, so single tracks may be further off.
+  private static final float MEAN_TOLERANCE = 0.1f;
+  private static final float TOLERANCE = 0.5f;
+
+  @Test
+  public void update_followsSubPixelShift() {
+    // Shifts within the finest level, and beyond the window radius so that coarser levels matter.
+    float[][] shifts = {{0.4f, -0.3f}, {1.3f, 0.7f}, {-5.6f, 4.2f}};
+    for (float[] shift : shifts) {
+      String message = "Shift " + shift[0] + "," + shift[1];
+      KltTracker tracker = new KltTracker(200, 100);
+      tracker.update(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, render(/* seed= */ 1, 0f, 0f, 0));
+      int firstCount = tracker.getTrackCount();
+      float[] firstX = new float[firstCount];
+      float[] firstY = new float[firstCount];
+      for (int i = 0; i < firstCount; i++) {
+        assertEquals(message, i, tracker.getId(i));
+        assertEquals(message, 0, tracker.getAge(i));
+        firstX[i] = tracker.getX(i);
+        firstY[i] = tracker.getY(i);
+      }
+      assertEquals(message, 200, firstCount);
+
+      tracker.update(
+          WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, render(/* seed= */ 1, shift[0], shift[1], 0));
+
+      // Only tracks near the border may be lost, which leaves enough not to detect new corners.
+      int count = tracker.getTrackCount();
+      assertTrue(message + ", " + count + " tracks", count >= 0.9f * firstCount);
+      float distanceSum = 0f;
+      for (int i = 0; i < count; i++) {
+        int id = tracker.getId(i);
+        String trackMessage = message + ", track " + id;
+        assertEquals(trackMessage, 1, tracker.getAge(i));
+        assertEquals(trackMessage, firstX[id], tracker.getPreviousX(i), 0f);
+        assertEquals(trackMessage, firstY[id], tracker.getPreviousY(i), 0f);
+        float distance =
+            (float)
+                Math.hypot(
+                    tracker.getX(i) - (firstX[id] + shift[0]),
+                    tracker.getY(i) - (firstY[id] + shift[1]));
+        assertTrue(trackMessage + ", distance " + distance, distance <= TOLERANCE);
+        distanceSum += distance;
+      }
+      assertTrue(message, distanceSum / count <= MEAN_TOLERANCE);
+    }
+  }
+
+  @Test
+  public void update_detectsNewCornersBelowMinTracks() {
+    // The right half of the second frame has a different texture, so its tracks are lost.
+    int rightHalfSeed = 2;
+    for (int minTracks : new int[] {50, 150}) {
+      String message = "Minimum " + minTracks;
+      KltTracker tracker = new KltTracker(200, minTracks);
+      tracker.update(WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, render(/* seed= */ 1, 0f, 0f, 0));
+      int firstCount = tracker.getTrackCount();
+
+      tracker.update(
+          WIDTH, HEIGHT, ROW_STRIDE, PIXEL_STRIDE, render(/* seed= */ 1, 0f, 0f, rightHalfSeed));
+
+      int trackedCount = 0;
+      int newCount = 0;
+      Set<Integer> ids = new HashSet<>();
+      for (int i = 0; i < tracker.getTrackCount(); i++) {
+        assertTrue(message, ids.add(tracker.getId(i)));
+        if (tracker.getAge(i) == 1) {
+          assertTrue(message, tracker.getId(i) < firstCount);
+          trackedCount++;
+        } else {
+          assertEquals(message, 0, tracker.getAge(i));
+          assertTrue(message, tracker.getId(i) >= firstCount);
+          newCount++;
+        }
+      }
+      assertTrue(message + ", " + trackedCount + " tracked", trackedCount > 50);
+      assertTrue(message + ", " + trackedCount + " tracked", trackedCount < 150);
+      if (minTracks <= trackedCount) {
+        assertEquals(message, 0, newCount);
+      } else {
+        // The cells of the lost tracks have corners of the new texture.
+        assertTrue(message + ", " + newCount + " new", newCount > 50);
+      }
+    }
+  }
+
+  /**
+   * Renders random rectangles with edges blurred over two pixels, so that moving them by a
+   * fraction of a pixel changes the pixels smoothly, with random bytes in the row and pixel
+   * padding.
+   *
+   * @param seed seed of the rectangles.
+   * @param shiftX distance by which the rectangles are moved to the right, in pixels.
+   * @param shiftY distance by which the rectangles are moved down, in pixels.
+   * @param rightHalfSeed seed of different rectangles for the right half of the image, or 0 to
+   *     keep the rectangles of the whole image.
+   */
+  private static ByteBuffer render(int seed, float shiftX, float shiftY, int rightHalfSeed) {
+    float[] levels = renderLevels(seed, shiftX, shiftY);
+    float[] rightLevels = rightHalfSeed == 0 ? levels : renderLevels(rightHalfSeed, 0f, 0f);
+    Random random = new Random(seed);
+    ByteBuffer image = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+    for (int i = 0; i < image.capacity(); i++) {
+      image.put(i, (byte) random.nextInt(256));
+    }
+    for (int y = 0; y < HEIGHT; y++) {
+      for (int x = 0; x < WIDTH; x++) {
+        float level = x < WIDTH / 2 ? levels[y * WIDTH + x] : rightLevels[y * WIDTH + x];
+        image.put(y * ROW_STRIDE + x * PIXEL_STRIDE, (byte) Math.round(level));
+      }
+    }
+    return image;
+  }
+
+  private static float[] renderLevels(int seed, float shiftX, float shiftY) {
+    Random random = new Random(seed);
+    float[] levels = new float[WIDTH * HEIGHT];
+    Arrays.fill(levels, 128f);
+    for (int r = 0; r < 300; r++) {
+      float left = random.nextFloat() * WIDTH + shiftX;
+      float top = random.nextFloat() * HEIGHT + shiftY;
+      float right = left + 8 + random.nextFloat() * 32;
+      float bottom = top + 8 + random.nextFloat() * 32;
+      float level = 16 + random.nextFloat() * 224;
+      for (int y = Math.max(0, (int) top - 2); y < Math.min(HEIGHT, (int) bottom + 2); y++) {
+        float coverageY = Math.min(ramp(y - top), ramp(bottom - y));
+        for (int x = Math.max(0, (int) left - 2); x < Math.min(WIDTH, (int) right + 2); x++) {
+          float coverage = Math.min(coverageY, Math.min(ramp(x - left), ramp(right - x)));
+          levels[y * WIDTH + x] += (level - levels[y * WIDTH + x]) * coverage;
+        }
+      }
+    }
+    return levels;
+  }
+
+  /** Rises from 0 to 1 over the two pixels around an edge. */
+  private static float ramp(float distance) {
+    return Math.max(0f, Math.min(1f, 0.5f + distance / 2f));
+  }
+}
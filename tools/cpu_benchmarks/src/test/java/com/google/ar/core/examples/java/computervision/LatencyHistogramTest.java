@@ -0,0 +1,168 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the bucket math and the percentiles of {@link LatencyHistogram}. */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+  private static final int LAST_BUCKET = LatencyHistogram.BUCKET_COUNT - 1;
+
+  // Percentiles are whole microseconds reported in milliseconds.
+  private static final float DELTA = 1e-6f;
+
+  @Test
+  public void getBucket_countsValuesAtSubBucketAndMagnitudeEdges() {
+    // Values and the buckets counting them: one bucket per value below 16 us, then 8 buckets per
+    // power of two, 2 us wide from 16 us, 4 us wide from 32 us and 8 us wide from 64 us.
+    long[][] buckets = {
+      {0, 0}, {1, 1}, {15, 15},
+      {16, 16}, {17, 16}, {18, 17}, {30, 23}, {31, 23},
+      {32, 24}, {35, 24}, {36, 25}, {63, 31},
+      {64, 32}, {71, 32}, {72, 33}, {127, 39},
+      {128, 40},
+    };
+    for (long[] bucket : buckets) {
+      assertEquals("Value " + bucket[0], bucket[1], LatencyHistogram.getBucket(bucket[0]));
+    }
+  }
+
+  @Test
+  public void getBucket_countsValuesPastLastMagnitudeInLastBucket() {
+    assertEquals(LAST_BUCKET, LatencyHistogram.getBucket((1L << 36) - 1));
+    assertEquals(LAST_BUCKET, LatencyHistogram.getBucket(1L << 36));
+    assertEquals(LAST_BUCKET, LatencyHistogram.getBucket(Long.MAX_VALUE));
+    assertEquals(LAST_BUCKET - 1, LatencyHistogram.getBucket((1L << 36) - (1L << 32) - 1));
+    assertEquals(1L << 36, LatencyHistogram.getBucketUpperBound(LAST_BUCKET));
+  }
+
+  @Test
+  public void getBucketBounds_matchBucketOfEveryEdge() {
+    assertEquals(0, LatencyHistogram.getBucketLowerBound(0));
+    for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+      long lower = LatencyHistogram.getBucketLowerBound(bucket);
+      long upper = LatencyHistogram.getBucketUpperBound(bucket);
+      String message = "Bucket " + bucket + " [" + lower + ", " + upper + ")";
+
+      assertEquals(message, bucket, LatencyHistogram.getBucket(lower));
+      assertEquals(message, bucket, LatencyHistogram.getBucket(upper - 1));
+      if (bucket < LAST_BUCKET) {
+        assertEquals(message, bucket + 1, LatencyHistogram.getBucket(upper));
+        assertEquals(message, upper, LatencyHistogram.getBucketLowerBound(bucket + 1));
+      }
+      // The documented accuracy of 12.5%.
+      assertTrue(message, upper - lower == 1 || (upper - lower) * 8 <= lower);
+    }
+  }
+
+  @Test
+  public void getPercentile_returnsZeroWithoutLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(0f, histogram.getPercentile(0.5), 0f);
+    assertEquals(0f, histogram.getSmoothedLatency(), 0f);
+  }
+
+  @Test
+  public void getPercentile_reportsHighestValueOfBucket() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int micros = 1; micros <= 100; micros++) {
+      histogram.record(micros * 1000L);
+    }
+
+    // Rank 1 is the linear bucket of 1 us.
+    assertEquals(0.001f, histogram.getPercentile(0), DELTA);
+    assertEquals(0.001f, histogram.getPercentile(0.01), DELTA);
+    assertEquals(0.002f, histogram.getPercentile(0.011), DELTA);
+    assertEquals(0.015f, histogram.getPercentile(0.15), DELTA);
+    // Ranks 16 and 17 share the bucket [16, 18).
+    assertEquals(0.017f, histogram.getPercentile(0.16), DELTA);
+    assertEquals(0.017f, histogram.getPercentile(0.17), DELTA);
+    // Rank 50 is in the bucket [48, 52), rank 90 in the bucket [88, 96).
+    assertEquals(0.051f, histogram.getPercentile(0.5), DELTA);
+    assertEquals(0.095f, histogram.getPercentile(0.9), DELTA);
+    // The bucket [96, 104) is capped to the largest recorded value.
+    assertEquals(0.1f, histogram.getPercentile(0.99), DELTA);
+    assertEquals(0.1f, histogram.getPercentile(1), DELTA);
+  }
+
+  @Test
+  public void getPercentile_switchesBucketJustPastRank() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 0; i < 9; i++) {
+      histogram.record(1000L);
+    }
+    histogram.record(1_000_000L);
+
+    assertEquals(0.001f, histogram.getPercentile(0.9), DELTA);
+    assertEquals(1f, histogram.getPercentile(0.91), DELTA);
+  }
+
+  @Test
+  public void record_truncatesToWholeMicroseconds() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(-5L);
+    histogram.record(999L);
+    histogram.record(1999L);
+
+    long[] bucketCounts = new long[LatencyHistogram.BUCKET_COUNT];
+    histogram.getBucketCounts(bucketCounts);
+    assertEquals(2, bucketCounts[0]);
+    assertEquals(1, bucketCounts[1]);
+    assertEquals(3, histogram.getCount());
+  }
+
+  @Test
+  public void getSnapshot_summarizesLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(2_000_000L);
+    histogram.record(4_000_000L);
+    histogram.record(9_000_000L);
+
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+    histogram.getSnapshot(snapshot);
+
+    assertEquals(3, snapshot.count);
+    assertEquals(5f, snapshot.mean, DELTA);
+    assertEquals(9f, snapshot.max, DELTA);
+    // 4000 us is in the bucket [3840, 4096).
+    assertEquals(4.095f, snapshot.p50, DELTA);
+    assertEquals(9f, snapshot.p99, DELTA);
+
+    histogram.reset();
+    histogram.getSnapshot(snapshot);
+    assertEquals(0, snapshot.count);
+    assertEquals(0f, snapshot.mean, 0f);
+    assertEquals(0f, snapshot.max, 0f);
+  }
+
+  @Test
+  public void getSmoothedLatency_startsAtFirstLatency() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10_000_000L);
+    assertEquals(10f, histogram.getSmoothedLatency(), DELTA);
+
+    // Moves 3% of the way towards every new latency.
+    histogram.record(20_000_000L);
+    assertEquals(10.3f, histogram.getSmoothedLatency(), 1e-3f);
+  }
+}
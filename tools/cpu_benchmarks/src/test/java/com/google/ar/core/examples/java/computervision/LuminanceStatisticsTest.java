@@ -0,0 +1,153 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the statistics of known images and the per-frame cache of {@link LuminanceStatistics}. */
+@RunWith(JUnit4.class)
+public class LuminanceStatisticsTest {
+  private static final int ROW_PADDING = 8;
+  private static final int PIXEL_STRIDE = 2;
+
+  private static final float DELTA = 1e-4f;
+
+  @Test
+  public void update_computesStatisticsOfEveryGrayLevel() {
+    // Every gray level once, increasing in row major order.
+    int size = 16;
+    int rowStride = size * PIXEL_STRIDE + ROW_PADDING;
+    ByteBuffer image = createImage(size, size, rowStride, (x, y) -> y * size + x);
+    LuminanceStatistics statistics = new LuminanceStatistics(1, 4, 4);
+
+    assertTrue(statistics.update(1L, size, size, rowStride, PIXEL_STRIDE, image));
+
+    assertEquals(256, statistics.getSampleCount());
+    int[] histogram = new int[LuminanceStatistics.BIN_COUNT];
+    statistics.getHistogram(histogram);
+    int[] expected = new int[LuminanceStatistics.BIN_COUNT];
+    Arrays.fill(expected, 1);
+    assertArrayEquals(expected, histogram);
+    assertEquals(127.5f, statistics.getMean(), DELTA);
+
+    // The smallest level with at least ceil(fraction * 256) samples at or below it.
+    assertEquals(0, statistics.getPercentile(0f));
+    assertEquals(0, statistics.getPercentile(1f / 256));
+    assertEquals(1, statistics.getPercentile(1.01f / 256));
+    assertEquals(25, statistics.getPercentile(0.1f));
+    assertEquals(127, statistics.getPercentile(0.5f));
+    assertEquals(230, statistics.getPercentile(0.9f));
+    assertEquals(255, statistics.getPercentile(1f));
+    assertEquals(205, statistics.getContrast());
+
+    // Each tile covers 4x4 pixels, whose mean is that of their middle column and row.
+    for (int row = 0; row < 4; row++) {
+      for (int column = 0; column < 4; column++) {
+        float mean = (4 * row + 1.5f) * size + 4 * column + 1.5f;
+        assertEquals(column + "," + row, mean, statistics.getTileMean(column, row), DELTA);
+      }
+    }
+  }
+
+  @Test
+  public void update_samplesCentersOfStepCells() {
+    // Sampled pixels are bright, all others dark.
+    int step = LuminanceStatistics.DEFAULT_SAMPLE_STEP;
+    int[][] sizes = {{64, 48}, {63, 47}, {62, 46}, {1, 1}};
+    for (int[] size : sizes) {
+      int width = size[0];
+      int height = size[1];
+      String message = "Size " + width + "x" + height;
+      int rowStride = width * PIXEL_STRIDE + ROW_PADDING;
+      ByteBuffer image =
+          createImage(
+              width,
+              height,
+              rowStride,
+              (x, y) -> x % step == step / 2 && y % step == step / 2 ? 200 : 10);
+      LuminanceStatistics statistics = new LuminanceStatistics();
+
+      statistics.update(1L, width, height, rowStride, PIXEL_STRIDE, image);
+
+      // Samples at step / 2 + k * step inside the image.
+      int samplesX = (width - step / 2 + step - 1) / step;
+      int samplesY = (height - step / 2 + step - 1) / step;
+      assertEquals(message, samplesX * samplesY, statistics.getSampleCount());
+      int[] histogram = new int[LuminanceStatistics.BIN_COUNT];
+      statistics.getHistogram(histogram);
+      assertEquals(message, samplesX * samplesY, histogram[200]);
+      assertEquals(message, samplesX * samplesY > 0 ? 200f : 0f, statistics.getMean(), DELTA);
+    }
+  }
+
+  @Test
+  public void update_keepsCachedStatisticsOfSameFrame() {
+    int width = 32;
+    int height = 24;
+    int rowStride = width * PIXEL_STRIDE + ROW_PADDING;
+    ByteBuffer dark = createImage(width, height, rowStride, (x, y) -> 20);
+    ByteBuffer bright = createImage(width, height, rowStride, (x, y) -> 220);
+    LuminanceStatistics statistics = new LuminanceStatistics();
+
+    assertTrue(statistics.update(5L, width, height, rowStride, PIXEL_STRIDE, dark));
+    assertEquals(5L, statistics.getTimestamp());
+    assertEquals(20f, statistics.getMean(), DELTA);
+
+    // Further callers of the same frame read the cached statistics.
+    assertFalse(statistics.update(5L, width, height, rowStride, PIXEL_STRIDE, bright));
+    assertEquals(20f, statistics.getMean(), DELTA);
+    assertEquals(20, statistics.getPercentile(0.5f));
+
+    // A new timestamp, a new size or a reset scan the image again.
+    assertTrue(statistics.update(6L, width, height, rowStride, PIXEL_STRIDE, bright));
+    assertEquals(220f, statistics.getMean(), DELTA);
+    assertTrue(statistics.update(6L, width / 2, height, rowStride, PIXEL_STRIDE, dark));
+    assertEquals(20f, statistics.getMean(), DELTA);
+    statistics.reset();
+    assertEquals(0f, statistics.getMean(), 0f);
+    assertEquals(0, statistics.getPercentile(0.5f));
+    assertTrue(statistics.update(6L, width / 2, height, rowStride, PIXEL_STRIDE, bright));
+    assertEquals(220f, statistics.getMean(), DELTA);
+  }
+
+  /** Gray level of a pixel of a test image. */
+  private interface Pattern {
+    int getLevel(int x, int y);
+  }
+
+  /** Creates an image of the given pattern, with 0xFF in the row and pixel padding. */
+  private static ByteBuffer createImage(int width, int height, int rowStride, Pattern pattern) {
+    ByteBuffer image = ByteBuffer.allocateDirect(rowStride * height);
+    for (int i = 0; i < image.capacity(); i++) {
+      image.put(i, (byte) 0xFF);
+    }
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        image.put(y * rowStride + x * PIXEL_STRIDE, (byte) pattern.getLevel(x, y));
+      }
+    }
+    return image;
+  }
+}
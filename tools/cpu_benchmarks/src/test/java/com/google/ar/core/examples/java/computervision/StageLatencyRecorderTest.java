@@ -0,0 +1,81 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.ar.core.examples.java.computervision.StageLatencyRecorder.Stage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Checks the file written by {@link StageLatencyRecorder#dump}. */
+@RunWith(JUnit4.class)
+public class StageLatencyRecorderTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void dump_writesSummaryAndNonEmptyBuckets() throws IOException {
+    StageLatencyRecorder recorder = new StageLatencyRecorder();
+    recorder.getHistogram(Stage.DETECT).record(2_000_000L);
+    recorder.getHistogram(Stage.DETECT).record(4_000_000L);
+    recorder.getHistogram(Stage.DRAW).record(15_000L);
+    File file = temporaryFolder.newFile("latency.tsv");
+
+    recorder.dump(file);
+
+    // Percentiles report the highest value of their bucket, 2000 us is in the bucket [1920, 2048).
+    List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+    assertEquals(
+        Arrays.asList(
+            "stage\tcount\tmean\tp50\tp90\tp99\tmax",
+            "SESSION_UPDATE\t0\t0.000\t0.000\t0.000\t0.000\t0.000",
+            "IMAGE_ACQUIRE\t0\t0.000\t0.000\t0.000\t0.000\t0.000",
+            "DETECT\t2\t3.000\t2.047\t4.000\t4.000\t4.000",
+            "ANALYZE\t0\t0.000\t0.000\t0.000\t0.000\t0.000",
+            "TEXTURE_UPLOAD\t0\t0.000\t0.000\t0.000\t0.000\t0.000",
+            "DRAW\t1\t0.015\t0.015\t0.015\t0.015\t0.015",
+            "",
+            "stage\tlower_us\tupper_us\tcount",
+            "DETECT\t1920\t2048\t1",
+            "DETECT\t3840\t4096\t1",
+            "DRAW\t15\t16\t1"),
+        lines);
+  }
+
+  @Test
+  public void reset_removesLatenciesOfEveryStage() {
+    StageLatencyRecorder recorder = new StageLatencyRecorder();
+    for (Stage stage : Stage.values()) {
+      recorder.getHistogram(stage).record(1_000_000L);
+    }
+
+    recorder.reset();
+
+    for (Stage stage : Stage.values()) {
+      assertEquals(stage.toString(), 0, recorder.getHistogram(stage).getCount());
+      assertEquals(stage.toString(), 0f, recorder.getSmoothedLatency(stage), 0f);
+    }
+  }
+}
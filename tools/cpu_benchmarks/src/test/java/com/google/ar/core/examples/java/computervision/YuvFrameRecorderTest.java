@@ -0,0 +1,141 @@
+/*
+ * Copyright 2020 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ar.core.examples.java.computervision;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Checks that {@link YuvFrameReplaySource} replays the frames written by {@link YuvFrameRecorder}.
+ */
+@RunWith(JUnit4.class)
+public class YuvFrameRecorderTest {
+  private static final int FRAME_COUNT = 3;
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+  // Rows are padded, and the chroma planes are interleaved with a pixel stride of 2, like those of
+  // a YUV_420_888 camera image often are.
+  private static final int[] ROW_STRIDES = {WIDTH + 16, WIDTH + 32, WIDTH + 32};
+  private static final int[] PIXEL_STRIDES = {1, 2, 2};
+  private static final long FIRST_TIMESTAMP_NANOS = 123456789012345L;
+  private static final long FRAME_INTERVAL_NANOS = 33333333L;
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void replay_returnsRecordedFrames() throws IOException {
+    File file = temporaryFolder.newFile("frames.yuv");
+    ByteBuffer[][] frames = new ByteBuffer[FRAME_COUNT][];
+    try (YuvFrameRecorder recorder = new YuvFrameRecorder(file)) {
+      for (int i = 0; i < FRAME_COUNT; i++) {
+        frames[i] = createPlanes(/* seed= */ i);
+        recorder.writeFrame(getTimestamp(i), WIDTH, HEIGHT, frames[i], ROW_STRIDES, PIXEL_STRIDES);
+        for (ByteBuffer plane : frames[i]) {
+          assertEquals("Plane position is restored", 0, plane.position());
+        }
+      }
+      assertEquals(FRAME_COUNT, recorder.getFrameCount());
+    }
+
+    try (YuvFrameReplaySource source = new YuvFrameReplaySource(file)) {
+      assertEquals(FRAME_COUNT, source.getFrameCount());
+      for (int i = 0; i < FRAME_COUNT; i++) {
+        assertFrame(i, frames[i], source.getFrame(i));
+      }
+    }
+  }
+
+  @Test
+  public void replay_skipsTruncatedLastFrame() throws IOException {
+    File file = temporaryFolder.newFile("frames.yuv");
+    ByteBuffer[][] frames = new ByteBuffer[FRAME_COUNT][];
+    try (YuvFrameRecorder recorder = new YuvFrameRecorder(file)) {
+      for (int i = 0; i < FRAME_COUNT; i++) {
+        frames[i] = createPlanes(/* seed= */ i);
+        recorder.writeFrame(getTimestamp(i), WIDTH, HEIGHT, frames[i], ROW_STRIDES, PIXEL_STRIDES);
+      }
+    }
+    // Cut the file in the middle of the planes of the last frame, as when recording is stopped
+    // abruptly.
+    try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+      truncated.setLength(truncated.length() - frames[FRAME_COUNT - 1][2].limit() - 10);
+    }
+
+    try (YuvFrameReplaySource source = new YuvFrameReplaySource(file)) {
+      assertEquals(FRAME_COUNT - 1, source.getFrameCount());
+      for (int i = 0; i < FRAME_COUNT - 1; i++) {
+        assertFrame(i, frames[i], source.getFrame(i));
+      }
+    }
+  }
+
+  private static void assertFrame(
+      int index, ByteBuffer[] expectedPlanes, YuvFrameReplaySource.RecordedFrame frame) {
+    String message = "Frame " + index;
+    assertEquals(message, getTimestamp(index), frame.getTimestamp());
+    assertEquals(message, WIDTH, frame.getWidth());
+    assertEquals(message, HEIGHT, frame.getHeight());
+    assertEquals(message, expectedPlanes.length, frame.getPlaneCount());
+    for (int plane = 0; plane < expectedPlanes.length; plane++) {
+      String planeMessage = message + ", plane " + plane;
+      assertEquals(planeMessage, ROW_STRIDES[plane], frame.getRowStride(plane));
+      assertEquals(planeMessage, PIXEL_STRIDES[plane], frame.getPixelStride(plane));
+      ByteBuffer expected = expectedPlanes[plane];
+      ByteBuffer actual = frame.getPlane(plane);
+      assertEquals(planeMessage, expected.limit(), actual.remaining());
+      for (int i = 0; i < expected.limit(); i++) {
+        assertEquals(
+            planeMessage + ", byte " + i, expected.get(i), actual.get(actual.position() + i));
+      }
+    }
+  }
+
+  private static long getTimestamp(int index) {
+    return FIRST_TIMESTAMP_NANOS + index * FRAME_INTERVAL_NANOS;
+  }
+
+  /**
+   * Creates the Y, U and V planes of a frame filled with random bytes, including the padding. Like
+   * those of a camera image, the planes end after the last pixel of their last row.
+   */
+  private static ByteBuffer[] createPlanes(int seed) {
+    Random random = new Random(seed);
+    int[] widths = {WIDTH, WIDTH / 2, WIDTH / 2};
+    int[] heights = {HEIGHT, HEIGHT / 2, HEIGHT / 2};
+    ByteBuffer[] planes = new ByteBuffer[widths.length];
+    for (int plane = 0; plane < planes.length; plane++) {
+      int size =
+          ROW_STRIDES[plane] * (heights[plane] - 1)
+              + PIXEL_STRIDES[plane] * (widths[plane] - 1)
+              + 1;
+      byte[] bytes = new byte[size];
+      random.nextBytes(bytes);
+      planes[plane] = ByteBuffer.allocateDirect(size);
+      planes[plane].put(bytes).rewind();
+    }
+    return planes;
+  }
+}